@@ -188,10 +188,6 @@ public final class DhtConfig extends PropertiesConfig {
 	 * Node最大保存数量
 	 */
 	public static final int MAX_NODE_SIZE = 1024;
-	/**
-	 * DHT超时请求清理执行周期（分钟）
-	 */
-	public static final int DHT_REQUEST_TIMEOUT_INTERVAL = 10;
 	
 	/**
 	 * 请求类型
@@ -20,6 +20,46 @@ public final class DownloadConfig extends PropertiesConfig {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(DownloadConfig.class);
 	
+	/**
+	 * 文件存储模式
+	 * 
+	 * @author acgist
+	 */
+	public enum StorageMode {
+		
+		/**
+		 * 文件通道
+		 * 使用FileChannel绝对位置读写：不同Piece读写不会相互阻塞
+		 */
+		CHANNEL,
+		/**
+		 * 内存映射
+		 * 使用MappedByteBuffer按照区域映射文件：适合大文件做种
+		 */
+		MAPPED;
+		
+	}
+	
+	/**
+	 * Piece挑选模式
+	 * 
+	 * @author acgist
+	 */
+	public enum PickMode {
+		
+		/**
+		 * 稀有优先
+		 * 优先下载拥有Peer最少的Piece：提高种子健康度
+		 */
+		RAREST,
+		/**
+		 * 顺序下载
+		 * 按照Piece索引顺序下载：适合边下边播
+		 */
+		SEQUENTIAL;
+		
+	}
+	
 	/**
 	 * 下载配置文件
 	 */
@@ -71,6 +111,18 @@ public final class DownloadConfig extends PropertiesConfig {
 	 * @see #memoryBuffer
 	 */
 	private static final String DOWNLOAD_MEMORY_BUFFER = "acgist.download.memory.buffer";
+	/**
+	 * 文件存储模式配置名称
+	 * 
+	 * @see #storage
+	 */
+	private static final String DOWNLOAD_STORAGE = "acgist.download.storage";
+	/**
+	 * Piece挑选模式配置名称
+	 * 
+	 * @see #pick
+	 */
+	private static final String DOWNLOAD_PICK = "acgist.download.pick";
 	
 	/**
 	 * 下载目录
@@ -118,6 +170,14 @@ public final class DownloadConfig extends PropertiesConfig {
 	 * @see #memoryBuffer
 	 */
 	private int memoryBufferByte;
+	/**
+	 * 文件存储模式
+	 */
+	private StorageMode storage;
+	/**
+	 * Piece挑选模式
+	 */
+	private PickMode pick;
 	
 	private static final DownloadConfig INSTANCE = new DownloadConfig();
 	
@@ -143,6 +203,8 @@ public final class DownloadConfig extends PropertiesConfig {
 		this.buffer = this.getInteger(DOWNLOAD_BUFFER, 1024);
 		this.lastPath = this.getString(DOWNLOAD_LAST_PATH);
 		this.memoryBuffer = this.getInteger(DOWNLOAD_MEMORY_BUFFER, 8);
+		this.storage = this.getStorageMode(this.getString(DOWNLOAD_STORAGE));
+		this.pick = this.getPickMode(this.getString(DOWNLOAD_PICK));
 		// 记录日志
 		LOGGER.debug("下载目录：{}", this.path);
 		LOGGER.debug("下载数量：{}", this.size);
@@ -151,6 +213,8 @@ public final class DownloadConfig extends PropertiesConfig {
 		LOGGER.debug("下载速度（单个）（KB）：{}", this.buffer);
 		LOGGER.debug("最后一次选择目录：{}", this.lastPath);
 		LOGGER.debug("磁盘缓存（单个）（MB）：{}", this.memoryBuffer);
+		LOGGER.debug("文件存储模式：{}", this.storage);
+		LOGGER.debug("Piece挑选模式：{}", this.pick);
 	}
 	
 	@Override
@@ -163,6 +227,8 @@ public final class DownloadConfig extends PropertiesConfig {
 		data.put(DOWNLOAD_BUFFER, Objects.toString(this.buffer, "1024"));
 		data.put(DOWNLOAD_LAST_PATH, this.lastPath);
 		data.put(DOWNLOAD_MEMORY_BUFFER, Objects.toString(this.memoryBuffer, "8"));
+		data.put(DOWNLOAD_STORAGE, Objects.toString(this.storage, StorageMode.CHANNEL.name()));
+		data.put(DOWNLOAD_PICK, Objects.toString(this.pick, PickMode.RAREST.name()));
 		this.persistent(data, DOWNLOAD_CONFIG);
 	}
 	
@@ -390,4 +456,82 @@ public final class DownloadConfig extends PropertiesConfig {
 		this.memoryBufferByte = this.memoryBuffer * SystemConfig.ONE_MB;
 	}
 	
+	/**
+	 * @param storage 文件存储模式
+	 */
+	public static final void setStorage(StorageMode storage) {
+		if(storage == null || INSTANCE.storage == storage) {
+			return;
+		}
+		INSTANCE.storage = storage;
+		INSTANCE.persistent();
+	}
+	
+	/**
+	 * 修改存储模式只对新建文件流生效
+	 * 
+	 * @return 文件存储模式
+	 */
+	public static final StorageMode getStorage() {
+		return INSTANCE.storage;
+	}
+	
+	/**
+	 * 配置错误使用默认模式：{@link StorageMode#CHANNEL}
+	 * 
+	 * @param value 文件存储模式配置
+	 * 
+	 * @return 文件存储模式
+	 */
+	private StorageMode getStorageMode(String value) {
+		if(StringUtils.isEmpty(value)) {
+			return StorageMode.CHANNEL;
+		}
+		try {
+			return StorageMode.valueOf(value.strip().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			LOGGER.warn("文件存储模式配置错误：{}", value);
+		}
+		return StorageMode.CHANNEL;
+	}
+	
+	/**
+	 * @param pick Piece挑选模式
+	 */
+	public static final void setPick(PickMode pick) {
+		if(pick == null || INSTANCE.pick == pick) {
+			return;
+		}
+		INSTANCE.pick = pick;
+		INSTANCE.persistent();
+	}
+	
+	/**
+	 * 指定下载Piece索引（边下边播）时使用顺序下载
+	 * 
+	 * @return Piece挑选模式
+	 */
+	public static final PickMode getPick() {
+		return INSTANCE.pick;
+	}
+	
+	/**
+	 * 配置错误使用默认模式：{@link PickMode#RAREST}
+	 * 
+	 * @param value Piece挑选模式配置
+	 * 
+	 * @return Piece挑选模式
+	 */
+	private PickMode getPickMode(String value) {
+		if(StringUtils.isEmpty(value)) {
+			return PickMode.RAREST;
+		}
+		try {
+			return PickMode.valueOf(value.strip().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			LOGGER.warn("Piece挑选模式配置错误：{}", value);
+		}
+		return PickMode.RAREST;
+	}
+	
 }
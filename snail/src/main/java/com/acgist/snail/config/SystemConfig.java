@@ -251,6 +251,10 @@ public final class SystemConfig extends PropertiesConfig {
 	 * Peer（连接、接入）优化周期（秒）
 	 */
 	private int peerOptimizeInterval;
+	/**
+	 * 缓冲池泄漏检测
+	 */
+	private boolean bufferLeak;
 	/**
 	 * 软件信息
 	 * 
@@ -304,6 +308,7 @@ public final class SystemConfig extends PropertiesConfig {
 		this.stunInterval = this.getInteger("acgist.system.stun.interval", 30);
 		this.trackerInterval = this.getInteger("acgist.system.tracker.interval", 120);
 		this.peerOptimizeInterval = this.getInteger("acgist.system.peer.optimize.interval", 60);
+		this.bufferLeak = this.getBoolean("acgist.system.buffer.leak", false);
 		this.nameEnAndVersion = SymbolConfig.Symbol.SPACE.join(this.nameEn, this.version);
 		// 记录日志
 		LOGGER.debug("软件名称：{}", this.name);
@@ -328,6 +333,7 @@ public final class SystemConfig extends PropertiesConfig {
 		LOGGER.debug("Stun消息执行周期（秒）：{}", this.stunInterval);
 		LOGGER.debug("Tracker执行周期（秒）：{}", this.trackerInterval);
 		LOGGER.debug("Peer（连接、接入）优化周期（秒）：{}", this.peerOptimizeInterval);
+		LOGGER.debug("缓冲池泄漏检测：{}", this.bufferLeak);
 		LOGGER.debug("软件信息：{}", this.nameEnAndVersion);
 	}
 
@@ -511,6 +517,13 @@ public final class SystemConfig extends PropertiesConfig {
 	public static final int getPeerOptimizeInterval() {
 		return INSTANCE.peerOptimizeInterval;
 	}
+	
+	/**
+	 * @return 缓冲池泄漏检测
+	 */
+	public static final boolean getBufferLeak() {
+		return INSTANCE.bufferLeak;
+	}
 
 	/**
 	 * @return 软件信息
@@ -123,13 +123,23 @@ public final class UtpConfig {
 	 */
 	public static final int HEADER_MIN_LENGTH = 20;
 	/**
-	 * UTP扩展
+	 * UTP扩展：没有扩展
 	 */
 	public static final byte EXTENSION = 0;
+	/**
+	 * UTP扩展：选择确认（SACK）
+	 */
+	public static final byte EXTENSION_SACK = 1;
 	/**
 	 * UTP扩展消息最小长度
+	 * 下一个扩展（1字节）+ 扩展长度（1字节）
 	 */
 	public static final int EXTENSION_MIN_LENGTH = 2;
+	/**
+	 * UTP选择确认最大长度（字节）
+	 * 最多确认256个数据包（每个数据包1位）
+	 */
+	public static final int SACK_MAX_LENGTH = 32;
 	/**
 	 * UTP最大包长度
 	 * UDP最大包长度：1500 - 20（IP头） - 8（UDP头） = 1472
@@ -148,7 +158,8 @@ public final class UtpConfig {
 	 */
 	public static final byte MAX_PUSH_TIMES = 3;
 	/**
-	 * 快速重传发送ACK次数
+	 * 快速重传重复ACK次数
+	 * 选择确认：后续已经确认的数据包数量
 	 */
 	public static final byte FAST_ACK_RETRY_TIMES = 3;
 	
@@ -24,17 +24,23 @@ public interface IStatisticsSession extends ISpeedGetter, IStatisticsGetter {
 	
 	/**
 	 * 上传限速
+	 * 不会阻塞线程：调用者根据等待时间延迟后续上传
 	 * 
 	 * @param buffer 上传数据大小
+	 * 
+	 * @return 等待时间（毫秒）
 	 */
-	void uploadLimit(int buffer);
+	long uploadLimit(int buffer);
 	
 	/**
 	 * 下载限速
+	 * 不会阻塞线程：调用者根据等待时间延迟后续下载
 	 * 
 	 * @param buffer 下载数据大小
+	 * 
+	 * @return 等待时间（毫秒）
 	 */
-	void downloadLimit(int buffer);
+	long downloadLimit(int buffer);
 	
 	/**
 	 * 设置累计上传大小
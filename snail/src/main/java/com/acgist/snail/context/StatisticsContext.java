@@ -1,5 +1,7 @@
 package com.acgist.snail.context;
 
+import java.util.concurrent.atomic.LongAdder;
+
 import com.acgist.snail.context.session.StatisticsSession;
 
 /**
@@ -17,8 +19,19 @@ public final class StatisticsContext extends StatisticsGetter implements IContex
 		return INSTANCE;
 	}
 	
+	/**
+	 * 读取缓存命中次数
+	 */
+	private final LongAdder readCacheHit;
+	/**
+	 * 读取缓存没有命中次数
+	 */
+	private final LongAdder readCacheMiss;
+	
 	private StatisticsContext() {
 		super(new StatisticsSession());
+		this.readCacheHit = new LongAdder();
+		this.readCacheMiss = new LongAdder();
 	}
 	
 	@Override
@@ -45,5 +58,44 @@ public final class StatisticsContext extends StatisticsGetter implements IContex
 	public void resetDownloadSpeed() {
 		this.statistics.resetDownloadSpeed();
 	}
+	
+	/**
+	 * 统计读取缓存命中
+	 */
+	public void readCacheHit() {
+		this.readCacheHit.increment();
+	}
+	
+	/**
+	 * 统计读取缓存没有命中
+	 */
+	public void readCacheMiss() {
+		this.readCacheMiss.increment();
+	}
+	
+	/**
+	 * @return 读取缓存命中次数
+	 */
+	public long readCacheHitCount() {
+		return this.readCacheHit.sum();
+	}
+	
+	/**
+	 * @return 读取缓存没有命中次数
+	 */
+	public long readCacheMissCount() {
+		return this.readCacheMiss.sum();
+	}
+	
+	/**
+	 * 没有读取返回：0
+	 * 
+	 * @return 读取缓存命中率（百分比）
+	 */
+	public int readCacheHitRate() {
+		final long hit = this.readCacheHit.sum();
+		final long total = hit + this.readCacheMiss.sum();
+		return total == 0L ? 0 : (int) (hit * 100 / total);
+	}
 
 }
@@ -14,6 +14,10 @@ import com.acgist.snail.net.TcpClient;
 import com.acgist.snail.net.TcpServer;
 import com.acgist.snail.net.UdpServer;
 import com.acgist.snail.net.http.HttpClient;
+import com.acgist.snail.net.torrent.TorrentWriteCache;
+import com.acgist.snail.net.torrent.dht.DhtContext;
+import com.acgist.snail.net.torrent.utp.UtpContext;
+import com.acgist.snail.net.torrent.peer.PeerConnect;
 import com.acgist.snail.utils.FileUtils;
 
 /**
@@ -176,6 +180,10 @@ public final class SystemContext implements IContext {
 				TcpClient.shutdown();
 				TcpServer.shutdown();
 				UdpServer.shutdown();
+				PeerConnect.shutdown();
+				TorrentWriteCache.shutdown();
+				DhtContext.shutdown();
+				UtpContext.shutdown();
 				// 关闭线程池
 				SystemThreadContext.shutdown();
 				LOGGER.info("系统已关闭");
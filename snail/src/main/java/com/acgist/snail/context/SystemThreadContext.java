@@ -66,10 +66,34 @@ public final class SystemThreadContext implements IContext {
 	 * TCP服务端线程名称
 	 */
 	public static final String SNAIL_THREAD_TCP_SERVER = SNAIL_THREAD + "-TCP-Server";
+	/**
+	 * Peer请求调度线程名称
+	 */
+	public static final String SNAIL_THREAD_PEER_REQUEST = SNAIL_THREAD_BT + "-Peer-Request";
+	/**
+	 * Peer请求执行线程名称
+	 */
+	public static final String SNAIL_THREAD_PEER_WORKER = SNAIL_THREAD_BT + "-Peer-Worker";
+	/**
+	 * Piece写入缓存刷出线程名称
+	 */
+	public static final String SNAIL_THREAD_FLUSH = SNAIL_THREAD_BT + "-Flush";
+	/**
+	 * DHT请求超时时间轮线程名称
+	 */
+	public static final String SNAIL_THREAD_DHT_TIMER = SNAIL_THREAD_BT + "-DHT-Timer";
+	/**
+	 * UTP重传超时时间轮线程名称
+	 */
+	public static final String SNAIL_THREAD_UTP_TIMER = SNAIL_THREAD_BT + "-UTP-Timer";
 	/**
 	 * 下载器线程名称
 	 */
 	public static final String SNAIL_THREAD_DOWNLOADER = SNAIL_THREAD + "-Downloader";
+	/**
+	 * 日志线程名称
+	 */
+	public static final String SNAIL_THREAD_LOGGER = SNAIL_THREAD + "-Logger";
 	/**
 	 * 系统线程池：异步执行、防止卡顿
 	 */
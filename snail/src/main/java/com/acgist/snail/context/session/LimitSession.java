@@ -1,13 +1,16 @@
 package com.acgist.snail.context.session;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 import com.acgist.snail.config.DownloadConfig;
-import com.acgist.snail.config.SystemConfig;
-import com.acgist.snail.utils.ThreadUtils;
 
 /**
  * 限速信息
+ * 令牌桶（GCRA）：记录理论到达时间，每次获取令牌按照数据大小推进理论到达时间，超过突发时间的部分就是需要等待的时间。
+ * 不会阻塞线程也不会加锁：调用者根据返回的等待时间延迟后续读取或者请求。
+ * 令牌按照获取顺序预约时间：多个调用者公平分享带宽。
  * 
  * @author acgist
  */
@@ -19,7 +22,7 @@ public final class LimitSession {
 	 * @author acgist
 	 */
 	public enum Type {
-		
+
 		/**
 		 * 上传
 		 */
@@ -28,74 +31,67 @@ public final class LimitSession {
 		 * 下载
 		 */
 		DOWNLOAD;
-		
+	
 	}
 	
 	/**
-	 * 限制类型
+	 * 突发时间（纳秒）
+	 * 空闲以后允许立即通过一秒的数据
 	 */
-	private final Type type;
+	public static final long BURST_TIME = TimeUnit.SECONDS.toNanos(1);
+	
 	/**
-	 * 限速采样
+	 * 限制速度（字节/秒）
+	 * 不能设置成常量：设置限速实时生效
 	 */
-	private final AtomicLong limitBuffer;
+	private final LongSupplier maxLimitBuffer;
 	/**
-	 * 最后一次采样时间
+	 * 理论到达时间（纳秒）
 	 */
-	private volatile long limitBufferTime;
+	private final AtomicLong arrivalTime;
 	
 	/**
 	 * @param type 限制类型
 	 */
 	public LimitSession(Type type) {
-		this.type = type;
-		this.limitBuffer = new AtomicLong(0);
-		this.limitBufferTime = System.currentTimeMillis();
+		this(type == Type.UPLOAD ? DownloadConfig::getUploadBufferByte : DownloadConfig::getDownloadBufferByte);
 	}
 	
 	/**
-	 * 限制速度
-	 * 
-	 * @param buffer 数据大小
+	 * @param maxLimitBuffer 限制速度（字节/秒：小于等于零不限速）
 	 */
-	public void limit(long buffer) {
-		final long interval = System.currentTimeMillis() - this.limitBufferTime;
-		final long maxLimitBuffer = this.maxLimitBuffer();
-		final long limitBufferValue = this.limitBuffer.addAndGet(buffer);
-		// 下载数据超过限速大小或者采样时间大于一秒进入限速
-		if(limitBufferValue >= maxLimitBuffer || interval >= SystemConfig.ONE_SECOND_MILLIS) {
-			// 限速控制
-			synchronized (this.limitBuffer) {
-				// 双重验证
-				if(limitBufferValue == this.limitBuffer.get()) {
-					// 通过实际下载大小计算：不能直接使用一秒如果缓存较大就会出现误差
-					final long expectTime = limitBufferValue * SystemConfig.ONE_SECOND_MILLIS / maxLimitBuffer;
-					if(interval < expectTime) {
-						// 限速时间：不要释放锁
-						ThreadUtils.sleep(expectTime - interval);
-					}
-					// 清零：不能在休眠前清零
-					this.limitBuffer.set(0);
-					this.limitBufferTime = System.currentTimeMillis();
-				} else {
-					// 防止误差：阻塞后再计算
-					this.limitBuffer.addAndGet(buffer);
-				}
-			}
-		}
+	public LimitSession(LongSupplier maxLimitBuffer) {
+		this.maxLimitBuffer = maxLimitBuffer;
+		this.arrivalTime = new AtomicLong(System.nanoTime());
 	}
 	
 	/**
-	 * 不能初始化成常量：设置限速实时生效
+	 * 限制速度
+	 * 
+	 * @param buffer 数据大小
 	 * 
-	 * @return 限制速度
+	 * @return 等待时间（毫秒）
 	 */
-	private long maxLimitBuffer() {
-		if(this.type == Type.UPLOAD) {
-			return DownloadConfig.getUploadBufferByte();
-		} else {
-			return DownloadConfig.getDownloadBufferByte();
+	public long limit(long buffer) {
+		final long maxLimitBuffer = this.maxLimitBuffer.getAsLong();
+		if(buffer <= 0L || maxLimitBuffer <= 0L) {
+			return 0L;
 		}
+		final long cost = buffer * BURST_TIME / maxLimitBuffer;
+		final long now = System.nanoTime();
+		long arrivalTime;
+		long nextArrivalTime;
+		do {
+			arrivalTime = this.arrivalTime.get();
+			// 空闲时间不能累积超过突发时间
+			nextArrivalTime = Math.max(arrivalTime, now) + cost;
+		} while(!this.arrivalTime.compareAndSet(arrivalTime, nextArrivalTime));
+		final long delay = nextArrivalTime - now - BURST_TIME;
+		if(delay <= 0L) {
+			return 0L;
+		}
+		// 向上取整：防止提前发送
+		return TimeUnit.NANOSECONDS.toMillis(delay + TimeUnit.MILLISECONDS.toNanos(1) - 1);
 	}
-	
+
 }
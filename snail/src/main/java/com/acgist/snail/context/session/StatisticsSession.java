@@ -114,30 +114,40 @@ public final class StatisticsSession implements IStatisticsSession {
 		this.downloadSize.addAndGet(buffer);
 	}
 
+	/**
+	 * 任务限速：只有任务统计开启限速（全局和Peer统计只统计不限速），等待时间取所有开启限速层级的最大值。
+	 */
 	@Override
-	public void uploadLimit(int buffer) {
+	public long uploadLimit(int buffer) {
+		long delay = 0L;
 		if(this.parent != null) {
-			this.parent.uploadLimit(buffer);
+			delay = this.parent.uploadLimit(buffer);
 		}
 		if(this.limit) {
-			this.uploadLimit.limit(buffer);
+			delay = Math.max(delay, this.uploadLimit.limit(buffer));
 		}
 		if(this.speed) {
 			this.uploadSpeed.buffer(buffer);
 		}
+		return delay;
 	}
 	
+	/**
+	 * 任务限速：只有任务统计开启限速（全局和Peer统计只统计不限速），等待时间取所有开启限速层级的最大值。
+	 */
 	@Override
-	public void downloadLimit(int buffer) {
+	public long downloadLimit(int buffer) {
+		long delay = 0L;
 		if(this.parent != null) {
-			this.parent.downloadLimit(buffer);
+			delay = this.parent.downloadLimit(buffer);
 		}
 		if(this.limit) {
-			this.downloadLimit.limit(buffer);
+			delay = Math.max(delay, this.downloadLimit.limit(buffer));
 		}
 		if(this.speed) {
 			this.downloadSpeed.buffer(buffer);
 		}
+		return delay;
 	}
 	
 	@Override
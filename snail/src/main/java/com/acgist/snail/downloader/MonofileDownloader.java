@@ -16,6 +16,7 @@ import com.acgist.snail.context.ITaskSession;
 import com.acgist.snail.net.DownloadException;
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.utils.IoUtils;
+import com.acgist.snail.utils.ThreadUtils;
 
 /**
  * 单文件任务下载器
@@ -59,6 +60,7 @@ public abstract class MonofileDownloader extends Downloader {
 	@Override
 	public void download() throws DownloadException {
 		int length = 0;
+		long delay = 0L;
 		final long fileSize = this.taskSession.getSize();
 		final ByteBuffer buffer = ByteBuffer.allocateDirect(SystemConfig.DEFAULT_EXCHANGE_LENGTH);
 		try {
@@ -69,8 +71,12 @@ public abstract class MonofileDownloader extends Downloader {
 					this.output.write(buffer);
 					buffer.compact();
 					this.statistics.download(length);
-					this.statistics.downloadLimit(length);
+					delay = this.statistics.downloadLimit(length);
 					this.fastCheckTime = System.currentTimeMillis();
+					if(delay > 0L) {
+						// 限速：任务线程延迟读取（没有持有任何锁）
+						ThreadUtils.sleep(delay);
+					}
 				}
 				if(Downloader.checkFinish(length, this.taskSession.downloadSize(), fileSize)) {
 					this.completed = true;
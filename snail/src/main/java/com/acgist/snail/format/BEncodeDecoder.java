@@ -1,8 +1,7 @@
 package com.acgist.snail.format;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -12,15 +11,15 @@ import java.util.Objects;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.PacketSizeException;
-import com.acgist.snail.utils.ByteUtils;
 import com.acgist.snail.utils.CollectionUtils;
 import com.acgist.snail.utils.ListUtils;
 import com.acgist.snail.utils.MapUtils;
-import com.acgist.snail.utils.StringUtils;
 
 /**
  * B编码解码器
  * 除了Long其他类型均为byte[]
+ * 游标解码：直接使用索引读取缓冲区，不用复制数据，解码期间不能修改原始数据。
+ * 只需要读取部分数据时可以使用{@link #nextValue(String)}、{@link #nextSlice(String)}跳过其他数据，不用新建Map。
  * 
  * @author acgist
  */
@@ -70,6 +69,10 @@ public final class BEncodeDecoder {
 	 * 分隔符
 	 */
 	public static final char SEPARATOR = ':';
+	/**
+	 * 负号
+	 */
+	private static final char MINUS = '-';
 	/**
 	 * B编码最短数据长度：开始结束符号
 	 */
@@ -89,18 +92,29 @@ public final class BEncodeDecoder {
 	private Map<String, Object> map;
 	/**
 	 * 原始数据
+	 * 使用绝对索引读取：不会修改缓冲区位置
 	 */
-	private final ByteArrayInputStream inputStream;
+	private final ByteBuffer buffer;
+	/**
+	 * 游标：下一个读取索引
+	 */
+	private int position;
+	/**
+	 * 数据结束索引
+	 */
+	private final int limit;
 	
 	/**
-	 * @param bytes 数据
+	 * @param buffer 数据
 	 */
-	private BEncodeDecoder(byte[] bytes) {
-		Objects.requireNonNull(bytes, "B编码内容错误");
-		if(bytes.length < MIN_CONTENT_LENGTH) {
+	private BEncodeDecoder(ByteBuffer buffer) {
+		Objects.requireNonNull(buffer, "B编码内容错误");
+		if(buffer.remaining() < MIN_CONTENT_LENGTH) {
 			throw new IllegalArgumentException("B编码内容错误");
 		}
-		this.inputStream = new ByteArrayInputStream(bytes);
+		this.buffer = buffer;
+		this.position = buffer.position();
+		this.limit = buffer.limit();
 	}
 	
 	/**
@@ -111,7 +125,8 @@ public final class BEncodeDecoder {
 	 * @return {@link BEncodeDecoder}
 	 */
 	public static final BEncodeDecoder newInstance(byte[] bytes) {
-		return new BEncodeDecoder(bytes);
+		Objects.requireNonNull(bytes, "B编码内容错误");
+		return new BEncodeDecoder(ByteBuffer.wrap(bytes));
 	}
 	
 	/**
@@ -123,11 +138,12 @@ public final class BEncodeDecoder {
 	 */
 	public static final BEncodeDecoder newInstance(String content) {
 		Objects.requireNonNull(content, "B编码内容错误");
-		return new BEncodeDecoder(content.getBytes());
+		return newInstance(content.getBytes());
 	}
 	
 	/**
 	 * 新建B编码解码器
+	 * 不会复制数据：读取缓冲区剩余数据，读取完成缓冲区位置移动到结束位置。
 	 * 
 	 * @param buffer 数据
 	 * 
@@ -135,7 +151,9 @@ public final class BEncodeDecoder {
 	 */
 	public static final BEncodeDecoder newInstance(ByteBuffer buffer) {
 		Objects.requireNonNull(buffer, "B编码内容错误");
-		return new BEncodeDecoder(ByteUtils.remainingToBytes(buffer));
+		final BEncodeDecoder decoder = new BEncodeDecoder(buffer.duplicate());
+		buffer.position(buffer.limit());
+		return decoder;
 	}
 	
 	/**
@@ -186,19 +204,18 @@ public final class BEncodeDecoder {
 	 */
 	public Type nextType() throws PacketSizeException {
 		// 是否含有数据
-		final boolean none = this.inputStream == null || this.inputStream.available() <= 0;
-		if(none) {
+		if(this.position >= this.limit) {
 			this.type = Type.NONE;
 			return this.type;
 		}
-		final char charType = (char) this.inputStream.read();
+		final char charType = (char) this.buffer.get(this.position++);
 		switch (charType) {
 		case TYPE_D:
-			this.map = readMap(this.inputStream);
+			this.map = this.readMap();
 			this.type = Type.MAP;
 			break;
 		case TYPE_L:
-			this.list = readList(this.inputStream);
+			this.list = this.readList();
 			this.type = Type.LIST;
 			break;
 		default:
@@ -247,41 +264,242 @@ public final class BEncodeDecoder {
 		return Map.of();
 	}
 	
+	/**
+	 * 读取下一个Map指定键的值
+	 * 只解析指定键的值，其他数据直接跳过，读取完成游标移动到Map结束位置。
+	 * 
+	 * @param key 键
+	 * 
+	 * @return 值（没有数据：{@code null}）
+	 * 
+	 * @throws PacketSizeException 网络包大小异常
+	 */
+	public Object nextValue(String key) throws PacketSizeException {
+		final int index = this.find(key);
+		if(index < 0) {
+			return null;
+		}
+		final int position = this.position;
+		this.position = index;
+		try {
+			return this.readValue();
+		} finally {
+			this.position = position;
+		}
+	}
+	
+	/**
+	 * 读取下一个Map指定键的原始数据
+	 * 原始数据（只读）和解码器共享数据：可以用来计算种子InfoHash，读取完成游标移动到Map结束位置。
+	 * 
+	 * @param key 键
+	 * 
+	 * @return 原始数据（没有数据：{@code null}）
+	 * 
+	 * @throws PacketSizeException 网络包大小异常
+	 */
+	public ByteBuffer nextSlice(String key) throws PacketSizeException {
+		final int index = this.find(key);
+		if(index < 0) {
+			return null;
+		}
+		return this.buffer.slice(index, this.skip(index) - index).asReadOnlyBuffer();
+	}
+	
 	/**
 	 * 读取剩余所有字节数组
 	 * 
 	 * @return 剩余所有字节数组
 	 */
 	public byte[] oddBytes() {
-		if(this.inputStream == null) {
+		if(this.position >= this.limit) {
 			return new byte[0];
 		}
-		return this.inputStream.readAllBytes();
+		final byte[] bytes = new byte[this.limit - this.position];
+		this.buffer.get(this.position, bytes);
+		this.position = this.limit;
+		return bytes;
 	}
-
+	
 	/**
-	 * 读取数值
+	 * 查找下一个Map指定键的值
+	 * 
+	 * @param key 键
+	 * 
+	 * @return 值的开始索引（没有数据：{@code -1}）
+	 * 
+	 * @throws PacketSizeException 网络包大小异常
+	 */
+	private int find(String key) throws PacketSizeException {
+		if(this.position >= this.limit || this.buffer.get(this.position) != TYPE_D) {
+			LOGGER.warn("B编码解析Map类型错误：{}", this.position);
+			return -1;
+		}
+		final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		int value = -1;
+		int index = this.position + 1;
+		while(this.byteAt(index) != TYPE_E) {
+			final int keyEnd = this.skip(index);
+			if(value < 0 && this.equals(index, keyEnd, keyBytes)) {
+				value = keyEnd;
+			}
+			index = this.skip(keyEnd);
+		}
+		this.position = index + 1;
+		return value;
+	}
+	
+	/**
+	 * 跳过数据
+	 * 
+	 * @param index 数据开始索引
+	 * 
+	 * @return 数据结束索引（不含）
+	 * 
+	 * @throws PacketSizeException 网络包大小异常
+	 */
+	private int skip(int index) throws PacketSizeException {
+		final byte value = this.byteAt(index);
+		switch (value) {
+			case TYPE_I -> {
+				while(this.byteAt(++index) != TYPE_E) {
+				}
+				return index + 1;
+			}
+			case TYPE_L, TYPE_D -> {
+				index++;
+				while(this.byteAt(index) != TYPE_E) {
+					index = this.skip(index);
+				}
+				return index + 1;
+			}
+			default -> {
+				int length = 0;
+				byte digit;
+				while((digit = this.byteAt(index++)) != SEPARATOR) {
+					length = this.digit(length, digit);
+				}
+				PacketSizeException.verify(length);
+				if(length > this.limit - index) {
+					throw new IllegalArgumentException("B编码错误（长度）：" + length);
+				}
+				return index + length;
+			}
+		}
+	}
+	
+	/**
+	 * 读取字节
 	 * 
-	 * @param inputStream 数据
+	 * @param index 索引
+	 * 
+	 * @return 字节
+	 */
+	private byte byteAt(int index) {
+		if(index >= this.limit) {
+			throw new IllegalArgumentException("B编码错误（数据不完整）");
+		}
+		return this.buffer.get(index);
+	}
+	
+	/**
+	 * 判断键是否相等
+	 * 
+	 * @param index 键开始索引
+	 * @param end 键结束索引（不含）
+	 * @param bytes 键
+	 * 
+	 * @return 是否相等
+	 */
+	private boolean equals(int index, int end, byte[] bytes) {
+		// 跳过长度
+		while(this.byteAt(index++) != SEPARATOR) {
+		}
+		if(end - index != bytes.length) {
+			return false;
+		}
+		for (int jndex = 0; jndex < bytes.length; jndex++) {
+			if(this.buffer.get(index + jndex) != bytes[jndex]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * 累加数值
+	 * 
+	 * @param value 当前数值
+	 * @param digit 数字字符
+	 * 
+	 * @return 数值
+	 */
+	private int digit(int value, byte digit) {
+		if(digit < '0' || digit > '9') {
+			throw new IllegalArgumentException("B编码错误（数值）：" + (char) digit);
+		}
+		final int number = value * 10 + (digit - '0');
+		if(number < value) {
+			throw new IllegalArgumentException("B编码错误（数值溢出）");
+		}
+		return number;
+	}
+	
+	/**
+	 * 读取数据
+	 * 
+	 * @return 数据
+	 * 
+	 * @throws PacketSizeException 网络包大小异常
+	 */
+	private Object readValue() throws PacketSizeException {
+		final byte value = this.byteAt(this.position++);
+		return switch (value) {
+			case TYPE_I -> this.readLong();
+			case TYPE_L -> this.readList();
+			case TYPE_D -> this.readMap();
+			default -> this.readBytes(value);
+		};
+	}
+	
+	/**
+	 * 读取数值
+	 * 使用负数累加：可以读取{@link Long#MIN_VALUE}
 	 * 
 	 * @return 数值
 	 * 
+	 * @throws PacketSizeException 网络包大小异常（数值溢出）
+	 * 
 	 * @see #TYPE_I
 	 */
-	private static final Long readLong(ByteArrayInputStream inputStream) {
-		int index;
-		char indexChar;
-		final StringBuilder valueBuilder = new StringBuilder();
-		while((index = inputStream.read()) != -1) {
-			indexChar = (char) index;
-			if(indexChar == TYPE_E) {
-				final var number = valueBuilder.toString();
-				if(!StringUtils.isNumeric(number)) {
-					throw new IllegalArgumentException("B编码错误（数值）：" + number);
+	private Long readLong() throws PacketSizeException {
+		long value = 0L;
+		boolean negative = false;
+		final int begin = this.position;
+		byte digit;
+		while(this.position < this.limit) {
+			digit = this.buffer.get(this.position++);
+			if(digit == TYPE_E) {
+				if(this.position - begin == 1) {
+					throw new IllegalArgumentException("B编码错误（数值）");
+				}
+				if(negative) {
+					return value;
+				}
+				if(value == Long.MIN_VALUE) {
+					throw new PacketSizeException("B编码错误（数值溢出）");
+				}
+				return -value;
+			} else if(digit == MINUS && this.position - begin == 1) {
+				negative = true;
+			} else if(digit >= '0' && digit <= '9') {
+				try {
+					value = Math.subtractExact(Math.multiplyExact(value, 10L), digit - '0');
+				} catch (ArithmeticException e) {
+					throw new PacketSizeException("B编码错误（数值溢出）", e);
 				}
-				return Long.valueOf(number);
 			} else {
-				valueBuilder.append(indexChar);
+				throw new IllegalArgumentException("B编码错误（数值）：" + (char) digit);
 			}
 		}
 		return 0L;
@@ -290,37 +508,26 @@ public final class BEncodeDecoder {
 	/**
 	 * 读取List
 	 * 
-	 * @param inputStream 数据
-	 * 
 	 * @return List
 	 * 
 	 * @throws PacketSizeException 网络包大小异常
 	 * 
 	 * @see #TYPE_L
 	 */
-	private static final List<Object> readList(ByteArrayInputStream inputStream) throws PacketSizeException {
-		int index;
-		char indexChar;
+	private List<Object> readList() throws PacketSizeException {
+		byte value;
 		final List<Object> list = new ArrayList<>();
-		final StringBuilder lengthBuilder = new StringBuilder();
-		while ((index = inputStream.read()) != -1) {
-			indexChar = (char) index;
-			switch (indexChar) {
+		while (this.position < this.limit) {
+			value = this.buffer.get(this.position++);
+			switch (value) {
 				case TYPE_E -> {
 					return list;
 				}
-				case TYPE_I -> list.add(readLong(inputStream));
-				case TYPE_L -> list.add(readList(inputStream));
-				case TYPE_D -> list.add(readMap(inputStream));
-				case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> lengthBuilder.append(indexChar);
-				case SEPARATOR -> {
-					if(lengthBuilder.length() > 0) {
-						list.add(readBytes(lengthBuilder, inputStream));
-					} else {
-						LOGGER.warn("B编码错误（长度）：{}", lengthBuilder);
-					}
-				}
-				default -> LOGGER.warn("B编码错误（未知类型）：{}", indexChar);
+				case TYPE_I -> list.add(this.readLong());
+				case TYPE_L -> list.add(this.readList());
+				case TYPE_D -> list.add(this.readMap());
+				case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> list.add(this.readBytes(value));
+				default -> LOGGER.warn("B编码错误（未知类型）：{}", (char) value);
 			}
 		}
 		return list;
@@ -329,30 +536,26 @@ public final class BEncodeDecoder {
 	/**
 	 * 读取Map
 	 * 
-	 * @param inputStream 数据
-	 * 
 	 * @return Map
 	 * 
 	 * @throws PacketSizeException 网络包大小异常
 	 * 
 	 * @see #TYPE_D
 	 */
-	private static final Map<String, Object> readMap(ByteArrayInputStream inputStream) throws PacketSizeException {
-		int index;
-		char indexChar;
+	private Map<String, Object> readMap() throws PacketSizeException {
+		byte value;
 		String key = null;
 		// 使用LinkedHashMap防止乱序
 		final Map<String, Object> map = new LinkedHashMap<>();
-		final StringBuilder lengthBuilder = new StringBuilder();
-		while ((index = inputStream.read()) != -1) {
-			indexChar = (char) index;
-			switch (indexChar) {
+		while (this.position < this.limit) {
+			value = this.buffer.get(this.position++);
+			switch (value) {
 				case TYPE_E -> {
 					return map;
 				}
 				case TYPE_I -> {
 					if(key != null) {
-						map.put(key, readLong(inputStream));
+						map.put(key, this.readLong());
 						key = null;
 					} else {
 						LOGGER.warn("B编码key为空跳过（I）");
@@ -360,7 +563,7 @@ public final class BEncodeDecoder {
 				}
 				case TYPE_L -> {
 					if(key != null) {
-						map.put(key, readList(inputStream));
+						map.put(key, this.readList());
 						key = null;
 					} else {
 						LOGGER.warn("B编码key为空跳过（L）");
@@ -368,63 +571,79 @@ public final class BEncodeDecoder {
 				}
 				case TYPE_D -> {
 					if(key != null) {
-						map.put(key, readMap(inputStream));
+						map.put(key, this.readMap());
 						key = null;
 					} else {
 						LOGGER.warn("B编码key为空跳过（D）");
 					}
 				}
-				case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> lengthBuilder.append(indexChar);
-				case SEPARATOR -> {
-					if(lengthBuilder.length() > 0) {
-						final byte[] bytes = readBytes(lengthBuilder, inputStream);
-						if (key == null) {
-							key = new String(bytes);
-						} else {
-							map.put(key, bytes);
-							key = null;
-						}
+				case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> {
+					if (key == null) {
+						key = this.readString(value);
 					} else {
-						LOGGER.warn("B编码错误（长度）：{}", lengthBuilder);
+						map.put(key, this.readBytes(value));
+						key = null;
 					}
 				}
-				default -> LOGGER.warn("B编码错误（未知类型）：{}", indexChar);
+				default -> LOGGER.warn("B编码错误（未知类型）：{}", (char) value);
 			}
 		}
 		return map;
 	}
 	
 	/**
-	 * 读取符合长度的字节数组
+	 * 读取数据长度
 	 * 
-	 * @param lengthBuilder 字节数组长度
-	 * @param inputStream 数据
+	 * @param first 第一个数字字符
 	 * 
-	 * @return 字节数组
+	 * @return 数据长度
 	 * 
 	 * @throws PacketSizeException 网络包大小异常
 	 */
-	private static final byte[] readBytes(StringBuilder lengthBuilder, ByteArrayInputStream inputStream) throws PacketSizeException {
-		final var number = lengthBuilder.toString();
-		if(!StringUtils.isNumeric(number)) {
-			throw new IllegalArgumentException("B编码错误（数值）：" + number);
+	private int readLength(byte first) throws PacketSizeException {
+		int length = this.digit(0, first);
+		byte digit;
+		while((digit = this.byteAt(this.position++)) != SEPARATOR) {
+			length = this.digit(length, digit);
 		}
-		final int length = Integer.parseInt(number);
 		PacketSizeException.verify(length);
-		// 循环使用设置归零
-		lengthBuilder.setLength(0);
-		final byte[] bytes = new byte[length];
-		try {
-			final int readLength = inputStream.read(bytes);
-			if(readLength != length) {
-				LOGGER.warn("B编码错误（读取长度和实际长度不符）：{}-{}", length, readLength);
-			}
-		} catch (IOException e) {
-			LOGGER.error("B编码读取异常", e);
+		if(length > this.limit - this.position) {
+			LOGGER.warn("B编码错误（读取长度和实际长度不符）：{}-{}", length, this.limit - this.position);
 		}
+		return length;
+	}
+	
+	/**
+	 * 读取符合长度的字节数组
+	 * 
+	 * @param first 第一个数字字符
+	 * 
+	 * @return 字节数组
+	 * 
+	 * @throws PacketSizeException 网络包大小异常
+	 */
+	private byte[] readBytes(byte first) throws PacketSizeException {
+		final int length = this.readLength(first);
+		final byte[] bytes = new byte[length];
+		final int readLength = Math.min(length, this.limit - this.position);
+		this.buffer.get(this.position, bytes, 0, readLength);
+		this.position += readLength;
 		return bytes;
 	}
 	
+	/**
+	 * 读取字符串
+	 * 
+	 * @param first 第一个数字字符
+	 * 
+	 * @return 字符串
+	 * 
+	 * @throws PacketSizeException 网络包大小异常
+	 */
+	private String readString(byte first) throws PacketSizeException {
+		return new String(this.readBytes(first));
+	}
+	
 	/**
 	 * @param index 索引
 	 * 
@@ -591,7 +810,13 @@ public final class BEncodeDecoder {
 	
 	@Override
 	public String toString() {
-		return new String(this.oddBytes());
+		// 不能修改读取位置
+		if(this.position >= this.limit) {
+			return "";
+		}
+		final byte[] bytes = new byte[this.limit - this.position];
+		this.buffer.get(this.position, bytes);
+		return new String(bytes);
 	}
 	
 }
@@ -2,6 +2,7 @@ package com.acgist.snail.format;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -13,7 +14,8 @@ import com.acgist.snail.logger.LoggerFactory;
 
 /**
  * <p>B编码编码器</p>
- * <p>支持数据类型：Number、String、byte[]、List、Map</p>
+ * <p>支持数据类型：Number、String、byte[]、List、Map、{@link Encoded}</p>
+ * <p>静态编码方法先计算编码长度，然后直接写入字节数组或者缓冲区，不用经过中间输出流。</p>
  * 
  * @author acgist
  */
@@ -21,6 +23,20 @@ public final class BEncodeEncoder {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(BEncodeEncoder.class);
 	
+	/**
+	 * <p>Long最小值数值部分</p>
+	 */
+	private static final byte[] LONG_MIN_VALUE = "9223372036854775808".getBytes();
+	
+	/**
+	 * <p>B编码数据</p>
+	 * <p>不可变数据（例如：扩展协议握手支持类型）提前编码，编码时直接写入。</p>
+	 * 
+	 * @author acgist
+	 */
+	public record Encoded(byte[] bytes) {
+	}
+	
 	/**
 	 * <p>List</p>
 	 */
@@ -226,6 +242,8 @@ public final class BEncodeEncoder {
 			this.writeMap(map);
 		} else if(value instanceof List<?> list) {
 			this.writeList(list);
+		} else if(value instanceof Encoded encoded) {
+			this.write(encoded.bytes());
 		} else if(value == null) {
 			this.writeBytes(new byte[0]);
 		} else {
@@ -284,7 +302,10 @@ public final class BEncodeEncoder {
 	 * @return B编码字节数组
 	 */
 	public static final byte[] encodeList(List<?> list) {
-		return newInstance().writeList(list).bytes();
+		if(list == null) {
+			return new byte[0];
+		}
+		return encode(list);
 	}
 	
 	/**
@@ -306,7 +327,10 @@ public final class BEncodeEncoder {
 	 * @return B编码字节数组
 	 */
 	public static final byte[] encodeMap(Map<?, ?> map) {
-		return newInstance().writeMap(map).bytes();
+		if(map == null) {
+			return new byte[0];
+		}
+		return encode(map);
 	}
 	
 	/**
@@ -320,4 +344,250 @@ public final class BEncodeEncoder {
 		return new String(encodeMap(map));
 	}
 	
+	/**
+	 * <p>数据转为B编码字节数组</p>
+	 * 
+	 * @param value 数据
+	 * 
+	 * @return B编码字节数组
+	 */
+	public static final byte[] encode(Object value) {
+		final byte[] bytes = new byte[length(value)];
+		write(value, ByteBuffer.wrap(bytes));
+		return bytes;
+	}
+	
+	/**
+	 * <p>数据转为B编码写入缓冲区</p>
+	 * <p>缓冲区（可以复用）容量足够时清空以后写入，否则新建缓冲区。</p>
+	 * 
+	 * @param value 数据
+	 * @param buffer 缓冲区（可以为空）
+	 * 
+	 * @return 写入数据的缓冲区（已经flip）
+	 */
+	public static final ByteBuffer encode(Object value, ByteBuffer buffer) {
+		final int length = length(value);
+		if(buffer == null || buffer.capacity() < length) {
+			buffer = ByteBuffer.allocate(length);
+		} else {
+			buffer.clear();
+		}
+		write(value, buffer);
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * <p>数据提前编码</p>
+	 * 
+	 * @param value 不可变数据
+	 * 
+	 * @return B编码数据
+	 */
+	public static final Encoded encoded(Object value) {
+		return new Encoded(encode(value));
+	}
+	
+	/**
+	 * <p>计算B编码长度</p>
+	 * 
+	 * @param value 数据
+	 * 
+	 * @return B编码长度
+	 */
+	public static final int length(Object value) {
+		if(value instanceof String string) {
+			return lengthBytes(isAscii(string) ? string.length() : string.getBytes().length);
+		} else if(value instanceof Number number) {
+			return 2 + lengthNumber(number);
+		} else if(value instanceof byte[] bytes) {
+			return lengthBytes(bytes.length);
+		} else if(value instanceof Map<?, ?> map) {
+			int length = 2;
+			for (var entry : map.entrySet()) {
+				length += length(entry.getKey()) + length(entry.getValue());
+			}
+			return length;
+		} else if(value instanceof List<?> list) {
+			int length = 2;
+			for (Object object : list) {
+				length += length(object);
+			}
+			return length;
+		} else if(value instanceof Encoded encoded) {
+			return encoded.bytes().length;
+		} else if(value == null) {
+			return lengthBytes(0);
+		} else {
+			return lengthBytes(value.toString().getBytes().length);
+		}
+	}
+	
+	/**
+	 * <p>数据B编码写入缓冲区</p>
+	 * <p>缓冲区剩余空间必须大于等于编码长度</p>
+	 * 
+	 * @param value 数据
+	 * @param buffer 缓冲区
+	 * 
+	 * @see #length(Object)
+	 */
+	public static final void write(Object value, ByteBuffer buffer) {
+		if(value instanceof String string) {
+			if(isAscii(string)) {
+				final int length = string.length();
+				writeLong(length, buffer);
+				buffer.put((byte) BEncodeDecoder.SEPARATOR);
+				for (int index = 0; index < length; index++) {
+					buffer.put((byte) string.charAt(index));
+				}
+			} else {
+				writeBytes(string.getBytes(), buffer);
+			}
+		} else if(value instanceof Number number) {
+			buffer.put((byte) BEncodeDecoder.TYPE_I);
+			if(isInteger(number)) {
+				writeLong(number.longValue(), buffer);
+			} else {
+				buffer.put(number.toString().getBytes());
+			}
+			buffer.put((byte) BEncodeDecoder.TYPE_E);
+		} else if(value instanceof byte[] bytes) {
+			writeBytes(bytes, buffer);
+		} else if(value instanceof Map<?, ?> map) {
+			buffer.put((byte) BEncodeDecoder.TYPE_D);
+			for (var entry : map.entrySet()) {
+				write(entry.getKey(), buffer);
+				write(entry.getValue(), buffer);
+			}
+			buffer.put((byte) BEncodeDecoder.TYPE_E);
+		} else if(value instanceof List<?> list) {
+			buffer.put((byte) BEncodeDecoder.TYPE_L);
+			for (Object object : list) {
+				write(object, buffer);
+			}
+			buffer.put((byte) BEncodeDecoder.TYPE_E);
+		} else if(value instanceof Encoded encoded) {
+			buffer.put(encoded.bytes());
+		} else if(value == null) {
+			writeBytes(new byte[0], buffer);
+		} else {
+			writeBytes(value.toString().getBytes(), buffer);
+		}
+	}
+	
+	/**
+	 * <p>判断字符串是否只含有ASCII字符</p>
+	 * <p>ASCII字符编码长度等于字符长度：不用转为字节数组</p>
+	 * 
+	 * @param value 字符串
+	 * 
+	 * @return 是否只含有ASCII字符
+	 */
+	private static final boolean isAscii(String value) {
+		for (int index = 0; index < value.length(); index++) {
+			if(value.charAt(index) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * <p>判断是否是整数类型</p>
+	 * 
+	 * @param number 数值
+	 * 
+	 * @return 是否是整数类型
+	 */
+	private static final boolean isInteger(Number number) {
+		return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+	}
+	
+	/**
+	 * <p>计算字节数组B编码长度</p>
+	 * 
+	 * @param length 字节数组长度
+	 * 
+	 * @return B编码长度
+	 */
+	private static final int lengthBytes(int length) {
+		return lengthLong(length) + 1 + length;
+	}
+	
+	/**
+	 * <p>计算数值长度</p>
+	 * 
+	 * @param number 数值
+	 * 
+	 * @return 数值长度
+	 */
+	private static final int lengthNumber(Number number) {
+		if(isInteger(number)) {
+			return lengthLong(number.longValue());
+		}
+		return number.toString().getBytes().length;
+	}
+	
+	/**
+	 * <p>计算十进制数值长度</p>
+	 * 
+	 * @param value 数值
+	 * 
+	 * @return 数值长度
+	 */
+	private static final int lengthLong(long value) {
+		if(value == Long.MIN_VALUE) {
+			return 1 + LONG_MIN_VALUE.length;
+		}
+		int length = 1;
+		if(value < 0) {
+			length++;
+			value = -value;
+		}
+		while(value >= 10) {
+			length++;
+			value /= 10;
+		}
+		return length;
+	}
+	
+	/**
+	 * <p>写入十进制数值</p>
+	 * 
+	 * @param value 数值
+	 * @param buffer 缓冲区
+	 */
+	private static final void writeLong(long value, ByteBuffer buffer) {
+		if(value == Long.MIN_VALUE) {
+			buffer.put((byte) '-');
+			buffer.put(LONG_MIN_VALUE);
+			return;
+		}
+		if(value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		final int position = buffer.position();
+		final int length = lengthLong(value);
+		for (int index = position + length - 1; index >= position; index--) {
+			buffer.put(index, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(position + length);
+	}
+	
+	/**
+	 * <p>写入B编码字节数组</p>
+	 * 
+	 * @param bytes 字节数组
+	 * @param buffer 缓冲区
+	 */
+	private static final void writeBytes(byte[] bytes, ByteBuffer buffer) {
+		writeLong(bytes.length, buffer);
+		buffer.put((byte) BEncodeDecoder.SEPARATOR);
+		buffer.put(bytes);
+	}
+	
 }
@@ -2,7 +2,9 @@ package com.acgist.snail.logger;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +26,12 @@ public final class Logger {
 	 */
 	private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 	
+	/**
+	 * <p>时间缓存</p>
+	 * <p>时间格式精确到秒：同一秒的日志共享格式化时间</p>
+	 */
+	private static volatile TimeCache timeCache = new TimeCache(Long.MIN_VALUE, null);
+	
 	/**
 	 * <p>日志级别</p>
 	 */
@@ -52,6 +60,11 @@ public final class Logger {
 	 * <p>日志单元</p>
 	 */
 	private final Map<String, Tuple> tupleMap;
+	/**
+	 * <p>异步日志缓冲</p>
+	 * <p>同步日志：{@code null}</p>
+	 */
+	private final LoggerRingBuffer ringBuffer;
 	
 	/**
 	 * @param name 日志名称
@@ -64,6 +77,25 @@ public final class Logger {
 		this.systemFormat = String.format("[%s] ", this.system);
 		this.adapters = LoggerFactory.getAdapters();
 		this.tupleMap = new ConcurrentHashMap<>();
+		this.ringBuffer = LoggerFactory.getRingBuffer();
+	}
+	
+	/**
+	 * <p>格式化时间</p>
+	 * 
+	 * @param time 时间（毫秒）
+	 * 
+	 * @return 时间
+	 */
+	static final String formatTime(long time) {
+		final long second = Math.floorDiv(time, 1000L);
+		final TimeCache cache = timeCache;
+		if(cache.second == second) {
+			return cache.value;
+		}
+		final String value = DATE_TIME_FORMATTER.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()));
+		timeCache = new TimeCache(second, value);
+		return value;
 	}
 	
 	/**
@@ -76,11 +108,27 @@ public final class Logger {
 	 * @return 日志
 	 */
 	private String format(Level level, String format, Object ... args) {
-		final Tuple tuple = this.tupleMap.computeIfAbsent(format, Tuple::new);
 		final StringBuilder builder = new StringBuilder(DEFAULT_CAPACITY);
 		builder
 			.append(this.systemFormat)
-			.append(DATE_TIME_FORMATTER.format(LocalDateTime.now()))
+			.append(formatTime(System.currentTimeMillis()));
+		return this.format(builder, level, format, args).toString();
+	}
+	
+	/**
+	 * <p>日志格式化</p>
+	 * <p>不含系统名称和时间</p>
+	 * 
+	 * @param builder 日志Builder
+	 * @param level 级别
+	 * @param format 格式
+	 * @param args 参数
+	 * 
+	 * @return 日志Builder
+	 */
+	private StringBuilder format(StringBuilder builder, Level level, String format, Object ... args) {
+		final Tuple tuple = this.tupleMap.computeIfAbsent(format, Tuple::new);
+		builder
 			.append(" [")
 			.append(Thread.currentThread().getName())
 			.append("] ")
@@ -96,7 +144,7 @@ public final class Logger {
 				.append(stringWriter.toString())
 				.append("\n");
 		}
-		return builder.toString();
+		return builder;
 	}
 	
 	/**
@@ -119,8 +167,12 @@ public final class Logger {
 	 */
 	private void log(Level level, String format, Object ... args) {
 		if(this.isEnabled(level)) {
-			final String message = this.format(level, format, args);
 			final boolean error = level.value() >= Level.ERROR.value();
+			if(this.ringBuffer != null) {
+				this.asyncLog(error, level, format, args);
+				return;
+			}
+			final String message = this.format(level, format, args);
 			// 减少判断
 			if (error) {
 				this.adapters.forEach(adapter -> adapter.errorOutput(message));
@@ -130,6 +182,27 @@ public final class Logger {
 		}
 	}
 	
+	/**
+	 * <p>记录异步日志</p>
+	 * <p>调用线程只格式化日志信息：时间格式化和输出由日志线程处理</p>
+	 * 
+	 * @param error 是否是错误日志
+	 * @param level 级别
+	 * @param format 日志
+	 * @param args 参数
+	 */
+	private void asyncLog(boolean error, Level level, String format, Object ... args) {
+		final LoggerRingBuffer.Event event = this.ringBuffer.claim(error);
+		if(event == null) {
+			return;
+		}
+		try {
+			this.format(event.builder(), level, format, args);
+		} finally {
+			this.ringBuffer.publish(event);
+		}
+	}
+	
 	/**
 	 * <p>简化日志名称</p>
 	 * 
@@ -182,4 +255,15 @@ public final class Logger {
 		this.log(Level.ERROR, format, args);
 	}
 	
+	/**
+	 * <p>时间缓存</p>
+	 * 
+	 * @param second 时间（秒）
+	 * @param value 格式化时间
+	 * 
+	 * @author acgist
+	 */
+	private static final record TimeCache(long second, String value) {
+	}
+	
 }
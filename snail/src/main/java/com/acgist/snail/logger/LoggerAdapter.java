@@ -41,9 +41,21 @@ public abstract class LoggerAdapter {
 	 * @param message 日志
 	 */
 	public void output(String message) {
+		final byte[] bytes = message.getBytes();
+		this.output(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * <p>输出日志</p>
+	 * 
+	 * @param bytes 日志
+	 * @param offset 开始位置
+	 * @param length 日志长度
+	 */
+	public void output(byte[] bytes, int offset, int length) {
 		if (this.available) {
 			try {
-				this.output.write(message.getBytes());
+				this.output.write(bytes, offset, length);
 			} catch (IOException e) {
 				LoggerFactory.error(e);
 			}
@@ -56,9 +68,38 @@ public abstract class LoggerAdapter {
 	 * @param message 日志
 	 */
 	public void errorOutput(String message) {
+		final byte[] bytes = message.getBytes();
+		this.errorOutput(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * <p>输出错误日志</p>
+	 * 
+	 * @param bytes 日志
+	 * @param offset 开始位置
+	 * @param length 日志长度
+	 */
+	public void errorOutput(byte[] bytes, int offset, int length) {
 		if (this.available) {
 			try {
-				this.errorOutput.write(message.getBytes());
+				this.errorOutput.write(bytes, offset, length);
+			} catch (IOException e) {
+				LoggerFactory.error(e);
+			}
+		}
+	}
+	
+	/**
+	 * <p>刷出日志</p>
+	 * <p>异步日志没有等待输出的日志时刷出缓存</p>
+	 */
+	public void flush() {
+		if (this.available) {
+			try {
+				this.output.flush();
+				if(this.output != this.errorOutput) {
+					this.errorOutput.flush();
+				}
 			} catch (IOException e) {
 				LoggerFactory.error(e);
 			}
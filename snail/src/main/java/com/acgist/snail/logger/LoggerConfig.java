@@ -54,6 +54,18 @@ public final class LoggerConfig {
 	 * <p>文件日志最大备份时间（天）</p>
 	 */
 	private int fileMaxDays;
+	/**
+	 * <p>是否异步日志</p>
+	 */
+	private boolean async;
+	/**
+	 * <p>异步日志缓冲数量</p>
+	 */
+	private int asyncBuffer;
+	/**
+	 * <p>异步日志溢出策略</p>
+	 */
+	private LoggerRingBuffer.Policy asyncPolicy;
 	
 	/**
 	 * <p>初始化配置</p>
@@ -71,6 +83,9 @@ public final class LoggerConfig {
 		this.fileName = properties.getProperty("logger.file.name");
 		this.fileBuffer = Integer.parseInt(properties.getProperty("logger.file.buffer", "8192"));
 		this.fileMaxDays = Integer.parseInt(properties.getProperty("logger.file.max.days", "30"));
+		this.async = Boolean.parseBoolean(properties.getProperty("logger.async", "false"));
+		this.asyncBuffer = Integer.parseInt(properties.getProperty("logger.async.buffer", "8192"));
+		this.asyncPolicy = LoggerRingBuffer.Policy.of(properties.getProperty("logger.async.policy"));
 	}
 	
 	/**
@@ -133,5 +148,32 @@ public final class LoggerConfig {
 	public static final int getFileMaxDays() {
 		return INSTANCE.fileMaxDays;
 	}
+	
+	/**
+	 * <p>判断是否异步日志</p>
+	 * 
+	 * @return 是否异步日志
+	 */
+	public static final boolean getAsync() {
+		return INSTANCE.async;
+	}
+	
+	/**
+	 * <p>获取异步日志缓冲数量</p>
+	 * 
+	 * @return 异步日志缓冲数量
+	 */
+	public static final int getAsyncBuffer() {
+		return INSTANCE.asyncBuffer;
+	}
+	
+	/**
+	 * <p>获取异步日志溢出策略</p>
+	 * 
+	 * @return 异步日志溢出策略
+	 */
+	public static final LoggerRingBuffer.Policy getAsyncPolicy() {
+		return INSTANCE.asyncPolicy;
+	}
 
 }
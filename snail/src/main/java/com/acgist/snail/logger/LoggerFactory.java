@@ -38,6 +38,11 @@ public final class LoggerFactory {
 	 * <p>日志适配器</p>
 	 */
 	private final List<LoggerAdapter> adapters;
+	/**
+	 * <p>异步日志缓冲</p>
+	 * <p>同步日志：{@code null}</p>
+	 */
+	private final LoggerRingBuffer ringBuffer;
 	
 	private LoggerFactory() {
 		this.loggers = new ConcurrentHashMap<>();
@@ -55,6 +60,12 @@ public final class LoggerFactory {
 			}
 		}
 		this.adapters = list;
+		if(LoggerConfig.getAsync() && !list.isEmpty()) {
+			final String systemFormat = String.format("[%s] ", LoggerConfig.getSystem());
+			this.ringBuffer = LoggerRingBuffer.newInstance(LoggerConfig.getAsyncBuffer(), LoggerConfig.getAsyncPolicy(), systemFormat, list);
+		} else {
+			this.ringBuffer = null;
+		}
 	}
 	
 	/**
@@ -77,6 +88,15 @@ public final class LoggerFactory {
 		return INSTANCE.adapters;
 	}
 
+	/**
+	 * <p>获取异步日志缓冲</p>
+	 * 
+	 * @return 异步日志缓冲（同步日志：{@code null}）
+	 */
+	public static final LoggerRingBuffer getRingBuffer() {
+		return INSTANCE.ringBuffer;
+	}
+	
 	/**
 	 * <p>系统异常记录</p>
 	 * 
@@ -96,8 +116,13 @@ public final class LoggerFactory {
 	
 	/**
 	 * <p>关闭日志</p>
+	 * <p>日志线程没有结束不能释放日志适配器：日志线程结束时刷出缓存</p>
 	 */
 	public static final void shutdown() {
+		// 输出剩余日志
+		if(INSTANCE.ringBuffer != null && !INSTANCE.ringBuffer.shutdown()) {
+			return;
+		}
 		INSTANCE.adapters.forEach(LoggerAdapter::release);
 	}
 
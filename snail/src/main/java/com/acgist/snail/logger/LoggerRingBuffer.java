@@ -0,0 +1,479 @@
+package com.acgist.snail.logger;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.acgist.snail.context.SystemThreadContext;
+
+/**
+ * <p>异步日志缓冲</p>
+ * <p>多生产者单消费者环形缓冲：日志事件预先分配，调用线程只格式化日志信息，时间格式化、编码和输出由日志线程批量处理。</p>
+ * <p>调用线程通过CAS申请序号，写入日志事件以后发布序号；日志线程按照序号顺序消费已经发布的日志事件。</p>
+ * <p>缓冲已满时根据溢出策略阻塞等待或者丢弃日志</p>
+ * 
+ * @author acgist
+ */
+public final class LoggerRingBuffer {
+
+	/**
+	 * <p>溢出策略</p>
+	 * 
+	 * @author acgist
+	 */
+	public enum Policy {
+
+		/**
+		 * <p>阻塞等待</p>
+		 */
+		BLOCK,
+		/**
+		 * <p>丢弃日志</p>
+		 */
+		DROP;
+		
+		/**
+		 * <p>通过名称获取溢出策略</p>
+		 * 
+		 * @param name 名称
+		 * 
+		 * @return 溢出策略
+		 */
+		public static final Policy of(String name) {
+			final Policy[] values = Policy.values();
+			for (Policy policy : values) {
+				if(policy.name().equalsIgnoreCase(name)) {
+					return policy;
+				}
+			}
+			return Policy.BLOCK;
+		}
+	
+	}
+	
+	/**
+	 * <p>日志事件默认字符长度：{@value}</p>
+	 */
+	private static final int DEFAULT_CAPACITY = 128;
+	/**
+	 * <p>日志事件最大保留字符长度：{@value}</p>
+	 * <p>超过长度（异常堆栈）输出以后重新分配，防止长期占用内存。</p>
+	 */
+	private static final int MAX_CAPACITY = 4096;
+	/**
+	 * <p>批量输出字符长度：{@value}</p>
+	 */
+	private static final int BATCH_LENGTH = 16 * 1024;
+	/**
+	 * <p>自旋次数：{@value}</p>
+	 */
+	private static final int SPIN_COUNT = 128;
+	/**
+	 * <p>缓冲已满等待时间（纳秒）</p>
+	 */
+	private static final long FULL_PARK_TIME = TimeUnit.MICROSECONDS.toNanos(10);
+	/**
+	 * <p>没有日志等待时间（纳秒）</p>
+	 * <p>发布日志时唤醒日志线程：超时只是防止丢失唤醒</p>
+	 */
+	private static final long IDLE_PARK_TIME = TimeUnit.MILLISECONDS.toNanos(100);
+	/**
+	 * <p>关闭等待时间（毫秒）</p>
+	 */
+	private static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(4);
+	
+	/**
+	 * <p>序号掩码</p>
+	 */
+	private final int mask;
+	/**
+	 * <p>日志事件</p>
+	 */
+	private final Event[] events;
+	/**
+	 * <p>溢出策略</p>
+	 */
+	private final Policy policy;
+	/**
+	 * <p>日志系统格式</p>
+	 */
+	private final String systemFormat;
+	/**
+	 * <p>日志适配器</p>
+	 */
+	private final List<LoggerAdapter> adapters;
+	/**
+	 * <p>下一个申请序号</p>
+	 */
+	private final AtomicLong producer;
+	/**
+	 * <p>下一个消费序号</p>
+	 * <p>只有日志线程修改</p>
+	 */
+	private final AtomicLong consumer;
+	/**
+	 * <p>丢弃日志数量</p>
+	 */
+	private final LongAdder drop;
+	/**
+	 * <p>日志线程</p>
+	 */
+	private final Thread thread;
+	/**
+	 * <p>日志线程是否等待</p>
+	 */
+	private volatile boolean waiting;
+	/**
+	 * <p>是否运行</p>
+	 */
+	private volatile boolean running;
+	/**
+	 * <p>批量输出日志</p>
+	 * <p>只有日志线程使用</p>
+	 */
+	private final StringBuilder batch;
+	/**
+	 * <p>批量输出日志是否是错误日志</p>
+	 */
+	private boolean batchError;
+	/**
+	 * <p>日志编码器</p>
+	 */
+	private final CharsetEncoder encoder;
+	/**
+	 * <p>日志编码缓冲</p>
+	 */
+	private final ByteBuffer encodeBuffer;
+	/**
+	 * <p>已经输出丢弃日志数量</p>
+	 */
+	private long dropOutput;
+	
+	/**
+	 * @param size 缓冲数量
+	 * @param policy 溢出策略
+	 * @param systemFormat 日志系统格式
+	 * @param adapters 日志适配器
+	 */
+	private LoggerRingBuffer(int size, Policy policy, String systemFormat, List<LoggerAdapter> adapters) {
+		// 缓冲数量对齐2的幂：序号取余改为位运算
+		final int length = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+		this.mask = length - 1;
+		this.events = new Event[length];
+		for (int index = 0; index < length; index++) {
+			this.events[index] = new Event();
+		}
+		this.policy = policy;
+		this.systemFormat = systemFormat;
+		this.adapters = adapters;
+		this.producer = new AtomicLong();
+		this.consumer = new AtomicLong();
+		this.drop = new LongAdder();
+		this.batch = new StringBuilder(BATCH_LENGTH + MAX_CAPACITY);
+		this.encoder = Charset.defaultCharset().newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.encodeBuffer = ByteBuffer.allocate(BATCH_LENGTH * 2);
+		this.running = true;
+		this.thread = new Thread(this::run, SystemThreadContext.SNAIL_THREAD_LOGGER);
+		this.thread.setDaemon(true);
+	}
+	
+	/**
+	 * <p>新建异步日志缓冲</p>
+	 * <p>启动日志线程，JVM退出时输出剩余日志。</p>
+	 * 
+	 * @param size 缓冲数量
+	 * @param policy 溢出策略
+	 * @param systemFormat 日志系统格式
+	 * @param adapters 日志适配器
+	 * 
+	 * @return {@link LoggerRingBuffer}
+	 */
+	public static final LoggerRingBuffer newInstance(int size, Policy policy, String systemFormat, List<LoggerAdapter> adapters) {
+		final LoggerRingBuffer ringBuffer = new LoggerRingBuffer(size, policy, systemFormat, adapters);
+		ringBuffer.thread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(ringBuffer::shutdown));
+		return ringBuffer;
+	}
+	
+	/**
+	 * <p>申请日志事件</p>
+	 * 
+	 * @param error 是否是错误日志
+	 * 
+	 * @return 日志事件（丢弃日志：{@code null}）
+	 * 
+	 * @see #publish(Event)
+	 */
+	Event claim(boolean error) {
+		final long sequence = this.next();
+		if(sequence < 0L) {
+			this.drop.increment();
+			return null;
+		}
+		final Event event = this.events[(int) (sequence & this.mask)];
+		event.sequence = sequence;
+		event.time = System.currentTimeMillis();
+		event.error = error;
+		return event;
+	}
+	
+	/**
+	 * <p>发布日志事件</p>
+	 * <p>申请的日志事件必须发布：没有发布的日志事件阻塞日志线程</p>
+	 * 
+	 * @param event 日志事件
+	 */
+	void publish(Event event) {
+		event.published = event.sequence;
+		if(this.waiting) {
+			LockSupport.unpark(this.thread);
+		}
+	}
+	
+	/**
+	 * <p>申请序号</p>
+	 * 
+	 * @return 序号（丢弃日志：{@code -1}）
+	 */
+	private long next() {
+		// 已经关闭或者日志线程记录日志：直接丢弃防止死锁
+		if(!this.running || Thread.currentThread() == this.thread) {
+			return -1L;
+		}
+		int count = 0;
+		while(true) {
+			final long sequence = this.producer.get();
+			if(sequence - this.consumer.get() < this.events.length) {
+				if(this.producer.compareAndSet(sequence, sequence + 1)) {
+					return sequence;
+				}
+			} else if(this.policy == Policy.DROP || !this.running) {
+				return -1L;
+			} else if(count++ < SPIN_COUNT) {
+				Thread.onSpinWait();
+			} else {
+				LockSupport.parkNanos(FULL_PARK_TIME);
+			}
+		}
+	}
+	
+	/**
+	 * <p>日志线程</p>
+	 * <p>输出异常丢弃批量日志继续消费：日志线程退出阻塞所有记录日志线程</p>
+	 */
+	private void run() {
+		long sequence = this.consumer.get();
+		while(true) {
+			final Event event = this.events[(int) (sequence & this.mask)];
+			if(event.published == sequence) {
+				try {
+					this.write(event);
+				} catch (Exception e) {
+					event.builder.setLength(0);
+					this.discard(e);
+				}
+				this.consumer.lazySet(++sequence);
+				continue;
+			}
+			// 没有日志：输出批量日志
+			try {
+				this.flush();
+			} catch (Exception e) {
+				this.discard(e);
+			}
+			if(!this.running && this.producer.get() == sequence) {
+				break;
+			}
+			this.waiting = true;
+			// 设置等待以后再次判断：防止丢失唤醒
+			if(event.published != sequence && this.running) {
+				LockSupport.parkNanos(this, IDLE_PARK_TIME);
+			}
+			this.waiting = false;
+		}
+	}
+	
+	/**
+	 * <p>写入日志事件</p>
+	 * 
+	 * @param event 日志事件
+	 */
+	private void write(Event event) {
+		if(event.error != this.batchError) {
+			this.output();
+			this.batchError = event.error;
+		}
+		this.batch
+			.append(this.systemFormat)
+			.append(Logger.formatTime(event.time))
+			.append(event.builder);
+		if(event.builder.capacity() > MAX_CAPACITY) {
+			event.builder = new StringBuilder(DEFAULT_CAPACITY);
+		} else {
+			event.builder.setLength(0);
+		}
+		if(this.batch.length() >= BATCH_LENGTH) {
+			this.output();
+		}
+	}
+	
+	/**
+	 * <p>输出批量日志并且刷出缓存</p>
+	 */
+	private void flush() {
+		final long drop = this.drop.sum();
+		if(drop != this.dropOutput) {
+			if(this.batchError) {
+				this.output();
+				this.batchError = false;
+			}
+			this.batch
+				.append(this.systemFormat)
+				.append(Logger.formatTime(System.currentTimeMillis()))
+				.append(" [")
+				.append(this.thread.getName())
+				.append("] ")
+				.append(Level.WARN)
+				.append(" 异步日志缓冲已满丢弃日志：")
+				.append(drop - this.dropOutput)
+				.append("\n");
+			this.dropOutput = drop;
+		}
+		if(this.batch.length() > 0) {
+			this.output();
+			for (LoggerAdapter adapter : this.adapters) {
+				adapter.flush();
+			}
+		}
+	}
+	
+	/**
+	 * <p>编码输出批量日志</p>
+	 */
+	private void output() {
+		if(this.batch.length() == 0) {
+			return;
+		}
+		final CharBuffer chars = CharBuffer.wrap(this.batch);
+		this.encoder.reset();
+		CoderResult result;
+		do {
+			result = this.encoder.encode(chars, this.encodeBuffer, true);
+			this.outputEncodeBuffer();
+		} while(result.isOverflow());
+		while(this.encoder.flush(this.encodeBuffer).isOverflow()) {
+			this.outputEncodeBuffer();
+		}
+		this.outputEncodeBuffer();
+		this.batch.setLength(0);
+	}
+	
+	/**
+	 * <p>输出日志编码缓冲</p>
+	 */
+	private void outputEncodeBuffer() {
+		final int length = this.encodeBuffer.position();
+		if(length <= 0) {
+			return;
+		}
+		final byte[] bytes = this.encodeBuffer.array();
+		if(this.batchError) {
+			for (LoggerAdapter adapter : this.adapters) {
+				adapter.errorOutput(bytes, 0, length);
+			}
+		} else {
+			for (LoggerAdapter adapter : this.adapters) {
+				adapter.output(bytes, 0, length);
+			}
+		}
+		this.encodeBuffer.clear();
+	}
+	
+	/**
+	 * <p>丢弃批量日志</p>
+	 * <p>日志适配器输出异常：记录系统异常</p>
+	 * 
+	 * @param e 异常
+	 */
+	private void discard(Exception e) {
+		this.batch.setLength(0);
+		this.encodeBuffer.clear();
+		LoggerFactory.error(e);
+	}
+	
+	/**
+	 * <p>获取丢弃日志数量</p>
+	 * 
+	 * @return 丢弃日志数量
+	 */
+	public long drop() {
+		return this.drop.sum();
+	}
+	
+	/**
+	 * <p>关闭异步日志</p>
+	 * <p>等待日志线程输出已经申请的日志</p>
+	 * 
+	 * @return 日志线程是否结束（等待超时：{@code false}）
+	 */
+	public boolean shutdown() {
+		this.running = false;
+		LockSupport.unpark(this.thread);
+		try {
+			this.thread.join(SHUTDOWN_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return !this.thread.isAlive();
+	}
+	
+	/**
+	 * <p>日志事件</p>
+	 * 
+	 * @author acgist
+	 */
+	static final class Event {
+
+		/**
+		 * <p>申请序号</p>
+		 */
+		private long sequence;
+		/**
+		 * <p>发布序号</p>
+		 */
+		private volatile long published = -1L;
+		/**
+		 * <p>日志时间</p>
+		 */
+		private long time;
+		/**
+		 * <p>是否是错误日志</p>
+		 */
+		private boolean error;
+		/**
+		 * <p>日志信息（不含系统名称和时间）</p>
+		 */
+		private StringBuilder builder = new StringBuilder(DEFAULT_CAPACITY);
+		
+		/**
+		 * <p>获取日志信息</p>
+		 * 
+		 * @return 日志信息
+		 */
+		StringBuilder builder() {
+			return this.builder;
+		}
+	
+	}
+
+}
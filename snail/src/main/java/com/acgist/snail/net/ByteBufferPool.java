@@ -0,0 +1,393 @@
+package com.acgist.snail.net;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.IContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * <p>缓冲池</p>
+ * <p>按照大小等级（2的幂）池化直接缓冲区，减少频繁申请直接内存导致的GC压力。</p>
+ * <p>申请缓冲区优先使用线程缓存，然后使用共享缓存，最后新建缓冲区。</p>
+ * <p>超过最大池化大小的缓冲区不会池化：归还时直接丢弃</p>
+ * <p>配置开启泄漏检测：没有归还的缓冲区被回收时记录申请位置</p>
+ * 
+ * @author acgist
+ */
+public final class ByteBufferPool implements IContext {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ByteBufferPool.class);
+	
+	private static final ByteBufferPool INSTANCE = new ByteBufferPool();
+	
+	public static final ByteBufferPool getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>最小等级位移：{@value}</p>
+	 */
+	private static final int MIN_SHIFT = 11;
+	/**
+	 * <p>等级数量：{@value}</p>
+	 * <p>等级大小：2KB、4KB、8KB、16KB、32KB、64KB</p>
+	 */
+	private static final int LEVEL_COUNT = 6;
+	/**
+	 * <p>最大池化大小：{@value}</p>
+	 */
+	public static final int MAX_POOLED_LENGTH = 1 << (MIN_SHIFT + LEVEL_COUNT - 1);
+	/**
+	 * <p>每个等级线程缓存数量：{@value}</p>
+	 */
+	private static final int THREAD_CACHE_SIZE = 32;
+	/**
+	 * <p>每个等级共享缓存大小：{@value}</p>
+	 */
+	private static final int SHARED_CACHE_LENGTH = 4 * SystemConfig.ONE_MB;
+	
+	/**
+	 * <p>统计信息：命中次数</p>
+	 */
+	public static final String STATISTICS_HIT = "hit";
+	/**
+	 * <p>统计信息：没有命中次数</p>
+	 */
+	public static final String STATISTICS_MISS = "miss";
+	/**
+	 * <p>统计信息：命中率（百分比）</p>
+	 */
+	public static final String STATISTICS_HIT_RATE = "hitRate";
+	/**
+	 * <p>统计信息：没有归还数量</p>
+	 */
+	public static final String STATISTICS_OUTSTANDING = "outstanding";
+	/**
+	 * <p>统计信息：共享缓存数量</p>
+	 */
+	public static final String STATISTICS_CACHED = "cached";
+	/**
+	 * <p>统计信息：泄漏数量</p>
+	 */
+	public static final String STATISTICS_LEAK = "leak";
+	
+	/**
+	 * <p>共享缓存</p>
+	 */
+	private final SharedCache[] sharedCaches;
+	/**
+	 * <p>线程缓存</p>
+	 */
+	private final ThreadLocal<ThreadCache[]> threadCaches;
+	/**
+	 * <p>命中次数</p>
+	 */
+	private final LongAdder hit;
+	/**
+	 * <p>没有命中次数</p>
+	 */
+	private final LongAdder miss;
+	/**
+	 * <p>泄漏数量</p>
+	 */
+	private final LongAdder leak;
+	/**
+	 * <p>没有归还数量</p>
+	 */
+	private final AtomicLong outstanding;
+	/**
+	 * <p>泄漏检测</p>
+	 * <p>没有开启泄漏检测：{@code null}</p>
+	 * 
+	 * @see SystemConfig#getBufferLeak()
+	 */
+	private final Cleaner cleaner;
+	
+	private ByteBufferPool() {
+		this.sharedCaches = new SharedCache[LEVEL_COUNT];
+		for (int index = 0; index < LEVEL_COUNT; index++) {
+			this.sharedCaches[index] = new SharedCache(SHARED_CACHE_LENGTH / levelLength(index));
+		}
+		this.threadCaches = ThreadLocal.withInitial(() -> {
+			final ThreadCache[] caches = new ThreadCache[LEVEL_COUNT];
+			for (int index = 0; index < LEVEL_COUNT; index++) {
+				caches[index] = new ThreadCache();
+			}
+			return caches;
+		});
+		this.hit = new LongAdder();
+		this.miss = new LongAdder();
+		this.leak = new LongAdder();
+		this.outstanding = new AtomicLong();
+		if(SystemConfig.getBufferLeak()) {
+			LOGGER.debug("缓冲池开启泄漏检测");
+			this.cleaner = Cleaner.create();
+		} else {
+			this.cleaner = null;
+		}
+	}
+	
+	/**
+	 * <p>申请缓冲区</p>
+	 * <p>缓冲区已经清空：{@code limit}等于申请大小</p>
+	 * 
+	 * @param length 申请大小
+	 * 
+	 * @return 池化缓冲区
+	 */
+	public PooledByteBuffer allocate(int length) {
+		if(length <= 0) {
+			throw new IllegalArgumentException("申请缓冲区大小错误：" + length);
+		}
+		final int index = index(length);
+		ByteBuffer buffer = null;
+		if(index >= 0) {
+			buffer = this.threadCaches.get()[index].poll();
+			if(buffer == null) {
+				buffer = this.sharedCaches[index].poll();
+			}
+		}
+		if(buffer == null) {
+			this.miss.increment();
+			buffer = ByteBuffer.allocateDirect(index >= 0 ? levelLength(index) : length);
+		} else {
+			this.hit.increment();
+			buffer.clear();
+		}
+		buffer.limit(length);
+		this.outstanding.incrementAndGet();
+		final PooledByteBuffer pooledBuffer = new PooledByteBuffer(index, buffer, this);
+		if(this.cleaner != null) {
+			pooledBuffer.cleanable = this.cleaner.register(pooledBuffer, new LeakDetector(pooledBuffer.refCnt, this));
+		}
+		return pooledBuffer;
+	}
+	
+	/**
+	 * <p>归还缓冲区</p>
+	 * 
+	 * @param pooledBuffer 池化缓冲区
+	 */
+	void recycle(PooledByteBuffer pooledBuffer) {
+		this.outstanding.decrementAndGet();
+		if(pooledBuffer.cleanable != null) {
+			// 引用计数已经归零：注销泄漏检测
+			pooledBuffer.cleanable.clean();
+		}
+		final int index = pooledBuffer.index;
+		if(index < 0) {
+			return;
+		}
+		final ByteBuffer buffer = pooledBuffer.buffer;
+		if(!this.threadCaches.get()[index].offer(buffer)) {
+			this.sharedCaches[index].offer(buffer);
+		}
+	}
+	
+	/**
+	 * <p>获取统计信息</p>
+	 * 
+	 * @return 统计信息
+	 */
+	public Map<String, Object> statistics() {
+		final long hitValue = this.hit.sum();
+		final long missValue = this.miss.sum();
+		final long total = hitValue + missValue;
+		long cached = 0;
+		for (SharedCache sharedCache : this.sharedCaches) {
+			cached += sharedCache.size();
+		}
+		final Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put(STATISTICS_HIT, hitValue);
+		statistics.put(STATISTICS_MISS, missValue);
+		statistics.put(STATISTICS_HIT_RATE, total == 0 ? 0L : hitValue * 100 / total);
+		statistics.put(STATISTICS_OUTSTANDING, this.outstanding.get());
+		statistics.put(STATISTICS_CACHED, cached);
+		statistics.put(STATISTICS_LEAK, this.leak.sum());
+		return statistics;
+	}
+	
+	/**
+	 * <p>获取大小等级索引</p>
+	 * 
+	 * @param length 申请大小
+	 * 
+	 * @return 大小等级索引（没有池化：{@code -1}）
+	 */
+	private static final int index(int length) {
+		if(length > MAX_POOLED_LENGTH) {
+			return -1;
+		}
+		if(length <= (1 << MIN_SHIFT)) {
+			return 0;
+		}
+		return Integer.SIZE - Integer.numberOfLeadingZeros(length - 1) - MIN_SHIFT;
+	}
+	
+	/**
+	 * <p>获取等级大小</p>
+	 * 
+	 * @param index 大小等级索引
+	 * 
+	 * @return 等级大小
+	 */
+	private static final int levelLength(int index) {
+		return 1 << (MIN_SHIFT + index);
+	}
+	
+	/**
+	 * <p>线程缓存</p>
+	 * <p>只有当前线程访问：不用同步</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class ThreadCache {
+		
+		/**
+		 * <p>缓冲区</p>
+		 */
+		private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>(THREAD_CACHE_SIZE);
+		
+		/**
+		 * <p>取出缓冲区</p>
+		 * 
+		 * @return 缓冲区（没有缓存：{@code null}）
+		 */
+		private ByteBuffer poll() {
+			return this.buffers.pollLast();
+		}
+		
+		/**
+		 * <p>放入缓冲区</p>
+		 * 
+		 * @param buffer 缓冲区
+		 * 
+		 * @return 是否放入（超过线程缓存数量：{@code false}）
+		 */
+		private boolean offer(ByteBuffer buffer) {
+			if(this.buffers.size() < THREAD_CACHE_SIZE) {
+				this.buffers.offerLast(buffer);
+				return true;
+			}
+			return false;
+		}
+		
+	}
+	
+	/**
+	 * <p>共享缓存</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class SharedCache {
+		
+		/**
+		 * <p>最大缓存数量</p>
+		 */
+		private final int maxSize;
+		/**
+		 * <p>缓存数量</p>
+		 */
+		private final AtomicInteger size = new AtomicInteger();
+		/**
+		 * <p>缓冲区</p>
+		 */
+		private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+		
+		/**
+		 * @param maxSize 最大缓存数量
+		 */
+		private SharedCache(int maxSize) {
+			this.maxSize = maxSize;
+		}
+		
+		/**
+		 * <p>取出缓冲区</p>
+		 * 
+		 * @return 缓冲区（没有缓存：{@code null}）
+		 */
+		private ByteBuffer poll() {
+			final ByteBuffer buffer = this.buffers.poll();
+			if(buffer != null) {
+				this.size.decrementAndGet();
+			}
+			return buffer;
+		}
+		
+		/**
+		 * <p>放入缓冲区</p>
+		 * <p>超过最大缓存数量直接丢弃</p>
+		 * 
+		 * @param buffer 缓冲区
+		 */
+		private void offer(ByteBuffer buffer) {
+			if(this.size.incrementAndGet() <= this.maxSize) {
+				this.buffers.offer(buffer);
+			} else {
+				this.size.decrementAndGet();
+			}
+		}
+		
+		/**
+		 * @return 缓存数量
+		 */
+		private int size() {
+			return this.size.get();
+		}
+		
+	}
+	
+	/**
+	 * <p>泄漏检测</p>
+	 * <p>池化缓冲区被回收时引用计数没有归零：缓冲区泄漏</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class LeakDetector implements Runnable {
+
+		/**
+		 * <p>引用计数</p>
+		 */
+		private final AtomicInteger refCnt;
+		/**
+		 * <p>缓冲池</p>
+		 */
+		private final ByteBufferPool pool;
+		/**
+		 * <p>申请位置</p>
+		 */
+		private final Exception trace;
+		
+		/**
+		 * @param refCnt 引用计数
+		 * @param pool 缓冲池
+		 */
+		private LeakDetector(AtomicInteger refCnt, ByteBufferPool pool) {
+			this.refCnt = refCnt;
+			this.pool = pool;
+			this.trace = new Exception("缓冲区申请位置");
+		}
+		
+		@Override
+		public void run() {
+			if(this.refCnt.get() > 0) {
+				this.pool.leak.increment();
+				this.pool.outstanding.decrementAndGet();
+				LOGGER.warn("缓冲区泄漏：{}", this.refCnt.get(), this.trace);
+			}
+		}
+	
+	}
+
+}
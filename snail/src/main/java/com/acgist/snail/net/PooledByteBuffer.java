@@ -0,0 +1,109 @@
+package com.acgist.snail.net;
+
+import java.lang.ref.Cleaner.Cleanable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>池化缓冲区</p>
+ * <p>使用引用计数管理缓冲区：引用计数归零时归还缓冲池</p>
+ * <p>注意：归还以后不能继续使用缓冲区</p>
+ * 
+ * @author acgist
+ * 
+ * @see ByteBufferPool
+ */
+public final class PooledByteBuffer {
+
+	/**
+	 * <p>大小等级索引</p>
+	 * <p>没有池化缓冲区：{@code -1}</p>
+	 */
+	final int index;
+	/**
+	 * <p>缓冲区</p>
+	 */
+	final ByteBuffer buffer;
+	/**
+	 * <p>引用计数</p>
+	 * <p>泄漏检测需要单独引用：不能通过当前对象引用</p>
+	 */
+	final AtomicInteger refCnt;
+	/**
+	 * <p>泄漏检测</p>
+	 * <p>没有开启泄漏检测：{@code null}</p>
+	 */
+	Cleanable cleanable;
+	/**
+	 * <p>缓冲池</p>
+	 */
+	private final ByteBufferPool pool;
+	
+	/**
+	 * @param index 大小等级索引
+	 * @param buffer 缓冲区
+	 * @param pool 缓冲池
+	 */
+	PooledByteBuffer(int index, ByteBuffer buffer, ByteBufferPool pool) {
+		this.index = index;
+		this.buffer = buffer;
+		this.refCnt = new AtomicInteger(1);
+		this.pool = pool;
+	}
+	
+	/**
+	 * <p>获取缓冲区</p>
+	 * 
+	 * @return 缓冲区
+	 */
+	public ByteBuffer buffer() {
+		return this.buffer;
+	}
+	
+	/**
+	 * <p>获取引用计数</p>
+	 * 
+	 * @return 引用计数
+	 */
+	public int refCnt() {
+		return this.refCnt.get();
+	}
+	
+	/**
+	 * <p>增加引用</p>
+	 * 
+	 * @return 池化缓冲区
+	 */
+	public PooledByteBuffer retain() {
+		int value;
+		do {
+			value = this.refCnt.get();
+			if(value <= 0) {
+				throw new IllegalStateException("缓冲区已经归还");
+			}
+		} while(!this.refCnt.compareAndSet(value, value + 1));
+		return this;
+	}
+	
+	/**
+	 * <p>释放引用</p>
+	 * <p>引用计数归零时归还缓冲池</p>
+	 * 
+	 * @return 是否归还缓冲池
+	 */
+	public boolean release() {
+		int value;
+		do {
+			value = this.refCnt.get();
+			if(value <= 0) {
+				throw new IllegalStateException("缓冲区已经归还");
+			}
+		} while(!this.refCnt.compareAndSet(value, value - 1));
+		if(value == 1) {
+			this.pool.recycle(this);
+			return true;
+		}
+		return false;
+	}
+
+}
@@ -20,9 +20,14 @@ import com.acgist.snail.utils.IoUtils;
  * 
  * @author acgist
  */
-public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocketChannel> implements CompletionHandler<Integer, ByteBuffer> {
+public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocketChannel> implements CompletionHandler<Integer, PooledByteBuffer> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(TcpMessageHandler.class);
+	
+	/**
+	 * <p>缓冲池</p>
+	 */
+	private static final ByteBufferPool POOL = ByteBufferPool.getInstance();
 
 	@Override
 	public void handle(AsynchronousSocketChannel channel) {
@@ -37,17 +42,22 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
 		synchronized (this.channel) {
 			try {
 				int size;
-				final Future<Integer> future = this.channel.write(buffer);
-				// 超时时间：超时异常导致数据没有发送完成但释放了锁从而引起一连串的WritePendingException
-				if(timeout <= SystemConfig.NONE_TIMEOUT) {
-					// 没有超时：除了连接消息（首条消息）以外所有消息都不使用超时时间
-					size = future.get();
-				} else {
-					// 超时时间：连接消息（首条消息）使用超时时间
-					size = future.get(timeout, TimeUnit.SECONDS);
-				}
-				if(size <= 0) {
-					LOGGER.warn("TCP消息发送失败：{}-{}", this.channel, size);
+				Future<Integer> future;
+				// 写入数据可能部分完成：循环发送直到全部完成
+				while(buffer.hasRemaining()) {
+					future = this.channel.write(buffer);
+					// 超时时间：超时异常导致数据没有发送完成但释放了锁从而引起一连串的WritePendingException
+					if(timeout <= SystemConfig.NONE_TIMEOUT) {
+						// 没有超时：除了连接消息（首条消息）以外所有消息都不使用超时时间
+						size = future.get();
+					} else {
+						// 超时时间：连接消息（首条消息）使用超时时间
+						size = future.get(timeout, TimeUnit.SECONDS);
+					}
+					if(size <= 0) {
+						LOGGER.warn("TCP消息发送失败：{}-{}", this.channel, size);
+						break;
+					}
 				}
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
@@ -76,7 +86,23 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
 	}
 	
 	@Override
-	public void completed(Integer result, ByteBuffer buffer) {
+	public void completed(Integer result, PooledByteBuffer buffer) {
+		try {
+			this.completed(result, buffer.buffer());
+		} finally {
+			// 消息同步处理：处理完成归还缓冲区
+			buffer.release();
+		}
+		this.loopMessage();
+	}
+	
+	/**
+	 * <p>处理消息</p>
+	 * 
+	 * @param result 消息长度
+	 * @param buffer 消息
+	 */
+	private void completed(Integer result, ByteBuffer buffer) {
 		if (result == null) {
 			this.close();
 		} else if(result == -1) {
@@ -88,12 +114,12 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
 		} else {
 			this.receive(buffer);
 		}
-		this.loopMessage();
 	}
 	
 	@Override
-	public void failed(Throwable throwable, ByteBuffer buffer) {
+	public void failed(Throwable throwable, PooledByteBuffer buffer) {
 		LOGGER.error("TCP消息处理异常：{}", this.channel, throwable);
+		buffer.release();
 		this.close();
 	}
 	
@@ -118,8 +144,14 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
 	 */
 	private void loopMessage() {
 		if(this.available()) {
-			final ByteBuffer buffer = ByteBuffer.allocateDirect(SystemConfig.TCP_BUFFER_LENGTH);
-			this.channel.read(buffer, buffer, this);
+			final PooledByteBuffer buffer = POOL.allocate(SystemConfig.TCP_BUFFER_LENGTH);
+			try {
+				this.channel.read(buffer.buffer(), buffer, this);
+			} catch (Exception e) {
+				buffer.release();
+				LOGGER.error("TCP消息轮询异常：{}", this.channel, e);
+				this.close();
+			}
 		} else {
 			LOGGER.debug("TCP消息代理退出消息轮询");
 		}
@@ -0,0 +1,287 @@
+package com.acgist.snail.net;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.utils.BeanUtils;
+
+/**
+ * <p>时间轮（Hashed Timing Wheel）</p>
+ * <p>大量短时间定时任务（请求超时、重传超时）使用：添加和取消时间复杂度O(1)，不用为每个任务新建定时任务。</p>
+ * <p>添加任务不用加锁：任务先放入等待队列，由时间轮线程放入槽位；取消任务只做标记，到期时直接跳过。</p>
+ * <p>任务在时间轮线程执行：任务需要快速完成</p>
+ *
+ * @author acgist
+ */
+public final class TimerWheel {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TimerWheel.class);
+
+	/**
+	 * <p>时间间隔（毫秒）</p>
+	 */
+	private final long tick;
+	/**
+	 * <p>槽位掩码</p>
+	 */
+	private final int mask;
+	/**
+	 * <p>槽位</p>
+	 * <p>只在时间轮线程中访问</p>
+	 */
+	private final Bucket[] wheel;
+	/**
+	 * <p>等待放入槽位的任务</p>
+	 */
+	private final Queue<Timeout> pending;
+	/**
+	 * <p>任务数量</p>
+	 */
+	private final AtomicInteger size;
+	/**
+	 * <p>开始时间（纳秒）</p>
+	 * <p>使用单调时钟：系统时间调整不会导致任务提前或者延迟执行</p>
+	 */
+	private final long startTime;
+	/**
+	 * <p>当前时间间隔数量</p>
+	 */
+	private volatile long ticks;
+	/**
+	 * <p>时间轮线程池</p>
+	 */
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * @param tick 时间间隔（毫秒）
+	 * @param wheelSize 槽位数量（2的幂）
+	 * @param name 线程名称
+	 */
+	public TimerWheel(long tick, int wheelSize, String name) {
+		if(tick <= 0 || wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+			throw new IllegalArgumentException("时间轮参数错误：" + tick + "-" + wheelSize);
+		}
+		this.tick = tick;
+		this.mask = wheelSize - 1;
+		this.wheel = new Bucket[wheelSize];
+		for (int index = 0; index < wheelSize; index++) {
+			this.wheel[index] = new Bucket();
+		}
+		this.pending = new ConcurrentLinkedQueue<>();
+		this.size = new AtomicInteger(0);
+		this.startTime = System.nanoTime();
+		this.ticks = 0L;
+		this.executor = SystemThreadContext.newScheduledExecutor(1, name);
+		this.executor.scheduleAtFixedRate(this::advance, tick, tick, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * <p>添加定时任务</p>
+	 *
+	 * @param delay 延迟时间（毫秒）
+	 * @param task 任务
+	 *
+	 * @return 定时任务
+	 */
+	public Timeout schedule(long delay, Runnable task) {
+		final long deadline = this.elapsed() + Math.max(0L, delay);
+		// 向上取整：不会提前执行
+		final Timeout timeout = new Timeout((deadline + this.tick - 1) / this.tick, task);
+		this.size.incrementAndGet();
+		this.pending.offer(timeout);
+		return timeout;
+	}
+
+	/**
+	 * <p>获取任务数量</p>
+	 *
+	 * @return 任务数量（包含已经取消没有清除的任务）
+	 */
+	public int size() {
+		return this.size.get();
+	}
+
+	/**
+	 * <p>获取开始以后经过时间（毫秒）</p>
+	 *
+	 * @return 经过时间
+	 */
+	private long elapsed() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startTime);
+	}
+
+	/**
+	 * <p>推进时间轮</p>
+	 * <p>执行线程延迟时追赶执行所有过期槽位</p>
+	 */
+	private void advance() {
+		final long nowTicks = this.elapsed() / this.tick;
+		try {
+			this.transfer();
+			while(this.ticks < nowTicks) {
+				this.ticks++;
+				this.expire(this.wheel[(int) (this.ticks & this.mask)]);
+			}
+		} catch (Exception e) {
+			LOGGER.error("时间轮执行异常", e);
+		}
+	}
+
+	/**
+	 * <p>等待任务放入槽位</p>
+	 * <p>已经过期任务放入下一个槽位</p>
+	 */
+	private void transfer() {
+		Timeout timeout;
+		while((timeout = this.pending.poll()) != null) {
+			if(timeout.cancelled()) {
+				this.size.decrementAndGet();
+				continue;
+			}
+			final long deadline = Math.max(timeout.deadline, this.ticks + 1);
+			this.wheel[(int) (deadline & this.mask)].timeouts.offer(timeout);
+		}
+	}
+
+	/**
+	 * <p>执行槽位过期任务</p>
+	 *
+	 * @param bucket 槽位
+	 */
+	private void expire(Bucket bucket) {
+		final Iterator<Timeout> iterator = bucket.timeouts.iterator();
+		while(iterator.hasNext()) {
+			final Timeout timeout = iterator.next();
+			if(timeout.cancelled()) {
+				iterator.remove();
+				this.size.decrementAndGet();
+			} else if(timeout.deadline <= this.ticks) {
+				iterator.remove();
+				this.size.decrementAndGet();
+				timeout.expire();
+			}
+		}
+	}
+
+	/**
+	 * <p>关闭时间轮</p>
+	 * <p>没有执行的任务直接丢弃</p>
+	 */
+	public void shutdown() {
+		LOGGER.debug("关闭时间轮：{}", this);
+		SystemThreadContext.shutdownNow(this.executor);
+	}
+
+	@Override
+	public String toString() {
+		return BeanUtils.toString(this, this.tick, this.mask + 1, this.size.get());
+	}
+
+	/**
+	 * <p>槽位</p>
+	 *
+	 * @author acgist
+	 */
+	private static final class Bucket {
+
+		/**
+		 * <p>定时任务</p>
+		 */
+		private final Queue<Timeout> timeouts = new ArrayDeque<>();
+
+	}
+
+	/**
+	 * <p>定时任务</p>
+	 *
+	 * @author acgist
+	 */
+	public static final class Timeout {
+
+		/**
+		 * <p>等待执行</p>
+		 */
+		private static final int STATUS_WAITING = 0;
+		/**
+		 * <p>已经取消</p>
+		 */
+		private static final int STATUS_CANCELLED = 1;
+		/**
+		 * <p>已经执行</p>
+		 */
+		private static final int STATUS_EXPIRED = 2;
+
+		/**
+		 * <p>过期时间间隔数量</p>
+		 */
+		private final long deadline;
+		/**
+		 * <p>任务</p>
+		 */
+		private final Runnable task;
+		/**
+		 * <p>状态</p>
+		 */
+		private final AtomicInteger status;
+
+		/**
+		 * @param deadline 过期时间间隔数量
+		 * @param task 任务
+		 */
+		private Timeout(long deadline, Runnable task) {
+			this.deadline = deadline;
+			this.task = task;
+			this.status = new AtomicInteger(STATUS_WAITING);
+		}
+
+		/**
+		 * <p>取消任务</p>
+		 *
+		 * @return 是否取消成功（已经执行：{@code false}）
+		 */
+		public boolean cancel() {
+			return this.status.compareAndSet(STATUS_WAITING, STATUS_CANCELLED);
+		}
+
+		/**
+		 * <p>判断是否等待执行</p>
+		 *
+		 * @return 是否等待执行
+		 */
+		public boolean waiting() {
+			return this.status.get() == STATUS_WAITING;
+		}
+
+		/**
+		 * <p>判断是否取消</p>
+		 *
+		 * @return 是否取消
+		 */
+		public boolean cancelled() {
+			return this.status.get() == STATUS_CANCELLED;
+		}
+
+		/**
+		 * <p>执行任务</p>
+		 */
+		private void expire() {
+			if(this.status.compareAndSet(STATUS_WAITING, STATUS_EXPIRED)) {
+				try {
+					this.task.run();
+				} catch (Exception e) {
+					LOGGER.error("时间轮任务执行异常", e);
+				}
+			}
+		}
+
+	}
+
+}
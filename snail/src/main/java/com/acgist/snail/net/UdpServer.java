@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.StandardSocketOptions;
-import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -31,6 +30,10 @@ public abstract class UdpServer<T extends UdpAcceptHandler> extends Server<Datag
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(UdpServer.class);
 
+	/**
+	 * <p>缓冲池</p>
+	 */
+	private static final ByteBufferPool POOL = ByteBufferPool.getInstance();
 	/**
 	 * <p>服务端线程池</p>
 	 */
@@ -205,11 +208,16 @@ public abstract class UdpServer<T extends UdpAcceptHandler> extends Server<Datag
 				// 移除已经取出来的信息
 				iterator.remove();
 				if (selectionKey.isValid() && selectionKey.isReadable()) {
-					final ByteBuffer buffer = ByteBuffer.allocateDirect(SystemConfig.UDP_BUFFER_LENGTH);
-					// 服务端多例：selectionKey.channel()
-					// 服务端单例：客户端通道=服务端通道
-					final InetSocketAddress socketAddress = (InetSocketAddress) this.channel.receive(buffer);
-					this.handler.receive(buffer, socketAddress);
+					final PooledByteBuffer buffer = POOL.allocate(SystemConfig.UDP_BUFFER_LENGTH);
+					try {
+						// 服务端多例：selectionKey.channel()
+						// 服务端单例：客户端通道=服务端通道
+						final InetSocketAddress socketAddress = (InetSocketAddress) this.channel.receive(buffer.buffer());
+						this.handler.receive(buffer.buffer(), socketAddress);
+					} finally {
+						// 消息同步处理：处理完成归还缓冲区
+						buffer.release();
+					}
 				}
 			}
 		}
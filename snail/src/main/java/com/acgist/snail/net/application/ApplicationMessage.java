@@ -81,6 +81,10 @@ public class ApplicationMessage {
 		 * <p>系统消息：删除任务</p>
 		 */
 		TASK_DELETE,
+		/**
+		 * <p>系统消息：缓冲池统计</p>
+		 */
+		BUFFER_POOL,
 		/**
 		 * <p>系统通知：显示窗口</p>
 		 */
@@ -17,6 +17,7 @@ import com.acgist.snail.gui.GuiMessage;
 import com.acgist.snail.gui.event.adapter.MultifileEventAdapter;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.ByteBufferPool;
 import com.acgist.snail.net.DownloadException;
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.PacketSizeException;
@@ -104,6 +105,7 @@ public final class ApplicationMessageHandler extends TcpMessageHandler implement
 			case TASK_START -> this.onTaskStart(message);
 			case TASK_PAUSE -> this.onTaskPause(message);
 			case TASK_DELETE -> this.onTaskDelete(message);
+			case BUFFER_POOL -> this.onBufferPool();
 			case SHOW -> this.onShow();
 			case HIDE -> this.onHide();
 			case ALERT -> this.onAlert(message);
@@ -261,6 +263,15 @@ public final class ApplicationMessageHandler extends TcpMessageHandler implement
 		}
 	}
 	
+	/**
+	 * <p>缓冲池统计</p>
+	 * <p>返回缓冲池统计信息（B编码）</p>
+	 */
+	private void onBufferPool() {
+		final String body = BEncodeEncoder.encodeMapString(ByteBufferPool.getInstance().statistics());
+		this.send(ApplicationMessage.Type.RESPONSE.build(body));
+	}
+	
 	/**
 	 * <p>显示窗口</p>
 	 */
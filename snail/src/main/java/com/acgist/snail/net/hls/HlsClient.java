@@ -19,6 +19,7 @@ import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.http.HttpClient;
 import com.acgist.snail.utils.FileUtils;
 import com.acgist.snail.utils.IoUtils;
+import com.acgist.snail.utils.ThreadUtils;
 
 /**
  * <p>HLS客户端</p>
@@ -114,7 +115,11 @@ public final class HlsClient implements Runnable {
 						this.output.write(buffer);
 						buffer.compact();
 						downloadSize += length;
-						this.hlsSession.download(length);
+						final long delay = this.hlsSession.download(length);
+						if(delay > 0L) {
+							// 限速：下载线程延迟读取（没有持有任何锁）
+							ThreadUtils.sleep(delay);
+						}
 					}
 					if(Downloader.checkFinish(length, downloadSize, this.size)) {
 						this.completed = true;
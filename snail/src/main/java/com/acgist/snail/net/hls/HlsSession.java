@@ -157,10 +157,12 @@ public final class HlsSession implements IMultifileCompletedChecker {
 	 * <p>统计下载数据</p>
 	 * 
 	 * @param buffer 下载大小
+	 * 
+	 * @return 限速等待时间（毫秒）
 	 */
-	public void download(int buffer) {
+	public long download(int buffer) {
 		this.statistics.download(buffer);
-		this.statistics.downloadLimit(buffer);
+		return this.statistics.downloadLimit(buffer);
 	}
 	
 	/**
@@ -0,0 +1,269 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.acgist.snail.utils.BeanUtils;
+
+/**
+ * <p>原子位图</p>
+ * <p>固定大小，使用{@link AtomicLongArray}按字（64位）存储，修改使用CAS，读取和修改都不用加锁。</p>
+ * <p>修改时同步更新置位数量：获取置位数量时间复杂度O(1)</p>
+ * 
+ * @author acgist
+ */
+public final class AtomicBitmap {
+
+	/**
+	 * <p>字索引偏移：{@value}</p>
+	 */
+	private static final int WORD_SHIFT = 6;
+	
+	/**
+	 * <p>位图大小</p>
+	 */
+	private final int size;
+	/**
+	 * <p>位图数据</p>
+	 */
+	private final AtomicLongArray words;
+	/**
+	 * <p>置位数量</p>
+	 */
+	private final AtomicInteger cardinality;
+	
+	/**
+	 * @param size 位图大小
+	 */
+	public AtomicBitmap(int size) {
+		if(size < 0) {
+			throw new IllegalArgumentException("位图大小错误：" + size);
+		}
+		this.size = size;
+		this.words = new AtomicLongArray((size + Long.SIZE - 1) >>> WORD_SHIFT);
+		this.cardinality = new AtomicInteger(0);
+	}
+	
+	/**
+	 * <p>获取位图大小</p>
+	 * 
+	 * @return 位图大小
+	 */
+	public int size() {
+		return this.size;
+	}
+	
+	/**
+	 * <p>判断是否置位</p>
+	 * 
+	 * @param index 索引
+	 * 
+	 * @return 是否置位（超过范围：{@code false}）
+	 */
+	public boolean get(int index) {
+		if(!this.check(index)) {
+			return false;
+		}
+		return (this.words.get(index >>> WORD_SHIFT) & (1L << index)) != 0L;
+	}
+	
+	/**
+	 * <p>置位</p>
+	 * 
+	 * @param index 索引
+	 * 
+	 * @return 是否修改（已经置位或者超过范围：{@code false}）
+	 */
+	public boolean set(int index) {
+		if(!this.check(index)) {
+			return false;
+		}
+		final int wordIndex = index >>> WORD_SHIFT;
+		final long mask = 1L << index;
+		long word;
+		do {
+			word = this.words.get(wordIndex);
+			if((word & mask) != 0L) {
+				return false;
+			}
+		} while(!this.words.compareAndSet(wordIndex, word, word | mask));
+		this.cardinality.incrementAndGet();
+		return true;
+	}
+	
+	/**
+	 * <p>置位</p>
+	 * 
+	 * @param fromIndex 开始索引（包含）
+	 * @param toIndex 结束索引（不含）
+	 */
+	public void set(int fromIndex, int toIndex) {
+		final int endIndex = Math.min(toIndex, this.size);
+		for (int index = Math.max(fromIndex, 0); index < endIndex; index++) {
+			this.set(index);
+		}
+	}
+	
+	/**
+	 * <p>置位</p>
+	 * 
+	 * @param bitSet 位图
+	 */
+	public void set(BitSet bitSet) {
+		int index = bitSet.nextSetBit(0);
+		while(index >= 0 && index < this.size) {
+			this.set(index);
+			index = bitSet.nextSetBit(index + 1);
+		}
+	}
+	
+	/**
+	 * <p>清除</p>
+	 * 
+	 * @param index 索引
+	 * 
+	 * @return 是否修改（没有置位或者超过范围：{@code false}）
+	 */
+	public boolean clear(int index) {
+		if(!this.check(index)) {
+			return false;
+		}
+		final int wordIndex = index >>> WORD_SHIFT;
+		final long mask = 1L << index;
+		long word;
+		do {
+			word = this.words.get(wordIndex);
+			if((word & mask) == 0L) {
+				return false;
+			}
+		} while(!this.words.compareAndSet(wordIndex, word, word & ~mask));
+		this.cardinality.decrementAndGet();
+		return true;
+	}
+	
+	/**
+	 * <p>清除所有</p>
+	 */
+	public void clear() {
+		for (int index = 0; index < this.words.length(); index++) {
+			final long word = this.words.getAndSet(index, 0L);
+			this.cardinality.addAndGet(-Long.bitCount(word));
+		}
+	}
+	
+	/**
+	 * <p>获取置位数量</p>
+	 * 
+	 * @return 置位数量
+	 */
+	public int cardinality() {
+		return this.cardinality.get();
+	}
+	
+	/**
+	 * <p>判断是否没有置位</p>
+	 * 
+	 * @return 是否没有置位
+	 */
+	public boolean isEmpty() {
+		return this.cardinality.get() == 0;
+	}
+	
+	/**
+	 * <p>获取下一个置位索引</p>
+	 * 
+	 * @param fromIndex 开始索引（包含）
+	 * 
+	 * @return 置位索引（没有置位：{@code -1}）
+	 */
+	public int nextSetBit(int fromIndex) {
+		if(fromIndex < 0) {
+			fromIndex = 0;
+		}
+		if(fromIndex >= this.size) {
+			return -1;
+		}
+		int wordIndex = fromIndex >>> WORD_SHIFT;
+		long word = this.words.get(wordIndex) & (-1L << fromIndex);
+		while(true) {
+			if(word != 0L) {
+				return (wordIndex << WORD_SHIFT) + Long.numberOfTrailingZeros(word);
+			}
+			if(++wordIndex >= this.words.length()) {
+				return -1;
+			}
+			word = this.words.get(wordIndex);
+		}
+	}
+	
+	/**
+	 * <p>计算同时置位数量</p>
+	 * <p>当前位图和指定位图都置位</p>
+	 * 
+	 * @param bitmap 位图
+	 * 
+	 * @return 置位数量
+	 */
+	public int andCardinality(AtomicBitmap bitmap) {
+		int cardinality = 0;
+		final int length = Math.min(this.words.length(), bitmap.words.length());
+		for (int index = 0; index < length; index++) {
+			cardinality += Long.bitCount(this.words.get(index) & bitmap.words.get(index));
+		}
+		return cardinality;
+	}
+	
+	/**
+	 * <p>计算差集置位数量</p>
+	 * <p>当前位图置位并且指定位图没有置位</p>
+	 * 
+	 * @param bitmap 位图
+	 * 
+	 * @return 置位数量
+	 */
+	public int andNotCardinality(AtomicBitmap bitmap) {
+		int cardinality = 0;
+		final int length = this.words.length();
+		final int bitmapLength = bitmap.words.length();
+		for (int index = 0; index < length; index++) {
+			if(index < bitmapLength) {
+				cardinality += Long.bitCount(this.words.get(index) & ~bitmap.words.get(index));
+			} else {
+				cardinality += Long.bitCount(this.words.get(index));
+			}
+		}
+		return cardinality;
+	}
+	
+	/**
+	 * <p>获取位图快照</p>
+	 * <p>每个字单独读取：并发修改时不同字之间不保证一致</p>
+	 * 
+	 * @return 位图快照
+	 */
+	public BitSet toBitSet() {
+		final long[] array = new long[this.words.length()];
+		for (int index = 0; index < array.length; index++) {
+			array[index] = this.words.get(index);
+		}
+		return BitSet.valueOf(array);
+	}
+	
+	/**
+	 * <p>判断索引是否有效</p>
+	 * 
+	 * @param index 索引
+	 * 
+	 * @return 是否有效
+	 */
+	private boolean check(int index) {
+		return index >= 0 && index < this.size;
+	}
+	
+	@Override
+	public String toString() {
+		return BeanUtils.toString(this, this.size, this.cardinality());
+	}
+
+}
@@ -34,4 +34,14 @@ public interface IEncryptMessageSender extends IMessageSender, IPeerConnect {
 	 */
 	void sendEncrypt(ByteBuffer buffer, int timeout) throws NetException;
 	
+	/**
+	 * <p>判断是否可以使用直接内存发送</p>
+	 * <p>明文TCP消息使用直接内存发送：数据从文件直接读入直接内存，发送时不用再次复制到临时直接内存。</p>
+	 * 
+	 * @return 是否可以使用直接内存发送
+	 */
+	default boolean directSend() {
+		return false;
+	}
+	
 }
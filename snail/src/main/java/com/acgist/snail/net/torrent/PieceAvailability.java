@@ -0,0 +1,292 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+import com.acgist.snail.utils.BeanUtils;
+
+/**
+ * <p>Piece可用度</p>
+ * <p>记录每个Piece被多少个Peer拥有，按照可用度从小到大排序，实现稀有优先挑选Piece。</p>
+ * <p>排序数组按照可用度分桶：相同可用度的Piece连续存放，可用度加减只需要和桶边界交换位置。</p>
+ * <p>已经下载完成的Piece移到排序数组头部（移除区域），挑选时直接跳过。</p>
+ * <pre>
+ * [移除区域][可用度0][可用度1]...[可用度N]
+ *           ^bounds[0] ^bounds[1]  ^bounds[N]
+ * </pre>
+ * 
+ * @author acgist
+ */
+public final class PieceAvailability {
+
+	/**
+	 * <p>Piece数量</p>
+	 */
+	private final int pieceSize;
+	/**
+	 * <p>Piece可用度</p>
+	 * <p>Piece索引=可用度</p>
+	 */
+	private final int[] counts;
+	/**
+	 * <p>排序数组</p>
+	 * <p>位置=Piece索引</p>
+	 */
+	private final int[] order;
+	/**
+	 * <p>Piece位置</p>
+	 * <p>Piece索引=位置</p>
+	 */
+	private final int[] positions;
+	/**
+	 * <p>移除Piece位图</p>
+	 */
+	private final BitSet removes;
+	/**
+	 * <p>桶开始位置</p>
+	 * <p>可用度=开始位置：超过最大可用度的桶开始位置等于Piece数量</p>
+	 */
+	private int[] bounds;
+	
+	/**
+	 * @param pieceSize Piece数量
+	 */
+	public PieceAvailability(int pieceSize) {
+		this.pieceSize = pieceSize;
+		this.counts = new int[pieceSize];
+		this.order = new int[pieceSize];
+		this.positions = new int[pieceSize];
+		this.removes = new BitSet(pieceSize);
+		for (int index = 0; index < pieceSize; index++) {
+			this.order[index] = index;
+			this.positions[index] = index;
+		}
+		this.bounds = new int[8];
+		Arrays.fill(this.bounds, 1, this.bounds.length, pieceSize);
+	}
+	
+	/**
+	 * <p>增加可用度</p>
+	 * 
+	 * @param index Piece索引
+	 */
+	public synchronized void increment(int index) {
+		if(!this.check(index)) {
+			return;
+		}
+		final int count = this.counts[index]++;
+		if(count + 2 >= this.bounds.length) {
+			// 扩容：恢复Piece也会使用
+			final int length = this.bounds.length;
+			this.bounds = Arrays.copyOf(this.bounds, length * 2);
+			Arrays.fill(this.bounds, length, this.bounds.length, this.pieceSize);
+		}
+		if(this.removes.get(index)) {
+			return;
+		}
+		// 交换到当前桶尾部：下一个桶开始位置前移
+		final int last = --this.bounds[count + 1];
+		this.swap(this.positions[index], last);
+	}
+	
+	/**
+	 * <p>增加可用度</p>
+	 * 
+	 * @param pieces Piece位图
+	 */
+	public synchronized void increment(BitSet pieces) {
+		int index = pieces.nextSetBit(0);
+		while(index >= 0 && index < this.pieceSize) {
+			this.increment(index);
+			index = pieces.nextSetBit(index + 1);
+		}
+	}
+	
+	/**
+	 * <p>减少可用度</p>
+	 * 
+	 * @param index Piece索引
+	 */
+	public synchronized void decrement(int index) {
+		if(!this.check(index) || this.counts[index] == 0) {
+			return;
+		}
+		final int count = this.counts[index]--;
+		if(this.removes.get(index)) {
+			return;
+		}
+		// 交换到当前桶头部：当前桶开始位置后移
+		final int first = this.bounds[count]++;
+		this.swap(this.positions[index], first);
+	}
+	
+	/**
+	 * <p>减少可用度</p>
+	 * 
+	 * @param pieces Piece位图
+	 */
+	public synchronized void decrement(BitSet pieces) {
+		int index = pieces.nextSetBit(0);
+		while(index >= 0 && index < this.pieceSize) {
+			this.decrement(index);
+			index = pieces.nextSetBit(index + 1);
+		}
+	}
+	
+	/**
+	 * <p>移除Piece</p>
+	 * <p>Piece下载完成不再参与挑选：移到移除区域（继续记录可用度）</p>
+	 * 
+	 * @param index Piece索引
+	 */
+	public synchronized void remove(int index) {
+		if(!this.check(index) || this.removes.get(index)) {
+			return;
+		}
+		this.removes.set(index);
+		// 逐个桶向前移动：每次移到前一个桶尾部
+		for (int count = this.counts[index]; count >= 0; count--) {
+			final int first = this.bounds[count]++;
+			this.swap(this.positions[index], first);
+		}
+	}
+	
+	/**
+	 * <p>恢复Piece</p>
+	 * <p>Piece下载失败重新参与挑选</p>
+	 * 
+	 * @param index Piece索引
+	 */
+	public synchronized void restore(int index) {
+		if(!this.check(index) || !this.removes.get(index)) {
+			return;
+		}
+		this.removes.clear(index);
+		// 逐个桶向后移动：每次移到后一个桶头部
+		final int target = this.counts[index];
+		for (int count = 0; count <= target; count++) {
+			final int last = --this.bounds[count];
+			this.swap(this.positions[index], last);
+		}
+	}
+	
+	/**
+	 * <p>获取可用度</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return 可用度
+	 */
+	public synchronized int count(int index) {
+		if(!this.check(index)) {
+			return 0;
+		}
+		return this.counts[index];
+	}
+	
+	/**
+	 * <p>稀有优先挑选Piece</p>
+	 * <p>按照可用度从小到大返回第一个满足条件的Piece：跳过移除区域和没有Peer拥有的Piece</p>
+	 * <p>注意：挑选条件不能获取其他锁（防止死锁）</p>
+	 * 
+	 * @param predicate 挑选条件
+	 * 
+	 * @return Piece索引（没有匹配：{@code -1}）
+	 */
+	public synchronized int pick(IntPredicate predicate) {
+		for (int position = this.bounds[1]; position < this.pieceSize; position++) {
+			final int index = this.order[position];
+			if(predicate.test(index)) {
+				return index;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * <p>稀有优先挑选Piece</p>
+	 * <p>从可用度最小的非空桶开始挑选Peer拥有的Piece：每个桶选择桶内Piece和Peer拥有Piece中数量较少的一方遍历</p>
+	 * <p>注意：挑选条件不能获取其他锁（防止死锁）</p>
+	 * 
+	 * @param pieces Peer拥有Piece位图
+	 * @param predicate 挑选条件
+	 * 
+	 * @return Piece索引（没有匹配：{@code -1}）
+	 */
+	public synchronized int pick(BitSet pieces, IntPredicate predicate) {
+		final int cardinality = pieces.cardinality();
+		if(cardinality == 0) {
+			return -1;
+		}
+		for (int count = 1; count + 1 < this.bounds.length; count++) {
+			final int first = this.bounds[count];
+			if(first >= this.pieceSize) {
+				break;
+			}
+			final int last = this.bounds[count + 1];
+			if(first == last) {
+				// 空桶
+				continue;
+			}
+			if(last - first <= cardinality) {
+				// 遍历桶内Piece
+				for (int position = first; position < last; position++) {
+					final int index = this.order[position];
+					if(pieces.get(index) && predicate.test(index)) {
+						return index;
+					}
+				}
+			} else {
+				// 遍历Peer拥有Piece
+				int index = pieces.nextSetBit(0);
+				while(index >= 0 && index < this.pieceSize) {
+					if(
+						this.counts[index] == count &&
+						!this.removes.get(index) &&
+						predicate.test(index)
+					) {
+						return index;
+					}
+					index = pieces.nextSetBit(index + 1);
+				}
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * <p>交换位置</p>
+	 * 
+	 * @param source 原始位置
+	 * @param target 目标位置
+	 */
+	private void swap(int source, int target) {
+		if(source == target) {
+			return;
+		}
+		final int sourceIndex = this.order[source];
+		final int targetIndex = this.order[target];
+		this.order[source] = targetIndex;
+		this.order[target] = sourceIndex;
+		this.positions[targetIndex] = source;
+		this.positions[sourceIndex] = target;
+	}
+	
+	/**
+	 * <p>判断Piece索引是否有效</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return 是否有效
+	 */
+	private boolean check(int index) {
+		return index >= 0 && index < this.pieceSize;
+	}
+	
+	@Override
+	public String toString() {
+		return BeanUtils.toString(this, this.pieceSize, this.removes.cardinality());
+	}
+
+}
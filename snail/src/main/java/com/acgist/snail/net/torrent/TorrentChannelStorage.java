@@ -0,0 +1,52 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.acgist.snail.net.DownloadException;
+
+/**
+ * <p>文件通道存储</p>
+ * <p>使用{@code FileChannel}绝对位置读写</p>
+ *
+ * @author acgist
+ */
+public final class TorrentChannelStorage extends TorrentStorage {
+
+	/**
+	 * @param filePath 文件路径
+	 * @param fileSize 文件大小
+	 * 
+	 * @throws DownloadException 下载异常
+	 */
+	TorrentChannelStorage(String filePath, long fileSize) throws DownloadException {
+		super(filePath, fileSize);
+	}
+	
+	@Override
+	public int read(ByteBuffer buffer, long position) throws IOException {
+		return this.channelRead(buffer, position);
+	}
+	
+	@Override
+	public int write(ByteBuffer buffer, long position) throws IOException {
+		return this.channelWrite(buffer, position);
+	}
+	
+	/**
+	 * <p>聚集写入：一次系统调用写入多个缓冲区</p>
+	 * <p>修改通道位置不会影响绝对位置读取</p>
+	 */
+	@Override
+	public long write(ByteBuffer[] buffers, long position) throws IOException {
+		long length = 0L;
+		synchronized (this) {
+			this.channel.position(position);
+			while(buffers[buffers.length - 1].hasRemaining()) {
+				length += this.channel.write(buffers);
+			}
+		}
+		return length;
+	}
+
+}
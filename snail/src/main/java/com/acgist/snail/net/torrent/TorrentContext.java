@@ -11,11 +11,11 @@ import java.util.stream.Collectors;
 
 import com.acgist.snail.context.IContext;
 import com.acgist.snail.format.BEncodeDecoder;
-import com.acgist.snail.format.BEncodeEncoder;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.DownloadException;
 import com.acgist.snail.net.NetException;
+import com.acgist.snail.utils.ByteUtils;
 import com.acgist.snail.utils.StringUtils;
 
 /**
@@ -179,9 +179,12 @@ public final class TorrentContext implements IContext {
 				throw new DownloadException("种子文件格式错误");
 			}
 			final var torrent = Torrent.valueOf(decoder);
-			// 直接转储原始信息：防止顺序不对导致种子Hash计算错误
-			final var info = decoder.getMap(Torrent.ATTR_INFO);
-			final var infoHash = InfoHash.newInstance(BEncodeEncoder.encodeMap(info));
+			// 直接使用原始数据：防止顺序不对导致种子Hash计算错误
+			final var info = BEncodeDecoder.newInstance(bytes).nextSlice(Torrent.ATTR_INFO);
+			if(info == null) {
+				throw new DownloadException("种子文件格式错误");
+			}
+			final var infoHash = InfoHash.newInstance(ByteUtils.remainingToBytes(info));
 			torrent.infoHash(infoHash);
 			return torrent;
 		} catch (NetException | IOException e) {
@@ -0,0 +1,141 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.DownloadException;
+
+/**
+ * <p>内存映射存储</p>
+ * <p>按照区域懒加载映射文件，映射以后使用绝对位置读写映射内存。</p>
+ * <p>读取没有写入（超过文件当前大小）的数据时使用文件通道读取：防止映射扩展文件大小</p>
+ * 
+ * @author acgist
+ */
+public final class TorrentMappedStorage extends TorrentStorage {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentMappedStorage.class);
+	
+	/**
+	 * <p>映射区域大小：{@value}</p>
+	 */
+	public static final int REGION_SIZE = 64 * SystemConfig.ONE_MB;
+	
+	/**
+	 * <p>映射区域</p>
+	 */
+	private final AtomicReferenceArray<MappedByteBuffer> regions;
+	
+	/**
+	 * @param filePath 文件路径
+	 * @param fileSize 文件大小
+	 * 
+	 * @throws DownloadException 下载异常
+	 */
+	TorrentMappedStorage(String filePath, long fileSize) throws DownloadException {
+		super(filePath, fileSize);
+		this.regions = new AtomicReferenceArray<>((int) ((fileSize + REGION_SIZE - 1) / REGION_SIZE));
+	}
+	
+	@Override
+	public int read(ByteBuffer buffer, long position) throws IOException {
+		final long limit = Math.min(this.fileSize, this.channel.size());
+		if(position + buffer.remaining() > limit) {
+			// 读取没有写入数据
+			return this.channelRead(buffer, position);
+		}
+		int size;
+		int regionPos;
+		int length = 0;
+		MappedByteBuffer region;
+		while(buffer.hasRemaining()) {
+			region = this.region(position + length);
+			regionPos = (int) ((position + length) % REGION_SIZE);
+			size = Math.min(buffer.remaining(), region.capacity() - regionPos);
+			buffer.put(buffer.position(), region, regionPos, size);
+			buffer.position(buffer.position() + size);
+			length += size;
+		}
+		return length;
+	}
+	
+	@Override
+	public int write(ByteBuffer buffer, long position) throws IOException {
+		if(position + buffer.remaining() > this.fileSize) {
+			// 超过文件大小
+			return this.channelWrite(buffer, position);
+		}
+		int size;
+		int regionPos;
+		int length = 0;
+		MappedByteBuffer region;
+		while(buffer.hasRemaining()) {
+			region = this.region(position + length);
+			regionPos = (int) ((position + length) % REGION_SIZE);
+			size = Math.min(buffer.remaining(), region.capacity() - regionPos);
+			region.put(regionPos, buffer, buffer.position(), size);
+			buffer.position(buffer.position() + size);
+			length += size;
+		}
+		return length;
+	}
+	
+	/**
+	 * <p>获取映射区域</p>
+	 * <p>没有映射时新建映射：并发映射时只会保留一个映射</p>
+	 * 
+	 * @param position 文件偏移
+	 * 
+	 * @return 映射区域
+	 * 
+	 * @throws IOException IO异常
+	 */
+	private MappedByteBuffer region(long position) throws IOException {
+		final int index = (int) (position / REGION_SIZE);
+		final MappedByteBuffer region = this.regions.get(index);
+		if(region != null) {
+			return region;
+		}
+		final long regionPos = (long) index * REGION_SIZE;
+		final long regionSize = Math.min(REGION_SIZE, this.fileSize - regionPos);
+		LOGGER.debug("映射文件区域：{}-{}-{}", this.filePath, regionPos, regionSize);
+		final MappedByteBuffer newRegion = this.channel.map(MapMode.READ_WRITE, regionPos, regionSize);
+		if(this.regions.compareAndSet(index, null, newRegion)) {
+			return newRegion;
+		}
+		return this.regions.get(index);
+	}
+	
+	@Override
+	public void force() throws IOException {
+		MappedByteBuffer region;
+		for (int index = 0; index < this.regions.length(); index++) {
+			region = this.regions.get(index);
+			if(region != null) {
+				region.force();
+			}
+		}
+		super.force();
+	}
+	
+	@Override
+	public void close() {
+		try {
+			this.force();
+		} catch (IOException e) {
+			LOGGER.error("刷出映射区域异常：{}", this.filePath, e);
+		}
+		// 映射内存释放依赖GC
+		for (int index = 0; index < this.regions.length(); index++) {
+			this.regions.set(index, null);
+		}
+		super.close();
+	}
+
+}
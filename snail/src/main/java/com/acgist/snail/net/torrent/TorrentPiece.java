@@ -1,6 +1,9 @@
 package com.acgist.snail.net.torrent;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.utils.BeanUtils;
@@ -62,6 +65,11 @@ public final class TorrentPiece {
 	 * <p>Piece数据内偏移</p>
 	 */
 	private int position;
+	/**
+	 * <p>需要重新请求的Slice（整个Piece内偏移）</p>
+	 * <p>Peer拒绝或者阻塞取消的请求</p>
+	 */
+	private final Deque<Integer> releaseSlices;
 	
 	/**
 	 * @param pieceLength Piece大小
@@ -82,6 +90,7 @@ public final class TorrentPiece {
 		this.data = new byte[this.length];
 		this.size = 0;
 		this.position = 0;
+		this.releaseSlices = new ArrayDeque<>();
 	}
 
 	/**
@@ -145,7 +154,26 @@ public final class TorrentPiece {
 	 * @return 是否还有更多的数据请求
 	 */
 	public boolean hasMoreSlice() {
-		return this.position < this.length;
+		return this.position < this.length || !this.releaseSlices.isEmpty();
+	}
+	
+	/**
+	 * <p>释放Slice</p>
+	 * <p>请求不会响应：重新请求</p>
+	 * 
+	 * @param begin 整个Piece内偏移
+	 * 
+	 * @return 是否释放
+	 */
+	public boolean release(int begin) {
+		if(begin < this.begin || begin >= this.begin + this.position) {
+			// 没有请求
+			return false;
+		}
+		if(this.releaseSlices.contains(begin)) {
+			return false;
+		}
+		return this.releaseSlices.offer(begin);
 	}
 	
 	/**
@@ -159,20 +187,29 @@ public final class TorrentPiece {
 	
 	/**
 	 * <p>获取整个Piece内偏移</p>
+	 * <p>优先返回释放的Slice</p>
 	 * 
 	 * @return 整个Piece内偏移
 	 */
 	public int position() {
+		final Integer begin = this.releaseSlices.peek();
+		if(begin != null) {
+			return begin;
+		}
 		return this.begin + this.position;
 	}
 	
 	/**
 	 * <p>获取本次请求数据大小</p>
-	 * <p>注意：会重新计算内偏移</p>
+	 * <p>注意：会重新计算内偏移（优先请求释放的Slice）</p>
 	 * 
 	 * @return 本次请求数据大小
 	 */
 	public int length() {
+		final Integer begin = this.releaseSlices.poll();
+		if(begin != null) {
+			return Math.min(SLICE_LENGTH, this.end - begin);
+		}
 		if(this.position >= this.length) {
 			return 0;
 		}
@@ -202,6 +239,24 @@ public final class TorrentPiece {
 		}
 	}
 	
+	/**
+	 * <p>写入Slice数据</p>
+	 * <p>直接读取缓冲区剩余数据写入Piece数据：不用复制临时数组</p>
+	 * 
+	 * @param begin Piece内开始偏移
+	 * @param buffer Slice数据
+	 * 
+	 * @return 是否下载完成
+	 */
+	public boolean write(final int begin, final ByteBuffer buffer) {
+		synchronized (this) {
+			final int length = buffer.remaining();
+			buffer.get(this.data, begin - this.begin, length);
+			this.size += length;
+			return this.completed();
+		}
+	}
+	
 	/**
 	 * <p>读取Slice数据</p>
 	 * 
@@ -235,6 +290,40 @@ public final class TorrentPiece {
 		return bytes;
 	}
 	
+	/**
+	 * <p>读取Slice数据</p>
+	 * <p>直接写入缓冲区：不用新建数组</p>
+	 * 
+	 * @param begin Piece内开始偏移
+	 * @param size 长度
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 读取数据长度：没有数据返回-1
+	 */
+	public int read(final int begin, final int size, final ByteBuffer buffer) {
+		if(begin >= this.end) {
+			return -1;
+		}
+		final int end = begin + size;
+		if(end <= this.begin) {
+			return -1;
+		}
+		// 当前数据开始偏移
+		int beginPos = 0;
+		if(begin > this.begin) {
+			beginPos = begin - this.begin;
+		}
+		// 当前数据结束偏移
+		int endPos = end - this.begin;
+		if (endPos > this.data.length) {
+			endPos = this.data.length;
+		}
+		// 读取数据真实长度
+		final int length = endPos - beginPos;
+		buffer.put(this.data, beginPos, length);
+		return length;
+	}
+	
 	/**
 	 * <p>校验数据</p>
 	 * 
@@ -0,0 +1,401 @@
+package com.acgist.snail.net.torrent;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.context.IContext;
+import com.acgist.snail.context.StatisticsContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * <p>Piece读取缓存</p>
+ * <p>所有任务共用缓存大小，缓存整个Piece，使用近似LRU算法淘汰（访问时钟最小的Piece最先淘汰）。</p>
+ * <p>Peer通常连续请求同一个Piece的所有Slice：第一次读取Slice时预读整个Piece</p>
+ * <p>同一个Piece同时没有命中只读取一次：其他线程等待读取结果</p>
+ * <p>缓存数据使用直接缓冲区：淘汰的缓冲区回收给后面预读使用</p>
+ * <p>跨越文件Piece可能只有部分数据：按照有效范围缓存，超出范围返回{@code -1}由调用者直接读取。</p>
+ * <p>命中统计：{@link StatisticsContext}</p>
+ * 
+ * @author acgist
+ */
+public final class TorrentReadCache implements IContext {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentReadCache.class);
+	
+	private static final TorrentReadCache INSTANCE = new TorrentReadCache();
+	
+	public static final TorrentReadCache getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>回收缓冲区最大数量：{@value}</p>
+	 */
+	private static final int MAX_RECYCLE_SIZE = 4;
+	
+	/**
+	 * <p>缓存</p>
+	 */
+	private final Map<PieceKey, CachePiece> cache;
+	/**
+	 * <p>正在读取的Piece</p>
+	 * <p>同一个Piece只有一个线程读取</p>
+	 */
+	private final Map<PieceKey, CompletableFuture<CachePiece>> loads;
+	/**
+	 * <p>回收缓冲区</p>
+	 */
+	private final Queue<ByteBuffer> recycles;
+	/**
+	 * <p>访问时钟</p>
+	 */
+	private final AtomicLong clock;
+	/**
+	 * <p>缓存大小</p>
+	 */
+	private final AtomicLong size;
+	
+	private TorrentReadCache() {
+		this.cache = new ConcurrentHashMap<>();
+		this.loads = new ConcurrentHashMap<>();
+		this.recycles = new ConcurrentLinkedQueue<>();
+		this.clock = new AtomicLong();
+		this.size = new AtomicLong();
+	}
+	
+	/**
+	 * <p>获取缓存容量</p>
+	 * <p>单个任务磁盘缓存 * 下载数量</p>
+	 * 
+	 * @return 缓存容量
+	 */
+	public long capacity() {
+		return (long) DownloadConfig.getMemoryBufferByte() * Math.max(1, DownloadConfig.getSize());
+	}
+	
+	/**
+	 * <p>判断Piece是否可以缓存</p>
+	 * <p>Piece大小超过缓存容量不能缓存：不用预读整个Piece</p>
+	 * 
+	 * @param length Piece大小
+	 * 
+	 * @return 是否可以缓存
+	 */
+	public boolean cacheable(int length) {
+		return length <= this.capacity();
+	}
+	
+	/**
+	 * <p>获取缓存大小</p>
+	 * 
+	 * @return 缓存大小
+	 */
+	public long size() {
+		return this.size.get();
+	}
+	
+	/**
+	 * <p>读取Piece数据</p>
+	 * <p>没有缓存时预读整个Piece：同一个Piece同时只有一个线程预读</p>
+	 * 
+	 * @param group 文件流组
+	 * @param index Piece索引
+	 * @param pieceLength Piece大小
+	 * @param begin Piece偏移
+	 * @param length 数据长度
+	 * @param buffer 缓冲区
+	 * @param loader 预读Piece（返回读取数据长度）
+	 * 
+	 * @return 读取数据长度（不能缓存或者超出有效范围：{@code -1}）
+	 */
+	public int read(
+		TorrentStreamGroup group, int index, int pieceLength,
+		int begin, int length, ByteBuffer buffer, ToIntFunction<ByteBuffer> loader
+	) {
+		if(!this.cacheable(pieceLength)) {
+			return -1;
+		}
+		final PieceKey key = new PieceKey(group, index);
+		CachePiece cachePiece = this.cache.get(key);
+		if(cachePiece != null) {
+			final int size = cachePiece.read(this.clock.incrementAndGet(), begin, length, buffer);
+			if(size >= 0) {
+				StatisticsContext.getInstance().readCacheHit();
+				return size;
+			}
+			if(cachePiece.available()) {
+				// 超出有效范围
+				StatisticsContext.getInstance().readCacheMiss();
+				return -1;
+			}
+		}
+		StatisticsContext.getInstance().readCacheMiss();
+		final CompletableFuture<CachePiece> future = new CompletableFuture<>();
+		final CompletableFuture<CachePiece> load = this.loads.putIfAbsent(key, future);
+		if(load == null) {
+			try {
+				cachePiece = this.load(key, pieceLength, loader);
+				future.complete(cachePiece);
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+				throw e;
+			} finally {
+				this.loads.remove(key, future);
+			}
+		} else {
+			// 等待其他线程读取
+			cachePiece = load.join();
+		}
+		if(cachePiece == null) {
+			return -1;
+		}
+		return cachePiece.read(this.clock.incrementAndGet(), begin, length, buffer);
+	}
+	
+	/**
+	 * <p>预读并且缓存Piece</p>
+	 * 
+	 * @param key Piece缓存标识
+	 * @param pieceLength Piece大小
+	 * @param loader 预读Piece
+	 * 
+	 * @return 缓存Piece（没有数据：{@code null}）
+	 */
+	private CachePiece load(PieceKey key, int pieceLength, ToIntFunction<ByteBuffer> loader) {
+		final ByteBuffer buffer = this.allocate(pieceLength);
+		final int size = loader.applyAsInt(buffer);
+		if(size <= 0) {
+			this.recycle(buffer);
+			return null;
+		}
+		buffer.flip();
+		final CachePiece cachePiece = new CachePiece(buffer, this.clock.incrementAndGet());
+		final CachePiece old = this.cache.put(key, cachePiece);
+		this.size.addAndGet(pieceLength);
+		if(old != null) {
+			this.release(old);
+		}
+		this.evict();
+		return cachePiece;
+	}
+	
+	/**
+	 * <p>申请缓冲区</p>
+	 * <p>优先使用回收缓冲区</p>
+	 * 
+	 * @param length 缓冲区大小
+	 * 
+	 * @return 缓冲区
+	 */
+	private ByteBuffer allocate(int length) {
+		final var iterator = this.recycles.iterator();
+		while(iterator.hasNext()) {
+			final ByteBuffer buffer = iterator.next();
+			if(buffer.capacity() == length && this.recycles.remove(buffer)) {
+				buffer.clear();
+				return buffer;
+			}
+		}
+		return ByteBuffer.allocateDirect(length);
+	}
+	
+	/**
+	 * <p>回收缓冲区</p>
+	 * 
+	 * @param buffer 缓冲区
+	 */
+	private void recycle(ByteBuffer buffer) {
+		if(this.recycles.size() < MAX_RECYCLE_SIZE) {
+			this.recycles.offer(buffer);
+		}
+	}
+	
+	/**
+	 * <p>释放缓存Piece</p>
+	 * 
+	 * @param cachePiece 缓存Piece
+	 */
+	private void release(CachePiece cachePiece) {
+		final ByteBuffer buffer = cachePiece.release();
+		if(buffer != null) {
+			this.size.addAndGet(-buffer.capacity());
+			this.recycle(buffer);
+		}
+	}
+	
+	/**
+	 * <p>淘汰缓存</p>
+	 * <p>超过缓存容量淘汰访问时钟最小的Piece</p>
+	 */
+	private void evict() {
+		final long capacity = this.capacity();
+		synchronized (this) {
+			while(this.size.get() > capacity) {
+				Map.Entry<PieceKey, CachePiece> eldest = null;
+				for (Map.Entry<PieceKey, CachePiece> entry : this.cache.entrySet()) {
+					if(eldest == null || entry.getValue().access < eldest.getValue().access) {
+						eldest = entry;
+					}
+				}
+				if(eldest == null) {
+					break;
+				}
+				if(this.cache.remove(eldest.getKey(), eldest.getValue())) {
+					this.release(eldest.getValue());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * <p>删除Piece数据</p>
+	 * 
+	 * @param group 文件流组
+	 * @param index Piece索引
+	 */
+	public void remove(TorrentStreamGroup group, int index) {
+		final CachePiece old = this.cache.remove(new PieceKey(group, index));
+		if(old != null) {
+			this.release(old);
+		}
+	}
+	
+	/**
+	 * <p>删除文件流组所有Piece数据</p>
+	 * 
+	 * @param group 文件流组
+	 */
+	public void remove(TorrentStreamGroup group) {
+		final var iterator = this.cache.entrySet().iterator();
+		while(iterator.hasNext()) {
+			final var entry = iterator.next();
+			if(entry.getKey().group == group) {
+				iterator.remove();
+				this.release(entry.getValue());
+			}
+		}
+		LOGGER.debug("删除Piece读取缓存：{}", group);
+	}
+	
+	/**
+	 * <p>缓存Piece</p>
+	 * <p>读取和释放使用同一个锁：释放以后缓冲区回收不能继续读取</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class CachePiece {
+
+		/**
+		 * <p>Piece数据</p>
+		 * <p>有效范围：0~limit</p>
+		 */
+		private ByteBuffer buffer;
+		/**
+		 * <p>访问时钟</p>
+		 */
+		private volatile long access;
+		
+		/**
+		 * @param buffer Piece数据
+		 * @param access 访问时钟
+		 */
+		private CachePiece(ByteBuffer buffer, long access) {
+			this.buffer = buffer;
+			this.access = access;
+		}
+		
+		/**
+		 * <p>读取数据</p>
+		 * 
+		 * @param access 访问时钟
+		 * @param begin Piece偏移
+		 * @param length 数据长度
+		 * @param target 缓冲区
+		 * 
+		 * @return 读取数据长度（已经释放或者超出有效范围：{@code -1}）
+		 */
+		private synchronized int read(long access, int begin, int length, ByteBuffer target) {
+			if(this.buffer == null || begin + length > this.buffer.limit()) {
+				return -1;
+			}
+			this.access = access;
+			target.put(target.position(), this.buffer, begin, length);
+			target.position(target.position() + length);
+			return length;
+		}
+		
+		/**
+		 * <p>判断是否可用（没有释放）</p>
+		 * 
+		 * @return 是否可用
+		 */
+		private synchronized boolean available() {
+			return this.buffer != null;
+		}
+		
+		/**
+		 * <p>释放缓存</p>
+		 * 
+		 * @return Piece数据（已经释放：{@code null}）
+		 */
+		private synchronized ByteBuffer release() {
+			final ByteBuffer buffer = this.buffer;
+			this.buffer = null;
+			return buffer;
+		}
+	
+	}
+	
+	/**
+	 * <p>Piece缓存标识</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class PieceKey {
+
+		/**
+		 * <p>文件流组</p>
+		 */
+		private final TorrentStreamGroup group;
+		/**
+		 * <p>Piece索引</p>
+		 */
+		private final int index;
+		
+		/**
+		 * @param group 文件流组
+		 * @param index Piece索引
+		 */
+		private PieceKey(TorrentStreamGroup group, int index) {
+			this.group = group;
+			this.index = index;
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(System.identityHashCode(this.group), this.index);
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			if(this == object) {
+				return true;
+			}
+			if(object instanceof PieceKey key) {
+				return this.group == key.group && this.index == key.index;
+			}
+			return false;
+		}
+	
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.acgist.snail.net.torrent;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -21,6 +22,8 @@ import com.acgist.snail.net.IMultifileCompletedChecker;
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.PacketSizeException;
 import com.acgist.snail.net.torrent.dht.DhtLauncher;
+import com.acgist.snail.net.torrent.peer.IPeerChoker;
+import com.acgist.snail.net.torrent.peer.PeerConnect;
 import com.acgist.snail.net.torrent.peer.PeerContext;
 import com.acgist.snail.net.torrent.peer.PeerDownloaderGroup;
 import com.acgist.snail.net.torrent.peer.PeerSession;
@@ -123,6 +126,10 @@ public final class TorrentSession implements IMultifileCompletedChecker {
 	 * <p>PeerUploaderGroup定时器</p>
 	 */
 	private ScheduledFuture<?> peerUploaderGroupScheduled;
+	/**
+	 * <p>阻塞调度定时器</p>
+	 */
+	private ScheduledFuture<?> peerChokerScheduled;
 	/**
 	 * <p>PeerDownloaderGroup定时器</p>
 	 */
@@ -358,6 +365,12 @@ public final class TorrentSession implements IMultifileCompletedChecker {
 			TimeUnit.SECONDS,
 			this.peerUploaderGroup::optimize
 		);
+		this.peerChokerScheduled = this.scheduledAtFixedDelay(
+			IPeerChoker.CHOKE_INTERVAL,
+			IPeerChoker.CHOKE_INTERVAL,
+			TimeUnit.SECONDS,
+			this.peerUploaderGroup::choke
+		);
 	}
 	
 	/**
@@ -550,6 +563,7 @@ public final class TorrentSession implements IMultifileCompletedChecker {
 		this.useable = false;
 		this.uploadable = false;
 		LOGGER.debug("Torrent释放资源（上传）");
+		SystemThreadContext.shutdownNow(this.peerChokerScheduled);
 		SystemThreadContext.shutdownNow(this.peerUploaderGroupScheduled);
 		if(this.peerUploaderGroup != null) {
 			this.peerUploaderGroup.release();
@@ -837,6 +851,17 @@ public final class TorrentSession implements IMultifileCompletedChecker {
 		return torrentStreamGroup.pick(peerPieces, suggestPieces);
 	}
 	
+	/**
+	 * <p>获取Piece可用度</p>
+	 * 
+	 * @return Piece可用度
+	 * 
+	 * @see TorrentStreamGroup#availability()
+	 */
+	public PieceAvailability availability() {
+		return this.torrentStreamGroup.availability();
+	}
+	
 	/**
 	 * <p>读取Piece数据</p>
 	 * 
@@ -853,6 +878,24 @@ public final class TorrentSession implements IMultifileCompletedChecker {
 	public byte[] read(int index, int begin, int length) throws NetException {
 		return this.torrentStreamGroup.read(index, begin, length);
 	}
+	
+	/**
+	 * <p>读取Piece数据</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece偏移
+	 * @param length 数据长度
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 读取数据长度
+	 * 
+	 * @throws NetException 网络异常
+	 * 
+	 * @see TorrentStreamGroup#read(int, int, int, ByteBuffer)
+	 */
+	public int read(int index, int begin, int length, ByteBuffer buffer) throws NetException {
+		return this.torrentStreamGroup.read(index, begin, length, buffer);
+	}
 
 	/**
 	 * <p>保存Piece</p>
@@ -999,6 +1042,22 @@ public final class TorrentSession implements IMultifileCompletedChecker {
 		return this.peerUploaderGroup.newPeerUploader(peerSession, peerSubMessageHandler);
 	}
 	
+	/**
+	 * <p>Peer感兴趣：判断是否立即解除阻塞</p>
+	 * 
+	 * @param peerConnect Peer连接
+	 * 
+	 * @return 是否解除阻塞
+	 * 
+	 * @see PeerUploaderGroup#interested(PeerConnect)
+	 */
+	public boolean interested(PeerConnect peerConnect) {
+		if(this.peerUploaderGroup == null) {
+			return false;
+		}
+		return this.peerUploaderGroup.interested(peerConnect);
+	}
+	
 	@Override
 	public String toString() {
 		return BeanUtils.toString(this, this.name());
@@ -0,0 +1,202 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.config.DownloadConfig.StorageMode;
+import com.acgist.snail.net.DownloadException;
+import com.acgist.snail.utils.FileUtils;
+import com.acgist.snail.utils.IoUtils;
+
+/**
+ * <p>文件存储</p>
+ * <p>所有读写使用绝对位置：不会修改通道位置，读写不同Piece不用加锁。</p>
+ *
+ * @author acgist
+ *
+ * @see StorageMode
+ */
+public abstract class TorrentStorage implements AutoCloseable {
+
+	/**
+	 * <p>文件路径</p>
+	 */
+	protected final String filePath;
+	/**
+	 * <p>文件大小</p>
+	 */
+	protected final long fileSize;
+	/**
+	 * <p>文件通道</p>
+	 */
+	protected final FileChannel channel;
+	
+	/**
+	 * @param filePath 文件路径
+	 * @param fileSize 文件大小
+	 * 
+	 * @throws DownloadException 下载异常
+	 */
+	protected TorrentStorage(String filePath, long fileSize) throws DownloadException {
+		this.filePath = filePath;
+		this.fileSize = fileSize;
+		this.channel = this.buildChannel();
+	}
+	
+	/**
+	 * <p>新建文件存储</p>
+	 * 
+	 * @param filePath 文件路径
+	 * @param fileSize 文件大小
+	 * 
+	 * @return 文件存储
+	 * 
+	 * @throws DownloadException 下载异常
+	 * 
+	 * @see DownloadConfig#getStorage()
+	 */
+	public static final TorrentStorage newInstance(String filePath, long fileSize) throws DownloadException {
+		final StorageMode storage = DownloadConfig.getStorage();
+		if(storage == StorageMode.MAPPED) {
+			return new TorrentMappedStorage(filePath, fileSize);
+		}
+		return new TorrentChannelStorage(filePath, fileSize);
+	}
+	
+	/**
+	 * <p>新建文件通道</p>
+	 * 
+	 * @return 文件通道
+	 * 
+	 * @throws DownloadException 下载异常
+	 */
+	private FileChannel buildChannel() throws DownloadException {
+		FileUtils.buildParentFolder(this.filePath);
+		try {
+			return FileChannel.open(
+				Paths.get(this.filePath),
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE
+			);
+		} catch (IOException e) {
+			throw new DownloadException("新建文件通道失败：" + this.filePath, e);
+		}
+	}
+	
+	/**
+	 * <p>读取数据</p>
+	 * <p>读取数据直到缓冲区填满或者到达文件末尾</p>
+	 * 
+	 * @param buffer 缓冲区
+	 * @param position 文件偏移
+	 * 
+	 * @return 读取数据长度
+	 * 
+	 * @throws IOException IO异常
+	 */
+	public abstract int read(ByteBuffer buffer, long position) throws IOException;
+	
+	/**
+	 * <p>写入数据</p>
+	 * <p>写入缓冲区所有剩余数据</p>
+	 * 
+	 * @param buffer 缓冲区
+	 * @param position 文件偏移
+	 * 
+	 * @return 写入数据长度
+	 * 
+	 * @throws IOException IO异常
+	 */
+	public abstract int write(ByteBuffer buffer, long position) throws IOException;
+	
+	/**
+	 * <p>写入数据</p>
+	 * <p>多个缓冲区数据从文件偏移开始连续写入</p>
+	 * 
+	 * @param buffers 缓冲区
+	 * @param position 文件偏移
+	 * 
+	 * @return 写入数据长度
+	 * 
+	 * @throws IOException IO异常
+	 */
+	public long write(ByteBuffer[] buffers, long position) throws IOException {
+		long length = 0L;
+		for (ByteBuffer buffer : buffers) {
+			length += this.write(buffer, position + length);
+		}
+		return length;
+	}
+	
+	/**
+	 * <p>获取文件当前大小</p>
+	 * 
+	 * @return 文件当前大小
+	 * 
+	 * @throws IOException IO异常
+	 */
+	public long size() throws IOException {
+		return this.channel.size();
+	}
+	
+	/**
+	 * <p>刷出数据到磁盘</p>
+	 * 
+	 * @throws IOException IO异常
+	 */
+	public void force() throws IOException {
+		this.channel.force(false);
+	}
+	
+	/**
+	 * <p>通道读取数据</p>
+	 * 
+	 * @param buffer 缓冲区
+	 * @param position 文件偏移
+	 * 
+	 * @return 读取数据长度
+	 * 
+	 * @throws IOException IO异常
+	 */
+	protected final int channelRead(ByteBuffer buffer, long position) throws IOException {
+		int size;
+		int length = 0;
+		while(buffer.hasRemaining()) {
+			size = this.channel.read(buffer, position + length);
+			if(size < 0) {
+				break;
+			}
+			length += size;
+		}
+		return length;
+	}
+	
+	/**
+	 * <p>通道写入数据</p>
+	 * 
+	 * @param buffer 缓冲区
+	 * @param position 文件偏移
+	 * 
+	 * @return 写入数据长度
+	 * 
+	 * @throws IOException IO异常
+	 */
+	protected final int channelWrite(ByteBuffer buffer, long position) throws IOException {
+		int length = 0;
+		while(buffer.hasRemaining()) {
+			length += this.channel.write(buffer, position + length);
+		}
+		return length;
+	}
+	
+	@Override
+	public void close() {
+		IoUtils.close(this.channel);
+	}
+
+}
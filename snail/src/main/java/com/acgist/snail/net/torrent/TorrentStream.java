@@ -1,23 +1,23 @@
 package com.acgist.snail.net.torrent;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.acgist.snail.config.DownloadConfig;
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.DownloadException;
 import com.acgist.snail.utils.BeanUtils;
 import com.acgist.snail.utils.DigestUtils;
-import com.acgist.snail.utils.FileUtils;
 import com.acgist.snail.utils.IoUtils;
 import com.acgist.snail.utils.StringUtils;
 
@@ -30,11 +30,6 @@ public final class TorrentStream {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentStream.class);
 	
-	/**
-	 * <p>文件流模式：{@value}</p>
-	 */
-	private static final String STREAM_MODE = "rw";
-
 	/**
 	 * <p>文件是否选择下载</p>
 	 */
@@ -91,15 +86,24 @@ public final class TorrentStream {
 	 */
 	private final BitSet downloadPieces;
 	/**
-	 * <p>Piece缓存队列</p>
+	 * <p>Piece缓存</p>
+	 * <p>按照Piece索引排序：刷出时合并相邻Piece</p>
+	 * 
+	 * @see TorrentWriteCache
 	 */
-	private final BlockingQueue<TorrentPiece> cachePieces;
+	private final NavigableMap<Integer, TorrentPiece> cachePieces;
 	/**
-	 * <p>文件流</p>
+	 * <p>刷出锁</p>
+	 * <p>刷出缓存不能持有文件流锁：写入文件时不能阻塞其他Peer保存和挑选Piece</p>
+	 */
+	private final Object flushLock;
+	/**
+	 * <p>文件存储</p>
+	 * <p>使用绝对位置读写：读取数据不用加锁</p>
 	 * 
-	 * TODO：使用NIO（FileChannel或者MappedByteBuffer）结合TorrentPiece优化读写性能（没太大必要毕竟下载最重要的问题是网络IO）
+	 * @see DownloadConfig#getStorage()
 	 */
-	private final RandomAccessFile fileStream;
+	private final TorrentStorage fileStorage;
 	/**
 	 * <p>文件流组</p>
 	 */
@@ -136,8 +140,9 @@ public final class TorrentStream {
 		this.pieces = new BitSet();
 		this.pausePieces = new BitSet();
 		this.downloadPieces = new BitSet();
-		this.cachePieces = new LinkedBlockingQueue<>();
-		this.fileStream = this.buildFileStream();
+		this.cachePieces = new ConcurrentSkipListMap<>();
+		this.flushLock = new Object();
+		this.fileStorage = TorrentStorage.newInstance(this.filePath, this.fileSize);
 		this.torrentStreamGroup = torrentStreamGroup;
 		this.buildPieces(completed);
 		this.buildFileDownloadSize();
@@ -186,22 +191,6 @@ public final class TorrentStream {
 		return new TorrentStream(pieceLength, path, size, pos, completed, torrentStreamGroup);
 	}
 	
-	/**
-	 * <p>新建文件流</p>
-	 * 
-	 * @return 文件流
-	 * 
-	 * @throws DownloadException 下载异常
-	 */
-	private RandomAccessFile buildFileStream() throws DownloadException {
-		FileUtils.buildParentFolder(this.filePath);
-		try {
-			return new RandomAccessFile(this.filePath, STREAM_MODE);
-		} catch (FileNotFoundException e) {
-			throw new DownloadException("新建文件流失败：" + this.filePath, e);
-		}
-	}
-	
 	/**
 	 * <p>加载文件流</p>
 	 */
@@ -241,7 +230,7 @@ public final class TorrentStream {
 	 * 
 	 * @param selectPieces 选择下载Piece
 	 */
-	public void buildSelectPieces(final BitSet selectPieces) {
+	public void buildSelectPieces(final AtomicBitmap selectPieces) {
 		selectPieces.set(this.fileBeginPieceIndex, this.fileEndPieceIndex + 1);
 	}
 	
@@ -278,26 +267,75 @@ public final class TorrentStream {
 				return null;
 			}
 			LOGGER.debug("选择Piece（选中）：{}-{}", index, this.downloadPieces);
-			this.downloadPieces.set(index);
-			// 是否验证：第一块和最后一块不用校验
-			boolean verify = true;
-			// Piece开始内偏移
-			int begin = 0;
-			if(index == this.fileBeginPieceIndex) {
-				verify = false;
-				begin = this.firstPiecePos();
-			}
-			// Piece结束内偏移
-			int end = (int) this.pieceLength;
-			if(index == this.fileEndPieceIndex) {
-				verify = false;
-				end = this.lastPiecePos();
+			return this.buildPiece(index);
+		}
+	}
+	
+	/**
+	 * <p>挑选指定下载Piece</p>
+	 * <p>稀有优先挑选：Piece没有下载完成、不是暂停中的Piece、不是下载中的Piece</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return 下载Piece（不能下载：{@code null}）
+	 */
+	public TorrentPiece pick(int index) {
+		synchronized (this) {
+			if(!this.pickable(index)) {
+				return null;
 			}
-			// 快速循环挑选Piece：新建Piece数据消耗性能
-			final byte[] hash = this.torrentStreamGroup.pieceHash(index);
-			return TorrentPiece.newInstance(this.pieceLength, index, begin, end, hash, verify);
+			LOGGER.debug("选择Piece（稀有）：{}", index);
+			return this.buildPiece(index);
 		}
 	}
+	
+	/**
+	 * <p>判断Piece是否可以挑选</p>
+	 * <p>没有加锁：挑选时重新判断</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return 是否可以挑选
+	 * 
+	 * @see #pick(int)
+	 */
+	public boolean pickable(int index) {
+		return
+			index >= this.fileBeginPieceIndex &&
+			index <= this.fileEndPieceIndex &&
+			!this.pieces.get(index) &&
+			!this.pausePieces.get(index) &&
+			!this.downloadPieces.get(index);
+	}
+	
+	/**
+	 * <p>新建下载Piece</p>
+	 * <p>标记Piece正在下载</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return 下载Piece
+	 */
+	private TorrentPiece buildPiece(int index) {
+		this.downloadPieces.set(index);
+		// 是否验证：第一块和最后一块不用校验
+		boolean verify = true;
+		// Piece开始内偏移
+		int begin = 0;
+		if(index == this.fileBeginPieceIndex) {
+			verify = false;
+			begin = this.firstPiecePos();
+		}
+		// Piece结束内偏移
+		int end = (int) this.pieceLength;
+		if(index == this.fileEndPieceIndex) {
+			verify = false;
+			end = this.lastPiecePos();
+		}
+		// 快速循环挑选Piece：新建Piece数据消耗性能
+		final byte[] hash = this.torrentStreamGroup.pieceHash(index);
+		return TorrentPiece.newInstance(this.pieceLength, index, begin, end, hash, verify);
+	}
 
 	/**
 	 * <p>挑选下载Piece位图</p>
@@ -364,6 +402,7 @@ public final class TorrentStream {
 			// 文件不含当前Piece
 			return false;
 		}
+		final boolean flush;
 		synchronized (this) {
 			final int index = piece.getIndex();
 			if(this.hasPiece(index)) {
@@ -372,22 +411,24 @@ public final class TorrentStream {
 				// 此处不能返回成功：防止计算文件已经下载大小错误
 				return false;
 			}
-			// 加入缓存队列
-			if(this.cachePieces.offer(piece)) {
+			// 加入缓存
+			if(this.cachePieces.putIfAbsent(index, piece) == null) {
 				LOGGER.debug("保存Piece成功：{}", index);
+				final boolean full = TorrentWriteCache.getInstance().put(this.torrentStreamGroup, piece.getLength());
 				this.done(index);
 				this.buildFileDownloadSize();
-				// 下载完成数据刷出
-				if(this.completed()) {
-					this.flush();
-					// 可以将文件流变为读取模式
-				}
-				return true;
+				// 下载完成或者缓存超过限制数据刷出
+				flush = full || this.completed();
 			} else {
 				LOGGER.warn("保存Piece失败：{}", index);
 				return false;
 			}
 		}
+		if(flush) {
+			// 释放文件流锁以后刷出
+			this.flush();
+		}
+		return true;
 	}
 	
 	/**
@@ -422,6 +463,7 @@ public final class TorrentStream {
 	
 	/**
 	 * <p>读取Piece</p>
+	 * <p>文件存储使用绝对位置读取：不用加锁</p>
 	 * 
 	 * @param index Piece索引
 	 * @param length 数据大小
@@ -432,9 +474,24 @@ public final class TorrentStream {
 	 * @see #read(int, int, int, boolean)
 	 */
 	public byte[] read(int index, int length, int pos) {
-		synchronized (this) {
-			return this.read(index, length, pos, false);
-		}
+		return this.read(index, length, pos, false);
+	}
+	
+	/**
+	 * <p>读取Piece</p>
+	 * <p>数据直接写入缓冲区：不用新建数组</p>
+	 * 
+	 * @param index Piece索引
+	 * @param length 数据大小
+	 * @param pos 数据偏移
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 读取数据长度：没有数据返回-1
+	 * 
+	 * @see #read(int, int, int, boolean, ByteBuffer)
+	 */
+	public int read(int index, int length, int pos, ByteBuffer buffer) {
+		return this.read(index, length, pos, false, buffer);
 	}
 	
 	/**
@@ -448,16 +505,43 @@ public final class TorrentStream {
 	 * @param ignoreHasPiece 是否忽略已经下载Piece位图
 	 * 
 	 * @return Piece数据
+	 * 
+	 * @see #read(int, int, int, boolean, ByteBuffer)
 	 */
 	private byte[] read(int index, int length, int pos, boolean ignoreHasPiece) {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		final int size = this.read(index, length, pos, ignoreHasPiece, buffer);
+		if(size < 0) {
+			return null;
+		}
+		if(size == length) {
+			return buffer.array();
+		}
+		return Arrays.copyOf(buffer.array(), size);
+	}
+	
+	/**
+	 * <p>读取Piece</p>
+	 * <p>如果选择Piece不在文件范围内返回：-1</p>
+	 * <p>如果读取数据只有部分符合文件范围：写入符合部分数据</p>
+	 * 
+	 * @param index Piece索引
+	 * @param length 数据大小
+	 * @param pos 数据偏移
+	 * @param ignoreHasPiece 是否忽略已经下载Piece位图
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 读取数据长度：没有数据返回-1
+	 */
+	private int read(int index, int length, int pos, boolean ignoreHasPiece, ByteBuffer buffer) {
 		// 判断Piece数据是否已经下载
 		if(!ignoreHasPiece && !this.hasPiece(index)) {
-			return null;
+			return -1;
 		}
 		// 读取缓存数据
 		final TorrentPiece cachePiece = this.cachePiece(index);
 		if(cachePiece != null) {
-			return cachePiece.read(pos, length);
+			return cachePiece.read(pos, length, buffer);
 		}
 		// 读取文件数据
 		// 文件偏移
@@ -467,10 +551,10 @@ public final class TorrentStream {
 		// 结束偏移
 		final long endPos = beginPos + length;
 		if(beginPos >= this.fileEndPos) {
-			return null;
+			return -1;
 		}
 		if(endPos <= this.fileBeginPos) {
-			return null;
+			return -1;
 		}
 		if(beginPos <= this.fileBeginPos) {
 			// Piece包含文件开始
@@ -483,16 +567,17 @@ public final class TorrentStream {
 			// Piece包含文件结束
 			length = (int) (length - (endPos - this.fileEndPos));
 		}
+		// 限制读取长度：不用复制缓冲区
+		final int limit = buffer.limit();
+		buffer.limit(buffer.position() + length);
 		try {
-			final byte[] bytes = new byte[length];
-			// 注意线程安全
-			this.fileStream.seek(seek);
-			this.fileStream.read(bytes);
-			return bytes;
+			return this.fileStorage.read(buffer, seek);
 		} catch (IOException e) {
 			LOGGER.error("读取Piece异常：{}-{}-{}-{}", index, seek, length, pos, e);
+		} finally {
+			buffer.limit(limit);
 		}
-		return null;
+		return -1;
 	}
 	
 	/**
@@ -547,7 +632,7 @@ public final class TorrentStream {
 	 */
 	public void release() {
 		this.flush();
-		IoUtils.close(this.fileStream);
+		IoUtils.close(this.fileStorage);
 	}
 
 	/**
@@ -601,7 +686,7 @@ public final class TorrentStream {
 	 */
 	public boolean verify() throws IOException {
 		int verifyFailCount = 0;
-		final boolean empty = this.fileStream.length() == 0;
+		final boolean empty = this.fileStorage.size() == 0;
 		synchronized (this) {
 			final MessageDigest digest = DigestUtils.sha1();
 			for (int index = this.fileBeginPieceIndex; index <= this.fileEndPieceIndex; index++) {
@@ -635,52 +720,76 @@ public final class TorrentStream {
 	
 	/**
 	 * <p>刷出缓存</p>
+	 * <p>相邻Piece合并以后顺序写入文件</p>
+	 * <p>先写出数据再从缓存删除：读取数据不用加锁</p>
+	 * <p>文件流锁只用来获取缓存快照：写入文件只持有刷出锁</p>
 	 */
 	public void flush() {
-		synchronized (this) {
-			final var list = new ArrayList<TorrentPiece>();
-			this.cachePieces.drainTo(list);
-			list.forEach(this::flush);
+		synchronized (this.flushLock) {
+			final List<TorrentPiece> snapshot;
+			synchronized (this) {
+				snapshot = new ArrayList<>(this.cachePieces.values());
+			}
+			final List<TorrentPiece> pieces = new ArrayList<>();
+			for (TorrentPiece piece : snapshot) {
+				if(!pieces.isEmpty() && pieces.get(pieces.size() - 1).getIndex() + 1 != piece.getIndex()) {
+					this.flush(pieces);
+					pieces.clear();
+				}
+				pieces.add(piece);
+			}
+			if(!pieces.isEmpty()) {
+				this.flush(pieces);
+			}
 		}
 	}
 	
 	/**
-	 * <p>写出Piece</p>
+	 * <p>写出相邻Piece</p>
 	 * 
-	 * @param piece Piece
+	 * @param pieces 相邻Piece
 	 */
-	private void flush(TorrentPiece piece) {
-		final int index = piece.getIndex();
-		LOGGER.debug("写出Piece：{}", index);
-		// 数据偏移
-		int offset = 0;
+	private void flush(List<TorrentPiece> pieces) {
 		// 文件偏移
-		long seek = 0L;
-		// 数据长度
-		int length = piece.getLength();
-		// 开始偏移
-		final long beginPos = piece.beginPos();
-		// 结束偏移
-		final long endPos = piece.endPos();
-		if(beginPos <= this.fileBeginPos) {
-			// Piece包含文件开始
-			offset = (int) (this.fileBeginPos - beginPos);
-			length = length - offset;
-		} else {
-			// 文件包含Piece开始
-			seek = beginPos - this.fileBeginPos;
-		}
-		if(endPos >= this.fileEndPos) {
-			// Piece包含文件结束
-			length = (int) (length - (endPos - this.fileEndPos));
+		long seek = -1L;
+		// 写入数据长度
+		long length = 0L;
+		final ByteBuffer[] buffers = new ByteBuffer[pieces.size()];
+		for (int index = 0; index < buffers.length; index++) {
+			final TorrentPiece piece = pieces.get(index);
+			// 数据偏移
+			int offset = 0;
+			// 数据长度
+			int pieceLength = piece.getLength();
+			// 开始偏移
+			final long beginPos = piece.beginPos();
+			// 结束偏移
+			final long endPos = piece.endPos();
+			if(beginPos <= this.fileBeginPos) {
+				// Piece包含文件开始
+				offset = (int) (this.fileBeginPos - beginPos);
+				pieceLength = pieceLength - offset;
+			}
+			if(seek < 0L) {
+				seek = beginPos <= this.fileBeginPos ? 0L : beginPos - this.fileBeginPos;
+			}
+			if(endPos >= this.fileEndPos) {
+				// Piece包含文件结束
+				pieceLength = (int) (pieceLength - (endPos - this.fileEndPos));
+			}
+			buffers[index] = ByteBuffer.wrap(piece.getData(), offset, pieceLength);
+			length += pieceLength;
 		}
+		LOGGER.debug("写出Piece：{}-{}-{}", pieces.get(0).getIndex(), buffers.length, length);
 		try {
-			final byte[] bytes = piece.getData();
-			// 注意线程安全
-			this.fileStream.seek(seek);
-			this.fileStream.write(bytes, offset, length);
+			this.fileStorage.write(buffers, seek);
 		} catch (IOException e) {
-			LOGGER.error("写出Piece异常：{}-{}-{}-{}", index, seek, offset, length, e);
+			LOGGER.error("写出Piece异常：{}-{}-{}", pieces.get(0).getIndex(), seek, length, e);
+		}
+		final TorrentWriteCache writeCache = TorrentWriteCache.getInstance();
+		for (TorrentPiece piece : pieces) {
+			this.cachePieces.remove(piece.getIndex());
+			writeCache.release(piece.getLength());
 		}
 	}
 	
@@ -692,15 +801,7 @@ public final class TorrentStream {
 	 * @return Piece数据
 	 */
 	private TorrentPiece cachePiece(int index) {
-		TorrentPiece torrentPiece;
-		final var iterator = this.cachePieces.iterator();
-		while(iterator.hasNext()) {
-			torrentPiece = iterator.next();
-			if(torrentPiece.getIndex() == index) {
-				return torrentPiece;
-			}
-		}
-		return null;
+		return this.cachePieces.get(index);
 	}
 	
 	/**
@@ -5,12 +5,13 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.config.DownloadConfig.PickMode;
 import com.acgist.snail.config.PeerConfig;
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.logger.Logger;
@@ -39,17 +40,23 @@ public final class TorrentStreamGroup {
 	/**
 	 * <p>已经下载Piece位图</p>
 	 */
-	private final BitSet pieces;
+	private final AtomicBitmap pieces;
 	/**
 	 * <p>选择下载Piece位图</p>
+	 * <p>只在加载文件时修改（写锁）</p>
 	 */
-	private final BitSet selectPieces;
+	private final AtomicBitmap selectPieces;
+	/**
+	 * <p>剩余下载Piece数量</p>
+	 * <p>选择下载并且没有下载：加载文件时重新计算，下载成功和失败时增量修改。</p>
+	 */
+	private final AtomicInteger remainingPieceSize;
 	/**
 	 * <p>是否含有完整选择下载Piece位图</p>
 	 * 
 	 * @see #health()
 	 */
-	private boolean full;
+	private volatile boolean full;
 	/**
 	 * <p>完整Piece位图</p>
 	 * <p>已经下载Piece位图和Peer已经下载Piece位图</p>
@@ -62,11 +69,13 @@ public final class TorrentStreamGroup {
 	 * 
 	 * @see #health()
 	 */
-	private final BitSet fullPieces;
+	private final AtomicBitmap fullPieces;
 	/**
-	 * <p>文件流中Piece缓存大小</p>
+	 * <p>Piece可用度</p>
+	 * 
+	 * @see DownloadConfig#getPick()
 	 */
-	private final AtomicLong fileBufferSize;
+	private final PieceAvailability availability;
 	/**
 	 * <p>种子信息</p>
 	 */
@@ -102,12 +111,18 @@ public final class TorrentStreamGroup {
 	 */
 	private TorrentStreamGroup(TorrentSession torrentSession) {
 		final Torrent torrent = torrentSession.torrent();
-		this.pieces = torrentSession.buildPieces();
-		this.selectPieces = new BitSet(torrent.getInfo().pieceSize());
+		final int pieceSize = torrent.getInfo().pieceSize();
+		final BitSet pieces = torrentSession.buildPieces();
+		this.pieces = new AtomicBitmap(pieceSize);
+		this.pieces.set(pieces);
+		this.selectPieces = new AtomicBitmap(pieceSize);
+		this.remainingPieceSize = new AtomicInteger(0);
+		this.availability = new PieceAvailability(pieceSize);
+		// 已经下载Piece不用挑选
+		pieces.stream().forEach(this.availability::remove);
 		this.full = false;
-		this.fullPieces = new BitSet();
-		this.fullPieces(this.pieces);
-		this.fileBufferSize = new AtomicLong(0);
+		this.fullPieces = new AtomicBitmap(pieceSize);
+		this.fullPieces(pieces);
 		this.torrent = torrent;
 		this.streams = new ArrayList<>();
 		this.torrentSession = torrentSession;
@@ -164,9 +179,9 @@ public final class TorrentStreamGroup {
 			return loadFileCount;
 		}
 		this.full = false;
-		this.selectPieces.clear();
 		this.writeLock.lock();
 		try {
+			this.selectPieces.clear();
 			final long startTime = System.currentTimeMillis();
 			// 开始加载下载文件
 			long pos = 0;
@@ -219,6 +234,8 @@ public final class TorrentStreamGroup {
 				final int targetIndex = sortList.indexOf(target);
 				return Integer.compare(sourceIndex, targetIndex);
 			});
+			// 选择下载Piece修改：重新计算剩余下载Piece数量
+			this.remainingPieceSize.set(this.selectPieces.andNotCardinality(this.pieces));
 			final long finishTime = System.currentTimeMillis();
 			if(LOGGER.isDebugEnabled()) {
 				LOGGER.debug("任务加载耗时：{}-{}", this.torrentSession, (finishTime - startTime));
@@ -227,7 +244,7 @@ public final class TorrentStreamGroup {
 			this.writeLock.unlock();
 		}
 		this.torrentSession.downloadSize(this.downloadSize());
-		this.fullPieces(this.pieces);
+		this.fullPieces(this.pieces.toBitSet());
 		return loadFileCount;
 	}
 	
@@ -288,6 +305,14 @@ public final class TorrentStreamGroup {
 	 * @see TorrentStream#pick(int, BitSet, BitSet)
 	 */
 	public TorrentPiece pick(final BitSet peerPieces, final BitSet suggestPieces) {
+		if(this.piecePos == 0 && DownloadConfig.getPick() == PickMode.RAREST) {
+			// 没有指定下载Piece索引：稀有优先
+			final TorrentPiece rarestPiece = this.pickRarest(peerPieces);
+			if(rarestPiece != null) {
+				return rarestPiece;
+			}
+		}
+		// 顺序挑选：推荐Piece、任务接近完成、暂停Piece
 		TorrentPiece pickPiece = null;
 		this.readLock.lock();
 		try {
@@ -311,6 +336,67 @@ public final class TorrentStreamGroup {
 		return pickPiece;
 	}
 	
+	/**
+	 * <p>稀有优先挑选下载Piece</p>
+	 * <p>可用度排序里面挑选Piece，释放可用度锁以后再标记下载：挑选失败排除以后重新挑选。</p>
+	 * 
+	 * @param peerPieces Peer已经下载Piece位图
+	 * 
+	 * @return {@link TorrentPiece}
+	 * 
+	 * @see PieceAvailability#pick(BitSet, java.util.function.IntPredicate)
+	 */
+	private TorrentPiece pickRarest(final BitSet peerPieces) {
+		if(peerPieces.isEmpty()) {
+			return null;
+		}
+		// 挑选失败Piece
+		final BitSet failPieces = new BitSet();
+		this.readLock.lock();
+		try {
+			while(true) {
+				final int index = this.availability.pick(peerPieces, value ->
+					this.selectPieces.get(value) &&
+					!this.pieces.get(value) &&
+					!failPieces.get(value) &&
+					this.pickable(value)
+				);
+				if(index < 0) {
+					return null;
+				}
+				for (TorrentStream torrentStream : this.streams) {
+					if(torrentStream.selected()) {
+						final TorrentPiece pickPiece = torrentStream.pick(index);
+						if(pickPiece != null) {
+							return pickPiece;
+						}
+					}
+				}
+				failPieces.set(index);
+			}
+		} finally {
+			this.readLock.unlock();
+		}
+	}
+	
+	/**
+	 * <p>判断Piece是否可以挑选</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return 是否可以挑选
+	 * 
+	 * @see TorrentStream#pickable(int)
+	 */
+	private boolean pickable(int index) {
+		for (TorrentStream torrentStream : this.streams) {
+			if(torrentStream.selected() && torrentStream.pickable(index)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * <p>读取Piece数据</p>
 	 * 
@@ -322,19 +408,82 @@ public final class TorrentStreamGroup {
 	 * 
 	 * @throws NetException 网络异常
 	 * 
-	 * @see TorrentStream#read(int, int, int)
+	 * @see #read(int, int, int, ByteBuffer)
 	 */
 	public byte[] read(final int index, final int begin, final int length) throws NetException {
 		PacketSizeException.verify(length);
 		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		this.read(index, begin, length, buffer);
+		return buffer.array();
+	}
+	
+	/**
+	 * <p>读取Piece数据</p>
+	 * <p>数据直接写入缓冲区：缓冲区剩余空间必须大于数据长度</p>
+	 * <p>优先读取缓存：没有缓存时预读整个Piece</p>
+	 * <p>Piece大小超过缓存容量或者请求超出缓存有效范围：直接读取请求数据</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece偏移
+	 * @param length 数据长度
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 读取数据长度
+	 * 
+	 * @throws NetException 网络异常
+	 * 
+	 * @see TorrentReadCache
+	 * @see #readPiece(int, ByteBuffer)
+	 */
+	public int read(final int index, final int begin, final int length, final ByteBuffer buffer) throws NetException {
+		PacketSizeException.verify(length);
+		final int pieceLength = this.torrent.getInfo().getPieceLength().intValue();
+		final int size = TorrentReadCache.getInstance().read(
+			this, index, pieceLength,
+			begin, length, buffer,
+			pieceBuffer -> this.readPiece(index, pieceBuffer)
+		);
+		if(size >= 0) {
+			return size;
+		}
+		return this.readStreams(index, begin, length, buffer);
+	}
+	
+	/**
+	 * <p>读取整个Piece数据</p>
+	 * 
+	 * @param index Piece索引
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 读取数据长度
+	 */
+	private int readPiece(final int index, final ByteBuffer buffer) {
+		return this.readStreams(index, 0, buffer.remaining(), buffer);
+	}
+	
+	/**
+	 * <p>读取文件流数据</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece偏移
+	 * @param length 数据长度
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 读取数据长度
+	 * 
+	 * @see TorrentStream#read(int, int, int, ByteBuffer)
+	 */
+	private int readStreams(final int index, final int begin, final int length, final ByteBuffer buffer) {
+		int size = 0;
+		int readSize;
 		this.readLock.lock();
 		try {
 			// 如果跨越多个文件合并返回
 			for (TorrentStream torrentStream : this.streams) {
-				final byte[] bytes = torrentStream.read(index, length, begin);
-				if(bytes != null) {
-					buffer.put(bytes);
-					if(buffer.position() >= length) {
+				readSize = torrentStream.read(index, length, begin, buffer);
+				if(readSize > 0) {
+					size += readSize;
+					if(size >= length) {
 						break;
 					}
 				}
@@ -342,7 +491,7 @@ public final class TorrentStreamGroup {
 		} finally {
 			this.readLock.unlock();
 		}
-		return buffer.array();
+		return size;
 	}
 
 	/**
@@ -370,16 +519,6 @@ public final class TorrentStreamGroup {
 		if(success) {
 			// 发送have消息
 			this.have(piece.getIndex());
-			// 修改缓存大小
-			final long oldValue = this.fileBufferSize.addAndGet(piece.getLength());
-			// 判断是否刷出缓存
-			if(
-				oldValue > DownloadConfig.getMemoryBufferByte() &&
-				this.fileBufferSize.compareAndSet(oldValue, 0)
-			) {
-				LOGGER.debug("缓冲区被占满：{}", this.torrentSession);
-				this.flush();
-			}
 		}
 		if(LOGGER.isDebugEnabled()) {
 			LOGGER.debug("""
@@ -400,9 +539,6 @@ public final class TorrentStreamGroup {
 	 * @return 是否已经下载
 	 */
 	public boolean hasPiece(int index) {
-		if(index < 0) {
-			return false;
-		}
 		return this.pieces.get(index);
 	}
 	
@@ -412,9 +548,10 @@ public final class TorrentStreamGroup {
 	 * @param index Piece索引
 	 */
 	void done(int index) {
-		synchronized (this.pieces) {
-			this.pieces.set(index);
+		if(this.pieces.set(index) && this.selectPieces.get(index)) {
+			this.remainingPieceSize.decrementAndGet();
 		}
+		this.availability.remove(index);
 	}
 	
 	/**
@@ -423,9 +560,11 @@ public final class TorrentStreamGroup {
 	 * @param index Piece索引
 	 */
 	void undone(int index) {
-		synchronized (this.pieces) {
-			this.pieces.clear(index);
+		if(this.pieces.clear(index) && this.selectPieces.get(index)) {
+			this.remainingPieceSize.incrementAndGet();
 		}
+		TorrentReadCache.getInstance().remove(this, index);
+		this.availability.restore(index);
 	}
 	
 	/**
@@ -446,22 +585,33 @@ public final class TorrentStreamGroup {
 		}
 	}
 	
+	/**
+	 * <p>获取Piece可用度</p>
+	 * 
+	 * @return Piece可用度
+	 */
+	public PieceAvailability availability() {
+		return this.availability;
+	}
+	
 	/**
 	 * <p>获取已经下载Piece位图</p>
+	 * <p>位图快照：修改不会影响文件流组</p>
 	 * 
 	 * @return 已经下载Piece位图
 	 */
 	public BitSet pieces() {
-		return this.pieces;
+		return this.pieces.toBitSet();
 	}
 	
 	/**
 	 * <p>获取选择下载Piece位图</p>
+	 * <p>位图快照：修改不会影响文件流组</p>
 	 * 
 	 * @return 选择下载Piece位图
 	 */
 	public BitSet selectPieces() {
-		return this.selectPieces;
+		return this.selectPieces.toBitSet();
 	}
 
 	/**
@@ -482,12 +632,7 @@ public final class TorrentStreamGroup {
 	 * @return 剩余未下载的Piece数量
 	 */
 	public int remainingPieceSize() {
-		final BitSet condition = new BitSet();
-		// 已经选择下载
-		condition.or(this.selectPieces);
-		// 排除已经下载
-		condition.andNot(this.pieces);
-		return condition.cardinality();
+		return this.remainingPieceSize.get();
 	}
 	
 	/**
@@ -510,14 +655,9 @@ public final class TorrentStreamGroup {
 		if(this.full) {
 			return;
 		}
-		this.fullPieces.or(pieces);
-		// 排除没有选择下载Piece：防止部分下载时健康度超过100
-		this.fullPieces.and(this.selectPieces);
-		// 计算选择下载Piece是否全部健康
-		final BitSet condition = new BitSet();
-		condition.or(this.selectPieces);
-		condition.andNot(this.fullPieces);
-		if(condition.isEmpty()) {
+		this.fullPieces.set(pieces);
+		// 计算选择下载Piece是否全部健康：排除没有选择下载Piece（防止部分下载时健康度超过100）
+		if(this.fullPieces.andCardinality(this.selectPieces) >= this.selectPieces.cardinality()) {
 			this.full = true;
 			this.fullPieces.clear();
 		}
@@ -533,7 +673,11 @@ public final class TorrentStreamGroup {
 		if(this.full) {
 			return health;
 		}
-		return this.fullPieces.cardinality() * health / this.selectPieces.cardinality();
+		final int selectPieceSize = this.selectPieces.cardinality();
+		if(selectPieceSize == 0) {
+			return health;
+		}
+		return this.fullPieces.andCardinality(this.selectPieces) * health / selectPieceSize;
 	}
 
 	/**
@@ -646,6 +790,8 @@ public final class TorrentStreamGroup {
 		} finally {
 			this.readLock.unlock();
 		}
+		TorrentWriteCache.getInstance().remove(this);
+		TorrentReadCache.getInstance().remove(this);
 	}
 
 }
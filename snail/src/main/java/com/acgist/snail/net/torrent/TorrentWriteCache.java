@@ -0,0 +1,178 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.IContext;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * <p>Piece写入缓存</p>
+ * <p>所有任务共用缓存大小：下载完成的Piece先保存到文件流缓存，由刷出线程合并相邻Piece顺序写入文件。</p>
+ * <p>缓存超过一半容量立即刷出，否则定时刷出。</p>
+ * <p>缓存已满时Peer停止补充请求（背压），超过两倍容量时写入线程同步刷出。</p>
+ *
+ * @author acgist
+ */
+public final class TorrentWriteCache implements IContext {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentWriteCache.class);
+
+	private static final TorrentWriteCache INSTANCE = new TorrentWriteCache();
+
+	public static final TorrentWriteCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * <p>定时刷出时间（毫秒）：{@value}</p>
+	 */
+	private static final long FLUSH_INTERVAL = 10L * SystemConfig.ONE_SECOND_MILLIS;
+	/**
+	 * <p>刷出线程池</p>
+	 * <p>单个线程：写入文件顺序执行</p>
+	 */
+	private static final ScheduledExecutorService EXECUTOR;
+
+	static {
+		EXECUTOR = SystemThreadContext.newScheduledExecutor(1, SystemThreadContext.SNAIL_THREAD_FLUSH);
+		EXECUTOR.scheduleWithFixedDelay(INSTANCE::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * <p>缓存大小</p>
+	 */
+	private final AtomicLong size;
+	/**
+	 * <p>是否正在刷出</p>
+	 */
+	private final AtomicBoolean flushing;
+	/**
+	 * <p>需要刷出的文件流组</p>
+	 */
+	private final Set<TorrentStreamGroup> groups;
+
+	private TorrentWriteCache() {
+		this.size = new AtomicLong(0);
+		this.flushing = new AtomicBoolean(false);
+		this.groups = ConcurrentHashMap.newKeySet();
+	}
+
+	/**
+	 * <p>获取缓存容量</p>
+	 * <p>单个任务磁盘缓存 * 下载数量</p>
+	 *
+	 * @return 缓存容量
+	 */
+	public long capacity() {
+		return (long) DownloadConfig.getMemoryBufferByte() * Math.max(1, DownloadConfig.getSize());
+	}
+
+	/**
+	 * <p>获取缓存大小</p>
+	 *
+	 * @return 缓存大小
+	 */
+	public long size() {
+		return this.size.get();
+	}
+
+	/**
+	 * <p>判断缓存是否已满</p>
+	 * <p>已满时Peer停止补充请求</p>
+	 *
+	 * @return 是否已满
+	 */
+	public boolean full() {
+		return this.size.get() >= this.capacity();
+	}
+
+	/**
+	 * <p>添加缓存</p>
+	 *
+	 * @param group 文件流组
+	 * @param length 数据大小
+	 *
+	 * @return 是否需要同步刷出（超过两倍容量）
+	 */
+	public boolean put(TorrentStreamGroup group, long length) {
+		this.groups.add(group);
+		final long size = this.size.addAndGet(length);
+		final long capacity = this.capacity();
+		if(size >= 2 * capacity) {
+			LOGGER.debug("写入缓存超过限制：{}", size);
+			return true;
+		}
+		if(size >= capacity / 2) {
+			this.signal();
+		}
+		return false;
+	}
+
+	/**
+	 * <p>释放缓存</p>
+	 *
+	 * @param length 数据大小
+	 */
+	public void release(long length) {
+		this.size.addAndGet(-length);
+	}
+
+	/**
+	 * <p>删除文件流组</p>
+	 * <p>任务释放时已经刷出</p>
+	 *
+	 * @param group 文件流组
+	 */
+	public void remove(TorrentStreamGroup group) {
+		this.groups.remove(group);
+	}
+
+	/**
+	 * <p>通知刷出线程</p>
+	 */
+	private void signal() {
+		if(!this.flushing.get()) {
+			EXECUTOR.execute(this::flush);
+		}
+	}
+
+	/**
+	 * <p>刷出缓存</p>
+	 */
+	private void flush() {
+		if(!this.flushing.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			final var iterator = this.groups.iterator();
+			while(iterator.hasNext()) {
+				final TorrentStreamGroup group = iterator.next();
+				iterator.remove();
+				group.flush();
+			}
+		} catch (Exception e) {
+			LOGGER.error("刷出缓存异常", e);
+		} finally {
+			this.flushing.set(false);
+		}
+	}
+
+	/**
+	 * <p>关闭刷出线程池</p>
+	 */
+	public static final void shutdown() {
+		LOGGER.debug("关闭Piece写入缓存刷出线程池");
+		INSTANCE.flush();
+		SystemThreadContext.shutdown(EXECUTOR);
+	}
+
+}
@@ -10,11 +10,11 @@ import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.torrent.InfoHash;
-import com.acgist.snail.utils.ByteUtils;
 import com.acgist.snail.utils.DigestUtils;
 
 /**
@@ -110,24 +110,12 @@ public final class MSECipher {
 
 	/**
 	 * <p>数据加密</p>
+	 * <p>原地加密：不用复制数据</p>
 	 * 
 	 * @param buffer 数据
 	 */
 	public void encrypt(ByteBuffer buffer) {
-		boolean flip = true;
-		if(buffer.position() != 0) {
-			flip = false;
-			buffer.flip();
-		}
-		final byte[] value = ByteUtils.remainingToBytes(buffer);
-		byte[] encryptValue;
-		synchronized (this.encryptCipher) {
-			encryptValue = this.encryptCipher.update(value);
-		}
-		buffer.clear().put(encryptValue);
-		if(flip) {
-			buffer.flip();
-		}
+		this.update(this.encryptCipher, buffer);
 	}
 	
 	/**
@@ -151,24 +139,12 @@ public final class MSECipher {
 	
 	/**
 	 * <p>数据解密</p>
+	 * <p>原地解密：不用复制数据</p>
 	 * 
 	 * @param buffer 数据
 	 */
 	public void decrypt(ByteBuffer buffer) {
-		boolean flip = true;
-		if(buffer.position() != 0) {
-			flip = false;
-			buffer.flip();
-		}
-		final byte[] value = ByteUtils.remainingToBytes(buffer);
-		byte[] decryptValue;
-		synchronized (this.decryptCipher) {
-			decryptValue = this.decryptCipher.update(value);
-		}
-		buffer.clear().put(decryptValue);
-		if(flip) {
-			buffer.flip();
-		}
+		this.update(this.decryptCipher, buffer);
 	}
 	
 	/**
@@ -190,6 +166,33 @@ public final class MSECipher {
 		}
 	}
 	
+	/**
+	 * <p>原地加解密</p>
+	 * <p>ARC4是流加密：输出长度等于输入长度，输入和输出可以使用同一块内存。</p>
+	 * <p>缓冲区没有读取模式（位置不是零）：加解密以后恢复写入模式</p>
+	 * 
+	 * @param cipher 加解密套件
+	 * @param buffer 数据
+	 */
+	private void update(Cipher cipher, ByteBuffer buffer) {
+		boolean flip = true;
+		if(buffer.position() != 0) {
+			flip = false;
+			buffer.flip();
+		}
+		try {
+			synchronized (cipher) {
+				cipher.update(buffer.duplicate(), buffer.duplicate());
+			}
+		} catch (ShortBufferException e) {
+			// 流加密输出长度等于输入长度：不会发生
+			throw new IllegalStateException("加解密缓冲区长度错误", e);
+		}
+		if(!flip) {
+			buffer.position(buffer.limit()).limit(buffer.capacity());
+		}
+	}
+	
 	/**
 	 * <p>新建请求客户端加密Key</p>
 	 * 
@@ -209,6 +209,15 @@ public final class MSECryptHandshakeHandler {
 		return this.completed;
 	}
 	
+	/**
+	 * <p>判断是否加密</p>
+	 * 
+	 * @return 是否加密
+	 */
+	public boolean crypt() {
+		return this.crypt;
+	}
+	
 	/**
 	 * <p>发送握手消息</p>
 	 */
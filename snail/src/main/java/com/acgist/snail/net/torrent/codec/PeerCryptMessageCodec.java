@@ -53,6 +53,16 @@ public final class PeerCryptMessageCodec extends MessageCodec<ByteBuffer, ByteBu
 		return buffer;
 	}
 	
+	/**
+	 * <p>判断是否明文传输</p>
+	 * <p>加密握手没有完成返回：false</p>
+	 * 
+	 * @return 是否明文传输
+	 */
+	public boolean plaintext() {
+		return this.mseCryptHandshakeHandler.completed() && !this.mseCryptHandshakeHandler.crypt();
+	}
+	
 	@Override
 	public void doDecode(ByteBuffer buffer, InetSocketAddress address) throws NetException {
 		if(this.mseCryptHandshakeHandler.available()) {
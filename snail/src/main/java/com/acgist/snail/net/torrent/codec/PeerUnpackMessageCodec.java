@@ -4,6 +4,7 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 
 import com.acgist.snail.config.PeerConfig;
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.PacketSizeException;
 import com.acgist.snail.net.codec.MessageCodec;
@@ -11,98 +12,130 @@ import com.acgist.snail.net.torrent.peer.PeerSubMessageHandler;
 
 /**
  * <p>Peer消息处理器：拆包</p>
- * 
+ * <p>完整消息直接使用原始数据或者消息缓存的切片（修改position和limit）传递给下一个消息处理器，不会新建缓冲区和复制数据。</p>
+ * <p>不完整消息复制到消息缓存，拆包完成以后压缩消息缓存。</p>
+ * <p>注意：消息处理器只能在处理期间使用消息，处理完成以后消息数据将被覆盖。</p>
+ *
  * @author acgist
  */
 public final class PeerUnpackMessageCodec extends MessageCodec<ByteBuffer, ByteBuffer> {
 
 	/**
-	 * <p>消息缓存</p>
+	 * <p>消息缓存默认大小：{@value}</p>
+	 * <p>能够缓存一条完整piece消息</p>
 	 */
-	private ByteBuffer buffer;
+	private static final int BUFFER_LENGTH = 2 * SystemConfig.TCP_BUFFER_LENGTH;
+
 	/**
-	 * <p>消息长度</p>
+	 * <p>消息缓存</p>
+	 * <p>写模式：position等于缓存数据长度</p>
 	 */
-	private final ByteBuffer lengthStick;
+	private ByteBuffer buffer;
 	/**
 	 * <p>Peer消息代理</p>
 	 */
 	private final PeerSubMessageHandler peerSubMessageHandler;
-	
+
 	/**
 	 * @param peerSubMessageHandler Peer消息代理
 	 */
 	public PeerUnpackMessageCodec(PeerSubMessageHandler peerSubMessageHandler) {
 		super(peerSubMessageHandler);
-		this.lengthStick = ByteBuffer.allocate(Integer.BYTES);
+		this.buffer = ByteBuffer.allocate(BUFFER_LENGTH);
 		this.peerSubMessageHandler = peerSubMessageHandler;
 	}
-	
+
 	@Override
 	public void doDecode(ByteBuffer buffer, InetSocketAddress address) throws NetException {
+		if(this.buffer.position() == 0) {
+			// 没有缓存数据：直接拆包原始数据
+			this.unpack(buffer, address);
+			if(buffer.hasRemaining()) {
+				this.cache(buffer);
+			}
+		} else {
+			// 含有缓存数据：合并数据以后拆包
+			this.cache(buffer);
+			this.buffer.flip();
+			try {
+				this.unpack(this.buffer, address);
+			} finally {
+				this.buffer.compact();
+			}
+			if(this.buffer.position() == 0 && this.buffer.capacity() > BUFFER_LENGTH) {
+				// 释放超大消息缓存
+				this.buffer = ByteBuffer.allocate(BUFFER_LENGTH);
+			}
+		}
+	}
+
+	/**
+	 * <p>拆包</p>
+	 * <p>处理所有完整消息：剩余数据为不完整消息</p>
+	 *
+	 * @param buffer 消息
+	 * @param address 地址
+	 *
+	 * @throws NetException 网络异常
+	 */
+	private void unpack(ByteBuffer buffer, InetSocketAddress address) throws NetException {
 		// 消息数据长度
-		int length = 0;
-		while(true) {
-			if(this.buffer == null) {
-				if(this.peerSubMessageHandler.handshakeRecv()) {
-					while(this.lengthStick.hasRemaining() && buffer.hasRemaining()) {
-						this.lengthStick.put(buffer.get());
-					}
-					if(this.lengthStick.hasRemaining()) {
-						// 消息长度缺失跳出
-						break;
-					} else {
-						this.lengthStick.flip();
-						length = this.lengthStick.getInt();
-						this.lengthStick.compact();
-					}
-				} else {
-					// 握手消息长度
-					length = PeerConfig.HANDSHAKE_LENGTH;
+		int length;
+		// 消息数据开始位置
+		int position;
+		final int limit = buffer.limit();
+		while(buffer.hasRemaining()) {
+			position = buffer.position();
+			if(this.peerSubMessageHandler.handshakeRecv()) {
+				if(buffer.remaining() < Integer.BYTES) {
+					// 消息长度缺失跳出
+					break;
 				}
+				length = buffer.getInt(position);
 				// 心跳消息
 				if(length <= 0) {
+					buffer.position(position + Integer.BYTES);
 					this.peerSubMessageHandler.keepAlive();
-					if(buffer.hasRemaining()) {
-						// 还有消息：继续处理
-						continue;
-					} else {
-						// 没有消息：跳出循环
-						break;
-					}
+					continue;
 				}
 				PacketSizeException.verify(length);
-				this.buffer = ByteBuffer.allocate(length);
+				if(buffer.remaining() - Integer.BYTES < length) {
+					// 不是一条完整消息跳出
+					break;
+				}
+				position += Integer.BYTES;
 			} else {
-				// 上次消息没有读取完成：计算剩余消息数据长度
-				length = this.buffer.capacity() - this.buffer.position();
+				// 握手消息长度
+				length = PeerConfig.HANDSHAKE_LENGTH;
+				if(buffer.remaining() < length) {
+					// 不是一条完整消息跳出
+					break;
+				}
 			}
-			final int remaining = buffer.remaining();
-			if(remaining > length) {
-				// 包含一条完整消息：继续读取、清空缓存
-				final byte[] bytes = new byte[length];
-				buffer.get(bytes);
-				this.buffer.put(bytes);
-				this.buffer.flip();
-				this.doNext(this.buffer, address);
-				this.buffer = null;
-			} else if(remaining == length) {
-				// 刚好一条完整消息：跳出循环、清空缓存
-				final byte[] bytes = new byte[length];
-				buffer.get(bytes);
-				this.buffer.put(bytes);
-				this.buffer.flip();
-				this.doNext(this.buffer, address);
-				this.buffer = null;
-				break;
-			} else if(remaining < length) {
-				// 不是一条完整消息：跳出循环、保留缓存
-				final byte[] bytes = new byte[remaining];
-				buffer.get(bytes);
-				this.buffer.put(bytes);
-				break;
+			buffer.limit(position + length).position(position);
+			try {
+				this.doNext(buffer, address);
+			} finally {
+				buffer.limit(limit).position(position + length);
 			}
 		}
 	}
 
+	/**
+	 * <p>缓存数据</p>
+	 * <p>消息缓存空间不足时扩容</p>
+	 *
+	 * @param buffer 数据
+	 */
+	private void cache(ByteBuffer buffer) {
+		final int length = this.buffer.position() + buffer.remaining();
+		if(length > this.buffer.capacity()) {
+			final ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(length, this.buffer.capacity() * 2));
+			this.buffer.flip();
+			newBuffer.put(this.buffer);
+			this.buffer = newBuffer;
+		}
+		this.buffer.put(buffer);
+	}
+
 }
@@ -1,6 +1,7 @@
 package com.acgist.snail.net.torrent.dht;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
 
 import com.acgist.snail.net.UdpClient;
 import com.acgist.snail.net.torrent.InfoHash;
@@ -53,12 +54,22 @@ public final class DhtClient extends UdpClient<DhtMessageHandler> {
 	/**
 	 * <p>Ping</p>
 	 * 
-	 * @return 节点
+	 * @return 节点（超时或者失败：{@code null}）
 	 */
-	public NodeSession ping() {
+	public CompletableFuture<NodeSession> ping() {
 		return this.handler.ping();
 	}
 	
+	/**
+	 * <p>发送请求</p>
+	 * <p>响应通过请求回调处理</p>
+	 * 
+	 * @param request 请求
+	 */
+	public void request(DhtRequest request) {
+		this.handler.request(request);
+	}
+	
 	/**
 	 * <p>查询节点</p>
 	 * 
@@ -1,17 +1,23 @@
 package com.acgist.snail.net.torrent.dht;
 
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
-import com.acgist.snail.config.DhtConfig;
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.context.IContext;
 import com.acgist.snail.context.SystemThreadContext;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.TimerWheel;
+import com.acgist.snail.utils.NetUtils;
 import com.acgist.snail.utils.NumberUtils;
 
 /**
@@ -36,71 +42,150 @@ public final class DhtContext implements IContext {
 	 */
 	private static final int TOKEN_LENGTH = 8;
 	/**
-	 * Token字符：{@value}
+	 * Token密钥长度：{@value}
+	 */
+	private static final int TOKEN_SECRET_LENGTH = 20;
+	/**
+	 * Token密钥更换周期（分钟）：{@value}
+	 * 同时验证当前密钥和上一个密钥：Token有效时间5~10分钟
+	 */
+	private static final int TOKEN_SECRET_INTERVAL = 5;
+	/**
+	 * Token算法：{@value}
+	 */
+	private static final String TOKEN_ALGO = "HmacSHA1";
+	/**
+	 * 请求列表长度（两字节消息ID）：{@value}
+	 */
+	private static final int REQUEST_TABLE_SIZE = 1 << Short.SIZE;
+	/**
+	 * 请求超时时间间隔（毫秒）：{@value}
+	 */
+	private static final long TIMER_TICK = 100L;
+	/**
+	 * 请求超时时间轮
+	 */
+	private static final TimerWheel TIMER = new TimerWheel(TIMER_TICK, 128, SystemThreadContext.SNAIL_THREAD_DHT_TIMER);
+	
+	/**
+	 * Token密钥
 	 */
-	private static final String TOKEN_CHARACTER =
-		"0123456789" +
-		"abcdefghijklmnopqrstuvwxyz" +
-		"ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+	private volatile SecretKeySpec secret;
 	/**
-	 * Token
+	 * 上一个Token密钥
 	 */
-	private final byte[] token;
+	private volatile SecretKeySpec oldSecret;
+	/**
+	 * Token算法对象
+	 * Mac不是线程安全对象
+	 */
+	private final ThreadLocal<Mac> mac;
 	/**
 	 * 消息ID
 	 */
-	private short requestId = Short.MIN_VALUE;
+	private final AtomicInteger requestId;
 	/**
 	 * DHT请求列表
+	 * 使用两字节消息ID作为索引：添加、查找、删除时间复杂度O(1)，不用加锁。
 	 */
-	private final List<DhtRequest> requests;
+	private final AtomicReferenceArray<DhtRequest> requests;
 	
 	private DhtContext() {
-		this.token = this.buildToken();
-		this.requests = new LinkedList<>();
+		this.secret = this.buildSecret();
+		this.oldSecret = this.secret;
+		this.mac = ThreadLocal.withInitial(() -> {
+			try {
+				return Mac.getInstance(TOKEN_ALGO);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalArgumentException("不支持的Token算法：" + TOKEN_ALGO, e);
+			}
+		});
+		this.requestId = new AtomicInteger(Short.MIN_VALUE);
+		this.requests = new AtomicReferenceArray<>(REQUEST_TABLE_SIZE);
 		SystemThreadContext.scheduledAtFixedDelay(
-			DhtConfig.DHT_REQUEST_TIMEOUT_INTERVAL,
-			DhtConfig.DHT_REQUEST_TIMEOUT_INTERVAL,
+			TOKEN_SECRET_INTERVAL,
+			TOKEN_SECRET_INTERVAL,
 			TimeUnit.MINUTES,
-			this::timeout
+			this::rotateSecret
 		);
 	}
 	
 	/**
+	 * 生成Token
+	 * Token = HMAC(密钥, IP)：不用保存节点Token，密钥更换后旧的Token自动失效。
+	 * 
+	 * @param host 请求节点地址
+	 * 
 	 * @return Token
 	 */
-	public byte[] token() {
-		return this.token;
+	public byte[] token(String host) {
+		return this.token(this.secret, host);
 	}
 	
 	/**
-	 * @return Token
+	 * 验证Token
+	 * 
+	 * @param host 请求节点地址
+	 * @param token Token
+	 * 
+	 * @return 是否有效
 	 */
-	private byte[] buildToken() {
-		final byte[] token = new byte[TOKEN_LENGTH];
-		final byte[] bytes = TOKEN_CHARACTER.getBytes();
-		final int length = bytes.length;
-		final Random random = NumberUtils.random();
-		for (int index = 0; index < TOKEN_LENGTH; index++) {
-			token[index] = bytes[random.nextInt(length)];
+	public boolean verifyToken(String host, byte[] token) {
+		if(token == null || token.length != TOKEN_LENGTH) {
+			return false;
 		}
-		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("生成DHT的Token：{}", new String(token));
+		return
+			MessageDigest.isEqual(token, this.token(this.secret, host)) ||
+			MessageDigest.isEqual(token, this.token(this.oldSecret, host));
+	}
+	
+	/**
+	 * 生成Token
+	 * 
+	 * @param secret 密钥
+	 * @param host 请求节点地址
+	 * 
+	 * @return Token
+	 */
+	private byte[] token(SecretKeySpec secret, String host) {
+		final Mac mac = this.mac.get();
+		try {
+			mac.init(secret);
+		} catch (InvalidKeyException e) {
+			throw new IllegalArgumentException("Token密钥错误", e);
 		}
-		return token;
+		final byte[] ip = NetUtils.ip(host) ? NetUtils.ipToBytes(host) : host.getBytes();
+		return Arrays.copyOf(mac.doFinal(ip), TOKEN_LENGTH);
+	}
+	
+	/**
+	 * @return Token密钥
+	 */
+	private SecretKeySpec buildSecret() {
+		final byte[] bytes = new byte[TOKEN_SECRET_LENGTH];
+		NumberUtils.random().nextBytes(bytes);
+		return new SecretKeySpec(bytes, TOKEN_ALGO);
+	}
+	
+	/**
+	 * 更换Token密钥
+	 */
+	private void rotateSecret() {
+		LOGGER.debug("更换DHT的Token密钥");
+		this.oldSecret = this.secret;
+		this.secret = this.buildSecret();
 	}
 	
 	/**
 	 * @return 消息ID
 	 */
 	public byte[] buildRequestId() {
-		synchronized (this) {
-			return NumberUtils.shortToBytes(this.requestId++);
-		}
+		return NumberUtils.shortToBytes((short) this.requestId.getAndIncrement());
 	}
 	
 	/**
 	 * 放入请求
+	 * 相同消息ID没有收到响应的旧请求直接删除（超时）
 	 * 
 	 * @param request 请求
 	 */
@@ -108,14 +193,16 @@ public final class DhtContext implements IContext {
 		if (request == null) {
 			return;
 		}
-		synchronized (this.requests) {
-			// 删除旧的请求
-			final DhtRequest oldRequest = this.remove(request.getT());
-			if (oldRequest != null) {
-				LOGGER.debug("删除没有收到响应的DHT请求：{}", oldRequest);
-			}
-			this.requests.add(request);
+		final int index = this.index(request.getT());
+		if(index < 0) {
+			return;
 		}
+		final DhtRequest oldRequest = this.requests.getAndSet(index, request);
+		if (oldRequest != null && oldRequest != request) {
+			LOGGER.debug("删除没有收到响应的DHT请求：{}", oldRequest);
+			oldRequest.callback(null);
+		}
+		TIMER.schedule(SystemConfig.RECEIVE_TIMEOUT_MILLIS, () -> this.timeout(index, request));
 	}
 	
 	/**
@@ -131,62 +218,53 @@ public final class DhtContext implements IContext {
 		}
 		// 设置节点可用状态
 		NodeContext.getInstance().available(response.getNodeId());
-		DhtRequest request;
-		synchronized (this.requests) {
-			// 删除请求
-			request = this.remove(response.getT());
+		final int index = this.index(response.getT());
+		if(index < 0) {
+			return null;
 		}
-		if (request != null) {
+		final DhtRequest request = this.requests.get(index);
+		if (request != null && this.requests.compareAndSet(index, request, null)) {
 			// 设置响应
 			request.setResponse(response);
+			return request;
 		}
-		return request;
+		return null;
 	}
 	
 	/**
 	 * 处理DHT超时请求
+	 * 请求已经响应或者已经被新的请求替换时忽略
+	 * 
+	 * @param index 请求索引
+	 * @param request 请求
 	 */
-	private void timeout() {
-		final long timeout = SystemConfig.RECEIVE_TIMEOUT_MILLIS;
-		final long timestamp = System.currentTimeMillis();
-		synchronized (this.requests) {
-			final int oldSize = this.requests.size();
-			DhtRequest request;
-			final var iterator = this.requests.iterator();
-			while(iterator.hasNext()) {
-				request = iterator.next();
-				if(timestamp - request.getTimestamp() > timeout) {
-					iterator.remove();
-				}
-			}
-			final int newSize = this.requests.size();
-			LOGGER.debug("""
-				处理DHT超时请求
-				处理之前请求数量：{}
-				处理之后请求数量：{}
-				""", oldSize, newSize);
+	private void timeout(int index, DhtRequest request) {
+		if(this.requests.compareAndSet(index, request, null)) {
+			LOGGER.debug("DHT请求超时：{}", request);
+			request.callback(null);
 		}
 	}
 	
 	/**
-	 * 删除并返回删除的请求
-	 * 注意线程安全
+	 * 消息ID转为请求索引
 	 * 
 	 * @param id 消息ID
 	 * 
-	 * @return 请求
-	 */
-	private DhtRequest remove(byte[] id) {
-		DhtRequest request;
-		final var iterator = this.requests.iterator();
-		while(iterator.hasNext()) {
-			request = iterator.next();
-			if(Arrays.equals(id, request.getT())) {
-				iterator.remove();
-				return request;
-			}
+	 * @return 请求索引（消息ID格式错误：-1）
+	 */
+	private int index(byte[] id) {
+		if(id == null || id.length != Short.BYTES) {
+			return -1;
 		}
-		return null;
+		return ((id[0] & 0xFF) << Byte.SIZE) | (id[1] & 0xFF);
+	}
+	
+	/**
+	 * 关闭请求超时时间轮
+	 */
+	public static final void shutdown() {
+		LOGGER.debug("关闭DHT请求超时时间轮");
+		TIMER.shutdown();
 	}
 
 }
@@ -3,7 +3,6 @@ package com.acgist.snail.net.torrent.dht;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
@@ -30,6 +29,10 @@ public final class DhtLauncher implements Runnable {
 	 * <p>支持DHT协议的Peer客户端节点</p>
 	 */
 	private final List<InetSocketAddress> peerNodes;
+	/**
+	 * <p>迭代查找任务</p>
+	 */
+	private volatile DhtLookup lookup;
 	
 	/**
 	 * @param torrentSession BT任务信息
@@ -59,12 +62,11 @@ public final class DhtLauncher implements Runnable {
 			this.peerNodes.clear();
 		}
 		try {
-			final var list = this.pick();
 			if(CollectionUtils.isNotEmpty(nodes)) {
 				this.joinNodes(nodes);
-				list.addAll(nodes);
+				this.findPeers(nodes);
 			}
-			this.findPeers(list);
+			this.lookup();
 		} catch (Exception e) {
 			LOGGER.error("执行DHT定时任务异常", e);
 		}
@@ -85,15 +87,16 @@ public final class DhtLauncher implements Runnable {
 	}
 	
 	/**
-	 * <p>挑选DHT节点</p>
-	 * 
-	 * @return DHT节点
+	 * <p>迭代查找Peer</p>
+	 * <p>上次查找没有完成时跳过</p>
 	 */
-	private List<InetSocketAddress> pick() {
-		return NodeContext.getInstance().findNode(this.infoHash.infoHash()).stream()
-			.filter(NodeSession::markVerify)
-			.map(node -> NetUtils.buildSocketAddress(node.getHost(), node.getPort()))
-			.collect(Collectors.toList());
+	private void lookup() {
+		if(this.lookup != null && !this.lookup.done()) {
+			LOGGER.debug("DHT查找没有完成：{}", this.lookup);
+			return;
+		}
+		this.lookup = DhtLookup.getPeers(this.infoHash.infoHash());
+		this.lookup.start();
 	}
 
 	/**
@@ -109,15 +112,12 @@ public final class DhtLauncher implements Runnable {
 	}
 	
 	/**
-	 * <p>使用DHT节点查询Peer</p>
+	 * <p>使用Peer客户端节点查询Peer</p>
+	 * <p>Peer客户端节点没有NodeId不能加入迭代查找</p>
 	 * 
-	 * @param list DHT节点
+	 * @param list Peer客户端节点
 	 */
 	private void findPeers(List<InetSocketAddress> list) {
-		if(CollectionUtils.isEmpty(list)) {
-			LOGGER.debug("DHT定时任务没有节点可用");
-			return;
-		}
 		final byte[] infoHashValue = this.infoHash.infoHash();
 		for (InetSocketAddress socketAddress : list) {
 			DhtClient.newInstance(socketAddress).getPeers(infoHashValue);
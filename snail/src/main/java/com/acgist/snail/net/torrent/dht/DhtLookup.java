@@ -0,0 +1,350 @@
+package com.acgist.snail.net.torrent.dht;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import com.acgist.snail.config.DhtConfig;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.torrent.TorrentContext;
+import com.acgist.snail.net.torrent.TorrentSession;
+import com.acgist.snail.net.torrent.dht.request.AnnouncePeerRequest;
+import com.acgist.snail.net.torrent.dht.request.FindNodeRequest;
+import com.acgist.snail.net.torrent.dht.request.GetPeersRequest;
+import com.acgist.snail.net.torrent.dht.response.FindNodeResponse;
+import com.acgist.snail.net.torrent.dht.response.GetPeersResponse;
+import com.acgist.snail.utils.BeanUtils;
+import com.acgist.snail.utils.StringUtils;
+
+/**
+ * <p>DHT迭代查找</p>
+ * <p>候选列表按照和目标的异或距离排序，同时最多{@link #ALPHA}个请求，收到响应后使用返回节点更新候选列表继续查找。</p>
+ * <p>结束条件：最近的{@link NodeBucket#K}个节点全部响应（失败节点忽略）或者没有可以查询的节点</p>
+ * <p>查找Peer完成后如果任务可以上传向最近节点发送声明消息（使用节点返回的Token）</p>
+ * <p>查找过程不会阻塞线程：请求响应和超时都通过回调推进（{@link DhtRequest#callback(DhtResponse)}）</p>
+ * 
+ * @author acgist
+ */
+public final class DhtLookup {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DhtLookup.class);
+	
+	/**
+	 * <p>并发请求数量：{@value}</p>
+	 */
+	public static final int ALPHA = 3;
+	/**
+	 * <p>候选列表最大长度：{@value}</p>
+	 */
+	private static final int MAX_CANDIDATE_SIZE = NodeBucket.K * 8;
+	/**
+	 * <p>最大请求数量：{@value}</p>
+	 * <p>防止恶意节点不断返回新的节点导致查找不能结束</p>
+	 */
+	private static final int MAX_QUERY_SIZE = NodeBucket.K * 8;
+	
+	/**
+	 * <p>候选节点状态</p>
+	 * 
+	 * @author acgist
+	 */
+	private enum Status {
+
+		/**
+		 * <p>等待查询</p>
+		 */
+		WAITING,
+		/**
+		 * <p>正在查询</p>
+		 */
+		QUERYING,
+		/**
+		 * <p>已经响应</p>
+		 */
+		RESPONDED,
+		/**
+		 * <p>查询失败</p>
+		 */
+		FAILED;
+	
+	}
+	
+	/**
+	 * <p>目标：InfoHash或者NodeId</p>
+	 */
+	private final byte[] target;
+	/**
+	 * <p>请求类型</p>
+	 */
+	private final DhtConfig.QType type;
+	/**
+	 * <p>候选列表</p>
+	 * <p>按照和目标的异或距离排序</p>
+	 */
+	private final TreeMap<NodeSession, Candidate> candidates;
+	/**
+	 * <p>查找结果：已经响应的最近节点</p>
+	 */
+	private final CompletableFuture<List<NodeSession>> future;
+	/**
+	 * <p>正在查询数量</p>
+	 */
+	private int querying;
+	/**
+	 * <p>请求数量</p>
+	 */
+	private int querySize;
+	
+	/**
+	 * @param target 目标
+	 * @param type 请求类型
+	 */
+	private DhtLookup(byte[] target, DhtConfig.QType type) {
+		this.target = target;
+		this.type = type;
+		this.candidates = new TreeMap<>(NodeContext.distance(target));
+		this.future = new CompletableFuture<>();
+	}
+	
+	/**
+	 * <p>新建查找Peer任务</p>
+	 * 
+	 * @param infoHash InfoHash
+	 * 
+	 * @return 查找任务
+	 */
+	public static final DhtLookup getPeers(byte[] infoHash) {
+		return new DhtLookup(infoHash, DhtConfig.QType.GET_PEERS);
+	}
+	
+	/**
+	 * <p>新建查找节点任务</p>
+	 * 
+	 * @param target NodeId或者InfoHash
+	 * 
+	 * @return 查找任务
+	 */
+	public static final DhtLookup findNode(byte[] target) {
+		return new DhtLookup(target, DhtConfig.QType.FIND_NODE);
+	}
+	
+	/**
+	 * <p>开始查找</p>
+	 * <p>使用路由表中最近节点作为初始候选节点</p>
+	 * 
+	 * @return 查找结果
+	 */
+	public CompletableFuture<List<NodeSession>> start() {
+		synchronized (this) {
+			NodeContext.getInstance().findNode(this.target).forEach(this::candidate);
+			this.advance();
+		}
+		return this.future;
+	}
+	
+	/**
+	 * <p>获取查找结果</p>
+	 * 
+	 * @return 查找结果
+	 */
+	public CompletableFuture<List<NodeSession>> future() {
+		return this.future;
+	}
+	
+	/**
+	 * <p>判断是否完成</p>
+	 * 
+	 * @return 是否完成
+	 */
+	public boolean done() {
+		return this.future.isDone();
+	}
+	
+	/**
+	 * <p>添加候选节点</p>
+	 * 
+	 * @param session 节点
+	 */
+	private void candidate(NodeSession session) {
+		if(
+			session == null ||
+			Arrays.equals(session.getId(), NodeContext.getInstance().nodeId()) ||
+			this.candidates.containsKey(session)
+		) {
+			return;
+		}
+		this.candidates.put(session, new Candidate(session));
+		// 删除最远的等待节点
+		while(this.candidates.size() > MAX_CANDIDATE_SIZE) {
+			this.candidates.pollLastEntry();
+		}
+	}
+	
+	/**
+	 * <p>推进查找</p>
+	 * <p>最近的K个节点（忽略失败节点）中等待查询的节点发送请求</p>
+	 */
+	private void advance() {
+		if(this.future.isDone()) {
+			return;
+		}
+		int count = 0;
+		boolean converged = true;
+		for (Candidate candidate : this.candidates.values()) {
+			if(candidate.status == Status.FAILED) {
+				continue;
+			}
+			if(candidate.status != Status.RESPONDED) {
+				converged = false;
+			}
+			if(
+				candidate.status == Status.WAITING &&
+				this.querying < ALPHA &&
+				this.querySize < MAX_QUERY_SIZE
+			) {
+				this.query(candidate);
+			}
+			if(++count >= NodeBucket.K) {
+				break;
+			}
+		}
+		if(converged || this.querying <= 0) {
+			this.complete();
+		}
+	}
+	
+	/**
+	 * <p>查询节点</p>
+	 * 
+	 * @param candidate 候选节点
+	 */
+	private void query(Candidate candidate) {
+		final NodeSession session = candidate.session;
+		final DhtRequest request = switch (this.type) {
+			case GET_PEERS -> GetPeersRequest.newRequest(this.target);
+			default -> FindNodeRequest.newRequest(this.target);
+		};
+		candidate.status = Status.QUERYING;
+		this.querying++;
+		this.querySize++;
+		session.markVerify();
+		// 请求超时由DHT上下文回调
+		request.setCallback(response -> this.response(candidate, response));
+		try {
+			DhtClient.newInstance(session.getHost(), session.getPort()).request(request);
+		} catch (Exception e) {
+			LOGGER.debug("DHT查找请求发送异常：{}", session, e);
+		}
+	}
+	
+	/**
+	 * <p>处理响应</p>
+	 * 
+	 * @param candidate 候选节点
+	 * @param response 响应（超时：{@code null}）
+	 */
+	private void response(Candidate candidate, DhtResponse response) {
+		synchronized (this) {
+			this.querying--;
+			if(response == null || !response.success()) {
+				candidate.status = Status.FAILED;
+			} else {
+				candidate.status = Status.RESPONDED;
+				final List<NodeSession> nodes;
+				if(this.type == DhtConfig.QType.GET_PEERS) {
+					final GetPeersResponse getPeersResponse = GetPeersResponse.newInstance(response);
+					candidate.token = getPeersResponse.getToken();
+					nodes = getPeersResponse.hasNodes() ? getPeersResponse.getNodes() : List.of();
+				} else {
+					nodes = FindNodeResponse.newInstance(response).getNodes();
+				}
+				nodes.forEach(this::candidate);
+			}
+			this.advance();
+		}
+	}
+	
+	/**
+	 * <p>完成查找</p>
+	 */
+	private void complete() {
+		final List<Candidate> closest = new ArrayList<>();
+		for (Candidate candidate : this.candidates.values()) {
+			if(candidate.status == Status.RESPONDED) {
+				closest.add(candidate);
+				if(closest.size() >= NodeBucket.K) {
+					break;
+				}
+			}
+		}
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug("DHT查找完成：{}-{}-{}", StringUtils.hex(this.target), this.querySize, closest.size());
+		}
+		if(this.type == DhtConfig.QType.GET_PEERS) {
+			this.announce(closest);
+		}
+		this.future.complete(closest.stream().map(candidate -> candidate.session).toList());
+	}
+	
+	/**
+	 * <p>声明Peer</p>
+	 * <p>任务可以上传时向最近节点发送声明消息</p>
+	 * 
+	 * @param closest 最近节点
+	 */
+	private void announce(List<Candidate> closest) {
+		final TorrentSession torrentSession = TorrentContext.getInstance().torrentSession(StringUtils.hex(this.target));
+		if(torrentSession == null || !torrentSession.uploadable()) {
+			return;
+		}
+		for (Candidate candidate : closest) {
+			if(candidate.token != null) {
+				final NodeSession session = candidate.session;
+				try {
+					DhtClient.newInstance(session.getHost(), session.getPort()).request(AnnouncePeerRequest.newRequest(candidate.token, this.target));
+				} catch (Exception e) {
+					LOGGER.debug("DHT声明请求发送异常：{}", session, e);
+				}
+			}
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return BeanUtils.toString(this, StringUtils.hex(this.target), this.type, this.querySize);
+	}
+	
+	/**
+	 * <p>候选节点</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class Candidate {
+
+		/**
+		 * <p>节点</p>
+		 */
+		private final NodeSession session;
+		/**
+		 * <p>节点状态</p>
+		 */
+		private Status status;
+		/**
+		 * <p>Token</p>
+		 */
+		private byte[] token;
+		
+		/**
+		 * @param session 节点
+		 */
+		private Candidate(NodeSession session) {
+			this.session = session;
+			this.status = Status.WAITING;
+		}
+	
+	}
+
+}
@@ -1,11 +1,13 @@
 package com.acgist.snail.net.torrent.dht;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 import com.acgist.snail.config.DhtConfig;
+import com.acgist.snail.format.BEncodeEncoder;
 import com.acgist.snail.utils.BeanUtils;
 import com.acgist.snail.utils.MapUtils;
 import com.acgist.snail.utils.NetUtils;
@@ -194,12 +196,34 @@ public abstract class DhtMessage {
 	 */
 	public abstract void put(String key, Object value);
 	
+	/**
+	 * <p>获取消息数据</p>
+	 * 
+	 * @return 消息数据
+	 */
+	protected abstract Map<String, Object> toMap();
+	
 	/**
 	 * <p>将消息转为B编码的字节数组</p>
 	 * 
 	 * @return B编码的字节数组
 	 */
-	public abstract byte[] toBytes();
+	public final byte[] toBytes() {
+		return BEncodeEncoder.encodeMap(this.toMap());
+	}
+	
+	/**
+	 * <p>将消息B编码写入缓冲区</p>
+	 * 
+	 * @param buffer 缓冲区（可以复用：容量不足时新建缓冲区）
+	 * 
+	 * @return 写入消息的缓冲区
+	 * 
+	 * @see BEncodeEncoder#encode(Object, ByteBuffer)
+	 */
+	public final ByteBuffer toBuffer(ByteBuffer buffer) {
+		return BEncodeEncoder.encode(this.toMap(), buffer);
+	}
 	
 	@Override
 	public int hashCode() {
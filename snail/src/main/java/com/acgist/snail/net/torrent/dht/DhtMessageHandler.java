@@ -2,18 +2,21 @@ package com.acgist.snail.net.torrent.dht;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
 
 import com.acgist.snail.config.DhtConfig;
 import com.acgist.snail.config.DhtConfig.ErrorCode;
 import com.acgist.snail.config.DhtConfig.QType;
 import com.acgist.snail.format.BEncodeDecoder;
+import com.acgist.snail.format.BEncodeEncoder;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.ByteBufferPool;
 import com.acgist.snail.net.NetException;
+import com.acgist.snail.net.PooledByteBuffer;
 import com.acgist.snail.net.UdpMessageHandler;
-import com.acgist.snail.net.torrent.TorrentContext;
-import com.acgist.snail.net.torrent.TorrentSession;
 import com.acgist.snail.net.torrent.dht.request.AnnouncePeerRequest;
 import com.acgist.snail.net.torrent.dht.request.FindNodeRequest;
 import com.acgist.snail.net.torrent.dht.request.GetPeersRequest;
@@ -33,6 +36,7 @@ import com.acgist.snail.utils.StringUtils;
 public final class DhtMessageHandler extends UdpMessageHandler {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(DhtMessageHandler.class);
+	private static final ByteBufferPool POOL = ByteBufferPool.getInstance();
 	
 	/**
 	 * <p>判断响应是否成功</p>
@@ -115,43 +119,50 @@ public final class DhtMessageHandler extends UdpMessageHandler {
 			LOGGER.warn("处理DHT响应失败：没有对应请求");
 			return;
 		}
-		final QType type = request.getQ();
-		if(type == null) {
-			LOGGER.warn("处理DHT响应失败（未知类型）：{}", type);
-			return;
-		}
-		if(!RESPONSE_SUCCESS.test(response)) {
-			LOGGER.warn("处理DHT响应失败（失败响应）：{}", response);
-			return;
-		}
-		LOGGER.debug("处理DHT响应：{}", type);
-		switch (type) {
-			case PING -> this.ping(request, response);
-			case FIND_NODE -> this.findNode(request, response);
-			case GET_PEERS -> this.getPeers(request, response);
-			case ANNOUNCE_PEER -> this.announcePeer(request, response);
-			default -> LOGGER.warn("处理DHT响应失败（类型未适配）：{}", type);
+		try {
+			final QType type = request.getQ();
+			if(type == null) {
+				LOGGER.warn("处理DHT响应失败（未知类型）：{}", type);
+				return;
+			}
+			if(!RESPONSE_SUCCESS.test(response)) {
+				LOGGER.warn("处理DHT响应失败（失败响应）：{}", response);
+				return;
+			}
+			LOGGER.debug("处理DHT响应：{}", type);
+			switch (type) {
+				case PING -> this.ping(request, response);
+				case FIND_NODE -> this.findNode(request, response);
+				case GET_PEERS -> this.getPeers(request, response);
+				case ANNOUNCE_PEER -> this.announcePeer(request, response);
+				default -> LOGGER.warn("处理DHT响应失败（类型未适配）：{}", type);
+			}
+		} finally {
+			// 处理完成执行回调：失败响应也要执行
+			request.callback(response);
 		}
 	}
 	
 	/**
 	 * <p>发送请求：ping</p>
-	 * <p>检测节点是否可达，该方法同步阻塞，收到响应后添加系统节点。</p>
+	 * <p>检测节点是否可达，收到响应后添加系统节点。</p>
 	 * 
-	 * @return 节点信息
+	 * @return 节点信息（超时或者失败：{@code null}）
 	 */
-	public NodeSession ping() {
+	public CompletableFuture<NodeSession> ping() {
 		LOGGER.debug("发送DHT请求：ping");
+		final CompletableFuture<NodeSession> future = new CompletableFuture<>();
 		final PingRequest request = PingRequest.newRequest();
+		request.setCallback(response -> {
+			if(RESPONSE_SUCCESS.test(response)) {
+				future.complete(NodeContext.getInstance().newNodeSession(response.getNodeId(), this.socketAddress.getHostString(), this.socketAddress.getPort()));
+			} else {
+				LOGGER.warn("发送Ping请求失败：{}-{}", this.socketAddress, response);
+				future.complete(null);
+			}
+		});
 		this.pushRequest(request, this.socketAddress);
-		request.lockResponse();
-		final DhtResponse response = request.getResponse();
-		if(RESPONSE_SUCCESS.test(response)) {
-			return NodeContext.getInstance().newNodeSession(response.getNodeId(), this.socketAddress.getHostString(), this.socketAddress.getPort());
-		} else {
-			LOGGER.warn("发送Ping请求失败：{}-{}", this.socketAddress, response);
-		}
-		return null;
+		return future;
 	}
 
 	/**
@@ -172,7 +183,11 @@ public final class DhtMessageHandler extends UdpMessageHandler {
 	 * @param response 响应
 	 */
 	private void ping(DhtRequest request, DhtResponse response) {
-		request.unlockResponse();
+		final InetSocketAddress address = request.getSocketAddress();
+		final NodeSession nodeSession = NodeContext.getInstance().newNodeSession(response.getNodeId(), address.getHostString(), address.getPort());
+		if(nodeSession != null) {
+			nodeSession.setStatus(NodeSession.Status.AVAILABLE);
+		}
 	}
 	
 	/**
@@ -231,7 +246,7 @@ public final class DhtMessageHandler extends UdpMessageHandler {
 
 	/**
 	 * <p>处理响应：getPeers</p>
-	 * <p>处理完成后如果也在下载同一个BT任务发送声明消息</p>
+	 * <p>声明消息由查找任务完成后发送给最近节点：{@link DhtLookup}</p>
 	 * 
 	 * @param request 请求
 	 * @param response 响应
@@ -246,13 +261,6 @@ public final class DhtMessageHandler extends UdpMessageHandler {
 		if(getPeersResponse.hasNodes()) {
 			getPeersResponse.getNodes();
 		}
-		final byte[] token = getPeersResponse.getToken();
-		if(token != null) {
-			final TorrentSession torrentSession = TorrentContext.getInstance().torrentSession(infoHashHex);
-			if(torrentSession != null && torrentSession.uploadable()) {
-				this.announcePeer(token, infoHash, request.getSocketAddress());
-			}
-		}
 	}
 	
 	/**
@@ -262,20 +270,9 @@ public final class DhtMessageHandler extends UdpMessageHandler {
 	 * @param infoHash InfoHash
 	 */
 	public void announcePeer(byte[] token, byte[] infoHash) {
-		this.announcePeer(token, infoHash, this.socketAddress);
-	}
-	
-	/**
-	 * <p>发送请求：announcePeer</p>
-	 * 
-	 * @param token Token
-	 * @param infoHash InfoHash
-	 * @param socketAddress 地址
-	 */
-	private void announcePeer(byte[] token, byte[] infoHash, InetSocketAddress socketAddress) {
 		LOGGER.debug("发送DHT请求：announcePeer");
 		final AnnouncePeerRequest request = AnnouncePeerRequest.newRequest(token, infoHash);
-		this.pushRequest(request, socketAddress);
+		this.pushRequest(request, this.socketAddress);
 	}
 	
 	/**
@@ -299,6 +296,16 @@ public final class DhtMessageHandler extends UdpMessageHandler {
 		LOGGER.debug("处理DHT响应：AnnouncePeer");
 	}
 
+	/**
+	 * <p>发送DHT请求</p>
+	 * <p>响应通过请求回调处理：{@link DhtRequest#setCallback(java.util.function.Consumer)}</p>
+	 * 
+	 * @param request 请求
+	 */
+	public void request(DhtRequest request) {
+		this.pushRequest(request, this.socketAddress);
+	}
+	
 	/**
 	 * <p>发送DHT请求</p>
 	 * 
@@ -313,16 +320,21 @@ public final class DhtMessageHandler extends UdpMessageHandler {
 	
 	/**
 	 * <p>发送DHT消息</p>
+	 * <p>UDP同步发送：消息编码到池化缓冲区发送完成立即归还</p>
 	 * 
 	 * @param message 消息
 	 * @param socketAddress 地址
 	 */
 	private void pushMessage(DhtMessage message, InetSocketAddress socketAddress) {
-		final ByteBuffer buffer = ByteBuffer.wrap(message.toBytes());
+		final Map<String, Object> map = message.toMap();
+		final PooledByteBuffer buffer = POOL.allocate(BEncodeEncoder.length(map));
 		try {
-			this.send(buffer, socketAddress);
+			BEncodeEncoder.write(map, buffer.buffer());
+			this.send(buffer.buffer(), socketAddress);
 		} catch (NetException e) {
 			LOGGER.error("DHT消息发送异常", e);
+		} finally {
+			buffer.release();
 		}
 	}
 
@@ -0,0 +1,412 @@
+package com.acgist.snail.net.torrent.dht;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.IContext;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.logger.Logger;
+import com.acgist.snail.logger.LoggerFactory;
+
+/**
+ * <p>DHT Peer存储</p>
+ * <p>保存其他节点声明（announce_peer）的Peer，用于响应查找Peer（get_peers）请求。</p>
+ * <p>Peer使用紧凑格式保存：IPv4（6字节）、IPv6（18字节），和声明时间一起存放在数组中，不用为每个Peer新建对象。</p>
+ * <p>Peer超过有效时间定时清除，每个InfoHash保存数量和InfoHash数量都有上限，超过上限替换最早声明的Peer。</p>
+ * 
+ * @author acgist
+ */
+public final class DhtPeerStore implements IContext {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DhtPeerStore.class);
+	
+	private static final DhtPeerStore INSTANCE = new DhtPeerStore();
+	
+	public static final DhtPeerStore getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>Peer有效时间（秒）：{@value}</p>
+	 */
+	public static final int PEER_TTL = 30 * 60;
+	/**
+	 * <p>每个InfoHash最大Peer数量：{@value}</p>
+	 */
+	public static final int MAX_PEER_SIZE = 128;
+	/**
+	 * <p>最大InfoHash数量：{@value}</p>
+	 */
+	public static final int MAX_INFO_HASH_SIZE = 1 << 14;
+	/**
+	 * <p>清除过期Peer周期（分钟）：{@value}</p>
+	 */
+	private static final int CLEAN_INTERVAL = 5;
+	
+	/**
+	 * <p>Peer列表</p>
+	 * <p>InfoHash=Peer列表</p>
+	 */
+	private final Map<InfoHashKey, Peers> peers;
+	/**
+	 * <p>Peer数量</p>
+	 */
+	private final AtomicInteger size;
+	/**
+	 * <p>开始时间（毫秒）</p>
+	 * <p>声明时间使用相对时间（秒）保存</p>
+	 */
+	private final long startTime;
+	
+	private DhtPeerStore() {
+		this.peers = new ConcurrentHashMap<>();
+		this.size = new AtomicInteger(0);
+		this.startTime = System.currentTimeMillis();
+		SystemThreadContext.scheduledAtFixedDelay(
+			CLEAN_INTERVAL,
+			CLEAN_INTERVAL,
+			TimeUnit.MINUTES,
+			this::clean
+		);
+	}
+	
+	/**
+	 * <p>获取Peer数量</p>
+	 * 
+	 * @return Peer数量
+	 */
+	public int size() {
+		return this.size.get();
+	}
+	
+	/**
+	 * <p>保存Peer</p>
+	 * 
+	 * @param infoHash InfoHash
+	 * @param ip IP（4字节或者16字节）
+	 * @param port 端口
+	 * 
+	 * @return 是否保存
+	 */
+	public boolean put(byte[] infoHash, byte[] ip, int port) {
+		final int length = ip.length + SystemConfig.PORT_LENGHT;
+		if(length != SystemConfig.IPV4_PORT_LENGTH && length != SystemConfig.IPV6_PORT_LENGTH) {
+			return false;
+		}
+		final byte[] value = new byte[length];
+		System.arraycopy(ip, 0, value, 0, ip.length);
+		value[ip.length] = (byte) (port >> 8);
+		value[ip.length + 1] = (byte) port;
+		final InfoHashKey key = new InfoHashKey(infoHash);
+		while(true) {
+			Peers peers = this.peers.get(key);
+			if(peers == null) {
+				if(this.peers.size() >= MAX_INFO_HASH_SIZE) {
+					LOGGER.debug("DHT Peer存储InfoHash超过上限：{}", this.peers.size());
+					return false;
+				}
+				peers = this.peers.computeIfAbsent(key, newKey -> new Peers());
+			}
+			synchronized (peers) {
+				// 已经被清除：重新获取
+				if(peers.removed) {
+					continue;
+				}
+				this.size.addAndGet(peers.put(value, this.now()));
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * <p>获取Peer</p>
+	 * <p>随机开始位置，返回没有过期的Peer。</p>
+	 * 
+	 * @param infoHash InfoHash
+	 * @param ipv6 是否返回IPv6 Peer
+	 * @param limit 最大数量
+	 * 
+	 * @return Peer列表（紧凑格式）
+	 */
+	public List<byte[]> get(byte[] infoHash, boolean ipv6, int limit) {
+		final Peers peers = this.peers.get(new InfoHashKey(infoHash));
+		if(peers == null) {
+			return List.of();
+		}
+		final int expire = this.now() - PEER_TTL;
+		synchronized (peers) {
+			return peers.get(ipv6, limit, expire);
+		}
+	}
+	
+	/**
+	 * <p>清除过期Peer</p>
+	 */
+	public void clean() {
+		final int oldSize = this.size.get();
+		final int expire = this.now() - PEER_TTL;
+		final var iterator = this.peers.values().iterator();
+		while(iterator.hasNext()) {
+			final Peers peers = iterator.next();
+			synchronized (peers) {
+				this.size.addAndGet(-peers.clean(expire));
+				if(peers.isEmpty()) {
+					peers.removed = true;
+					iterator.remove();
+				}
+			}
+		}
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug("清除DHT过期Peer：{}-{}", oldSize, this.size.get());
+		}
+	}
+	
+	/**
+	 * <p>获取当前相对时间（秒）</p>
+	 * 
+	 * @return 当前相对时间
+	 */
+	private int now() {
+		return (int) ((System.currentTimeMillis() - this.startTime) / SystemConfig.ONE_SECOND_MILLIS);
+	}
+	
+	/**
+	 * <p>InfoHash</p>
+	 * <p>InfoHash本身是散列值：直接使用前四个字节作为哈希值</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class InfoHashKey {
+
+		/**
+		 * <p>InfoHash</p>
+		 */
+		private final byte[] infoHash;
+		/**
+		 * <p>哈希值</p>
+		 */
+		private final int hash;
+		
+		/**
+		 * @param infoHash InfoHash
+		 */
+		private InfoHashKey(byte[] infoHash) {
+			this.infoHash = infoHash;
+			int hash = 0;
+			for (int index = 0; index < Math.min(Integer.BYTES, infoHash.length); index++) {
+				hash = (hash << Byte.SIZE) | (infoHash[index] & 0xFF);
+			}
+			this.hash = hash;
+		}
+		
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			if(this == object) {
+				return true;
+			}
+			if(object instanceof InfoHashKey key) {
+				return Arrays.equals(this.infoHash, key.infoHash);
+			}
+			return false;
+		}
+	
+	}
+	
+	/**
+	 * <p>InfoHash Peer列表</p>
+	 * <p>IPv4和IPv6分开保存，每个Peer占用一段连续数组：{@code values[index * length]}</p>
+	 * <p>非线程安全：使用时加锁</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class Peers {
+
+		/**
+		 * <p>IPv4 Peer</p>
+		 */
+		private final Entries ipv4;
+		/**
+		 * <p>IPv6 Peer</p>
+		 */
+		private final Entries ipv6;
+		/**
+		 * <p>是否已经清除</p>
+		 */
+		private boolean removed;
+		
+		private Peers() {
+			this.ipv4 = new Entries(SystemConfig.IPV4_PORT_LENGTH);
+			this.ipv6 = new Entries(SystemConfig.IPV6_PORT_LENGTH);
+		}
+		
+		/**
+		 * @see Entries#put(byte[], int)
+		 */
+		private int put(byte[] value, int time) {
+			if(value.length == SystemConfig.IPV4_PORT_LENGTH) {
+				return this.ipv4.put(value, time);
+			} else {
+				return this.ipv6.put(value, time);
+			}
+		}
+		
+		/**
+		 * @see Entries#get(int, int)
+		 */
+		private List<byte[]> get(boolean ipv6, int limit, int expire) {
+			return ipv6 ? this.ipv6.get(limit, expire) : this.ipv4.get(limit, expire);
+		}
+		
+		/**
+		 * @see Entries#clean(int)
+		 */
+		private int clean(int expire) {
+			return this.ipv4.clean(expire) + this.ipv6.clean(expire);
+		}
+		
+		/**
+		 * @return 是否没有Peer
+		 */
+		private boolean isEmpty() {
+			return this.ipv4.size == 0 && this.ipv6.size == 0;
+		}
+	
+	}
+	
+	/**
+	 * <p>紧凑格式Peer数组</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class Entries {
+
+		/**
+		 * <p>Peer长度</p>
+		 */
+		private final int length;
+		/**
+		 * <p>Peer数据</p>
+		 */
+		private byte[] values;
+		/**
+		 * <p>声明时间</p>
+		 */
+		private int[] times;
+		/**
+		 * <p>Peer数量</p>
+		 */
+		private int size;
+		
+		/**
+		 * @param length Peer长度
+		 */
+		private Entries(int length) {
+			this.length = length;
+			this.values = new byte[0];
+			this.times = new int[0];
+			this.size = 0;
+		}
+		
+		/**
+		 * <p>保存Peer</p>
+		 * <p>已经存在更新声明时间，超过上限替换最早声明的Peer。</p>
+		 * 
+		 * @param value Peer
+		 * @param time 声明时间
+		 * 
+		 * @return 新增数量
+		 */
+		private int put(byte[] value, int time) {
+			int oldest = 0;
+			for (int index = 0; index < this.size; index++) {
+				if(Arrays.equals(
+					this.values, index * this.length, (index + 1) * this.length,
+					value, 0, this.length
+				)) {
+					this.times[index] = time;
+					return 0;
+				}
+				if(this.times[index] < this.times[oldest]) {
+					oldest = index;
+				}
+			}
+			if(this.size >= MAX_PEER_SIZE) {
+				System.arraycopy(value, 0, this.values, oldest * this.length, this.length);
+				this.times[oldest] = time;
+				return 0;
+			}
+			if(this.size >= this.times.length) {
+				final int capacity = Math.min(MAX_PEER_SIZE, Math.max(4, this.size * 2));
+				this.values = Arrays.copyOf(this.values, capacity * this.length);
+				this.times = Arrays.copyOf(this.times, capacity);
+			}
+			System.arraycopy(value, 0, this.values, this.size * this.length, this.length);
+			this.times[this.size] = time;
+			this.size++;
+			return 1;
+		}
+		
+		/**
+		 * <p>获取Peer</p>
+		 * 
+		 * @param limit 最大数量
+		 * @param expire 过期时间
+		 * 
+		 * @return Peer列表
+		 */
+		private List<byte[]> get(int limit, int expire) {
+			if(this.size == 0) {
+				return List.of();
+			}
+			final List<byte[]> list = new ArrayList<>(Math.min(limit, this.size));
+			final int begin = ThreadLocalRandom.current().nextInt(this.size);
+			for (int jndex = 0; jndex < this.size && list.size() < limit; jndex++) {
+				final int index = (begin + jndex) % this.size;
+				if(this.times[index] > expire) {
+					final int offset = index * this.length;
+					list.add(Arrays.copyOfRange(this.values, offset, offset + this.length));
+				}
+			}
+			return list;
+		}
+		
+		/**
+		 * <p>清除过期Peer</p>
+		 * <p>最后一个Peer移动到删除位置</p>
+		 * 
+		 * @param expire 过期时间
+		 * 
+		 * @return 清除数量
+		 */
+		private int clean(int expire) {
+			int count = 0;
+			int index = 0;
+			while(index < this.size) {
+				if(this.times[index] <= expire) {
+					final int last = this.size - 1;
+					System.arraycopy(this.values, last * this.length, this.values, index * this.length, this.length);
+					this.times[index] = this.times[last];
+					this.size--;
+					count++;
+				} else {
+					index++;
+				}
+			}
+			return count;
+		}
+	
+	}
+
+}
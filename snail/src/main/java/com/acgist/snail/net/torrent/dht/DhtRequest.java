@@ -5,13 +5,12 @@ import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import com.acgist.snail.config.DhtConfig;
 import com.acgist.snail.config.DhtConfig.QType;
-import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.format.BEncodeDecoder;
-import com.acgist.snail.format.BEncodeEncoder;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.utils.BeanUtils;
@@ -47,6 +46,13 @@ public class DhtRequest extends DhtMessage {
 	 * <p>响应</p>
 	 */
 	private DhtResponse response;
+	/**
+	 * <p>响应回调</p>
+	 * <p>收到响应或者超时（响应为{@code null}）执行一次</p>
+	 * 
+	 * @see DhtContext#request(DhtRequest)
+	 */
+	private Consumer<DhtResponse> callback;
 	
 	/**
 	 * <p>新建请求</p>
@@ -133,6 +139,36 @@ public class DhtRequest extends DhtMessage {
 		this.response = response;
 	}
 
+	/**
+	 * <p>设置响应回调</p>
+	 * 
+	 * @param callback 响应回调
+	 */
+	public void setCallback(Consumer<DhtResponse> callback) {
+		this.callback = callback;
+	}
+	
+	/**
+	 * <p>执行响应回调</p>
+	 * <p>回调只会执行一次：响应和超时竞争时只有先到的执行</p>
+	 * 
+	 * @param response 响应（超时：{@code null}）
+	 */
+	public void callback(DhtResponse response) {
+		final Consumer<DhtResponse> callback;
+		synchronized (this) {
+			callback = this.callback;
+			this.callback = null;
+		}
+		if(callback != null) {
+			try {
+				callback.accept(response);
+			} catch (Exception e) {
+				LOGGER.error("DHT响应回调异常", e);
+			}
+		}
+	}
+	
 	/**
 	 * <p>判断是否已经获取响应</p>
 	 * 
@@ -153,13 +189,13 @@ public class DhtRequest extends DhtMessage {
 	}
 	
 	@Override
-	public final byte[] toBytes() {
+	protected final Map<String, Object> toMap() {
 		final Map<String, Object> request = new LinkedHashMap<>();
 		request.put(DhtConfig.KEY_T, this.t);
 		request.put(DhtConfig.KEY_Y, this.y);
 		request.put(DhtConfig.KEY_Q, this.q.value());
 		request.put(DhtConfig.KEY_A, this.a);
-		return BEncodeEncoder.encodeMap(request);
+		return request;
 	}
 	
 	/**
@@ -233,33 +269,6 @@ public class DhtRequest extends DhtMessage {
 		return buffer.array();
 	}
 	
-	/**
-	 * <p>添加响应锁</p>
-	 */
-	public void lockResponse() {
-		if(!this.hasResponse()) {
-			synchronized (this) {
-				if(!this.hasResponse()) {
-					try {
-						this.wait(SystemConfig.RECEIVE_TIMEOUT_MILLIS);
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-						LOGGER.debug("线程等待异常", e);
-					}
-				}
-			}
-		}
-	}
-	
-	/**
-	 * <p>释放响应锁</p>
-	 */
-	public void unlockResponse() {
-		synchronized (this) {
-			this.notifyAll();
-		}
-	}
-	
 	@Override
 	public int hashCode() {
 		return Arrays.hashCode(this.t);
@@ -10,7 +10,6 @@ import java.util.Map;
 import com.acgist.snail.config.DhtConfig;
 import com.acgist.snail.config.DhtConfig.ErrorCode;
 import com.acgist.snail.format.BEncodeDecoder;
-import com.acgist.snail.format.BEncodeEncoder;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.utils.BeanUtils;
@@ -107,7 +106,7 @@ public class DhtResponse extends DhtMessage {
 	}
 	
 	@Override
-	public final byte[] toBytes() {
+	protected final Map<String, Object> toMap() {
 		final Map<String, Object> response = new LinkedHashMap<>();
 		response.put(DhtConfig.KEY_T, this.t);
 		response.put(DhtConfig.KEY_Y, this.y);
@@ -117,7 +116,7 @@ public class DhtResponse extends DhtMessage {
 		if(this.e != null) {
 			response.put(DhtConfig.KEY_E, this.e);
 		}
-		return BEncodeEncoder.encodeMap(response);
+		return response;
 	}
 
 	/**
@@ -0,0 +1,258 @@
+package com.acgist.snail.net.torrent.dht;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+
+import com.acgist.snail.utils.BeanUtils;
+
+/**
+ * <p>DHT节点桶（K桶）</p>
+ * <p>保存和系统NodeId共同前缀长度相同的节点，节点数量不超过{@link #K}，超过数量的节点进入替换缓存。</p>
+ * <p>节点列表写时复制：读取不用加锁，修改由{@link NodeContext}加锁执行。</p>
+ * <p>节点列表按照活跃时间排序：最早活跃的节点在前</p>
+ * 
+ * @author acgist
+ */
+public final class NodeBucket {
+
+	/**
+	 * <p>桶容量：{@value}</p>
+	 */
+	public static final int K = 8;
+	
+	/**
+	 * <p>共同前缀长度</p>
+	 * <p>最后一个桶保存所有共同前缀长度大于等于该值的节点</p>
+	 */
+	private final int depth;
+	/**
+	 * <p>节点列表</p>
+	 */
+	private volatile NodeSession[] nodes;
+	/**
+	 * <p>替换缓存</p>
+	 * <p>桶已满时保存新的节点：最近添加的节点在后</p>
+	 */
+	private final Deque<NodeSession> replacements;
+	
+	/**
+	 * @param depth 共同前缀长度
+	 */
+	public NodeBucket(int depth) {
+		this.depth = depth;
+		this.nodes = new NodeSession[0];
+		this.replacements = new ArrayDeque<>();
+	}
+	
+	/**
+	 * <p>获取共同前缀长度</p>
+	 * 
+	 * @return 共同前缀长度
+	 */
+	public int depth() {
+		return this.depth;
+	}
+	
+	/**
+	 * <p>获取节点列表</p>
+	 * 
+	 * @return 节点列表（只读）
+	 */
+	public NodeSession[] nodes() {
+		return this.nodes;
+	}
+	
+	/**
+	 * <p>获取节点数量</p>
+	 * 
+	 * @return 节点数量
+	 */
+	public int size() {
+		return this.nodes.length;
+	}
+	
+	/**
+	 * <p>判断桶是否已满</p>
+	 * 
+	 * @return 是否已满
+	 */
+	public boolean full() {
+		return this.nodes.length >= K;
+	}
+	
+	/**
+	 * <p>查找节点</p>
+	 * 
+	 * @param nodeId 节点ID
+	 * 
+	 * @return 节点
+	 */
+	public NodeSession select(byte[] nodeId) {
+		for (NodeSession session : this.nodes) {
+			if(Arrays.equals(nodeId, session.getId())) {
+				return session;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * <p>查找替换缓存节点</p>
+	 * 
+	 * @param nodeId 节点ID
+	 * 
+	 * @return 节点
+	 */
+	public NodeSession selectReplacement(byte[] nodeId) {
+		for (NodeSession session : this.replacements) {
+			if(Arrays.equals(nodeId, session.getId())) {
+				return session;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * <p>添加节点</p>
+	 * <p>调用前需要判断节点是否已满</p>
+	 * 
+	 * @param session 节点
+	 */
+	public void add(NodeSession session) {
+		final NodeSession[] oldNodes = this.nodes;
+		final NodeSession[] newNodes = Arrays.copyOf(oldNodes, oldNodes.length + 1);
+		newNodes[oldNodes.length] = session;
+		this.nodes = newNodes;
+	}
+	
+	/**
+	 * <p>删除节点</p>
+	 * 
+	 * @param session 节点
+	 * 
+	 * @return 是否删除
+	 */
+	public boolean remove(NodeSession session) {
+		final NodeSession[] oldNodes = this.nodes;
+		final int index = this.indexOf(oldNodes, session);
+		if(index < 0) {
+			return false;
+		}
+		final NodeSession[] newNodes = new NodeSession[oldNodes.length - 1];
+		System.arraycopy(oldNodes, 0, newNodes, 0, index);
+		System.arraycopy(oldNodes, index + 1, newNodes, index, oldNodes.length - index - 1);
+		this.nodes = newNodes;
+		return true;
+	}
+	
+	/**
+	 * <p>标记节点活跃</p>
+	 * <p>节点移动到列表最后</p>
+	 * 
+	 * @param session 节点
+	 */
+	public void touch(NodeSession session) {
+		final NodeSession[] oldNodes = this.nodes;
+		final int index = this.indexOf(oldNodes, session);
+		if(index < 0 || index == oldNodes.length - 1) {
+			return;
+		}
+		final NodeSession[] newNodes = new NodeSession[oldNodes.length];
+		System.arraycopy(oldNodes, 0, newNodes, 0, index);
+		System.arraycopy(oldNodes, index + 1, newNodes, index, oldNodes.length - index - 1);
+		newNodes[newNodes.length - 1] = session;
+		this.nodes = newNodes;
+	}
+	
+	/**
+	 * <p>查找失效节点</p>
+	 * <p>失效节点：验证状态（使用后没有收到响应）</p>
+	 * 
+	 * @return 失效节点
+	 */
+	public NodeSession verifyNode() {
+		for (NodeSession session : this.nodes) {
+			if(session.getStatus() == NodeSession.Status.VERIFY) {
+				return session;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * <p>添加替换缓存</p>
+	 * <p>超过容量删除最早添加的节点</p>
+	 * 
+	 * @param session 节点
+	 */
+	public void addReplacement(NodeSession session) {
+		this.replacements.remove(session);
+		this.replacements.offerLast(session);
+		while(this.replacements.size() > K) {
+			this.replacements.pollFirst();
+		}
+	}
+	
+	/**
+	 * <p>删除替换缓存</p>
+	 * 
+	 * @param session 节点
+	 * 
+	 * @return 是否删除
+	 */
+	public boolean removeReplacement(NodeSession session) {
+		return this.replacements.remove(session);
+	}
+	
+	/**
+	 * <p>取出替换节点</p>
+	 * <p>优先选择最近添加的可以使用的节点</p>
+	 * 
+	 * @return 替换节点
+	 */
+	public NodeSession pollReplacement() {
+		final Iterator<NodeSession> iterator = this.replacements.descendingIterator();
+		while(iterator.hasNext()) {
+			final NodeSession session = iterator.next();
+			if(session.useable()) {
+				iterator.remove();
+				return session;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * <p>获取替换缓存</p>
+	 * 
+	 * @return 替换缓存
+	 */
+	public Deque<NodeSession> replacements() {
+		return this.replacements;
+	}
+	
+	/**
+	 * <p>查找节点索引</p>
+	 * 
+	 * @param nodes 节点列表
+	 * @param session 节点
+	 * 
+	 * @return 节点索引
+	 */
+	private int indexOf(NodeSession[] nodes, NodeSession session) {
+		for (int index = 0; index < nodes.length; index++) {
+			if(nodes[index] == session) {
+				return index;
+			}
+		}
+		return -1;
+	}
+	
+	@Override
+	public String toString() {
+		return BeanUtils.toString(this, this.depth, this.nodes.length, this.replacements.size());
+	}
+
+}
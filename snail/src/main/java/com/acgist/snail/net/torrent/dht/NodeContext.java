@@ -2,10 +2,9 @@ package com.acgist.snail.net.torrent.dht;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
-import java.util.stream.Collectors;
 import java.util.zip.CRC32C;
 
 import com.acgist.snail.config.DhtConfig;
@@ -14,6 +13,7 @@ import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.context.IContext;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
+import com.acgist.snail.net.torrent.dht.request.PingRequest;
 import com.acgist.snail.utils.ArrayUtils;
 import com.acgist.snail.utils.NetUtils;
 import com.acgist.snail.utils.NumberUtils;
@@ -26,6 +26,10 @@ import com.acgist.snail.utils.StringUtils;
  * DHT Security extension
  * 协议链接：http://www.bittorrent.org/beps/bep_0042.html
  * 
+ * 路由表：K桶（Kademlia k-bucket）
+ * 按照节点和系统NodeId的共同前缀长度分桶，只有包含系统NodeId的桶（最后一个桶）可以分裂。
+ * 读取（查找节点）不用加锁，修改（添加节点、标记状态）加锁执行。
+ * 
  * BT协议使用DHT网络
  * eMule协议使用KAD网络
  * 
@@ -41,10 +45,6 @@ public final class NodeContext implements IContext {
 		return INSTANCE;
 	}
 	
-	/**
-	 * Node查找时返回的列表长度：{@value}
-	 */
-	private static final int MAX_NODE_SIZE = 8;
 	/**
 	 * IPv4 MASK
 	 */
@@ -53,22 +53,30 @@ public final class NodeContext implements IContext {
 	 * IPv6 MASK
 	 */
 	private static final byte[] IPV6_MASK = NumberUtils.longToBytes(0x0103070F1F3F7FFFL);
+	/**
+	 * 最大共同前缀长度（不同节点）：{@value}
+	 */
+	private static final int MAX_DEPTH = DhtConfig.NODE_ID_LENGTH * Byte.SIZE - 1;
 	
 	/**
 	 * NodeId
 	 */
 	private final byte[] nodeId;
 	/**
-	 * 节点列表
-	 * 不要使用LinkedList：大量使用索引操作所以LinkedList性能很差
-	 * 如果节点数量太多，建议使用分片查找算法，或者按照节点开始字母实现跳表。
+	 * K桶列表
+	 * 索引等于共同前缀长度，分裂时整体替换（写时复制）。
 	 */
-	private final List<NodeSession> nodes;
+	private volatile NodeBucket[] buckets;
+	/**
+	 * 节点数量（不含替换缓存）
+	 */
+	private volatile int size;
 	
 	private NodeContext() {
 		// 随机生成NodeId：拿到外网IP后再重新生成
 		this.nodeId = ArrayUtils.random(DhtConfig.NODE_ID_LENGTH);
-		this.nodes = new ArrayList<>();
+		this.buckets = new NodeBucket[] { new NodeBucket(0) };
+		this.size = 0;
 		this.register();
 	}
 	
@@ -86,7 +94,7 @@ public final class NodeContext implements IContext {
 	 * 
 	 * @return NodeId
 	 */
-	public byte[] buildNodeId(String ip) {
+	public synchronized byte[] buildNodeId(String ip) {
 		LOGGER.debug("生成NodeId：{}", ip);
 		final byte[] mask;
 		final byte[] ipBytes = NetUtils.ipToBytes(ip);
@@ -116,6 +124,8 @@ public final class NodeContext implements IContext {
 		System.arraycopy(ArrayUtils.random(16), 0, this.nodeId, 3, 16);
 		// 设置随机种子
 		this.nodeId[19] = rand;
+		// NodeId改变：重建路由表
+		this.rebuild();
 		return this.nodeId;
 	}
 	
@@ -141,73 +151,64 @@ public final class NodeContext implements IContext {
 	}
 	
 	/**
-	 * @return 所有节点拷贝
+	 * @return 所有节点拷贝（按照节点ID排序）
 	 */
 	public List<NodeSession> nodes() {
-		synchronized (this.nodes) {
-			return new ArrayList<>(this.nodes);
+		final List<NodeSession> list = new ArrayList<>(this.size);
+		for (NodeBucket bucket : this.buckets) {
+			list.addAll(Arrays.asList(bucket.nodes()));
 		}
+		list.sort(null);
+		return list;
 	}
-
+	
 	/**
-	 * 整理节点长度
-	 * 超过最大保存数量：删除验证节点和多余节点
+	 * @return 节点数量
+	 */
+	public int size() {
+		return this.size;
+	}
+	
+	/**
+	 * 整理节点
+	 * 删除验证节点（使用后没有收到响应），使用替换缓存节点补充。
 	 * 
 	 * @return 所有节点拷贝
 	 * 
 	 * @see #nodes()
 	 */
 	public List<NodeSession> resize() {
-		synchronized (this.nodes) {
-			final int oldSize = this.nodes.size();
-			if(oldSize < DhtConfig.MAX_NODE_SIZE) {
-				return this.nodes();
-			}
-			NodeSession session;
-			final Random random = NumberUtils.random();
-			final Iterator<NodeSession> iterator = this.nodes.iterator();
-			while(iterator.hasNext()) {
-				session = iterator.next();
-				final boolean remove = switch (session.getStatus()) {
-				// 随机均匀剔除
-				case UNUSE -> random.nextInt(oldSize) >= DhtConfig.MAX_NODE_SIZE;
-				// 验证状态剔除
-				case VERIFY -> true;
-				// 可用状态保存
-				default -> false;
-				};
-				if(remove) {
-					iterator.remove();
+		synchronized (this) {
+			final int oldSize = this.size;
+			for (NodeBucket bucket : this.buckets) {
+				NodeSession session;
+				while((session = bucket.verifyNode()) != null) {
+					this.remove(bucket, session);
 				}
+				this.fill(bucket);
 			}
 			if(LOGGER.isDebugEnabled()) {
-				LOGGER.debug("整理节点长度：{}-{}", oldSize, this.nodes.size());
+				LOGGER.debug("整理节点：{}-{}", oldSize, this.size);
 			}
-			return this.nodes();
 		}
+		return this.nodes();
 	}
 	
 	/**
 	 * 添加DHT节点
-	 * 需要验证节点状态
+	 * 需要验证节点状态：异步发送Ping请求，收到响应后添加节点。
 	 * 
 	 * @param host 地址
 	 * @param port 端口
-	 * 
-	 * @return DHT节点
 	 */
-	public NodeSession newNodeSession(String host, Integer port) {
-		final DhtClient client = DhtClient.newInstance(host, port);
-		final NodeSession nodeSession = client.ping();
-		if(nodeSession != null) {
-			nodeSession.setStatus(NodeSession.Status.AVAILABLE);
-		}
-		return nodeSession;
+	public void newNodeSession(String host, Integer port) {
+		DhtClient.newInstance(host, port).request(PingRequest.newRequest());
 	}
 	
 	/**
 	 * 添加DHT节点
 	 * 不用验证节点状态
+	 * 桶已满时优先替换验证节点，包含系统NodeId的桶可以分裂，否则进入替换缓存。
 	 * 
 	 * @param nodeId 节点ID
 	 * @param host 地址
@@ -220,17 +221,23 @@ public final class NodeContext implements IContext {
 			LOGGER.warn("添加Node失败：{}-{}-{}", nodeId, host, port);
 			return null;
 		}
-		synchronized (this.nodes) {
-			final int[] nodeIndex = this.close(nodeId);
-			final int index = nodeIndex[0];
-			final int signum = nodeIndex[1];
-			if(signum == 0) {
-				return this.nodes.get(index);
+		if(Arrays.equals(this.nodeId, nodeId)) {
+			// 系统节点不用保存
+			return NodeSession.newInstance(nodeId, host, port);
+		}
+		synchronized (this) {
+			final NodeBucket bucket = this.bucket(nodeId);
+			NodeSession nodeSession = bucket.select(nodeId);
+			if(nodeSession != null) {
+				return nodeSession;
 			}
-			final NodeSession nodeSession = NodeSession.newInstance(nodeId, host, port);
+			nodeSession = bucket.selectReplacement(nodeId);
+			if(nodeSession != null) {
+				return nodeSession;
+			}
+			nodeSession = NodeSession.newInstance(nodeId, host, port);
 			LOGGER.debug("添加Node：{}", nodeSession);
-			// 添加指定节点位置
-			this.nodes.add(index, nodeSession);
+			this.put(nodeSession);
 			return nodeSession;
 		}
 	}
@@ -248,127 +255,246 @@ public final class NodeContext implements IContext {
 	
 	/**
 	 * 查找节点列表
+	 * 返回异或距离最近的{@link NodeBucket#K}个可用节点（按照距离排序）
+	 * 目标共同前缀长度为j：j桶节点距离最近，然后是所有大于j的桶，最后是j-1、j-2...桶。
 	 * 
 	 * @param target InfoHash或者NodeId
 	 * 
 	 * @return 节点列表
 	 */
 	public List<NodeSession> findNode(byte[] target) {
-		List<NodeSession> closeNodes;
-		synchronized (this.nodes) {
-			final int nodeSize = this.nodes.size();
-			if(nodeSize <= MAX_NODE_SIZE) {
-				closeNodes = this.nodes.stream()
-					.filter(NodeSession::useable)
-					.collect(Collectors.toList());
-			} else {
-				closeNodes = new ArrayList<>();
-				final int[] nodeIndex = this.close(target);
-				final int index = nodeIndex[0];
-				int size = 0;
-				// 查找位置大于当前节点
-				int leftPos = 1;
-				int rightPos = 0;
-				NodeSession leftNode;
-				NodeSession rightNode;
-				while(
-					// 指定数量结果
-					size < MAX_NODE_SIZE &&
-					// 轮询整个列表
-					leftPos + rightPos < nodeSize
-				) {
-					leftNode = this.select(index - leftPos, nodeSize);
-					if(leftNode.useable()) {
-						size++;
-						// 前面添加防止乱序
-						closeNodes.add(0, leftNode);
-					}
-					leftPos++;
-					rightNode = this.select(index + rightPos, nodeSize);
-					if(rightNode.useable()) {
-						size++;
-						closeNodes.add(rightNode);
-					}
-					rightPos++;
-				}
+		final NodeBucket[] buckets = this.buckets;
+		final int last = buckets.length - 1;
+		final int index = Math.min(this.depth(target), last);
+		final List<NodeSession> closeNodes = new ArrayList<>();
+		this.useable(buckets[index], closeNodes);
+		if(closeNodes.size() < NodeBucket.K) {
+			for (int jndex = index + 1; jndex <= last; jndex++) {
+				this.useable(buckets[jndex], closeNodes);
 			}
+			for (int jndex = index - 1; jndex >= 0 && closeNodes.size() < NodeBucket.K; jndex--) {
+				this.useable(buckets[jndex], closeNodes);
+			}
+		}
+		closeNodes.sort(distance(target));
+		if(closeNodes.size() > NodeBucket.K) {
+			return new ArrayList<>(closeNodes.subList(0, NodeBucket.K));
 		}
 		return closeNodes;
 	}
 
 	/**
 	 * 标记节点为可用状态
+	 * 替换缓存节点可用时替换桶中验证节点
 	 * 
 	 * @param nodeId 节点ID
 	 */
 	public void available(byte[] nodeId) {
-		synchronized (this.nodes) {
-			final NodeSession node = this.select(nodeId);
+		if(nodeId == null || nodeId.length != DhtConfig.NODE_ID_LENGTH) {
+			return;
+		}
+		synchronized (this) {
+			final NodeBucket bucket = this.bucket(nodeId);
+			NodeSession node = bucket.select(nodeId);
 			if(node != null) {
 				node.setStatus(NodeSession.Status.AVAILABLE);
+				bucket.touch(node);
+				return;
+			}
+			node = bucket.selectReplacement(nodeId);
+			if(node != null) {
+				node.setStatus(NodeSession.Status.AVAILABLE);
+				final NodeSession verifyNode = bucket.verifyNode();
+				if(verifyNode != null) {
+					this.remove(bucket, verifyNode);
+					bucket.removeReplacement(node);
+					this.add(bucket, node);
+				}
 			}
 		}
 	}
-
+	
 	/**
-	 * 选择节点
+	 * 保存节点
 	 * 
-	 * @param index 节点索引
-	 * @param nodeSize 节点数量
+	 * @param session 节点
+	 */
+	private void put(NodeSession session) {
+		while(true) {
+			final NodeBucket bucket = this.bucket(session.getId());
+			if(!bucket.full() && this.size < DhtConfig.MAX_NODE_SIZE) {
+				this.add(bucket, session);
+				return;
+			}
+			final NodeSession verifyNode = bucket.verifyNode();
+			if(verifyNode != null) {
+				this.remove(bucket, verifyNode);
+				this.add(bucket, session);
+				return;
+			}
+			if(
+				bucket.full() &&
+				bucket.depth() < MAX_DEPTH &&
+				bucket == this.buckets[this.buckets.length - 1]
+			) {
+				this.split();
+				continue;
+			}
+			bucket.addReplacement(session);
+			return;
+		}
+	}
+	
+	/**
+	 * 分裂最后一个桶
+	 * 共同前缀长度大于桶深度的节点移动到新桶
+	 */
+	private void split() {
+		final NodeBucket[] oldBuckets = this.buckets;
+		final NodeBucket last = oldBuckets[oldBuckets.length - 1];
+		final int depth = last.depth();
+		final NodeBucket bucket = new NodeBucket(depth + 1);
+		for (NodeSession session : last.nodes()) {
+			if(this.depth(session.getId()) > depth) {
+				last.remove(session);
+				bucket.add(session);
+			}
+		}
+		final var iterator = last.replacements().iterator();
+		while(iterator.hasNext()) {
+			final NodeSession session = iterator.next();
+			if(this.depth(session.getId()) > depth) {
+				iterator.remove();
+				bucket.addReplacement(session);
+			}
+		}
+		this.fill(last);
+		this.fill(bucket);
+		final NodeBucket[] newBuckets = Arrays.copyOf(oldBuckets, oldBuckets.length + 1);
+		newBuckets[oldBuckets.length] = bucket;
+		this.buckets = newBuckets;
+		LOGGER.debug("分裂K桶：{}", depth);
+	}
+	
+	/**
+	 * 重建路由表
+	 */
+	private void rebuild() {
+		final List<NodeSession> list = new ArrayList<>();
+		for (NodeBucket bucket : this.buckets) {
+			list.addAll(Arrays.asList(bucket.nodes()));
+			list.addAll(bucket.replacements());
+		}
+		this.buckets = new NodeBucket[] { new NodeBucket(0) };
+		this.size = 0;
+		list.stream()
+			.filter(session -> !Arrays.equals(this.nodeId, session.getId()))
+			.forEach(this::put);
+	}
+	
+	/**
+	 * 使用替换缓存补充桶节点
+	 * 
+	 * @param bucket 桶
+	 */
+	private void fill(NodeBucket bucket) {
+		NodeSession session;
+		while(
+			!bucket.full() &&
+			this.size < DhtConfig.MAX_NODE_SIZE &&
+			(session = bucket.pollReplacement()) != null
+		) {
+			this.add(bucket, session);
+		}
+	}
+	
+	/**
+	 * 桶添加节点
+	 * 
+	 * @param bucket 桶
+	 * @param session 节点
+	 */
+	private void add(NodeBucket bucket, NodeSession session) {
+		bucket.add(session);
+		this.size++;
+	}
+	
+	/**
+	 * 桶删除节点
 	 * 
-	 * @return 节点
+	 * @param bucket 桶
+	 * @param session 节点
 	 */
-	private NodeSession select(int index, int nodeSize) {
-		if(index < 0) {
-			index = index + nodeSize;
-		} else if(index >= nodeSize) {
-			index = index - nodeSize;
+	private void remove(NodeBucket bucket, NodeSession session) {
+		if(bucket.remove(session)) {
+			this.size--;
 		}
-		return this.nodes.get(index);
 	}
 	
 	/**
-	 * 选择节点
+	 * 选择节点所在桶
 	 * 
 	 * @param nodeId 节点ID
 	 * 
-	 * @return 节点
+	 * @return 桶
 	 */
-	private NodeSession select(byte[] nodeId) {
-		for (NodeSession nodeSession : this.nodes) {
-			if(Arrays.equals(nodeId, nodeSession.getId())) {
-				return nodeSession;
+	private NodeBucket bucket(byte[] nodeId) {
+		final NodeBucket[] buckets = this.buckets;
+		return buckets[Math.min(this.depth(nodeId), buckets.length - 1)];
+	}
+	
+	/**
+	 * 添加桶中可用节点
+	 * 
+	 * @param bucket 桶
+	 * @param list 节点列表
+	 */
+	private void useable(NodeBucket bucket, List<NodeSession> list) {
+		for (NodeSession session : bucket.nodes()) {
+			if(session.useable()) {
+				list.add(session);
 			}
 		}
-		return null;
 	}
 	
 	/**
-	 * 查找最近节点信息
-	 * 
-	 * 节点标记
-	 * 正数=节点索引ID小于返回节点ID
-	 * 0=节点索引ID等于返回节点ID
-	 * 负数=节点索引ID大于返回节点ID
+	 * 计算节点和系统NodeId共同前缀长度
 	 * 
 	 * @param nodeId 节点ID
 	 * 
-	 * @return [ 节点索引, 节点标记 ]
+	 * @return 共同前缀长度
 	 */
-	private int[] close(byte[] nodeId) {
-		int index = 0;
-		int signum = 1;
-		NodeSession nodeSession;
-		for (int jndex = 0; jndex < this.nodes.size(); jndex++) {
-			nodeSession = this.nodes.get(jndex);
-			signum = Arrays.compareUnsigned(nodeId, nodeSession.getId());
-			if(signum > 0) {
-				index = jndex + 1;
-			} else {
-				break;
+	private int depth(byte[] nodeId) {
+		final int length = Math.min(nodeId.length, this.nodeId.length);
+		for (int index = 0; index < length; index++) {
+			final int value = (nodeId[index] ^ this.nodeId[index]) & 0xFF;
+			if(value != 0) {
+				return index * Byte.SIZE + Integer.numberOfLeadingZeros(value) - (Integer.SIZE - Byte.SIZE);
 			}
 		}
-		return new int[] {index, signum};
+		return length * Byte.SIZE;
+	}
+	
+	/**
+	 * 异或距离比较器
+	 * 
+	 * @param target 目标
+	 * 
+	 * @return 比较器
+	 */
+	public static final Comparator<NodeSession> distance(byte[] target) {
+		return (source, other) -> {
+			final byte[] sourceId = source.getId();
+			final byte[] otherId = other.getId();
+			for (int index = 0; index < target.length; index++) {
+				final int sourceValue = (sourceId[index] ^ target[index]) & 0xFF;
+				final int otherValue = (otherId[index] ^ target[index]) & 0xFF;
+				if(sourceValue != otherValue) {
+					return Integer.compare(sourceValue, otherValue);
+				}
+			}
+			return 0;
+		};
 	}
 	
 }
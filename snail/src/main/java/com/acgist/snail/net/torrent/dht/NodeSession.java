@@ -49,8 +49,9 @@ public final class NodeSession implements Comparable<NodeSession> {
 	private final int port;
 	/**
 	 * <p>节点状态</p>
+	 * <p>路由表读取不用加锁：使用volatile修饰</p>
 	 */
-	private Status status;
+	private volatile Status status;
 
 	/**
 	 * @param id 节点ID
@@ -1,7 +1,6 @@
 package com.acgist.snail.net.torrent.dht.request;
 
 import java.net.InetSocketAddress;
-import java.util.Arrays;
 
 import com.acgist.snail.config.DhtConfig;
 import com.acgist.snail.config.DhtConfig.ErrorCode;
@@ -12,10 +11,12 @@ import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.torrent.TorrentContext;
 import com.acgist.snail.net.torrent.TorrentSession;
 import com.acgist.snail.net.torrent.dht.DhtContext;
+import com.acgist.snail.net.torrent.dht.DhtPeerStore;
 import com.acgist.snail.net.torrent.dht.DhtRequest;
 import com.acgist.snail.net.torrent.dht.DhtResponse;
 import com.acgist.snail.net.torrent.dht.response.AnnouncePeerResponse;
 import com.acgist.snail.net.torrent.peer.PeerContext;
+import com.acgist.snail.utils.NetUtils;
 import com.acgist.snail.utils.StringUtils;
 
 /**
@@ -58,25 +59,33 @@ public final class AnnouncePeerRequest extends DhtRequest {
 	 */
 	public static final AnnouncePeerResponse execute(DhtRequest request) {
 		final byte[] token = request.getBytes(DhtConfig.KEY_TOKEN);
+		final InetSocketAddress socketAddress = request.getSocketAddress();
+		final String peerHost = socketAddress.getHostString();
 		// 验证Token
-		if(!Arrays.equals(token, DhtContext.getInstance().token())) {
+		if(!DhtContext.getInstance().verifyToken(peerHost, token)) {
 			return AnnouncePeerResponse.newInstance(DhtResponse.buildErrorResponse(request.getT(), ErrorCode.CODE_203, "Token错误"));
 		}
 		final byte[] infoHash = request.getBytes(DhtConfig.KEY_INFO_HASH);
+		if(infoHash == null || infoHash.length != DhtConfig.NODE_ID_LENGTH) {
+			return AnnouncePeerResponse.newInstance(DhtResponse.buildErrorResponse(request.getT(), ErrorCode.CODE_203, "InfoHash错误"));
+		}
+		// 默认端口
+		Integer peerPort = request.getInteger(DhtConfig.KEY_PORT);
+		final Integer impliedPort = request.getInteger(DhtConfig.KEY_IMPLIED_PORT);
+		// 是否自动配置端口
+		final boolean impliedPortAuto = DhtConfig.IMPLIED_PORT_AUTO.equals(impliedPort);
+		if(impliedPortAuto) {
+			// 自动配置端口
+			peerPort = socketAddress.getPort();
+		}
+		if(peerPort == null) {
+			return AnnouncePeerResponse.newInstance(DhtResponse.buildErrorResponse(request.getT(), ErrorCode.CODE_203, "端口错误"));
+		}
+		// 保存Peer：响应其他节点查找Peer
+		DhtPeerStore.getInstance().put(infoHash, NetUtils.ipToBytes(peerHost), peerPort);
 		final String infoHashHex = StringUtils.hex(infoHash);
 		final TorrentSession torrentSession = TorrentContext.getInstance().torrentSession(infoHashHex);
 		if(torrentSession != null) {
-			// 默认端口
-			Integer peerPort = request.getInteger(DhtConfig.KEY_PORT);
-			final Integer impliedPort = request.getInteger(DhtConfig.KEY_IMPLIED_PORT);
-			final InetSocketAddress socketAddress = request.getSocketAddress();
-			final String peerHost = socketAddress.getHostString();
-			// 是否自动配置端口
-			final boolean impliedPortAuto = DhtConfig.IMPLIED_PORT_AUTO.equals(impliedPort);
-			if(impliedPortAuto) {
-				// 自动配置端口
-				peerPort = socketAddress.getPort();
-			}
 			final var peerSession = PeerContext.getInstance().newPeerSession(
 				infoHashHex,
 				torrentSession.statistics(),
@@ -1,7 +1,10 @@
 package com.acgist.snail.net.torrent.dht.request;
 
+import java.net.Inet6Address;
 import java.nio.ByteBuffer;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 
 import com.acgist.snail.config.DhtConfig;
 import com.acgist.snail.config.SystemConfig;
@@ -9,6 +12,7 @@ import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.torrent.TorrentContext;
 import com.acgist.snail.net.torrent.TorrentSession;
+import com.acgist.snail.net.torrent.dht.DhtPeerStore;
 import com.acgist.snail.net.torrent.dht.DhtRequest;
 import com.acgist.snail.net.torrent.dht.NodeContext;
 import com.acgist.snail.net.torrent.dht.response.GetPeersResponse;
@@ -47,47 +51,71 @@ public final class GetPeersRequest extends DhtRequest {
 	/**
 	 * <p>处理请求</p>
 	 * <p>尽量返回Peer否者返回最近Node节点</p>
+	 * <p>Peer优先使用其他节点声明的Peer，然后使用当前任务已经连接的Peer。</p>
+	 * <p>Peer地址类型和请求地址类型一致：IPv4（6字节）、IPv6（18字节）</p>
 	 * 
 	 * @param request 请求
 	 * 
 	 * @return 响应
 	 */
 	public static final GetPeersResponse execute(DhtRequest request) {
-		boolean needNodes = true;
 		final GetPeersResponse response = GetPeersResponse.newInstance(request);
 		final byte[] infoHash = request.getBytes(DhtConfig.KEY_INFO_HASH);
-		final String infoHashHex = StringUtils.hex(infoHash);
-		final TorrentSession torrentSession = TorrentContext.getInstance().torrentSession(infoHashHex);
-		if(torrentSession != null) {
-			// TODO：IPv6
-			final ByteBuffer buffer = ByteBuffer.allocate(SystemConfig.IPV4_PORT_LENGTH);
-			final var list = PeerContext.getInstance().listPeerSession(infoHashHex);
-			if(CollectionUtils.isNotEmpty(list)) {
-				// 返回Peer
-				needNodes = false;
-				final var values = list.stream()
-					.filter(PeerSession::available)
-					.filter(PeerSession::connected)
-					.limit(DhtConfig.GET_PEER_SIZE)
-					.map(peer -> {
-						buffer.putInt(NetUtils.ipToInt(peer.host()));
-						buffer.putShort(NetUtils.portToShort(peer.port()));
-						buffer.flip();
-						return buffer.array();
-					})
-					.collect(Collectors.toList());
-				response.put(DhtConfig.KEY_VALUES, values);
+		final boolean ipv6 = request.getSocketAddress().getAddress() instanceof Inet6Address;
+		final List<byte[]> values = new ArrayList<>(DhtPeerStore.getInstance().get(infoHash, ipv6, DhtConfig.GET_PEER_SIZE));
+		if(values.size() < DhtConfig.GET_PEER_SIZE) {
+			final String infoHashHex = StringUtils.hex(infoHash);
+			final TorrentSession torrentSession = TorrentContext.getInstance().torrentSession(infoHashHex);
+			if(torrentSession != null) {
+				final var list = PeerContext.getInstance().listPeerSession(infoHashHex);
+				if(CollectionUtils.isNotEmpty(list)) {
+					list.stream()
+						.filter(PeerSession::available)
+						.filter(PeerSession::connected)
+						.map(peer -> compact(peer, ipv6))
+						.filter(Objects::nonNull)
+						.limit(DhtConfig.GET_PEER_SIZE - values.size())
+						.forEach(values::add);
+				}
+			} else {
+				LOGGER.debug("查找Peer种子信息不存在：{}", infoHashHex);
 			}
-		} else {
-			LOGGER.debug("查找Peer种子信息不存在：{}", infoHashHex);
 		}
-		if(needNodes) {
+		if(values.isEmpty()) {
 			// 返回Node
 			final var nodes = NodeContext.getInstance().findNode(infoHash);
 			// TODO：want
 			response.put(DhtConfig.KEY_NODES, serializeNodes(nodes));
+		} else {
+			// 返回Peer
+			response.put(DhtConfig.KEY_VALUES, values);
 		}
 		return response;
 	}
 	
+	/**
+	 * <p>Peer地址编码</p>
+	 * 
+	 * @param peer Peer
+	 * @param ipv6 是否编码IPv6地址
+	 * 
+	 * @return Peer地址（地址类型不一致：{@code null}）
+	 */
+	private static final byte[] compact(PeerSession peer, boolean ipv6) {
+		final String host = peer.host();
+		if(ipv6 ? !NetUtils.ipv6(host) : !NetUtils.ipv4(host)) {
+			return null;
+		}
+		final byte[] ip = NetUtils.ipToBytes(host);
+		final int length = ipv6 ? SystemConfig.IPV6_LENGTH : SystemConfig.IPV4_LENGTH;
+		// IPv4映射IPv6地址解码为IPv4地址
+		if(ip == null || ip.length != length) {
+			return null;
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(length + SystemConfig.PORT_LENGHT);
+		buffer.put(ip);
+		buffer.putShort(NetUtils.portToShort(peer.port()));
+		return buffer.array();
+	}
+	
 }
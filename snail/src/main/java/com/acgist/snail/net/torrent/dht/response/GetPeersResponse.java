@@ -25,11 +25,12 @@ import com.acgist.snail.utils.NetUtils;
 public final class GetPeersResponse extends DhtResponse {
 
 	/**
-	 * @param t 节点ID
+	 * @param request 请求
 	 */
-	private GetPeersResponse(byte[] t) {
-		super(t);
-		this.put(DhtConfig.KEY_TOKEN, DhtContext.getInstance().token());
+	private GetPeersResponse(DhtRequest request) {
+		super(request.getT());
+		// Token和请求节点地址绑定
+		this.put(DhtConfig.KEY_TOKEN, DhtContext.getInstance().token(request.getSocketAddress().getHostString()));
 	}
 	
 	/**
@@ -47,7 +48,7 @@ public final class GetPeersResponse extends DhtResponse {
 	 * @return 响应
 	 */
 	public static final GetPeersResponse newInstance(DhtRequest request) {
-		return new GetPeersResponse(request.getT());
+		return new GetPeersResponse(request);
 	}
 
 	/**
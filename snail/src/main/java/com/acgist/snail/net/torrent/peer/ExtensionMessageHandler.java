@@ -106,6 +106,21 @@ public final class ExtensionMessageHandler implements IExtensionMessageHandler {
 	 * @see MetadataMessageHandler
 	 */
 	private static final String EX_METADATA_SIZE = "metadata_size";
+	/**
+	 * <p>支持的扩展协议（提前编码）</p>
+	 * <p>扩展协议是否支持和通知不会改变：所有握手消息共享</p>
+	 */
+	private static final BEncodeEncoder.Encoded SUPPORT_TYPES;
+	
+	static {
+		final Map<String, Object> supportTypes = new LinkedHashMap<>();
+		for (var type : PeerConfig.ExtensionType.values()) {
+			if(type.support() && type.notice()) {
+				supportTypes.put(type.value(), type.id());
+			}
+		}
+		SUPPORT_TYPES = BEncodeEncoder.encoded(supportTypes);
+	}
 
 	/**
 	 * <p>是否已经发送握手</p>
@@ -211,13 +226,7 @@ public final class ExtensionMessageHandler implements IExtensionMessageHandler {
 		// 扩展消息
 		final Map<String, Object> message = new LinkedHashMap<>();
 		// 支持的扩展协议
-		final Map<String, Object> supportTypes = new LinkedHashMap<>();
-		for (var type : PeerConfig.ExtensionType.values()) {
-			if(type.support() && type.notice()) {
-				supportTypes.put(type.value(), type.id());
-			}
-		}
-		message.put(EX_M, supportTypes);
+		message.put(EX_M, SUPPORT_TYPES);
 		// 如果已经接收握手消息：不用发送TCP端口
 		if(!this.handshakeRecv) {
 			message.put(EX_P, SystemConfig.getTorrentPortExt());
@@ -244,7 +253,7 @@ public final class ExtensionMessageHandler implements IExtensionMessageHandler {
 		if(this.torrentSession.completed()) {
 			message.put(EX_UPLOAD_ONLY, UPLOAD_ONLY);
 		}
-		this.pushMessage(ExtensionType.HANDSHAKE.id(), BEncodeEncoder.encodeMap(message));
+		this.pushMessage(ExtensionType.HANDSHAKE.id(), message);
 	}
 
 	/**
@@ -480,6 +489,24 @@ public final class ExtensionMessageHandler implements IExtensionMessageHandler {
 		this.peerSubMessageHandler.pushMessage(PeerConfig.Type.EXTENSION, this.buildMessage(type, bytes));
 	}
 	
+	/**
+	 * <p>发送扩展消息</p>
+	 * <p>消息直接编码到消息缓冲区：不用复制扩展消息数据</p>
+	 * 
+	 * @param type 扩展消息类型
+	 * @param message 扩展消息
+	 */
+	public void pushMessage(byte type, Map<String, Object> message) {
+		final int length = BEncodeEncoder.length(message);
+		// 消息格式：length_prefix message_id extension_type payload
+		final ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + 1 + length);
+		buffer.putInt(1 + 1 + length);
+		buffer.put(PeerConfig.Type.EXTENSION.id());
+		buffer.put(type);
+		BEncodeEncoder.write(message, buffer);
+		this.peerSubMessageHandler.sendEncrypt(buffer);
+	}
+	
 	/**
 	 * <p>新建扩展消息</p>
 	 * 
@@ -0,0 +1,39 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>阻塞调度接口</p>
+ * <p>定时选择解除阻塞的Peer连接（上传位置）并且分配上传配额</p>
+ * 
+ * @author acgist
+ */
+public interface IPeerChoker {
+
+	/**
+	 * <p>调度周期（秒）：{@value}</p>
+	 */
+	int CHOKE_INTERVAL = 10;
+	
+	/**
+	 * <p>阻塞调度</p>
+	 * <p>返回连接解除阻塞，其他连接阻塞。</p>
+	 * 
+	 * @param peerConnectSessions 可以上传的Peer连接信息
+	 * @param seeding 是否做种
+	 * 
+	 * @return 解除阻塞的Peer连接信息
+	 */
+	Set<PeerConnectSession> choke(List<PeerConnectSession> peerConnectSessions, boolean seeding);
+	
+	/**
+	 * <p>Peer感兴趣：判断是否立即解除阻塞</p>
+	 * 
+	 * @param peerConnectSession Peer连接信息
+	 * 
+	 * @return 是否解除阻塞
+	 */
+	boolean interested(PeerConnectSession peerConnectSession);
+	
+}
@@ -0,0 +1,409 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.utils.BeanUtils;
+
+/**
+ * <p>Peer候选池</p>
+ * <p>候选Peer按照评分排序，挑选Peer时优先使用评分最高的Peer。</p>
+ * <p>评分来源：Peer来源、握手结果、握手时间（RTT）、下载数据大小，评分随着时间衰减（半衰期：{@link #HALF_LIFE}）。</p>
+ * <p>评分衰减使用前向衰减：事件评分乘以{@code 2^((事件时间 - 基准时间) / 半衰期)}累加，所有Peer衰减比例相同，所以时间流逝不会改变排序。</p>
+ * <p>候选池数量超过上限时淘汰最久没有使用的空闲Peer（优先淘汰不可用Peer）</p>
+ * <p>线程安全：每个任务一个候选池，方法加锁。</p>
+ * 
+ * @author acgist
+ */
+public final class PeerCandidatePool {
+
+	/**
+	 * <p>候选池最大数量：{@value}</p>
+	 */
+	public static final int MAX_SIZE = 2048;
+	/**
+	 * <p>评分半衰期（毫秒）：{@value}</p>
+	 */
+	public static final long HALF_LIFE = 10L * 60 * SystemConfig.ONE_SECOND_MILLIS;
+	/**
+	 * <p>优先来源评分：{@value}</p>
+	 */
+	public static final double PREFERENCE_SCORE = 1D;
+	/**
+	 * <p>握手成功评分：{@value}</p>
+	 */
+	public static final double SUCCESS_SCORE = 2D;
+	/**
+	 * <p>握手失败评分：{@value}</p>
+	 */
+	public static final double FAIL_SCORE = -4D;
+	/**
+	 * <p>劣质Peer评分：{@value}</p>
+	 */
+	public static final double INFERIOR_SCORE = -1D;
+	/**
+	 * <p>RTT最大评分：{@value}</p>
+	 * <p>RTT评分：{@code RTT_SCORE * RTT_BASE / (RTT_BASE + RTT)}</p>
+	 */
+	public static final double RTT_SCORE = 2D;
+	/**
+	 * <p>RTT评分基准（毫秒）：{@value}</p>
+	 */
+	private static final double RTT_BASE = 100D;
+	/**
+	 * <p>下载数据评分：{@value}</p>
+	 * <p>下载数据评分：{@code DOWNLOAD_SCORE * log2(1 + 下载数据MB)}</p>
+	 */
+	public static final double DOWNLOAD_SCORE = 1D;
+	/**
+	 * <p>重置基准时间间隔（半衰期数量）：{@value}</p>
+	 * <p>防止衰减权重溢出</p>
+	 */
+	private static final int REBASE_HALF_LIFE = 32;
+	
+	/**
+	 * <p>候选池最大数量</p>
+	 */
+	private final int maxSize;
+	/**
+	 * <p>等待挑选的Peer</p>
+	 * <p>按照评分从高到低排序</p>
+	 */
+	private final TreeSet<Candidate> queue;
+	/**
+	 * <p>所有候选Peer</p>
+	 * <p>按照访问顺序排序：淘汰最久没有使用的Peer</p>
+	 */
+	private final LinkedHashMap<PeerSession, Candidate> candidates;
+	/**
+	 * <p>基准时间（毫秒）</p>
+	 */
+	private long epoch;
+	/**
+	 * <p>候选Peer序号</p>
+	 * <p>评分相同时先加入的Peer优先</p>
+	 */
+	private long sequence;
+	
+	/**
+	 * @param maxSize 候选池最大数量
+	 */
+	private PeerCandidatePool(int maxSize) {
+		this.maxSize = maxSize;
+		this.queue = new TreeSet<>();
+		this.candidates = new LinkedHashMap<>(16, 0.75F, true);
+		this.epoch = System.currentTimeMillis();
+		this.sequence = 0L;
+	}
+	
+	/**
+	 * <p>新建Peer候选池</p>
+	 * 
+	 * @return {@link PeerCandidatePool}
+	 */
+	public static final PeerCandidatePool newInstance() {
+		return new PeerCandidatePool(MAX_SIZE);
+	}
+	
+	/**
+	 * <p>新建Peer候选池</p>
+	 * 
+	 * @param maxSize 候选池最大数量
+	 * 
+	 * @return {@link PeerCandidatePool}
+	 */
+	public static final PeerCandidatePool newInstance(int maxSize) {
+		return new PeerCandidatePool(maxSize);
+	}
+	
+	/**
+	 * <p>添加Peer</p>
+	 * 
+	 * @param peerSession Peer信息
+	 * @param preference 是否优先来源
+	 * 
+	 * @return 淘汰的Peer
+	 */
+	public synchronized List<PeerSession> offer(PeerSession peerSession, boolean preference) {
+		if(this.candidates.get(peerSession) != null) {
+			return List.of();
+		}
+		final Candidate candidate = new Candidate(peerSession, this.sequence++);
+		this.candidates.put(peerSession, candidate);
+		this.score(candidate, preference ? PREFERENCE_SCORE : 0D);
+		this.queue(candidate);
+		return this.evict();
+	}
+	
+	/**
+	 * <p>挑选评分最高的可用Peer</p>
+	 * <p>挑选的Peer移出等待队列，使用结束后通过{@link #preference(PeerSession)}或者{@link #inferior(PeerSession)}放回。</p>
+	 * <p>不可用的Peer不再放回等待队列，等待淘汰。</p>
+	 * 
+	 * @return Peer信息
+	 */
+	public synchronized PeerSession pick() {
+		Candidate candidate;
+		while((candidate = this.queue.pollFirst()) != null) {
+			candidate.queued = false;
+			// 更新访问顺序
+			this.candidates.get(candidate.peerSession);
+			if(candidate.peerSession.available()) {
+				candidate.picked = true;
+				return candidate.peerSession;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * <p>握手结果</p>
+	 * <p>握手失败放回等待队列</p>
+	 * 
+	 * @param peerSession Peer信息
+	 * @param success 是否成功
+	 * @param rtt 握手时间（毫秒）
+	 */
+	public synchronized void handshake(PeerSession peerSession, boolean success, long rtt) {
+		final Candidate candidate = this.candidates.get(peerSession);
+		if(candidate == null) {
+			return;
+		}
+		if(success) {
+			this.score(candidate, SUCCESS_SCORE + RTT_SCORE * RTT_BASE / (RTT_BASE + Math.max(0L, rtt)));
+		} else {
+			this.score(candidate, FAIL_SCORE);
+			this.queue(candidate);
+		}
+	}
+	
+	/**
+	 * <p>放回优质Peer</p>
+	 * 
+	 * @param peerSession Peer信息
+	 */
+	public synchronized void preference(PeerSession peerSession) {
+		final Candidate candidate = this.candidates.get(peerSession);
+		if(candidate == null) {
+			return;
+		}
+		this.score(candidate, this.downloadScore(candidate));
+		this.queue(candidate);
+	}
+	
+	/**
+	 * <p>放回劣质Peer</p>
+	 * 
+	 * @param peerSession Peer信息
+	 */
+	public synchronized void inferior(PeerSession peerSession) {
+		final Candidate candidate = this.candidates.get(peerSession);
+		if(candidate == null) {
+			return;
+		}
+		this.score(candidate, this.downloadScore(candidate) + INFERIOR_SCORE);
+		this.queue(candidate);
+	}
+	
+	/**
+	 * <p>获取Peer当前评分</p>
+	 * 
+	 * @param peerSession Peer信息
+	 * 
+	 * @return 当前评分
+	 */
+	public synchronized double score(PeerSession peerSession) {
+		final Candidate candidate = this.candidates.get(peerSession);
+		if(candidate == null) {
+			return 0D;
+		}
+		return candidate.key / this.weight(System.currentTimeMillis());
+	}
+	
+	/**
+	 * <p>获取候选Peer数量</p>
+	 * 
+	 * @return 候选Peer数量
+	 */
+	public synchronized int size() {
+		return this.candidates.size();
+	}
+	
+	/**
+	 * <p>计算下载数据评分</p>
+	 * 
+	 * @param candidate 候选Peer
+	 * 
+	 * @return 下载数据评分
+	 */
+	private double downloadScore(Candidate candidate) {
+		final long downloadSize = candidate.peerSession.downloadSize();
+		final long size = downloadSize - candidate.downloadSize;
+		candidate.downloadSize = downloadSize;
+		if(size <= 0L) {
+			return 0D;
+		}
+		return DOWNLOAD_SCORE * Math.log1p((double) size / SystemConfig.ONE_MB) / Math.log(2);
+	}
+	
+	/**
+	 * <p>增加评分</p>
+	 * 
+	 * @param candidate 候选Peer
+	 * @param score 评分
+	 */
+	private void score(Candidate candidate, double score) {
+		if(score == 0D) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		if(now - this.epoch >= REBASE_HALF_LIFE * HALF_LIFE) {
+			this.rebase(now);
+		}
+		// 排序字段修改之前必须移出队列
+		final boolean queued = candidate.queued;
+		if(queued) {
+			this.queue.remove(candidate);
+		}
+		candidate.key += score * this.weight(now);
+		if(queued) {
+			this.queue.add(candidate);
+		}
+	}
+	
+	/**
+	 * <p>重置基准时间</p>
+	 * 
+	 * @param now 当前时间
+	 */
+	private void rebase(long now) {
+		final double weight = this.weight(now);
+		this.queue.clear();
+		this.candidates.values().forEach(candidate -> candidate.key /= weight);
+		this.candidates.values().stream()
+			.filter(candidate -> candidate.queued)
+			.forEach(this.queue::add);
+		this.epoch = now;
+	}
+	
+	/**
+	 * <p>计算衰减权重</p>
+	 * 
+	 * @param now 当前时间
+	 * 
+	 * @return 衰减权重
+	 */
+	private double weight(long now) {
+		return Math.pow(2D, (double) (now - this.epoch) / HALF_LIFE);
+	}
+	
+	/**
+	 * <p>放回等待队列</p>
+	 * 
+	 * @param candidate 候选Peer
+	 */
+	private void queue(Candidate candidate) {
+		candidate.picked = false;
+		if(!candidate.queued && candidate.peerSession.available()) {
+			candidate.queued = true;
+			this.queue.add(candidate);
+		}
+	}
+	
+	/**
+	 * <p>淘汰Peer</p>
+	 * <p>淘汰最久没有使用的空闲Peer，优先淘汰不可用Peer，正在使用和连接中的Peer不会淘汰。</p>
+	 * 
+	 * @return 淘汰的Peer
+	 */
+	private List<PeerSession> evict() {
+		List<PeerSession> list = null;
+		while(this.candidates.size() > this.maxSize) {
+			Candidate idle = null;
+			Candidate dead = null;
+			for (Candidate candidate : this.candidates.values()) {
+				if(candidate.picked || candidate.peerSession.connected()) {
+					continue;
+				}
+				if(!candidate.peerSession.available()) {
+					dead = candidate;
+					break;
+				}
+				if(idle == null) {
+					idle = candidate;
+				}
+			}
+			final Candidate evict = dead == null ? idle : dead;
+			if(evict == null) {
+				break;
+			}
+			if(evict.queued) {
+				this.queue.remove(evict);
+			}
+			this.candidates.remove(evict.peerSession);
+			if(list == null) {
+				list = new ArrayList<>();
+			}
+			list.add(evict.peerSession);
+		}
+		return list == null ? List.of() : list;
+	}
+	
+	@Override
+	public String toString() {
+		return BeanUtils.toString(this, this.candidates.size(), this.queue.size());
+	}
+	
+	/**
+	 * <p>候选Peer</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class Candidate implements Comparable<Candidate> {
+
+		/**
+		 * <p>Peer信息</p>
+		 */
+		private final PeerSession peerSession;
+		/**
+		 * <p>序号</p>
+		 */
+		private final long sequence;
+		/**
+		 * <p>排序评分：基准时间评分</p>
+		 */
+		private double key;
+		/**
+		 * <p>已经计分的下载数据大小</p>
+		 */
+		private long downloadSize;
+		/**
+		 * <p>是否等待挑选</p>
+		 */
+		private boolean queued;
+		/**
+		 * <p>是否正在使用</p>
+		 */
+		private boolean picked;
+		
+		/**
+		 * @param peerSession Peer信息
+		 * @param sequence 序号
+		 */
+		private Candidate(PeerSession peerSession, long sequence) {
+			this.peerSession = peerSession;
+			this.sequence = sequence;
+		}
+		
+		@Override
+		public int compareTo(Candidate target) {
+			final int compare = Double.compare(target.key, this.key);
+			return compare != 0 ? compare : Long.compare(this.sequence, target.sequence);
+		}
+	
+	}
+
+}
@@ -1,15 +1,33 @@
 package com.acgist.snail.net.torrent.peer;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.context.IStatisticsSession;
+import com.acgist.snail.context.SystemThreadContext;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.torrent.IPeerConnect;
 import com.acgist.snail.net.torrent.TorrentPiece;
 import com.acgist.snail.net.torrent.TorrentSession;
+import com.acgist.snail.net.torrent.TorrentWriteCache;
 import com.acgist.snail.utils.BeanUtils;
 
 /**
@@ -24,26 +42,46 @@ public abstract class PeerConnect implements IPeerConnect {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PeerConnect.class);
 
 	/**
-	 * <p>SLICE请求数量：{@value}</p>
-	 * <p>注意：过大会导致UTP信号量阻塞</p>
+	 * <p>每个Peer同时下载Piece最大数量：{@value}</p>
 	 */
-	private static final int SLICE_REQUEST_SIZE = 2;
+	private static final int MAX_PIECE_SIZE = 16;
 	/**
-	 * <p>SLICE最大请求数量：{@value}</p>
-	 */
-	private static final int SLICE_REQUEST_MAX_SIZE = 4;
-	/**
-	 * <p>SLICE请求等待时间（毫秒）：{@value}</p>
+	 * <p>请求检查周期（毫秒）：{@value}</p>
+	 * <p>没有收到数据时定时检查请求超时和补充请求</p>
 	 */
 	private static final long SLICE_TIMEOUT = 10L * SystemConfig.ONE_SECOND_MILLIS;
 	/**
 	 * <p>PICEC完成等待时间（毫秒）：{@value}</p>
+	 * <p>请求超过时间没有响应：放弃请求所属Piece</p>
 	 */
 	private static final long COMPLETED_TIMEOUT = 30L * SystemConfig.ONE_SECOND_MILLIS;
 	/**
 	 * <p>释放等待时间（毫秒）：{@value}</p>
 	 */
 	private static final long RELEASE_TIMEOUT = 4L * SystemConfig.ONE_SECOND_MILLIS;
+	/**
+	 * <p>上传请求队列最大长度：{@value}</p>
+	 * <p>超过长度拒绝请求</p>
+	 */
+	private static final int MAX_UPLOAD_SIZE = 256;
+	/**
+	 * <p>请求调度线程池</p>
+	 * <p>只用来定时检查请求和限速延迟：任务只提交信号不能阻塞</p>
+	 */
+	private static final ScheduledExecutorService EXECUTOR;
+	/**
+	 * <p>请求执行线程池</p>
+	 * <p>发送消息、校验Piece、读写磁盘可能阻塞线程：信号合并保证每个Peer下载上传最多各占一个线程</p>
+	 */
+	private static final ExecutorService WORKER;
+	
+	static {
+		EXECUTOR = SystemThreadContext.newScheduledExecutor(
+			SystemThreadContext.threadSize(2, 4),
+			SystemThreadContext.SNAIL_THREAD_PEER_REQUEST
+		);
+		WORKER = SystemThreadContext.newCacheExecutor(0, 60L, SystemThreadContext.SNAIL_THREAD_PEER_WORKER);
+	}
 	
 	/**
 	 * <p>连接状态</p>
@@ -55,28 +93,66 @@ public abstract class PeerConnect implements IPeerConnect {
 	private volatile boolean downloading = false;
 	/**
 	 * <p>当前下载Piece信息</p>
+	 * <p>Piece索引=Piece信息（按照选择顺序请求）</p>
+	 */
+	private final Map<Integer, TorrentPiece> downloadPieces;
+	/**
+	 * <p>请求队列</p>
+	 */
+	private PeerRequestQueue requestQueue;
+	/**
+	 * <p>释放请求队列</p>
+	 * <p>Peer拒绝或者阻塞取消的请求（Piece索引、Piece内偏移）：由请求执行线程释放Slice重新请求</p>
 	 */
-	private TorrentPiece downloadPiece;
+	private final Queue<int[]> releaseRequests;
 	/**
-	 * <p>SLICE锁</p>
+	 * <p>请求信号</p>
+	 * <p>收到数据、定时检查、开始下载、释放下载都会发出信号，同一时间只有一个线程处理请求。</p>
+	 */
+	private final AtomicInteger requestSignal;
+	/**
+	 * <p>请求检查定时任务</p>
 	 * 
 	 * @see #SLICE_TIMEOUT
-	 * @see #SLICE_REQUEST_SIZE
-	 * @see #SLICE_REQUEST_MAX_SIZE
 	 */
-	private final AtomicInteger sliceLock;
+	private ScheduledFuture<?> requestScheduled;
 	/**
-	 * <p>完成锁</p>
-	 * 
-	 * @see #COMPLETED_TIMEOUT
+	 * <p>下载限速结束时间（毫秒）</p>
+	 * <p>限速期间暂停补充请求：定时任务结束限速以后继续请求</p>
+	 */
+	private volatile long downloadLimitTime;
+	/**
+	 * <p>下载限速定时任务是否已经提交</p>
+	 */
+	private final AtomicBoolean downloadLimitScheduled;
+	/**
+	 * <p>上传请求队列</p>
+	 * <p>Piece数据由请求执行线程读取发送：不会阻塞消息处理线程</p>
+	 */
+	private final BlockingQueue<int[]> uploadRequests;
+	/**
+	 * <p>上传信号</p>
+	 * <p>同一时间只有一个线程处理上传</p>
+	 */
+	private final AtomicInteger uploadSignal;
+	/**
+	 * <p>上传限速结束时间（毫秒）</p>
+	 */
+	private volatile long uploadLimitTime;
+	/**
+	 * <p>上传限速定时任务是否已经提交</p>
 	 */
-	private final AtomicBoolean completedLock;
+	private final AtomicBoolean uploadLimitScheduled;
+	/**
+	 * <p>是否释放完成</p>
+	 */
+	private volatile boolean released;
 	/**
 	 * <p>释放锁</p>
 	 * 
 	 * @see #RELEASE_TIMEOUT
 	 */
-	private final AtomicBoolean releaseLock;
+	private final Object releaseLock;
 	/**
 	 * <p>Peer信息</p>
 	 */
@@ -104,9 +180,15 @@ public abstract class PeerConnect implements IPeerConnect {
 	 * @param peerSubMessageHandler Peer消息代理
 	 */
 	protected PeerConnect(PeerSession peerSession, TorrentSession torrentSession, PeerSubMessageHandler peerSubMessageHandler) {
-		this.sliceLock = new AtomicInteger(0);
-		this.completedLock = new AtomicBoolean(false);
-		this.releaseLock = new AtomicBoolean(false);
+		this.downloadPieces = new LinkedHashMap<>();
+		this.releaseRequests = new ConcurrentLinkedQueue<>();
+		this.requestSignal = new AtomicInteger(0);
+		this.downloadLimitScheduled = new AtomicBoolean(false);
+		this.uploadRequests = new LinkedBlockingQueue<>(MAX_UPLOAD_SIZE);
+		this.uploadSignal = new AtomicInteger(0);
+		this.uploadLimitScheduled = new AtomicBoolean(false);
+		this.released = true;
+		this.releaseLock = new Object();
 		this.peerSession = peerSession;
 		this.statisticsSession = peerSession.statistics();
 		this.torrentSession = torrentSession;
@@ -149,12 +231,30 @@ public abstract class PeerConnect implements IPeerConnect {
 	/**
 	 * <p>发送have消息</p>
 	 * 
-	 * @param indexArray Piece索引
+	 * @param message have广播消息
+	 * 
+	 * @see PeerSubMessageHandler#have(PeerHaveMessage)
+	 */
+	public final void have(PeerHaveMessage message) {
+		this.peerSubMessageHandler.have(message);
+	}
+	
+	/**
+	 * <p>发送阻塞消息</p>
 	 * 
-	 * @see PeerSubMessageHandler#have(Integer...)
+	 * @see PeerSubMessageHandler#choke()
 	 */
-	public final void have(Integer ... indexArray) {
-		this.peerSubMessageHandler.have(indexArray);
+	public final void choke() {
+		this.peerSubMessageHandler.choke();
+	}
+	
+	/**
+	 * <p>发送解除阻塞消息</p>
+	 * 
+	 * @see PeerSubMessageHandler#unchoke()
+	 */
+	public final void unchoke() {
+		this.peerSubMessageHandler.unchoke();
 	}
 	
 	/**
@@ -217,7 +317,13 @@ public abstract class PeerConnect implements IPeerConnect {
 	public final void uploadMark(int buffer) {
 		this.peerConnectSession.upload(buffer);
 		this.statisticsSession.upload(buffer);
-		this.statisticsSession.uploadLimit(buffer);
+		final long delay = Math.max(
+			this.statisticsSession.uploadLimit(buffer),
+			this.peerConnectSession.uploadQuotaLimit(buffer)
+		);
+		if(delay > 0L) {
+			this.uploadLimitTime = System.currentTimeMillis() + delay;
+		}
 	}
 	
 	/**
@@ -236,7 +342,10 @@ public abstract class PeerConnect implements IPeerConnect {
 	 */
 	public final void downloadMark(int buffer) {
 		this.peerConnectSession.download(buffer);
-		this.statisticsSession.downloadLimit(buffer);
+		final long delay = this.statisticsSession.downloadLimit(buffer);
+		if(delay > 0L) {
+			this.downloadLimitTime = System.currentTimeMillis() + delay;
+		}
 	}
 	
 	/**
@@ -255,8 +364,16 @@ public abstract class PeerConnect implements IPeerConnect {
 		if(!this.downloading) {
 			synchronized (this) {
 				if(!this.downloading) {
+					LOGGER.debug("开始请求下载：{}", this.peerSession);
+					if(this.requestQueue == null) {
+						final int maxDepth = this.connectType() == ConnectType.UTP ? PeerRequestQueue.UTP_MAX_DEPTH : PeerRequestQueue.MAX_DEPTH;
+						this.requestQueue = new PeerRequestQueue(maxDepth);
+					}
 					this.downloading = true;
-					this.torrentSession.submit(this::requests);
+					this.released = false;
+					SystemThreadContext.shutdown(this.requestScheduled);
+					this.requestScheduled = EXECUTOR.scheduleWithFixedDelay(this::signal, SLICE_TIMEOUT, SLICE_TIMEOUT, TimeUnit.MILLISECONDS);
+					this.signal();
 				}
 			}
 		}
@@ -267,24 +384,75 @@ public abstract class PeerConnect implements IPeerConnect {
 	 * 
 	 * @param index Piece索引
 	 * @param begin Piece偏移
-	 * @param bytes Piece数据
+	 * @param buffer Piece数据
 	 */
-	public final void piece(int index, int begin, byte[] bytes) {
-		if(bytes == null || this.downloadPiece == null) {
+	public final void piece(int index, int begin, ByteBuffer buffer) {
+		final PeerRequestQueue requestQueue = this.requestQueue;
+		if(requestQueue == null || !requestQueue.response(index, begin, buffer.remaining())) {
+			LOGGER.debug("下载Piece没有请求：{}-{}", index, begin);
 			return;
 		}
-		final int downloadIndex = this.downloadPiece.getIndex();
-		if(index != downloadIndex) {
-			LOGGER.debug("下载Piece索引和当前Piece索引不符：{}-{}", index, downloadIndex);
+		final TorrentPiece downloadPiece;
+		synchronized (this.downloadPieces) {
+			downloadPiece = this.downloadPieces.get(index);
+		}
+		if(downloadPiece == null) {
+			LOGGER.debug("下载Piece索引没有下载：{}-{}", index, begin);
 			return;
 		}
-		// 释放slice锁
-		this.unlockSlice();
-		final boolean completed = this.downloadPiece.write(begin, bytes);
-		// 下载完成：释放完成锁
-		if(completed) {
-			this.unlockCompleted();
+		downloadPiece.write(begin, buffer);
+		// 发出请求信号：补充请求或者保存完成Piece
+		this.signal();
+	}
+	
+	/**
+	 * <p>Peer拒绝请求</p>
+	 * <p>取消请求并且释放Slice重新请求</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece偏移
+	 */
+	public final void reject(int index, int begin) {
+		final PeerRequestQueue requestQueue = this.requestQueue;
+		if(requestQueue == null || !requestQueue.cancel(index, begin)) {
+			LOGGER.debug("拒绝Piece没有请求：{}-{}", index, begin);
+			return;
+		}
+		this.releaseRequests.offer(new int[] { index, begin });
+		this.signal();
+	}
+	
+	/**
+	 * <p>Peer阻塞</p>
+	 * <p>Peer不支持Fast扩展：取消所有请求并且释放Slice重新请求</p>
+	 */
+	public final void choked() {
+		final PeerRequestQueue requestQueue = this.requestQueue;
+		if(requestQueue == null) {
+			return;
 		}
+		this.releaseRequests.addAll(requestQueue.cancel());
+		this.signal();
+	}
+	
+	/**
+	 * <p>获取请求队列深度</p>
+	 * 
+	 * @return 请求队列深度
+	 */
+	public final int requestSize() {
+		final PeerRequestQueue requestQueue = this.requestQueue;
+		return requestQueue == null ? 0 : requestQueue.size();
+	}
+	
+	/**
+	 * <p>获取请求队列</p>
+	 * <p>没有开始下载：{@code null}</p>
+	 * 
+	 * @return 请求队列
+	 */
+	public final PeerRequestQueue requestQueue() {
+		return this.requestQueue;
 	}
 
 	/**
@@ -293,6 +461,7 @@ public abstract class PeerConnect implements IPeerConnect {
 	 */
 	public void release() {
 		this.available = false;
+		this.uploadRequests.clear();
 		this.releaseDownload();
 		if(this.peerSubMessageHandler.available()) {
 			this.peerSubMessageHandler.choke();
@@ -301,190 +470,410 @@ public abstract class PeerConnect implements IPeerConnect {
 	}
 	
 	/**
-	 * <p>请求下载</p>
+	 * <p>发出请求信号</p>
+	 * <p>没有线程处理请求时提交请求任务：正在处理时合并信号</p>
+	 */
+	private void signal() {
+		if(this.requestSignal.getAndIncrement() == 0) {
+			WORKER.execute(this::requests);
+		}
+	}
+	
+	/**
+	 * <p>处理请求信号</p>
+	 * <p>处理期间收到的信号合并处理：不会并发处理同一个Peer请求</p>
 	 */
 	private void requests() {
-		LOGGER.debug("开始请求下载：{}", this.peerSession);
-		boolean success = true;
-		while(success) {
+		int signal = 1;
+		do {
 			try {
-				success = this.request();
+				this.request();
 			} catch (Exception e) {
 				LOGGER.error("Peer请求异常", e);
 			}
-		}
-		this.completedLock.set(true);
-		this.releaseDownload();
-		this.torrentSession.checkCompletedAndUnlock();
-		// 验证最后选择Piece是否下载完成
-		if(this.downloadPiece != null && !this.downloadPiece.completedAndVerify()) {
-			LOGGER.debug("Piece最后失败：{}", this.downloadPiece);
-			this.torrentSession.undone(this.downloadPiece);
-			this.peerSubMessageHandler.cancel(this.downloadPiece.getIndex(), this.downloadPiece.getBegin(), this.downloadPiece.getLength());
-		}
-		LOGGER.debug("结束请求下载：{}", this.peerSession);
+			signal = this.requestSignal.addAndGet(-signal);
+		} while(signal != 0);
 	}
 	
 	/**
 	 * <p>请求数据</p>
+	 * <p>保存完成Piece、补充请求直到达到请求深度：不会阻塞线程，Peer响应数据以后继续处理。</p>
+	 * <p>没有可以下载的Piece或者释放下载时结束下载</p>
+	 */
+	private void request() {
+		if(this.downloading) {
+			if(!this.available()) {
+				LOGGER.debug("释放Peer：Peer不可用");
+			} else if(!this.torrentSession.downloadable()) {
+				LOGGER.debug("释放Peer：任务不可下载");
+			} else {
+				this.checkPieces();
+				this.releasePieces();
+				this.timeoutPieces();
+				this.fill();
+				synchronized (this.downloadPieces) {
+					if(!this.downloadPieces.isEmpty()) {
+						// 等待Peer响应数据
+						return;
+					}
+				}
+				if(TorrentWriteCache.getInstance().full()) {
+					// 等待写入缓存刷出：定时检查继续请求
+					return;
+				}
+				if(this.downloadLimitTime > System.currentTimeMillis()) {
+					// 等待限速结束：定时任务继续请求
+					return;
+				}
+				LOGGER.debug("释放Peer：没有匹配Piece下载");
+				this.peerSubMessageHandler.notInterested();
+			}
+		} else if(this.released) {
+			// 已经释放
+			return;
+		}
+		this.completed();
+	}
+	
+	/**
+	 * <p>上传Piece</p>
+	 * <p>请求加入上传队列，由请求执行线程发送，限速期间延迟发送。</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece内偏移
+	 * @param length Piece请求数据长度
 	 * 
-	 * @return 是否可以继续下载
+	 * @return 是否加入上传队列（队列已满：拒绝请求）
 	 */
-	private boolean request() {
-		if(!this.available()) {
+	public final boolean upload(int index, int begin, int length) {
+		if(!this.uploadRequests.offer(new int[] { index, begin, length })) {
 			return false;
 		}
-		if(!this.torrentSession.downloadable()) {
-			LOGGER.debug("释放Peer：任务不可下载");
-			return false;
+		this.uploadSignal();
+		return true;
+	}
+	
+	/**
+	 * <p>取消上传Piece</p>
+	 * <p>从上传队列删除还没有发送的请求：取消的数据不用读取和上传</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece内偏移
+	 * @param length Piece请求数据长度
+	 * 
+	 * @return 是否删除请求
+	 */
+	public final boolean cancelUpload(int index, int begin, int length) {
+		return this.uploadRequests.removeIf(request ->
+			request[0] == index &&
+			request[1] == begin &&
+			request[2] == length
+		);
+	}
+	
+	/**
+	 * <p>发出上传信号</p>
+	 */
+	private void uploadSignal() {
+		if(this.uploadSignal.getAndIncrement() == 0) {
+			WORKER.execute(this::uploads);
 		}
-		this.pick();
-		if(this.downloadPiece == null) {
-			LOGGER.debug("释放Peer：没有匹配Piece下载");
-			this.peerSubMessageHandler.notInterested();
+	}
+	
+	/**
+	 * <p>处理上传信号</p>
+	 */
+	private void uploads() {
+		int signal = 1;
+		do {
+			try {
+				this.upload();
+			} catch (Exception e) {
+				LOGGER.error("Peer上传异常", e);
+			}
+			signal = this.uploadSignal.addAndGet(-signal);
+		} while(signal != 0);
+	}
+	
+	/**
+	 * <p>发送上传队列中的Piece</p>
+	 */
+	private void upload() {
+		int[] request;
+		while(
+			!this.limit(this.uploadLimitTime, this.uploadLimitScheduled, this::uploadSignal) &&
+			(request = this.uploadRequests.poll()) != null
+		) {
+			this.peerSubMessageHandler.upload(request[0], request[1], request[2]);
+		}
+	}
+	
+	/**
+	 * <p>判断是否限速</p>
+	 * <p>限速期间提交定时任务：限速结束以后发出信号</p>
+	 * 
+	 * @param limitTime 限速结束时间
+	 * @param scheduled 定时任务是否已经提交
+	 * @param signal 信号
+	 * 
+	 * @return 是否限速
+	 */
+	private boolean limit(long limitTime, AtomicBoolean scheduled, Runnable signal) {
+		final long delay = limitTime - System.currentTimeMillis();
+		if(delay <= 0L) {
 			return false;
 		}
-		final int index = this.downloadPiece.getIndex();
-		while(this.available()) {
-			// 超过slice请求数量进入等待
-			if (this.sliceLock.get() >= SLICE_REQUEST_SIZE) {
-				this.lockSlice();
-			}
-			// 超过slice最大请求数量跳出循环
-			if (this.sliceLock.get() >= SLICE_REQUEST_MAX_SIZE) {
-				LOGGER.debug("超过slice最大请求数量跳出循环");
+		if(scheduled.compareAndSet(false, true)) {
+			EXECUTOR.schedule(() -> {
+				scheduled.set(false);
+				signal.run();
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		return true;
+	}
+	
+	/**
+	 * <p>结束下载</p>
+	 * <p>保存已经完成Piece、放弃没有完成Piece</p>
+	 */
+	private void completed() {
+		synchronized (this) {
+			this.downloading = false;
+			SystemThreadContext.shutdown(this.requestScheduled);
+			this.requestScheduled = null;
+		}
+		this.checkPieces();
+		this.torrentSession.checkCompletedAndUnlock();
+		this.undonePieces();
+		this.releaseRequests.clear();
+		LOGGER.debug("结束请求下载：{}-{}", this.peerSession, this.requestQueue);
+		synchronized (this.releaseLock) {
+			this.released = true;
+			this.releaseLock.notifyAll();
+		}
+	}
+	
+	/**
+	 * <p>补充请求</p>
+	 * <p>保持请求队列深度：当前Piece没有更多Slice时选择新的Piece</p>
+	 */
+	private void fill() {
+		if(TorrentWriteCache.getInstance().full()) {
+			// 写入缓存已满：停止补充请求等待刷出
+			LOGGER.debug("Peer暂停请求：写入缓存已满");
+			return;
+		}
+		if(this.limit(this.downloadLimitTime, this.downloadLimitScheduled, this::signal)) {
+			LOGGER.debug("Peer暂停请求：下载限速");
+			return;
+		}
+		final int depth = this.requestQueue.depth();
+		while(this.available() && this.requestQueue.size() < depth) {
+			final TorrentPiece downloadPiece = this.slicePiece();
+			if(downloadPiece == null) {
 				break;
 			}
-			this.sliceLock.incrementAndGet();
+			final int index = downloadPiece.getIndex();
 			// 顺序不能调换：position、length
-			final int begin = this.downloadPiece.position();
-			final int length = this.downloadPiece.length();
+			final int begin = downloadPiece.position();
+			final int length = downloadPiece.length();
+			this.requestQueue.request(index, begin);
 			this.peerSubMessageHandler.request(index, begin, length);
-			// 是否还有更多SLICE
-			if(!this.downloadPiece.hasMoreSlice()) {
-				break;
-			}
 		}
-		// 添加完成锁：请求发送完成必须进入完成等待（数据可能没有全部返回）
-		this.lockCompleted();
-		// 释放释放锁
-		this.unlockRelease();
-		return true;
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Peer请求队列：{}-{}", this.peerSession, this.requestQueue);
+		}
 	}
 	
 	/**
-	 * <p>选择下载Piece</p>
+	 * <p>获取还有Slice没有请求的Piece</p>
+	 * 
+	 * @return Piece
 	 */
-	private void pick() {
-		if(this.downloadPiece == null) {
-			// 没有Piece
-		} else if(this.downloadPiece.completed()) {
-			if(this.downloadPiece.verify()) {
-				final boolean success = this.torrentSession.write(this.downloadPiece);
-				if(success) {
-					// 统计下载有效数据
-					this.statisticsSession.download(this.downloadPiece.getLength());
-				} else {
-					LOGGER.debug("Piece保存失败：{}", this.downloadPiece);
-					this.torrentSession.undone(this.downloadPiece);
+	private TorrentPiece slicePiece() {
+		synchronized (this.downloadPieces) {
+			for (TorrentPiece downloadPiece : this.downloadPieces.values()) {
+				if(downloadPiece.hasMoreSlice() && this.requestable(downloadPiece.getIndex())) {
+					return downloadPiece;
 				}
-			} else {
-				// 设置下载错误Piece位图
-				this.peerSession.badPieces(this.downloadPiece.getIndex());
-				LOGGER.warn("Piece校验失败：{}", this.downloadPiece);
-				this.torrentSession.undone(this.downloadPiece);
 			}
-		} else {
-			LOGGER.debug("Piece下载失败：{}", this.downloadPiece);
-			this.torrentSession.undone(this.downloadPiece);
+			if(this.downloadPieces.size() >= MAX_PIECE_SIZE) {
+				return null;
+			}
 		}
+		final TorrentPiece downloadPiece = this.pick();
+		if(downloadPiece != null) {
+			synchronized (this.downloadPieces) {
+				this.downloadPieces.put(downloadPiece.getIndex(), downloadPiece);
+			}
+		}
+		return downloadPiece;
+	}
+	
+	/**
+	 * <p>判断Piece是否可以请求</p>
+	 * <p>Peer阻塞时只能请求快速允许Piece</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return 是否可以请求
+	 */
+	private boolean requestable(int index) {
+		return this.peerConnectSession.isPeerUnchoked() || this.peerSession.allowedPieces().get(index);
+	}
+	
+	/**
+	 * <p>选择下载Piece</p>
+	 * 
+	 * @return Piece
+	 */
+	private TorrentPiece pick() {
+		final TorrentPiece downloadPiece;
 		if(this.peerConnectSession.isPeerUnchoked()) {
 			LOGGER.debug("选择下载Piece：解除阻塞");
-			this.downloadPiece = this.torrentSession.pick(this.peerSession.availablePieces(), this.peerSession.suggestPieces());
+			downloadPiece = this.torrentSession.pick(this.peerSession.availablePieces(), this.peerSession.suggestPieces());
 		} else {
 			LOGGER.debug("选择下载Piece：快速允许");
-			this.downloadPiece = this.torrentSession.pick(this.peerSession.allowedPieces(), this.peerSession.allowedPieces());
+			downloadPiece = this.torrentSession.pick(this.peerSession.allowedPieces(), this.peerSession.allowedPieces());
 		}
-		LOGGER.debug("选择下载Piece：{}", this.downloadPiece);
-		this.sliceLock.set(0);
-		this.completedLock.set(false);
+		LOGGER.debug("选择下载Piece：{}", downloadPiece);
+		return downloadPiece;
 	}
 	
 	/**
-	 * <p>PeerConnect释放下载</p>
-	 */
-	protected final void releaseDownload() {
-		if(this.downloading) {
-			LOGGER.debug("PeerConnect释放下载：{}", this.peerSession);
-			this.downloading = false;
-			// 没有完成：等待下载完成
-			if(!this.completedLock.get()) {
-				this.lockRelease();
+	 * <p>保存完成Piece</p>
+	 */
+	private void checkPieces() {
+		final List<TorrentPiece> completedPieces = new ArrayList<>();
+		synchronized (this.downloadPieces) {
+			final Iterator<TorrentPiece> iterator = this.downloadPieces.values().iterator();
+			while(iterator.hasNext()) {
+				final TorrentPiece downloadPiece = iterator.next();
+				if(downloadPiece.completed()) {
+					iterator.remove();
+					completedPieces.add(downloadPiece);
+				}
 			}
 		}
+		completedPieces.forEach(this::savePiece);
 	}
 	
 	/**
-	 * <p>添加slice锁</p>
-	 */
-	private void lockSlice() {
-		synchronized (this.sliceLock) {
-			try {
-				this.sliceLock.wait(SLICE_TIMEOUT);
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				LOGGER.debug("线程等待异常", e);
+	 * <p>保存Piece</p>
+	 * 
+	 * @param downloadPiece Piece
+	 */
+	private void savePiece(TorrentPiece downloadPiece) {
+		if(downloadPiece.verify()) {
+			final boolean success = this.torrentSession.write(downloadPiece);
+			if(success) {
+				// 统计下载有效数据
+				this.statisticsSession.download(downloadPiece.getLength());
+				this.requestQueue.effective(downloadPiece.getLength());
+			} else {
+				LOGGER.debug("Piece保存失败：{}", downloadPiece);
+				this.torrentSession.undone(downloadPiece);
 			}
+		} else {
+			// 设置下载错误Piece位图
+			this.peerSession.badPieces(downloadPiece.getIndex());
+			LOGGER.warn("Piece校验失败：{}", downloadPiece);
+			this.torrentSession.undone(downloadPiece);
 		}
 	}
 	
 	/**
-	 * <p>释放slice锁</p>
+	 * <p>释放Peer拒绝或者阻塞取消的请求</p>
+	 * <p>Slice重新请求：Peer阻塞时放弃不能请求并且没有请求的Piece（其他Peer重新下载）</p>
 	 */
-	private void unlockSlice() {
-		if (this.sliceLock.decrementAndGet() <= 0) {
-			synchronized (this.sliceLock) {
-				this.sliceLock.notifyAll();
+	private void releasePieces() {
+		int[] request;
+		while((request = this.releaseRequests.poll()) != null) {
+			final TorrentPiece downloadPiece;
+			synchronized (this.downloadPieces) {
+				downloadPiece = this.downloadPieces.get(request[0]);
+			}
+			if(downloadPiece != null) {
+				downloadPiece.release(request[1]);
 			}
 		}
+		if(this.peerConnectSession.isPeerUnchoked()) {
+			return;
+		}
+		final BitSet allowedPieces = this.peerSession.allowedPieces();
+		final List<TorrentPiece> undonePieces = new ArrayList<>();
+		synchronized (this.downloadPieces) {
+			final Iterator<TorrentPiece> iterator = this.downloadPieces.values().iterator();
+			while(iterator.hasNext()) {
+				final TorrentPiece downloadPiece = iterator.next();
+				final int index = downloadPiece.getIndex();
+				if(!allowedPieces.get(index) && !this.requestQueue.contains(index)) {
+					iterator.remove();
+					undonePieces.add(downloadPiece);
+				}
+			}
+		}
+		undonePieces.forEach(this.torrentSession::undone);
 	}
 	
 	/**
-	 * <p>添加完成锁</p>
+	 * <p>放弃请求超时Piece</p>
+	 * <p>Peer拒绝请求或者丢失请求：Piece不能完成</p>
 	 */
-	private void lockCompleted() {
-		if(!this.completedLock.get()) {
-			synchronized (this.completedLock) {
-				if(!this.completedLock.get()) {
-					try {
-						this.completedLock.wait(COMPLETED_TIMEOUT);
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-						LOGGER.debug("线程等待异常", e);
-					}
-				}
+	private void timeoutPieces() {
+		final Set<Integer> indexes = this.requestQueue.timeout(COMPLETED_TIMEOUT);
+		for (Integer index : indexes) {
+			final TorrentPiece downloadPiece;
+			synchronized (this.downloadPieces) {
+				downloadPiece = this.downloadPieces.remove(index);
+			}
+			if(downloadPiece != null) {
+				LOGGER.debug("Piece下载超时：{}", downloadPiece);
+				this.undonePiece(downloadPiece);
 			}
 		}
 	}
 	
 	/**
-	 * <p>释放完成锁</p>
+	 * <p>放弃所有没有完成Piece</p>
 	 */
-	private void unlockCompleted() {
-		synchronized (this.completedLock) {
-			this.completedLock.set(true);
-			this.completedLock.notifyAll();
+	private void undonePieces() {
+		final List<TorrentPiece> undonePieces;
+		synchronized (this.downloadPieces) {
+			undonePieces = new ArrayList<>(this.downloadPieces.values());
+			this.downloadPieces.clear();
 		}
+		undonePieces.forEach(this::undonePiece);
 	}
-
+	
+	/**
+	 * <p>放弃没有完成Piece</p>
+	 * <p>取消没有响应的请求</p>
+	 * 
+	 * @param downloadPiece Piece
+	 */
+	private void undonePiece(TorrentPiece downloadPiece) {
+		LOGGER.debug("Piece下载失败：{}", downloadPiece);
+		this.requestQueue.remove(downloadPiece.getIndex());
+		this.torrentSession.undone(downloadPiece);
+		if(this.peerSubMessageHandler.available()) {
+			this.peerSubMessageHandler.cancel(downloadPiece.getIndex(), downloadPiece.getBegin(), downloadPiece.getLength());
+		}
+	}
+	
 	/**
-	 * <p>添加释放锁</p>
+	 * <p>PeerConnect释放下载</p>
+	 * <p>等待请求任务保存已经完成Piece</p>
 	 */
-	private void lockRelease() {
-		if(!this.releaseLock.get()) {
+	protected final void releaseDownload() {
+		if(this.downloading) {
+			LOGGER.debug("PeerConnect释放下载：{}", this.peerSession);
+			synchronized (this) {
+				this.downloading = false;
+			}
+			this.signal();
 			synchronized (this.releaseLock) {
-				if(!this.releaseLock.get()) {
-					this.releaseLock.set(true);
+				if(!this.released) {
 					try {
 						this.releaseLock.wait(RELEASE_TIMEOUT);
 					} catch (InterruptedException e) {
@@ -495,18 +884,14 @@ public abstract class PeerConnect implements IPeerConnect {
 			}
 		}
 	}
-
+	
 	/**
-	 * <p>释放释放锁</p>
+	 * <p>关闭请求调度线程池和请求执行线程池</p>
 	 */
-	private void unlockRelease() {
-		if(this.releaseLock.get()) {
-			synchronized (this.releaseLock) {
-				if(this.releaseLock.get()) {
-					this.releaseLock.notifyAll();
-				}
-			}
-		}
+	public static final void shutdown() {
+		LOGGER.debug("关闭Peer请求调度线程池");
+		SystemThreadContext.shutdown(EXECUTOR);
+		SystemThreadContext.shutdown(WORKER);
 	}
 	
 	@Override
@@ -4,6 +4,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import com.acgist.snail.config.DownloadConfig;
 import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.session.LimitSession;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 
@@ -70,6 +71,37 @@ public final class PeerConnectSession {
 	 * <p>最后一次刷新时间</p>
 	 */
 	private volatile long lastRefreshMarkTime = System.currentTimeMillis();
+	/**
+	 * <p>上传速度（字节/秒）</p>
+	 * <p>阻塞调度使用：每次调度刷新</p>
+	 */
+	private volatile long uploadRate;
+	/**
+	 * <p>下载速度（字节/秒）</p>
+	 * <p>阻塞调度使用：每次调度刷新</p>
+	 */
+	private volatile long downloadRate;
+	/**
+	 * <p>速度统计上传大小</p>
+	 */
+	private final AtomicLong rateUploadSize = new AtomicLong(0);
+	/**
+	 * <p>速度统计下载大小</p>
+	 */
+	private final AtomicLong rateDownloadSize = new AtomicLong(0);
+	/**
+	 * <p>最后一次刷新速度时间</p>
+	 */
+	private volatile long lastRefreshRateTime = System.currentTimeMillis();
+	/**
+	 * <p>上传配额（字节/秒）</p>
+	 * <p>解除阻塞时由阻塞调度分配，小于等于零不限速。</p>
+	 */
+	private volatile long uploadQuota;
+	/**
+	 * <p>上传配额限速</p>
+	 */
+	private final LimitSession uploadQuotaLimit;
 	
 	/**
 	 * <p>初始：阻塞、不感兴趣</p>
@@ -82,6 +114,8 @@ public final class PeerConnectSession {
 		this.peerInterested = false;
 		this.uploadMark = DownloadConfig.getUploadBufferByte();
 		this.downloadMark = DownloadConfig.getDownloadBufferByte();
+		this.uploadQuota = 0L;
+		this.uploadQuotaLimit = new LimitSession(() -> this.uploadQuota);
 	}
 	
 	/**
@@ -239,6 +273,7 @@ public final class PeerConnectSession {
 	 */
 	public final void upload(int buffer) {
 		this.uploadSize.addAndGet(buffer);
+		this.rateUploadSize.addAndGet(buffer);
 	}
 	
 	/**
@@ -258,6 +293,7 @@ public final class PeerConnectSession {
 	 */
 	public final void download(int buffer) {
 		this.downloadSize.addAndGet(buffer);
+		this.rateDownloadSize.addAndGet(buffer);
 	}
 	
 	/**
@@ -270,6 +306,69 @@ public final class PeerConnectSession {
 		return this.downloadMark;
 	}
 	
+	/**
+	 * <p>获取上传速度</p>
+	 * 
+	 * @return 上传速度（字节/秒）
+	 * 
+	 * @see #refreshRate()
+	 */
+	public final long uploadRate() {
+		return this.uploadRate;
+	}
+	
+	/**
+	 * <p>获取下载速度</p>
+	 * 
+	 * @return 下载速度（字节/秒）
+	 * 
+	 * @see #refreshRate()
+	 */
+	public final long downloadRate() {
+		return this.downloadRate;
+	}
+	
+	/**
+	 * <p>刷新速度</p>
+	 * <p>统计上次刷新以后的平均速度</p>
+	 */
+	public final void refreshRate() {
+		final long nowTime = System.currentTimeMillis();
+		final long interval = Math.max(1L, nowTime - this.lastRefreshRateTime);
+		this.lastRefreshRateTime = nowTime;
+		this.uploadRate = this.rateUploadSize.getAndSet(0L) * SystemConfig.ONE_SECOND_MILLIS / interval;
+		this.downloadRate = this.rateDownloadSize.getAndSet(0L) * SystemConfig.ONE_SECOND_MILLIS / interval;
+	}
+	
+	/**
+	 * <p>设置上传配额</p>
+	 * 
+	 * @param uploadQuota 上传配额（字节/秒）
+	 */
+	public final void uploadQuota(long uploadQuota) {
+		this.uploadQuota = uploadQuota;
+	}
+	
+	/**
+	 * <p>获取上传配额</p>
+	 * 
+	 * @return 上传配额（字节/秒）
+	 */
+	public final long uploadQuota() {
+		return this.uploadQuota;
+	}
+	
+	/**
+	 * <p>上传配额限速</p>
+	 * 
+	 * @param buffer 上传大小
+	 * 
+	 * @return 等待时间（毫秒）
+	 */
+	public final long uploadQuotaLimit(int buffer) {
+		return this.uploadQuotaLimit.limit(buffer);
+	}
+	
 	/**
 	 * <p>刷新评分</p>
 	 */
@@ -1,24 +1,28 @@
 package com.acgist.snail.net.torrent.peer;
 
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import com.acgist.snail.config.PeerConfig;
+import com.acgist.snail.config.SymbolConfig;
 import com.acgist.snail.context.IContext;
 import com.acgist.snail.context.IStatisticsSession;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.torrent.peer.extension.PeerExchangeMessageHandler;
 import com.acgist.snail.utils.ArrayUtils;
-import com.acgist.snail.utils.CollectionUtils;
 
 /**
  * Peer上下文
+ * Peer存档使用地址端口索引，连接中的Peer单独维护，发送have、PEX消息不用遍历所有Peer。
  * 
  * @author acgist
  */
@@ -35,24 +39,31 @@ public final class PeerContext implements IContext {
 	/**
 	 * have消息队列
 	 * have消息不是每个Piece下载完成立即发出，使用定时任务减小交互次数。
+	 * InfoHashHex=新下载Piece位图
 	 */
-	private final Map<String, List<Integer>> haves;
+	private final Map<String, BitSet> haves;
 	/**
 	 * Peer下载队列
 	 * Peer使用时从下载队列中取出，使用结束后重新放回下载队列。
-	 * InfoHashHex=Peer双端队列（尾部优先使用）
+	 * InfoHashHex=Peer候选池（评分最高优先使用）
 	 */
-	private final Map<String, Deque<PeerSession>> activePeers;
+	private final Map<String, PeerCandidatePool> activePeers;
 	/**
-	 * Peer存档列表
-	 * InfoHashHex=Peer存档列表
+	 * Peer存档索引
+	 * InfoHashHex=Peer存档索引（地址端口=Peer）
 	 */
-	private final Map<String, List<PeerSession>> archivePeers;
+	private final Map<String, Map<PeerKey, PeerSession>> archivePeers;
+	/**
+	 * 连接中的Peer
+	 * InfoHashHex=连接中的Peer
+	 */
+	private final Map<String, Set<PeerSession>> connectPeers;
 	
 	private PeerContext() {
 		this.haves = new ConcurrentHashMap<>();
 		this.activePeers = new ConcurrentHashMap<>();
 		this.archivePeers = new ConcurrentHashMap<>();
+		this.connectPeers = new ConcurrentHashMap<>();
 	}
 	
 	/**
@@ -65,10 +76,11 @@ public final class PeerContext implements IContext {
 	 * @return Peer信息
 	 */
 	public PeerSession findPeerSession(String infoHashHex, String host, Integer port) {
-		final var list = this.list(infoHashHex);
-		synchronized (list) {
-			return this.findPeerSession(list, host, port);
+		final var archive = this.archivePeers.get(infoHashHex);
+		if(archive == null) {
+			return null;
 		}
+		return archive.get(new PeerKey(host, port));
 	}
 	
 	/**
@@ -77,10 +89,11 @@ public final class PeerContext implements IContext {
 	 * @return Peer存档队列
 	 */
 	public List<PeerSession> listPeerSession(String infoHashHex) {
-		final var list = this.list(infoHashHex);
-		synchronized (list) {
-			return new ArrayList<>(list);
+		final var archive = this.archivePeers.get(infoHashHex);
+		if(archive == null) {
+			return List.of();
 		}
+		return new ArrayList<>(archive.values());
 	}
 	
 	/**
@@ -91,10 +104,8 @@ public final class PeerContext implements IContext {
 	 * @return 是否找到Peer
 	 */
 	public boolean isNotEmpty(String infoHashHex) {
-		final var list = this.list(infoHashHex);
-		synchronized (list) {
-			return !list.isEmpty();
-		}
+		final var archive = this.archivePeers.get(infoHashHex);
+		return archive != null && !archive.isEmpty();
 	}
 	
 	/**
@@ -107,11 +118,14 @@ public final class PeerContext implements IContext {
 		this.haves.remove(infoHashHex);
 		this.activePeers.remove(infoHashHex);
 		this.archivePeers.remove(infoHashHex);
+		this.connectPeers.remove(infoHashHex);
 	}
 	
 	/**
 	 * 添加Peer
-	 * 高优先级Peer插入尾部优先使用
+	 * 高优先级Peer初始评分较高优先使用
+	 * 只有新建Peer的线程放入下载队列：并发添加同一个Peer不会重复进入下载队列
+	 * 下载队列超过上限淘汰的Peer同时删除存档
 	 * 
 	 * @param infoHashHex InfoHashHex
 	 * @param parent 任务下载统计
@@ -122,84 +136,100 @@ public final class PeerContext implements IContext {
 	 * @return PeerSession
 	 */
 	public PeerSession newPeerSession(String infoHashHex, IStatisticsSession parent, String host, Integer port, PeerConfig.Source source) {
-		synchronized (this) {
-			final var list = this.list(infoHashHex);
-			synchronized (list) {
-				PeerSession peerSession = this.findPeerSession(list, host, port);
-				if(peerSession == null) {
-					LOGGER.debug("添加PeerSession：{}-{}-{}", host, port, source);
-					peerSession = PeerSession.newInstance(parent, host, port);
-					final var deque = this.deque(infoHashHex);
-					synchronized (deque) {
-						if(source.preference()) {
-							// 插入尾部：优先级高
-							deque.offerLast(peerSession);
-						} else {
-							// 插入头部：优先级低
-							deque.offerFirst(peerSession);
-						}
-					}
-					list.add(peerSession);
+		final var archive = this.archive(infoHashHex);
+		final PeerKey key = new PeerKey(host, port);
+		PeerSession peerSession = archive.get(key);
+		if(peerSession == null) {
+			final PeerSession newPeerSession = PeerSession.newInstance(parent, host, port);
+			peerSession = archive.putIfAbsent(key, newPeerSession);
+			if(peerSession == null) {
+				LOGGER.debug("添加PeerSession：{}-{}-{}", host, port, source);
+				peerSession = newPeerSession;
+				final var evicts = this.pool(infoHashHex).offer(peerSession, source.preference());
+				evicts.forEach(evict -> archive.remove(new PeerKey(evict.host(), evict.port()), evict));
+			}
+		}
+		peerSession.source(source);
+		return peerSession;
+	}
+	
+	/**
+	 * 设置Peer连接状态并且加入连接中的Peer
+	 * 
+	 * @param infoHashHex InfoHashHex
+	 * @param peerSession Peer信息
+	 * @param status 状态：上传中、下载中
+	 */
+	public void connect(String infoHashHex, PeerSession peerSession, byte status) {
+		// 状态和连接中的Peer一起修改：防止同时上传下载时状态不一致
+		synchronized (peerSession) {
+			peerSession.status(status);
+			this.connects(infoHashHex).add(peerSession);
+		}
+	}
+	
+	/**
+	 * 取消Peer连接状态
+	 * 上传下载全部结束后移出连接中的Peer
+	 * 
+	 * @param infoHashHex InfoHashHex
+	 * @param peerSession Peer信息
+	 * @param status 状态：上传中、下载中
+	 */
+	public void disconnect(String infoHashHex, PeerSession peerSession, byte status) {
+		synchronized (peerSession) {
+			peerSession.statusOff(status);
+			if(!peerSession.connected()) {
+				// 任务已经删除：不用重新创建
+				final var connects = this.connectPeers.get(infoHashHex);
+				if(connects != null) {
+					connects.remove(peerSession);
 				}
-				peerSession.source(source);
-				return peerSession;
 			}
 		}
 	}
 	
 	/**
-	 * 添加劣质Peer：插入头部
+	 * 记录握手结果：握手失败放回下载队列
+	 * 
+	 * @param infoHashHex InfoHashHex
+	 * @param peerSession Peer信息
+	 * @param success 是否成功
+	 * @param rtt 握手时间（毫秒）
+	 */
+	public void handshake(String infoHashHex, PeerSession peerSession, boolean success, long rtt) {
+		this.pool(infoHashHex).handshake(peerSession, success, rtt);
+	}
+	
+	/**
+	 * 添加劣质Peer：降低评分
 	 * 
 	 * @param infoHashHex InfoHashHex
 	 * @param peerSession Peer信息
 	 */
 	public void inferior(String infoHashHex, PeerSession peerSession) {
-		final var deque = this.deque(infoHashHex);
-		synchronized (deque) {
-			deque.offerFirst(peerSession);
-		}
+		this.pool(infoHashHex).inferior(peerSession);
 	}
 	
 	/**
-	 * 添加优质Peer：插入尾部
+	 * 添加优质Peer：下载数据增加评分
 	 * 
 	 * @param infoHashHex InfoHashHex
 	 * @param peerSession Peer信息
 	 */
 	public void preference(String infoHashHex, PeerSession peerSession) {
-		final var deque = this.deque(infoHashHex);
-		synchronized (deque) {
-			deque.offerLast(peerSession);
-		}
+		this.pool(infoHashHex).preference(peerSession);
 	}
 	
 	/**
-	 * 挑选优质Peer信息
+	 * 挑选优质Peer信息：评分最高的可用Peer
 	 * 
 	 * @param infoHashHex InfoHashHex
 	 * 
 	 * @return Peer信息
 	 */
 	public PeerSession pick(String infoHashHex) {
-		final var deque = this.deque(infoHashHex);
-		synchronized (deque) {
-			int index = 0;
-			final int size = deque.size();
-			PeerSession peerSession = null;
-			while(true) {
-				if(++index > size) {
-					break;
-				}
-				// 注意不要直接删除：防止重复进入下载队列添加不必要的验证
-				peerSession = deque.pollLast();
-				if(peerSession.available()) {
-					return peerSession;
-				} else {
-					deque.offerFirst(peerSession);
-				}
-			}
-			return null;
-		}
+		return this.pool(infoHashHex).pick();
 	}
 	
 	/**
@@ -209,37 +239,45 @@ public final class PeerContext implements IContext {
 	 * @param index Piece索引
 	 */
 	public void have(String infoHashHex, int index) {
-		final var list = this.haves(infoHashHex);
-		synchronized (list) {
-			list.add(index);
+		final var haves = this.haves(infoHashHex);
+		synchronized (haves) {
+			haves.set(index);
 		}
 	}
 
 	/**
 	 * 发送have消息
+	 * 合并的have消息只编码一次，所有Peer共享。
 	 * 
 	 * @param infoHashHex InfoHashHex
+	 * 
+	 * @see PeerHaveMessage
 	 */
 	public void have(String infoHashHex) {
-		Integer[] indexArray;
-		final var list = this.haves(infoHashHex);
-		synchronized (list) {
-			indexArray = list.toArray(Integer[]::new);
-			list.clear();
+		final BitSet indexs = new BitSet();
+		final var haves = this.haves(infoHashHex);
+		synchronized (haves) {
+			indexs.or(haves);
+			haves.clear();
 		}
-		if(ArrayUtils.isEmpty(indexArray)) {
+		if(indexs.isEmpty()) {
 			LOGGER.debug("发送have消息：没有数据");
 			return;
 		}
 		final var sessions = this.listConnectPeerSession(infoHashHex);
+		if(sessions.isEmpty()) {
+			LOGGER.debug("发送have消息：没有连接");
+			return;
+		}
+		final PeerHaveMessage message = PeerHaveMessage.newInstance(indexs);
 		sessions.forEach(session -> {
 			final var peerConnect = session.peerConnect();
 			if(peerConnect != null && peerConnect.available()) {
-				peerConnect.have(indexArray);
+				peerConnect.have(message);
 			}
 		});
 		if(LOGGER.isDebugEnabled()) {
-			LOGGER.debug("发送have消息：{}-{}-{}", infoHashHex, sessions.size(), indexArray.length);
+			LOGGER.debug("发送have消息：{}-{}-{}", infoHashHex, sessions.size(), message);
 		}
 	}
 	
@@ -293,10 +331,8 @@ public final class PeerContext implements IContext {
 	 * 
 	 * @return have消息队列
 	 */
-	private List<Integer> haves(String infoHashHex) {
-		synchronized (this.haves) {
-			return this.haves.computeIfAbsent(infoHashHex, key -> new ArrayList<>());
-		}
+	private BitSet haves(String infoHashHex) {
+		return this.haves.computeIfAbsent(infoHashHex, key -> new BitSet());
 	}
 	
 	/**
@@ -304,55 +340,90 @@ public final class PeerContext implements IContext {
 	 * 
 	 * @return Peer下载队列
 	 */
-	private Deque<PeerSession> deque(String infoHashHex) {
-		synchronized (this.activePeers) {
-			return this.activePeers.computeIfAbsent(infoHashHex, key -> new LinkedBlockingDeque<>());
-		}
+	private PeerCandidatePool pool(String infoHashHex) {
+		return this.activePeers.computeIfAbsent(infoHashHex, key -> PeerCandidatePool.newInstance());
 	}
 
 	/**
 	 * @param infoHashHex InfoHashHex
 	 * 
-	 * @return Peer存档队列
+	 * @return Peer存档索引
+	 */
+	private Map<PeerKey, PeerSession> archive(String infoHashHex) {
+		return this.archivePeers.computeIfAbsent(infoHashHex, key -> new ConcurrentHashMap<>());
+	}
+	
+	/**
+	 * @param infoHashHex InfoHashHex
+	 * 
+	 * @return 连接中的Peer
+	 */
+	private Set<PeerSession> connects(String infoHashHex) {
+		return this.connectPeers.computeIfAbsent(infoHashHex, key -> ConcurrentHashMap.newKeySet());
+	}
+	
+	/**
+	 * 获取可以上传的Peer连接
+	 * 包含下载连接和接入连接（只上传不下载的Peer除外）
+	 * 
+	 * @param infoHashHex InfoHashHex
+	 * 
+	 * @return Peer连接列表
 	 */
-	private List<PeerSession> list(String infoHashHex) {
-		synchronized (this.archivePeers) {
-			return this.archivePeers.computeIfAbsent(infoHashHex, key -> new ArrayList<>());
+	public List<PeerConnect> listUploadPeerConnect(String infoHashHex) {
+		return this.listConnectPeerSession(infoHashHex).stream()
+			.filter(session -> !session.uploadOnly())
+			.flatMap(session -> Stream.of(session.peerDownloader(), session.peerUploader()))
+			.filter(Objects::nonNull)
+			.filter(PeerConnect::available)
+			.collect(Collectors.toList());
+	}
+	
+	/**
+	 * 获取Peer请求队列统计信息
+	 * 
+	 * @param infoHashHex InfoHashHex
+	 * 
+	 * @return Peer地址端口=请求队列统计信息
+	 * 
+	 * @see PeerRequestQueue#statistics()
+	 */
+	public Map<String, Object> statistics(String infoHashHex) {
+		final Map<String, Object> statistics = new LinkedHashMap<>();
+		for (PeerSession session : this.listConnectPeerSession(infoHashHex)) {
+			final PeerConnect peerConnect = session.peerDownloader();
+			final PeerRequestQueue requestQueue = peerConnect == null ? null : peerConnect.requestQueue();
+			if(requestQueue != null) {
+				statistics.put(SymbolConfig.Symbol.COLON.join(session.host(), session.port()), requestQueue.statistics());
+			}
 		}
+		return statistics;
 	}
 	
 	/**
 	 * @param infoHashHex InfoHashHex
 	 * 
-	 * @return 存档队列连接中的Peer队列
+	 * @return 连接中的Peer队列
 	 */
 	private List<PeerSession> listConnectPeerSession(String infoHashHex) {
-		final var list = this.list(infoHashHex);
-		if(CollectionUtils.isEmpty(list)) {
+		final var connects = this.connectPeers.get(infoHashHex);
+		if(connects == null || connects.isEmpty()) {
 			return List.of();
 		}
-		synchronized (list) {
-			return list.stream()
-				.filter(PeerSession::available)
-				.filter(PeerSession::connected)
-				.collect(Collectors.toList());
-		}
+		return connects.stream()
+			.filter(PeerSession::available)
+			.collect(Collectors.toList());
 	}
 	
 	/**
-	 * 查找Peer信息
+	 * Peer索引
 	 * 
-	 * @param list 队列
 	 * @param host 地址
 	 * @param port 端口
 	 * 
-	 * @return Peer信息
+	 * @author acgist
 	 */
-	private PeerSession findPeerSession(List<PeerSession> list, String host, Integer port) {
-		return list.stream()
-			.filter(peer -> peer.equals(host, port))
-			.findFirst()
-			.orElse(null);
+	private record PeerKey(String host, Integer port) {
 	}
 
 }
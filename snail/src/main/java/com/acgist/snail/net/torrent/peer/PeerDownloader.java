@@ -145,7 +145,7 @@ public final class PeerDownloader extends PeerConnect {
 		} catch (Exception e) {
 			LOGGER.error("关闭PeerDownloader异常", e);
 		} finally {
-			this.peerSession.statusOff(PeerConfig.STATUS_DOWNLOAD);
+			PeerContext.getInstance().disconnect(this.torrentSession.infoHashHex(), this.peerSession, PeerConfig.STATUS_DOWNLOAD);
 			this.peerSession.peerDownloader(null);
 		}
 	}
@@ -173,16 +173,17 @@ public final class PeerDownloaderGroup {
 			// 下载队列数量超过最大下载数量
 			return false;
 		}
+		// 评分最高的Peer优先连接
 		final PeerSession peerSession = PeerContext.getInstance().pick(this.torrentSession.infoHashHex());
 		if(peerSession != null) {
 			final PeerDownloader peerDownloader = PeerDownloader.newInstance(peerSession, this.torrentSession);
+			final long begin = System.currentTimeMillis();
 			final boolean success = peerDownloader.handshake();
+			// 握手失败：放回队列
+			PeerContext.getInstance().handshake(this.torrentSession.infoHashHex(), peerSession, success, System.currentTimeMillis() - begin);
 			if(success) {
-				peerSession.status(PeerConfig.STATUS_DOWNLOAD);
+				PeerContext.getInstance().connect(this.torrentSession.infoHashHex(), peerSession, PeerConfig.STATUS_DOWNLOAD);
 				this.offer(peerDownloader);
-			} else {
-				// 握手失败：放回队列
-				PeerContext.getInstance().inferior(this.torrentSession.infoHashHex(), peerSession);
 			}
 			return true;
 		} else {
@@ -0,0 +1,122 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import com.acgist.snail.config.PeerConfig;
+import com.acgist.snail.utils.BeanUtils;
+
+/**
+ * <p>have广播消息</p>
+ * <p>定时任务合并的have消息只编码一次，所有Peer共享同一个只读缓冲区。</p>
+ * <p>注意：Piece位图消息和haveAll消息只能作为握手后的第一条消息发送，所以不管数量多少只发送have消息。</p>
+ * <p>Peer已经含有的Piece不再发送：全部含有不用发送，部分含有复制没有含有的have消息。</p>
+ * 
+ * @author acgist
+ */
+public final class PeerHaveMessage {
+
+	/**
+	 * <p>have消息长度：{@value}</p>
+	 * <p>格式：len=0005 id=0x04 index</p>
+	 */
+	public static final int HAVE_LENGTH = 4 + 1 + 4;
+	
+	/**
+	 * <p>Piece索引</p>
+	 */
+	private final int[] indexArray;
+	/**
+	 * <p>消息（只读）</p>
+	 */
+	private final ByteBuffer message;
+	
+	/**
+	 * @param indexArray Piece索引
+	 * @param message 消息
+	 */
+	private PeerHaveMessage(int[] indexArray, ByteBuffer message) {
+		this.indexArray = indexArray;
+		this.message = message;
+	}
+	
+	/**
+	 * <p>新建have广播消息</p>
+	 * 
+	 * @param haves 新下载Piece位图
+	 * 
+	 * @return have广播消息（没有Piece：{@code null}）
+	 */
+	public static final PeerHaveMessage newInstance(BitSet haves) {
+		final int[] indexArray = haves.stream().toArray();
+		if(indexArray.length == 0) {
+			return null;
+		}
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(HAVE_LENGTH * indexArray.length);
+		for (int index : indexArray) {
+			buffer.putInt(1 + 4);
+			buffer.put(PeerConfig.Type.HAVE.id());
+			buffer.putInt(index);
+		}
+		buffer.flip();
+		return new PeerHaveMessage(indexArray, buffer.asReadOnlyBuffer());
+	}
+	
+	/**
+	 * <p>获取发送给Peer的消息</p>
+	 * <p>共享消息：加密连接和UTP连接需要修改或者复制数据，所以复制到堆内存。</p>
+	 * 
+	 * @param peerSession Peer信息
+	 * @param direct 是否直接发送（明文TCP连接）
+	 * 
+	 * @return 消息（不用发送：{@code null}）
+	 */
+	public ByteBuffer message(PeerSession peerSession, boolean direct) {
+		int hasSize = 0;
+		for (int index : this.indexArray) {
+			if(peerSession.hasPiece(index)) {
+				hasSize++;
+			}
+		}
+		if(hasSize == 0) {
+			return this.share(direct);
+		}
+		if(hasSize == this.indexArray.length) {
+			return null;
+		}
+		// 部分含有：复制没有含有的have消息
+		final ByteBuffer buffer = ByteBuffer.allocate(HAVE_LENGTH * (this.indexArray.length - hasSize));
+		final byte[] bytes = buffer.array();
+		int position = 0;
+		for (int index = 0; index < this.indexArray.length; index++) {
+			if(!peerSession.hasPiece(this.indexArray[index])) {
+				this.message.get(index * HAVE_LENGTH, bytes, position, HAVE_LENGTH);
+				position += HAVE_LENGTH;
+			}
+		}
+		return buffer;
+	}
+	
+	/**
+	 * <p>获取共享消息</p>
+	 * 
+	 * @param direct 是否直接发送
+	 * 
+	 * @return 消息
+	 */
+	private ByteBuffer share(boolean direct) {
+		if(direct) {
+			return this.message.duplicate();
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(this.message.remaining());
+		buffer.put(this.message.duplicate());
+		buffer.flip();
+		return buffer;
+	}
+	
+	@Override
+	public String toString() {
+		return BeanUtils.toString(this, this.indexArray.length);
+	}
+
+}
@@ -21,6 +21,10 @@ public final class PeerMessageHandler extends TcpMessageHandler implements IEncr
 	 * <p>消息编码器</p>
 	 */
 	private final IMessageEncoder<ByteBuffer> messageEncoder;
+	/**
+	 * <p>Peer消息处理器：加密、解密</p>
+	 */
+	private final PeerCryptMessageCodec peerCryptMessageCodec;
 	/**
 	 * <p>Peer消息代理</p>
 	 */
@@ -44,6 +48,7 @@ public final class PeerMessageHandler extends TcpMessageHandler implements IEncr
 		final var peerCryptMessageCodec = new PeerCryptMessageCodec(peerUnpackMessageCodec, peerSubMessageHandler);
 		this.messageDecoder = peerCryptMessageCodec;
 		this.messageEncoder = peerCryptMessageCodec;
+		this.peerCryptMessageCodec = peerCryptMessageCodec;
 		this.peerSubMessageHandler = peerSubMessageHandler;
 	}
 	
@@ -58,6 +63,11 @@ public final class PeerMessageHandler extends TcpMessageHandler implements IEncr
 		this.send(buffer, timeout);
 	}
 	
+	@Override
+	public boolean directSend() {
+		return this.peerCryptMessageCodec.plaintext();
+	}
+	
 	@Override
 	public IPeerConnect.ConnectType connectType() {
 		return IPeerConnect.ConnectType.TCP;
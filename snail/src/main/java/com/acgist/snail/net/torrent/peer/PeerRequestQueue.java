@@ -0,0 +1,381 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.session.SpeedSession;
+import com.acgist.snail.net.torrent.TorrentPiece;
+import com.acgist.snail.utils.BeanUtils;
+
+/**
+ * <p>Peer请求队列</p>
+ * <p>记录已经发送但是没有响应的Slice请求，根据Peer下载速度和往返时间（RTT）计算请求深度。</p>
+ * <p>请求深度 = 下载速度 * 最小往返时间 * 2 / Slice大小 + 最小请求深度</p>
+ * <p>使用最小往返时间（基础往返时间）计算：排队导致往返时间增加不会导致请求深度持续增长</p>
+ * <p>两倍带宽时延积：下载速度没有饱和时请求深度成倍增长，饱和以后保持稳定。</p>
+ * 
+ * @author acgist
+ */
+public final class PeerRequestQueue {
+
+	/**
+	 * <p>最小请求深度：{@value}</p>
+	 */
+	public static final int MIN_DEPTH = 4;
+	/**
+	 * <p>TCP最大请求深度：{@value}</p>
+	 */
+	public static final int MAX_DEPTH = 256;
+	/**
+	 * <p>UTP最大请求深度：{@value}</p>
+	 * <p>注意：过大会导致UTP信号量阻塞</p>
+	 */
+	public static final int UTP_MAX_DEPTH = 16;
+	/**
+	 * <p>下载速度采样周期（毫秒）：{@value}</p>
+	 */
+	private static final long RATE_INTERVAL = 500L;
+	/**
+	 * <p>最小往返时间重置周期（毫秒）：{@value}</p>
+	 * <p>网络环境变化以后重新计算最小往返时间</p>
+	 */
+	private static final long MIN_RTT_INTERVAL = 60L * SystemConfig.ONE_SECOND_MILLIS;
+	/**
+	 * <p>统计信息：请求数量（队列深度）</p>
+	 */
+	public static final String STATISTICS_SIZE = "size";
+	/**
+	 * <p>统计信息：最大请求数量</p>
+	 */
+	public static final String STATISTICS_MAX_SIZE = "maxSize";
+	/**
+	 * <p>统计信息：请求深度</p>
+	 */
+	public static final String STATISTICS_DEPTH = "depth";
+	/**
+	 * <p>统计信息：平滑往返时间（毫秒）</p>
+	 */
+	public static final String STATISTICS_RTT = "rtt";
+	/**
+	 * <p>统计信息：下载速度（B/s）</p>
+	 */
+	public static final String STATISTICS_RATE = "rate";
+	/**
+	 * <p>统计信息：有效下载速度（B/s）</p>
+	 */
+	public static final String STATISTICS_EFFECTIVE_SPEED = "effectiveSpeed";
+	
+	/**
+	 * <p>最大请求深度</p>
+	 */
+	private final int maxDepth;
+	/**
+	 * <p>请求队列</p>
+	 * <p>请求标识=请求时间（纳秒）</p>
+	 * 
+	 * @see #key(int, int)
+	 */
+	private final Map<Long, Long> requests;
+	/**
+	 * <p>有效下载速度</p>
+	 * <p>校验成功的Piece数据</p>
+	 */
+	private final SpeedSession effectiveSpeed;
+	/**
+	 * <p>平滑往返时间（毫秒）</p>
+	 */
+	private volatile long srtt;
+	/**
+	 * <p>最小往返时间（毫秒）</p>
+	 */
+	private volatile long minRtt;
+	/**
+	 * <p>最小往返时间重置时间</p>
+	 */
+	private volatile long minRttTime;
+	/**
+	 * <p>下载速度（B/s）</p>
+	 */
+	private volatile long rate;
+	/**
+	 * <p>下载速度采样数据大小</p>
+	 */
+	private long rateSize;
+	/**
+	 * <p>下载速度采样时间</p>
+	 */
+	private long rateTime;
+	/**
+	 * <p>最大请求数量</p>
+	 */
+	private volatile int maxSize;
+	
+	/**
+	 * @param maxDepth 最大请求深度
+	 */
+	public PeerRequestQueue(int maxDepth) {
+		this.maxDepth = maxDepth;
+		this.requests = new ConcurrentHashMap<>();
+		this.effectiveSpeed = new SpeedSession();
+		this.minRtt = Long.MAX_VALUE;
+		this.minRttTime = System.currentTimeMillis();
+		this.rateTime = this.minRttTime;
+	}
+	
+	/**
+	 * <p>添加请求</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece内偏移
+	 */
+	public void request(int index, int begin) {
+		this.requests.put(key(index, begin), System.nanoTime());
+		final int size = this.requests.size();
+		if(size > this.maxSize) {
+			this.maxSize = size;
+		}
+	}
+	
+	/**
+	 * <p>响应请求</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece内偏移
+	 * @param length 数据长度
+	 * 
+	 * @return 是否是请求队列里面的请求
+	 */
+	public boolean response(int index, int begin, int length) {
+		final Long requestTime = this.requests.remove(key(index, begin));
+		if(requestTime == null) {
+			return false;
+		}
+		final long rtt = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestTime));
+		final long time = System.currentTimeMillis();
+		synchronized (this) {
+			if(this.srtt == 0L) {
+				this.srtt = rtt;
+			} else {
+				// RFC 6298：SRTT = 7/8 * SRTT + 1/8 * RTT
+				this.srtt = this.srtt - (this.srtt >> 3) + (rtt >> 3);
+			}
+			if(time - this.minRttTime > MIN_RTT_INTERVAL) {
+				this.minRtt = this.srtt;
+				this.minRttTime = time;
+			}
+			if(rtt < this.minRtt) {
+				this.minRtt = rtt;
+			}
+			this.rateSize += length;
+			final long interval = time - this.rateTime;
+			if(interval >= RATE_INTERVAL) {
+				final long sample = this.rateSize * SystemConfig.ONE_SECOND_MILLIS / interval;
+				this.rate = this.rate == 0L ? sample : (this.rate + sample) / 2;
+				this.rateSize = 0L;
+				this.rateTime = time;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * <p>取消请求</p>
+	 * <p>Peer拒绝请求：请求不会响应</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece内偏移
+	 * 
+	 * @return 是否是请求队列里面的请求
+	 */
+	public boolean cancel(int index, int begin) {
+		return this.requests.remove(key(index, begin)) != null;
+	}
+	
+	/**
+	 * <p>取消所有请求</p>
+	 * <p>Peer阻塞（不支持Fast扩展）：所有请求不会响应</p>
+	 * 
+	 * @return 取消的请求（Piece索引、Piece内偏移）
+	 */
+	public List<int[]> cancel() {
+		final List<int[]> list = new ArrayList<>();
+		final var iterator = this.requests.keySet().iterator();
+		while(iterator.hasNext()) {
+			final long key = iterator.next();
+			iterator.remove();
+			list.add(new int[] { index(key), begin(key) });
+		}
+		return list;
+	}
+	
+	/**
+	 * <p>判断Piece是否含有请求</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return 是否含有请求
+	 */
+	public boolean contains(int index) {
+		return this.requests.keySet().stream().anyMatch(key -> index(key) == index);
+	}
+	
+	/**
+	 * <p>删除Piece所有请求</p>
+	 * 
+	 * @param index Piece索引
+	 */
+	public void remove(int index) {
+		this.requests.keySet().removeIf(key -> index(key) == index);
+	}
+	
+	/**
+	 * <p>获取请求超时Piece索引</p>
+	 * 
+	 * @param timeout 超时时间（毫秒）
+	 * 
+	 * @return 请求超时Piece索引
+	 */
+	public Set<Integer> timeout(long timeout) {
+		final long time = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(timeout);
+		final Set<Integer> indexes = new HashSet<>();
+		this.requests.forEach((key, requestTime) -> {
+			if(requestTime - time < 0) {
+				indexes.add(index(key));
+			}
+		});
+		return indexes;
+	}
+	
+	/**
+	 * <p>获取请求数量（队列深度）</p>
+	 * 
+	 * @return 请求数量
+	 */
+	public int size() {
+		return this.requests.size();
+	}
+	
+	/**
+	 * <p>获取最大请求数量</p>
+	 * 
+	 * @return 最大请求数量
+	 */
+	public int maxSize() {
+		return this.maxSize;
+	}
+	
+	/**
+	 * <p>计算请求深度</p>
+	 * 
+	 * @return 请求深度
+	 */
+	public int depth() {
+		final long minRtt = this.minRtt;
+		if(minRtt == Long.MAX_VALUE) {
+			// 没有往返时间
+			return MIN_DEPTH;
+		}
+		final long bdp = this.rate * minRtt * 2 / SystemConfig.ONE_SECOND_MILLIS;
+		final long depth = bdp / TorrentPiece.SLICE_LENGTH + MIN_DEPTH;
+		return (int) Math.min(depth, this.maxDepth);
+	}
+	
+	/**
+	 * <p>获取平滑往返时间（毫秒）</p>
+	 * 
+	 * @return 平滑往返时间
+	 */
+	public long rtt() {
+		return this.srtt;
+	}
+	
+	/**
+	 * <p>获取下载速度（B/s）</p>
+	 * 
+	 * @return 下载速度
+	 */
+	public long rate() {
+		return this.rate;
+	}
+	
+	/**
+	 * <p>统计有效数据</p>
+	 * 
+	 * @param length 数据长度
+	 */
+	public void effective(int length) {
+		this.effectiveSpeed.buffer(length);
+	}
+	
+	/**
+	 * <p>获取有效下载速度（B/s）</p>
+	 * 
+	 * @return 有效下载速度
+	 */
+	public long effectiveSpeed() {
+		return this.effectiveSpeed.speed();
+	}
+	
+	/**
+	 * <p>获取统计信息</p>
+	 * 
+	 * @return 统计信息
+	 */
+	public Map<String, Object> statistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put(STATISTICS_SIZE, this.size());
+		statistics.put(STATISTICS_MAX_SIZE, this.maxSize);
+		statistics.put(STATISTICS_DEPTH, this.depth());
+		statistics.put(STATISTICS_RTT, this.srtt);
+		statistics.put(STATISTICS_RATE, this.rate);
+		statistics.put(STATISTICS_EFFECTIVE_SPEED, this.effectiveSpeed());
+		return statistics;
+	}
+	
+	/**
+	 * <p>获取请求标识</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece内偏移
+	 * 
+	 * @return 请求标识
+	 */
+	private static final long key(int index, int begin) {
+		return ((long) index << Integer.SIZE) | (begin & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * <p>获取请求标识Piece索引</p>
+	 * 
+	 * @param key 请求标识
+	 * 
+	 * @return Piece索引
+	 */
+	private static final int index(long key) {
+		return (int) (key >>> Integer.SIZE);
+	}
+	
+	/**
+	 * <p>获取请求标识Piece内偏移</p>
+	 * 
+	 * @param key 请求标识
+	 * 
+	 * @return Piece内偏移
+	 */
+	private static final int begin(long key) {
+		return (int) key;
+	}
+	
+	@Override
+	public String toString() {
+		return BeanUtils.toString(this, this.size(), this.depth(), this.srtt, this.rate);
+	}
+
+}
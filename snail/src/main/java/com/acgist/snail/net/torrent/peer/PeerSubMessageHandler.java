@@ -11,10 +11,13 @@ import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.NetException;
+import com.acgist.snail.net.PacketSizeException;
 import com.acgist.snail.net.codec.IMessageDecoder;
 import com.acgist.snail.net.torrent.IEncryptMessageSender;
 import com.acgist.snail.net.torrent.IPeerConnect;
+import com.acgist.snail.net.torrent.PieceAvailability;
 import com.acgist.snail.net.torrent.TorrentContext;
+import com.acgist.snail.net.torrent.TorrentPiece;
 import com.acgist.snail.net.torrent.TorrentSession;
 import com.acgist.snail.utils.ArrayUtils;
 import com.acgist.snail.utils.BitfieldUtils;
@@ -42,6 +45,16 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	 * <p>检查是否使用最大次数：{@value}</p>
 	 */
 	private static final int MAX_USELESS_CHECK = 3;
+	/**
+	 * <p>piece消息头部长度：{@value}</p>
+	 * <p>length_prefix(4) + message_id(1) + index(4) + begin(4)</p>
+	 */
+	private static final int PIECE_HEADER_LENGTH = 13;
+	/**
+	 * <p>上传缓冲区最大复用长度：{@value}</p>
+	 * <p>超过这个长度的请求单独分配内存：防止异常请求长期占用内存</p>
+	 */
+	private static final int MAX_UPLOAD_BUFFER_LENGTH = PIECE_HEADER_LENGTH + 8 * TorrentPiece.SLICE_LENGTH;
 	
 	/**
 	 * <p>检查是否使用次数</p>
@@ -94,6 +107,20 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	 * <p>DHT扩展消息代理</p>
 	 */
 	private DhtExtensionMessageHandler dhtExtensionMessageHandler;
+	/**
+	 * <p>上传缓冲区</p>
+	 * <p>request消息在消息接收线程中顺序处理，发送消息同步完成以后可以复用。</p>
+	 * 
+	 * @see #uploadBuffer(int)
+	 */
+	private ByteBuffer uploadBuffer;
+	/**
+	 * <p>已经统计可用度Piece位图</p>
+	 * <p>连接关闭时减少可用度</p>
+	 * 
+	 * @see PieceAvailability
+	 */
+	private final BitSet availabilityPieces = new BitSet();
 	
 	/**
 	 * <p>服务端</p>
@@ -393,7 +420,6 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		this.fastBitfield();
 		this.extension();
 		this.dht();
-		this.unchoke();
 		return true;
 	}
 
@@ -411,6 +437,10 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	 * <p>格式：len=0001 id=0x00</p>
 	 */
 	public void choke() {
+		if(this.peerConnectSession.isAmChoked()) {
+			LOGGER.debug("发送阻塞消息：已经阻塞");
+			return;
+		}
 		LOGGER.debug("发送阻塞消息");
 		this.peerConnectSession.amChoked();
 		this.pushMessage(PeerConfig.Type.CHOKE);
@@ -424,6 +454,10 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	private void choke(ByteBuffer buffer) {
 		LOGGER.debug("处理阻塞消息");
 		this.peerConnectSession.peerChoked();
+		if(this.peerConnect != null && !this.peerSession.supportFastExtensionProtocol()) {
+			// 不支持Fast扩展：阻塞取消所有请求
+			this.peerConnect.choked();
+		}
 		// 不用释放资源：系统自动优化剔除
 //		this.peerConnect.release();
 	}
@@ -431,8 +465,11 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	/**
 	 * <p>发送解除阻塞消息</p>
 	 * <p>格式：len=0001 id=0x01</p>
+	 * <p>握手完成以后不会立即解除阻塞：Peer感兴趣并且阻塞调度允许才会解除阻塞</p>
+	 * 
+	 * @see IPeerChoker
 	 */
-	private void unchoke() {
+	public void unchoke() {
 		if(!this.torrentSession.uploadable()) {
 			LOGGER.debug("发送解除阻塞消息：任务不可上传");
 			return;
@@ -489,6 +526,13 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	private void interested(ByteBuffer buffer) {
 		LOGGER.debug("处理感兴趣消息");
 		this.peerConnectSession.peerInterested();
+		// 阻塞调度还有空闲上传位置：立即解除阻塞，不用等待下次调度。
+		if(
+			this.peerConnectSession.isAmChoked() &&
+			this.torrentSession.interested(this.peerConnect)
+		) {
+			this.unchoke();
+		}
 	}
 
 	/**
@@ -529,6 +573,26 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 			LOGGER.debug("发送have消息：没有可用索引");
 			return;
 		}
+		final BitSet haves = new BitSet();
+		for (Integer index : indexArray) {
+			haves.set(index);
+		}
+		this.have(PeerHaveMessage.newInstance(haves));
+	}
+	
+	/**
+	 * <p>发送have广播消息</p>
+	 * <p>have广播消息已经编码：Peer已经含有的Piece不会发送</p>
+	 * 
+	 * @param message have广播消息
+	 * 
+	 * @see PeerHaveMessage#message(PeerSession, boolean)
+	 */
+	public void have(PeerHaveMessage message) {
+		if(message == null) {
+			LOGGER.debug("发送have消息：没有可用索引");
+			return;
+		}
 		if(!this.torrentSession.uploadable()) {
 			LOGGER.debug("发送have消息：任务不可上传");
 			return;
@@ -537,25 +601,13 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 			LOGGER.debug("发送have消息：Peer只上传不下载");
 			return;
 		}
-		int pos = 0;
-		int length = 0;
-		final byte[] bytes = new byte[9 * indexArray.length];
-		for (Integer index : indexArray) {
-			if(this.peerSession.hasPiece(index)) {
-				LOGGER.debug("发送have消息：Peer已经含有");
-			} else {
-				LOGGER.debug("发送have消息：{}", index);
-				final byte[] message = this.buildMessage(PeerConfig.Type.HAVE, NumberUtils.intToBytes(index)).array();
-				length = message.length;
-				System.arraycopy(message, 0, bytes, pos, length);
-				pos += length;
-			}
-		}
-		if(pos > 0) {
-			final ByteBuffer buffer = ByteBuffer.allocate(pos);
-			buffer.put(bytes, 0, pos);
-			this.sendEncrypt(buffer);
+		final ByteBuffer buffer = message.message(this.peerSession, this.messageEncryptSender.directSend());
+		if(buffer == null) {
+			LOGGER.debug("发送have消息：Peer已经含有");
+			return;
 		}
+		LOGGER.debug("发送have消息：{}", message);
+		this.sendEncrypt(buffer);
 	}
 
 	/**
@@ -571,6 +623,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		final int index = buffer.getInt();
 		LOGGER.debug("处理have消息：{}", index);
 		this.peerSession.piece(index);
+		this.availability(index);
 		if(!this.torrentSession.hasPiece(index)) {
 			this.interested();
 		}
@@ -606,6 +659,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		LOGGER.debug("处理haveAll消息");
 		final BitSet allPieces = this.torrentSession.allPieces();
 		this.peerSession.pieces(allPieces);
+		this.availability(allPieces);
 		this.torrentSession.fullPieces();
 		if(!this.torrentSession.completed()) {
 			this.interested();
@@ -629,6 +683,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	private void haveNone(ByteBuffer buffer) {
 		LOGGER.debug("处理haveAll消息");
 		this.peerSession.cleanPieces();
+		this.unavailability();
 		this.notInterested();
 	}
 	
@@ -715,6 +770,9 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		final int begin = buffer.getInt();
 		final int length = buffer.getInt();
 		LOGGER.debug("处理rejectRequest消息：{}-{}-{}", index, begin, length);
+		if(this.peerConnect != null) {
+			this.peerConnect.reject(index, begin);
+		}
 	}
 	
 	/**
@@ -833,6 +891,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		// Peer已经下载Piece位图
 		final BitSet pieces = BitfieldUtils.toBitSet(bytes);
 		this.peerSession.pieces(pieces);
+		this.availability(pieces);
 		this.torrentSession.fullPieces(pieces);
 		// 客户端没有下载Piece位图
 		final BitSet notHave = new BitSet();
@@ -898,23 +957,40 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 			this.rejectRequest(index, begin, length);
 			return;
 		}
-		if(this.peerSession.uploadSize() > this.torrentSession.size()) {
-			LOGGER.debug("处理request消息：累计上传大小超过任务大小");
-			this.choke();
-			this.rejectRequest(index, begin, length);
-			return;
-		}
 		if(this.torrentSession.hasPiece(index)) {
 			LOGGER.debug("处理request消息：{}-{}-{}", index, begin, length);
-			try {
-				this.piece(index, begin, this.torrentSession.read(index, begin, length));
-			} catch (NetException e) {
-				LOGGER.error("处理request消息异常", e);
+			// 上传队列：读取数据和限速不会阻塞消息处理线程
+			if(!this.peerConnect.upload(index, begin, length)) {
+				LOGGER.debug("处理request消息：上传队列已满");
+				this.rejectRequest(index, begin, length);
 			}
 		} else {
 			LOGGER.debug("处理request消息：Piece没有下载");
 		}
 	}
+	
+	/**
+	 * <p>发送上传队列中的请求</p>
+	 * <p>请求加入队列以后可能已经阻塞：阻塞以后丢弃请求</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece内偏移
+	 * @param length Piece请求数据长度
+	 * 
+	 * @see PeerConnect#upload(int, int, int)
+	 */
+	void upload(int index, int begin, int length) {
+		if(this.peerConnectSession.isAmChoked()) {
+			LOGGER.debug("发送上传请求：阻塞");
+			this.rejectRequest(index, begin, length);
+			return;
+		}
+		try {
+			this.piece(index, begin, length);
+		} catch (NetException e) {
+			LOGGER.error("发送上传请求异常", e);
+		}
+	}
 
 	/**
 	 * <p>发送piece消息</p>
@@ -923,23 +999,64 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	 * <p>index：Piece索引</p>
 	 * <p>begin：Piece内偏移</p>
 	 * <p>block：Piece请求数据</p>
+	 * <p>消息头部和Piece数据写入同一个上传缓冲区：Piece数据从文件（缓存）直接读入缓冲区，不用新建中间数组。</p>
 	 * 
 	 * @param index Piece索引
 	 * @param begin Piece内偏移
-	 * @param bytes Piece请求数据
+	 * @param length Piece请求数据长度
+	 * 
+	 * @throws NetException 网络异常
 	 */
-	private void piece(int index, int begin, byte[] bytes) {
+	private void piece(int index, int begin, int length) throws NetException {
 		if(!this.torrentSession.uploadable()) {
 			LOGGER.debug("发送piece消息：任务不可上传");
 			return;
 		}
-		LOGGER.debug("发送piece消息：{}-{}", index, begin);
-		this.peerConnect.uploadMark(bytes.length);
-		final ByteBuffer buffer = ByteBuffer.allocate(8 + bytes.length);
+		PacketSizeException.verify(length);
+		final ByteBuffer buffer = this.uploadBuffer(PIECE_HEADER_LENGTH + length);
+		buffer.putInt(PIECE_HEADER_LENGTH - 4 + length);
+		buffer.put(PeerConfig.Type.PIECE.id());
 		buffer.putInt(index);
 		buffer.putInt(begin);
-		buffer.put(bytes);
-		this.pushMessage(PeerConfig.Type.PIECE, buffer.array());
+		final int size = this.torrentSession.read(index, begin, length, buffer);
+		if(size != length) {
+			LOGGER.debug("发送piece消息失败（读取数据长度）：{}-{}-{}-{}", index, begin, length, size);
+			this.rejectRequest(index, begin, length);
+			return;
+		}
+		LOGGER.debug("发送piece消息：{}-{}", index, begin);
+		this.peerConnect.uploadMark(length);
+		this.sendEncrypt(buffer);
+	}
+	
+	/**
+	 * <p>获取上传缓冲区</p>
+	 * <p>TCP连接使用直接内存（加密连接原地加密）：UTP连接使用堆内存（拆包需要复制数据）</p>
+	 * 
+	 * @param length 消息长度
+	 * 
+	 * @return 上传缓冲区
+	 * 
+	 * @see com.acgist.snail.net.torrent.codec.MSECipher#encrypt(ByteBuffer)
+	 */
+	private ByteBuffer uploadBuffer(int length) {
+		final boolean direct = this.messageEncryptSender.connectType() == IPeerConnect.ConnectType.TCP;
+		if(length > MAX_UPLOAD_BUFFER_LENGTH) {
+			return direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+		}
+		ByteBuffer buffer = this.uploadBuffer;
+		if(
+			buffer == null ||
+			buffer.capacity() < length ||
+			buffer.isDirect() != direct
+		) {
+			// 按照默认Slice大小分配：减少重复分配
+			final int capacity = Math.max(length, PIECE_HEADER_LENGTH + TorrentPiece.SLICE_LENGTH);
+			buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+			this.uploadBuffer = buffer;
+		}
+		buffer.clear().limit(length);
+		return buffer;
 	}
 
 	/**
@@ -955,10 +1072,10 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		final int index = buffer.getInt();
 		final int begin = buffer.getInt();
 		LOGGER.debug("处理piece消息：{}-{}", index, begin);
-		final byte[] bytes = ByteUtils.remainingToBytes(buffer);
 		if(this.peerConnect != null) {
-			this.peerConnect.downloadMark(bytes.length);
-			this.peerConnect.piece(index, begin, bytes);
+			this.peerConnect.downloadMark(buffer.remaining());
+			// 直接写入Piece数据：消息缓冲区处理完成以后会被覆盖
+			this.peerConnect.piece(index, begin, buffer);
 		}
 	}
 
@@ -992,6 +1109,9 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		final int begin = buffer.getInt();
 		final int length = buffer.getInt();
 		LOGGER.debug("处理cancel消息：{}-{}-{}", index, begin, length);
+		if(this.peerConnect != null) {
+			this.peerConnect.cancelUpload(index, begin, length);
+		}
 	}
 	
 	/**
@@ -1146,9 +1266,62 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	 * @see IEncryptMessageSender#close()
 	 */
 	public void close() {
+		this.unavailability();
 		this.messageEncryptSender.close();
 	}
 	
+	/**
+	 * <p>增加Piece可用度</p>
+	 * 
+	 * @param index Piece索引
+	 */
+	private void availability(int index) {
+		if(!PeerConfig.checkPiece(index)) {
+			return;
+		}
+		synchronized (this.availabilityPieces) {
+			if(this.availabilityPieces.get(index)) {
+				return;
+			}
+			this.availabilityPieces.set(index);
+		}
+		this.torrentSession.availability().increment(index);
+	}
+	
+	/**
+	 * <p>增加Piece可用度</p>
+	 * 
+	 * @param pieces Piece位图
+	 */
+	private void availability(BitSet pieces) {
+		final BitSet newPieces = new BitSet();
+		newPieces.or(pieces);
+		synchronized (this.availabilityPieces) {
+			newPieces.andNot(this.availabilityPieces);
+			this.availabilityPieces.or(newPieces);
+		}
+		this.torrentSession.availability().increment(newPieces);
+	}
+	
+	/**
+	 * <p>减少Piece可用度</p>
+	 * <p>Peer连接关闭或者没有任何Piece</p>
+	 */
+	private void unavailability() {
+		if(this.torrentSession == null) {
+			return;
+		}
+		final BitSet oldPieces = new BitSet();
+		synchronized (this.availabilityPieces) {
+			if(this.availabilityPieces.isEmpty()) {
+				return;
+			}
+			oldPieces.or(this.availabilityPieces);
+			this.availabilityPieces.clear();
+		}
+		this.torrentSession.availability().decrement(oldPieces);
+	}
+	
 	/**
 	 * <p>是否可用</p>
 	 * 
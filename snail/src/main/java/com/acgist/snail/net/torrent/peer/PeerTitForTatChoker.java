@@ -0,0 +1,164 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.utils.BeanUtils;
+
+/**
+ * <p>以牙还牙阻塞调度</p>
+ * <p>每次调度按照速度解除阻塞速度最快的感兴趣Peer：下载时按照Peer提供的下载速度排序（互惠），做种时按照上传速度排序。</p>
+ * <p>乐观解除阻塞：每隔{@link #OPTIMISTIC_ROUND}次调度随机选择一个阻塞的感兴趣Peer解除阻塞，发现更好的Peer，同时让新连接获取数据。</p>
+ * <p>上传配额：解除阻塞的Peer平分上传限速</p>
+ * 
+ * @author acgist
+ */
+public final class PeerTitForTatChoker implements IPeerChoker {
+
+	/**
+	 * <p>默认上传位置数量：{@value}</p>
+	 * <p>不含乐观解除阻塞</p>
+	 */
+	public static final int UNCHOKE_SIZE = 4;
+	/**
+	 * <p>乐观解除阻塞轮换调度次数：{@value}</p>
+	 * <p>调度周期十秒：三十秒轮换一次</p>
+	 */
+	public static final int OPTIMISTIC_ROUND = 3;
+	
+	/**
+	 * <p>上传位置数量</p>
+	 */
+	private final int unchokeSize;
+	/**
+	 * <p>上传限速（字节/秒）</p>
+	 */
+	private final LongSupplier uploadBuffer;
+	/**
+	 * <p>空闲上传位置数量</p>
+	 * <p>Peer感兴趣时使用空闲上传位置立即解除阻塞</p>
+	 */
+	private final AtomicInteger freeSize;
+	/**
+	 * <p>调度次数</p>
+	 */
+	private int round;
+	/**
+	 * <p>乐观解除阻塞Peer</p>
+	 */
+	private PeerConnectSession optimistic;
+	
+	/**
+	 * @param unchokeSize 上传位置数量
+	 * @param uploadBuffer 上传限速（字节/秒）
+	 */
+	private PeerTitForTatChoker(int unchokeSize, LongSupplier uploadBuffer) {
+		this.unchokeSize = unchokeSize;
+		this.uploadBuffer = uploadBuffer;
+		this.freeSize = new AtomicInteger(unchokeSize);
+		this.round = 0;
+	}
+	
+	/**
+	 * <p>新建以牙还牙阻塞调度</p>
+	 * 
+	 * @return {@link PeerTitForTatChoker}
+	 */
+	public static final PeerTitForTatChoker newInstance() {
+		return new PeerTitForTatChoker(UNCHOKE_SIZE, DownloadConfig::getUploadBufferByte);
+	}
+	
+	/**
+	 * <p>新建以牙还牙阻塞调度</p>
+	 * 
+	 * @param unchokeSize 上传位置数量
+	 * @param uploadBuffer 上传限速（字节/秒）
+	 * 
+	 * @return {@link PeerTitForTatChoker}
+	 */
+	public static final PeerTitForTatChoker newInstance(int unchokeSize, LongSupplier uploadBuffer) {
+		return new PeerTitForTatChoker(unchokeSize, uploadBuffer);
+	}
+	
+	@Override
+	public synchronized Set<PeerConnectSession> choke(List<PeerConnectSession> peerConnectSessions, boolean seeding) {
+		peerConnectSessions.forEach(PeerConnectSession::refreshRate);
+		final Comparator<PeerConnectSession> comparator = seeding ?
+			Comparator.comparingLong(PeerConnectSession::uploadRate) :
+			Comparator.comparingLong(PeerConnectSession::downloadRate);
+		final List<PeerConnectSession> interested = peerConnectSessions.stream()
+			.filter(PeerConnectSession::isPeerInterested)
+			.sorted(comparator.reversed())
+			.collect(Collectors.toList());
+		final int size = Math.min(this.unchokeSize, interested.size());
+		final Set<PeerConnectSession> unchokes = new HashSet<>(interested.subList(0, size));
+		this.optimistic(interested, unchokes);
+		this.round++;
+		this.freeSize.set(this.unchokeSize - size);
+		final long quota = this.quota(unchokes.size());
+		unchokes.forEach(session -> session.uploadQuota(quota));
+		return unchokes;
+	}
+	
+	@Override
+	public boolean interested(PeerConnectSession peerConnectSession) {
+		if(this.freeSize.getAndUpdate(size -> size > 0 ? size - 1 : size) > 0) {
+			// 下次调度重新分配
+			peerConnectSession.uploadQuota(this.quota(this.unchokeSize + 1));
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * <p>乐观解除阻塞</p>
+	 * <p>轮换周期到达或者原来的Peer已经失效（断开、不感兴趣、获得上传位置）时重新选择</p>
+	 * 
+	 * @param interested 感兴趣Peer
+	 * @param unchokes 解除阻塞Peer
+	 */
+	private void optimistic(List<PeerConnectSession> interested, Set<PeerConnectSession> unchokes) {
+		if(
+			this.round % OPTIMISTIC_ROUND == 0 ||
+			this.optimistic == null ||
+			unchokes.contains(this.optimistic) ||
+			!interested.contains(this.optimistic)
+		) {
+			final List<PeerConnectSession> chokes = interested.stream()
+				.filter(session -> !unchokes.contains(session))
+				.collect(Collectors.toList());
+			if(chokes.isEmpty()) {
+				this.optimistic = null;
+			} else {
+				this.optimistic = chokes.get(ThreadLocalRandom.current().nextInt(chokes.size()));
+			}
+		}
+		if(this.optimistic != null) {
+			unchokes.add(this.optimistic);
+		}
+	}
+	
+	/**
+	 * <p>计算上传配额</p>
+	 * 
+	 * @param size 解除阻塞Peer数量
+	 * 
+	 * @return 上传配额（字节/秒）
+	 */
+	private long quota(int size) {
+		return this.uploadBuffer.getAsLong() / Math.max(1, size);
+	}
+	
+	@Override
+	public String toString() {
+		return BeanUtils.toString(this, this.unchokeSize, this.round);
+	}
+
+}
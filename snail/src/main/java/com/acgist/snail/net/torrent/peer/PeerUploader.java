@@ -59,7 +59,7 @@ public final class PeerUploader extends PeerConnect {
 		} catch (Exception e) {
 			LOGGER.error("关闭PeerUploader异常", e);
 		} finally {
-			this.peerSession.statusOff(PeerConfig.STATUS_UPLOAD);
+			PeerContext.getInstance().disconnect(this.torrentSession.infoHashHex(), this.peerSession, PeerConfig.STATUS_UPLOAD);
 			this.peerSession.peerUploader(null);
 		}
 	}
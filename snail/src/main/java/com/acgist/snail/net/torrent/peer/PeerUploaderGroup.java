@@ -1,7 +1,10 @@
 package com.acgist.snail.net.torrent.peer;
 
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
 
 import com.acgist.snail.config.PeerConfig;
 import com.acgist.snail.config.SystemConfig;
@@ -12,7 +15,7 @@ import com.acgist.snail.net.torrent.TorrentSession;
 
 /**
  * <p>PeerUploader组</p>
- * <p>主要功能：接入PeerUploader、清除劣质PeerUploader</p>
+ * <p>主要功能：接入PeerUploader、清除劣质PeerUploader、阻塞调度</p>
  * 
  * @author acgist
  */
@@ -28,13 +31,19 @@ public final class PeerUploaderGroup {
 	 * <p>PeerUploader队列</p>
 	 */
 	private final BlockingQueue<PeerUploader> peerUploaders;
+	/**
+	 * <p>阻塞调度</p>
+	 */
+	private final IPeerChoker peerChoker;
 	
 	/**
 	 * @param torrentSession BT任务信息
+	 * @param peerChoker 阻塞调度
 	 */
-	private PeerUploaderGroup(TorrentSession torrentSession) {
+	private PeerUploaderGroup(TorrentSession torrentSession, IPeerChoker peerChoker) {
 		this.torrentSession = torrentSession;
 		this.peerUploaders = new LinkedBlockingQueue<>();
+		this.peerChoker = peerChoker;
 	}
 	
 	/**
@@ -45,7 +54,19 @@ public final class PeerUploaderGroup {
 	 * @return {@link PeerUploaderGroup}
 	 */
 	public static final PeerUploaderGroup newInstance(TorrentSession torrentSession) {
-		return new PeerUploaderGroup(torrentSession);
+		return new PeerUploaderGroup(torrentSession, PeerTitForTatChoker.newInstance());
+	}
+	
+	/**
+	 * <p>新建PeerUploader组</p>
+	 * 
+	 * @param torrentSession BT任务信息
+	 * @param peerChoker 阻塞调度
+	 * 
+	 * @return {@link PeerUploaderGroup}
+	 */
+	public static final PeerUploaderGroup newInstance(TorrentSession torrentSession, IPeerChoker peerChoker) {
+		return new PeerUploaderGroup(torrentSession, peerChoker);
 	}
 	
 	/**
@@ -75,7 +96,7 @@ public final class PeerUploaderGroup {
 				return null;
 			}
 			final PeerUploader peerUploader = PeerUploader.newInstance(peerSession, this.torrentSession, peerSubMessageHandler);
-			peerSession.status(PeerConfig.STATUS_UPLOAD);
+			PeerContext.getInstance().connect(this.torrentSession.infoHashHex(), peerSession, PeerConfig.STATUS_UPLOAD);
 			this.offer(peerUploader);
 			return peerUploader;
 		}
@@ -111,6 +132,46 @@ public final class PeerUploaderGroup {
 		}
 	}
 	
+	/**
+	 * <p>阻塞调度</p>
+	 * <p>下载连接和接入连接都可以上传：所有连接统一调度</p>
+	 */
+	public void choke() {
+		if(!this.torrentSession.uploadable()) {
+			return;
+		}
+		try {
+			final List<PeerConnect> peerConnects = PeerContext.getInstance().listUploadPeerConnect(this.torrentSession.infoHashHex());
+			final Set<PeerConnectSession> unchokes = this.peerChoker.choke(
+				peerConnects.stream().map(PeerConnect::peerConnectSession).collect(Collectors.toList()),
+				this.torrentSession.completed()
+			);
+			LOGGER.debug("阻塞调度：{}-{}", peerConnects.size(), unchokes.size());
+			peerConnects.forEach(peerConnect -> {
+				if(unchokes.contains(peerConnect.peerConnectSession())) {
+					peerConnect.unchoke();
+				} else {
+					peerConnect.choke();
+				}
+			});
+		} catch (Exception e) {
+			LOGGER.error("阻塞调度异常", e);
+		}
+	}
+	
+	/**
+	 * <p>Peer感兴趣：判断是否立即解除阻塞</p>
+	 * 
+	 * @param peerConnect Peer连接
+	 * 
+	 * @return 是否解除阻塞
+	 * 
+	 * @see IPeerChoker#interested(PeerConnectSession)
+	 */
+	public boolean interested(PeerConnect peerConnect) {
+		return this.peerChoker.interested(peerConnect.peerConnectSession());
+	}
+	
 	/**
 	 * <p>释放资源</p>
 	 */
@@ -13,11 +13,13 @@ import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.IChannelHandler;
 import com.acgist.snail.net.MessageHandlerContext;
+import com.acgist.snail.net.TimerWheel;
 import com.acgist.snail.net.UdpMessageHandler;
 
 /**
  * <p>UTP上下文</p>
  * <p>管理UTP消息代理</p>
+ * <p>所有连接共用重传超时时间轮：每个连接有未确认数据时设置一个超时任务</p>
  * 
  * @author acgist
  */
@@ -32,9 +34,17 @@ public final class UtpContext implements IContext, IChannelHandler<DatagramChann
 	}
 	
 	/**
-	 * <p>UTP超时执行周期（秒）：{@value}</p>
+	 * <p>UTP清理执行周期（秒）：{@value}</p>
 	 */
 	private static final int UTP_TIMEOUT_INTERVAL = 10;
+	/**
+	 * <p>重传超时时间间隔（毫秒）：{@value}</p>
+	 */
+	private static final long TIMER_TICK = 20L;
+	/**
+	 * <p>重传超时时间轮</p>
+	 */
+	private static final TimerWheel TIMER = new TimerWheel(TIMER_TICK, 256, SystemThreadContext.SNAIL_THREAD_UTP_TIMER);
 	
 	/**
 	 * <p>连接ID</p>
@@ -139,16 +149,28 @@ public final class UtpContext implements IContext, IChannelHandler<DatagramChann
 	}
 	
 	/**
-	 * <p>处理超时UTP消息</p>
-	 * <p>如果消息代理可用：重新发送超时消息</p>
+	 * <p>添加重传超时任务</p>
+	 * 
+	 * @param delay 延迟时间（毫秒）
+	 * @param task 任务
+	 * 
+	 * @return 超时任务
+	 */
+	public TimerWheel.Timeout schedule(long delay, Runnable task) {
+		return TIMER.schedule(delay, task);
+	}
+	
+	/**
+	 * <p>清理UTP消息代理</p>
+	 * <p>超时重传由每个消息代理的重传超时任务处理</p>
 	 * <p>如果消息代理关闭：移除消息代理</p>
 	 */
 	private void timeout() {
 		synchronized (this.utpMessageHandlers) {
 			try {
 				this.utpMessageHandlers.values().stream()
-					// 超时重试
-					.filter(UtpMessageHandler::timeoutRetry)
+					// 已经关闭
+					.filter(handler -> !handler.available())
 					// 转换List关闭：防止关闭删除消息代理产生异常
 					.collect(Collectors.toList())
 					// 已经关闭：直接移除
@@ -165,5 +187,13 @@ public final class UtpContext implements IContext, IChannelHandler<DatagramChann
 	public void close() {
 		UtpRequestQueue.getInstance().shutdown();
 	}
+	
+	/**
+	 * 关闭重传超时时间轮
+	 */
+	public static final void shutdown() {
+		LOGGER.debug("关闭UTP重传超时时间轮");
+		TIMER.shutdown();
+	}
 
 }
@@ -0,0 +1,231 @@
+package com.acgist.snail.net.torrent.utp;
+
+import java.util.Arrays;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.config.UtpConfig;
+import com.acgist.snail.utils.BeanUtils;
+
+/**
+ * <p>UTP拥塞控制（LEDBAT）</p>
+ * <p>协议链接：http://www.bittorrent.org/beps/bep_0029.html</p>
+ * <p>协议链接：https://datatracker.ietf.org/doc/html/rfc6817</p>
+ * <p>使用单向延迟控制窗口（字节）：排队延迟低于目标延迟增大窗口，高于目标延迟减小窗口，每个RTT窗口最多变化{@link #GAIN}字节。</p>
+ * <p>单向延迟样本：响应消息中的时间差（timestamp_difference_microseconds），包含两端时钟偏差，减去基础延迟（历史最小延迟）后就是排队延迟。</p>
+ * <p>丢包窗口减半，超时窗口重置为最小窗口。</p>
+ * <p>非线程安全：由{@link UtpWindow}加锁调用</p>
+ * 
+ * @author acgist
+ */
+public final class UtpLedbat {
+
+	/**
+	 * <p>目标排队延迟（微秒）：{@value}</p>
+	 */
+	public static final int TARGET_DELAY = 100 * SystemConfig.DATE_SCALE;
+	/**
+	 * <p>每个RTT窗口最大增量（字节）：{@value}</p>
+	 */
+	public static final int GAIN = 3000;
+	/**
+	 * <p>最小窗口（字节）：{@value}</p>
+	 */
+	public static final int MIN_CWND = 2 * UtpConfig.PACKET_MAX_LENGTH;
+	/**
+	 * <p>初始窗口（字节）：{@value}</p>
+	 */
+	public static final int INIT_CWND = 16 * UtpConfig.PACKET_MAX_LENGTH;
+	/**
+	 * <p>最大窗口（字节）：{@value}</p>
+	 */
+	public static final int MAX_CWND = UtpConfig.WND_SIZE;
+	/**
+	 * <p>基础延迟历史数量（分钟）：{@value}</p>
+	 * <p>基础延迟：最近两分钟最小延迟</p>
+	 */
+	private static final int BASE_HISTORY = 2;
+	/**
+	 * <p>基础延迟历史时间间隔（微秒）：{@value}</p>
+	 */
+	private static final int BASE_INTERVAL = 60 * SystemConfig.DATE_SCALE * SystemConfig.DATE_SCALE;
+	/**
+	 * <p>当前延迟样本数量：{@value}</p>
+	 * <p>当前延迟：最近样本最小延迟（过滤抖动）</p>
+	 */
+	private static final int CURRENT_HISTORY = 4;
+	
+	/**
+	 * <p>拥塞窗口（字节）</p>
+	 */
+	private int cwnd;
+	/**
+	 * <p>慢启动阈值（字节）</p>
+	 */
+	private int ssthresh;
+	/**
+	 * <p>是否慢启动</p>
+	 * <p>排队延迟接近目标延迟或者丢包结束慢启动</p>
+	 */
+	private boolean slowStart;
+	/**
+	 * <p>基础延迟历史</p>
+	 */
+	private final int[] baseDelays;
+	/**
+	 * <p>基础延迟历史索引</p>
+	 */
+	private int baseIndex;
+	/**
+	 * <p>基础延迟历史开始时间（微秒）</p>
+	 */
+	private int baseTime;
+	/**
+	 * <p>当前延迟样本</p>
+	 */
+	private final int[] currentDelays;
+	/**
+	 * <p>当前延迟样本索引</p>
+	 */
+	private int currentIndex;
+	/**
+	 * <p>延迟样本数量</p>
+	 */
+	private long samples;
+	/**
+	 * <p>排队延迟（微秒）</p>
+	 */
+	private int queueDelay;
+	
+	public UtpLedbat() {
+		this.cwnd = INIT_CWND;
+		this.ssthresh = MAX_CWND;
+		this.slowStart = true;
+		this.baseDelays = new int[BASE_HISTORY];
+		this.baseIndex = 0;
+		this.baseTime = 0;
+		this.currentDelays = new int[CURRENT_HISTORY];
+		this.currentIndex = 0;
+		this.samples = 0L;
+		this.queueDelay = 0;
+	}
+	
+	/**
+	 * <p>获取拥塞窗口</p>
+	 * 
+	 * @return 拥塞窗口（字节）
+	 */
+	public int cwnd() {
+		return this.cwnd;
+	}
+	
+	/**
+	 * <p>获取排队延迟</p>
+	 * 
+	 * @return 排队延迟（微秒）
+	 */
+	public int queueDelay() {
+		return this.queueDelay;
+	}
+	
+	/**
+	 * <p>获取基础延迟</p>
+	 * 
+	 * @return 基础延迟（微秒）
+	 */
+	public int baseDelay() {
+		int base = this.baseDelays[0];
+		for (int index = 1; index < this.baseDelays.length; index++) {
+			// 时间戳可能溢出：使用差值比较
+			if(this.baseDelays[index] - base < 0) {
+				base = this.baseDelays[index];
+			}
+		}
+		return base;
+	}
+	
+	/**
+	 * <p>添加延迟样本</p>
+	 * 
+	 * @param delay 单向延迟（微秒）：包含时钟偏差
+	 * @param now 当前时间（微秒）
+	 */
+	public void delay(int delay, int now) {
+		if(this.samples++ == 0) {
+			Arrays.fill(this.baseDelays, delay);
+			Arrays.fill(this.currentDelays, delay);
+			this.baseTime = now;
+		}
+		// 基础延迟
+		if(now - this.baseTime >= BASE_INTERVAL) {
+			this.baseTime = now;
+			this.baseIndex = (this.baseIndex + 1) % BASE_HISTORY;
+			this.baseDelays[this.baseIndex] = delay;
+		} else if(delay - this.baseDelays[this.baseIndex] < 0) {
+			this.baseDelays[this.baseIndex] = delay;
+		}
+		// 当前延迟
+		this.currentDelays[this.currentIndex] = delay;
+		this.currentIndex = (this.currentIndex + 1) % CURRENT_HISTORY;
+		int current = this.currentDelays[0];
+		for (int index = 1; index < CURRENT_HISTORY; index++) {
+			if(this.currentDelays[index] - current < 0) {
+				current = this.currentDelays[index];
+			}
+		}
+		this.queueDelay = Math.max(0, current - this.baseDelay());
+	}
+	
+	/**
+	 * <p>数据响应</p>
+	 * <p>窗口增量：{@code GAIN * (目标延迟 - 排队延迟) / 目标延迟 * 响应字节 / 窗口}</p>
+	 * <p>慢启动：每个响应字节窗口增加一个字节，排队延迟超过目标延迟的90%或者超过阈值结束。</p>
+	 * 
+	 * @param bytesAcked 响应字节
+	 */
+	public void ack(int bytesAcked) {
+		if(bytesAcked <= 0 || this.samples == 0) {
+			return;
+		}
+		final double offTarget = (double) (TARGET_DELAY - this.queueDelay) / TARGET_DELAY;
+		final double windowFactor = (double) Math.min(bytesAcked, this.cwnd) / this.cwnd;
+		double cwnd = this.cwnd + GAIN * offTarget * windowFactor;
+		if(this.slowStart) {
+			final double slowStartCwnd = this.cwnd + bytesAcked;
+			if(slowStartCwnd > this.ssthresh) {
+				this.slowStart = false;
+			} else if(this.queueDelay > TARGET_DELAY * 9 / 10) {
+				this.slowStart = false;
+				this.ssthresh = this.cwnd;
+			} else {
+				cwnd = Math.max(cwnd, slowStartCwnd);
+			}
+		}
+		this.cwnd = (int) Math.max(MIN_CWND, Math.min(MAX_CWND, cwnd));
+	}
+	
+	/**
+	 * <p>丢包</p>
+	 * <p>窗口减半、结束慢启动</p>
+	 */
+	public void loss() {
+		this.cwnd = Math.max(MIN_CWND, this.cwnd / 2);
+		this.ssthresh = this.cwnd;
+		this.slowStart = false;
+	}
+	
+	/**
+	 * <p>超时</p>
+	 * <p>窗口重置为最小窗口，重新慢启动到原来窗口的一半。</p>
+	 */
+	public void timeout() {
+		this.ssthresh = Math.max(MIN_CWND, this.cwnd / 2);
+		this.cwnd = MIN_CWND;
+		this.slowStart = true;
+	}
+	
+	@Override
+	public String toString() {
+		return BeanUtils.toString(this, this.cwnd, this.queueDelay, this.slowStart);
+	}
+
+}
@@ -1,17 +1,17 @@
 package com.acgist.snail.net.torrent.utp;
 
-import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.config.UtpConfig;
 import com.acgist.snail.logger.Logger;
 import com.acgist.snail.logger.LoggerFactory;
 import com.acgist.snail.net.NetException;
+import com.acgist.snail.net.TimerWheel;
 import com.acgist.snail.net.UdpMessageHandler;
 import com.acgist.snail.net.codec.IMessageEncoder;
 import com.acgist.snail.net.torrent.IEncryptMessageSender;
@@ -41,6 +41,8 @@ import com.acgist.snail.utils.DateUtils;
  * | seq_nr                        | ack_nr                        |
  * +---------------+---------------+---------------+---------------+
  * </pre>
+ * <p>扩展消息格式：下一个扩展（1字节）+ 扩展长度（1字节）+ 扩展数据，支持选择确认（SACK）扩展。</p>
+ * <p>重传超时：有未确认数据时在共用时间轮上设置超时任务，收到响应重新计时。</p>
  * 
  * @author acgist
  */
@@ -53,6 +55,11 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 	 * <p>不能重写方法{@link #available()}判断是否可用：发送方法判断这个状态导致发送连接消息失败</p>
 	 */
 	private volatile boolean connect;
+	/**
+	 * <p>时间差（微秒）</p>
+	 * <p>最后收到消息时的本地时间减去消息时间戳：对端计算单向延迟（拥塞控制）</p>
+	 */
+	private volatile int timestampDifference;
 	/**
 	 * <p>接收连接ID</p>
 	 */
@@ -78,9 +85,14 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 	 */
 	private final UtpWindow recvWindow;
 	/**
-	 * <p>收到ack消息重复次数</p>
+	 * <p>重传超时任务</p>
+	 */
+	private final AtomicReference<TimerWheel.Timeout> rtoTimeout;
+	/**
+	 * <p>重传超时时间（毫秒）</p>
+	 * <p>重新计时只更新超时时间：任务到期时没有超时重新设置任务</p>
 	 */
-	private final AtomicInteger ackLossTimes;
+	private volatile long rtoDeadline;
 	/**
 	 * <p>连接锁</p>
 	 */
@@ -131,7 +143,7 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 		this.utpContext = UtpContext.getInstance();
 		this.sendWindow = UtpWindow.newSendInstance();
 		this.recvWindow = UtpWindow.newRecvInstance(this.messageDecoder);
-		this.ackLossTimes = new AtomicInteger(0);
+		this.rtoTimeout = new AtomicReference<>();
 		this.connectLock = new AtomicBoolean(false);
 		if(server) {
 			this.sendId = connectionId;
@@ -178,6 +190,7 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 		final int timestamp = buffer.getInt();
 		// 时间差
 		final int timestampDifference = buffer.getInt();
+		this.timestampDifference = DateUtils.timestampUs() - timestamp;
 		// 窗口大小
 		final int wndSize = buffer.getInt();
 		// 请求编号
@@ -185,18 +198,30 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 		// 响应编号
 		final short acknr = buffer.getShort();
 		// 扩展消息
-		if(extension != 0 && buffer.remaining() >= UtpConfig.EXTENSION_MIN_LENGTH) {
-			final short extLength = buffer.getShort();
-			if(extLength <= 0 || buffer.remaining() < extLength) {
+		byte[] sack = null;
+		byte nextExtension = extension;
+		while(nextExtension != UtpConfig.EXTENSION) {
+			if(buffer.remaining() < UtpConfig.EXTENSION_MIN_LENGTH) {
+				throw new NetException("处理UTP消息错误（扩展长度）：" + buffer.remaining());
+			}
+			final byte extType = nextExtension;
+			nextExtension = buffer.get();
+			final int extLength = buffer.get() & 0xFF;
+			if(buffer.remaining() < extLength) {
 				throw new NetException("处理UTP消息错误（扩展长度）：" + extLength);
 			}
-			final byte[] extData = new byte[extLength];
-			buffer.get(extData);
+			if(extType == UtpConfig.EXTENSION_SACK) {
+				sack = new byte[extLength];
+				buffer.get(sack);
+			} else {
+				// 忽略其他扩展
+				buffer.position(buffer.position() + extLength);
+			}
 		}
 		// 注意顺序（性能）：按照消息数量排序
 		switch (type) {
 			case DATA -> this.data(timestamp, seqnr, acknr, buffer);
-			case STATE -> this.state(timestamp, seqnr, acknr, wndSize);
+			case STATE -> this.state(timestamp, seqnr, acknr, timestampDifference, wndSize, sack);
 			case FIN -> this.fin(timestamp, seqnr, acknr);
 			case RESET -> this.reset(timestamp, seqnr, acknr);
 			case SYN -> this.syn(timestamp, seqnr, acknr);
@@ -258,7 +283,11 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 			}
 			buffer.get(bytes);
 			final UtpWindowData windowData = this.sendWindow.build(bytes);
+			if(windowData == null) {
+				throw new NetException("UTP发送窗口已经关闭");
+			}
 			this.data(windowData);
+			this.rto(false);
 		}
 	}
 	
@@ -280,27 +309,85 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 	}
 	
 	/**
-	 * <p>超时数据包重新发送</p>
+	 * <p>设置重传超时任务</p>
+	 * <p>已经存在任务时复用任务：重新计时只更新超时时间</p>
 	 * 
-	 * @return 连接是否已经关闭
-	 */
-	public boolean timeoutRetry() {
-		if(this.available()) {
-			final List<UtpWindowData> windowDatas = this.sendWindow.timeoutWindowData();
-			if(CollectionUtils.isNotEmpty(windowDatas)) {
-				LOGGER.debug("超时数据包重新发送：{}-{}", this.sendId, windowDatas.size());
-				windowDatas.forEach(windowData -> {
-					if(windowData.discard()) {
-						LOGGER.debug("超时数据包重新发送失败（次数超限）：{}", windowData);
-						this.sendWindow.discard(windowData.getSeqnr());
-					} else {
-						this.data(windowData);
-					}
-				});
+	 * @param restart 是否重新计时（否者已经存在任务时不用设置）
+	 */
+	private void rto(boolean restart) {
+		final TimerWheel.Timeout timeout = this.rtoTimeout.get();
+		if(timeout != null && timeout.waiting()) {
+			if(restart) {
+				this.rtoDeadline = System.currentTimeMillis() + this.sendWindow.rto();
 			}
-			return false;
+			return;
+		}
+		this.scheduleRto(this.sendWindow.rto());
+	}
+	
+	/**
+	 * <p>新建重传超时任务</p>
+	 * 
+	 * @param delay 超时时间（毫秒）
+	 */
+	private void scheduleRto(long delay) {
+		this.rtoDeadline = System.currentTimeMillis() + delay;
+		final TimerWheel.Timeout timeout = this.utpContext.schedule(delay, this::timeoutRto);
+		final TimerWheel.Timeout oldTimeout = this.rtoTimeout.getAndSet(timeout);
+		if(oldTimeout != null) {
+			oldTimeout.cancel();
+		}
+	}
+	
+	/**
+	 * <p>重传超时任务到期</p>
+	 * <p>重新计时后没有超时：按照剩余时间重新设置任务</p>
+	 */
+	private void timeoutRto() {
+		final long delay = this.rtoDeadline - System.currentTimeMillis();
+		if(delay > 0) {
+			this.scheduleRto(delay);
 		} else {
-			return true;
+			this.timeoutRetry();
+		}
+	}
+	
+	/**
+	 * <p>取消重传超时任务</p>
+	 */
+	private void cancelRto() {
+		final TimerWheel.Timeout oldTimeout = this.rtoTimeout.getAndSet(null);
+		if(oldTimeout != null) {
+			oldTimeout.cancel();
+		}
+	}
+	
+	/**
+	 * <p>超时数据包重新发送</p>
+	 * <p>还有未确认数据重新设置重传超时任务</p>
+	 * <p>重新发送次数超限重置连接：丢弃数据对端不能继续确认后续数据</p>
+	 */
+	private void timeoutRetry() {
+		if(!this.available()) {
+			this.cancelRto();
+			return;
+		}
+		final List<UtpWindowData> windowDatas = this.sendWindow.timeoutWindowData();
+		if(CollectionUtils.isNotEmpty(windowDatas)) {
+			LOGGER.debug("超时数据包重新发送：{}-{}", this.sendId, windowDatas.size());
+			for (UtpWindowData windowData : windowDatas) {
+				if(windowData.discard()) {
+					LOGGER.debug("超时数据包重新发送失败（次数超限）：{}", windowData);
+					this.resetConnect();
+					return;
+				}
+			}
+			windowDatas.forEach(this::data);
+		}
+		if(this.sendWindow.unack()) {
+			this.rto(true);
+		} else {
+			this.cancelRto();
 		}
 	}
 	
@@ -323,8 +410,6 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 		LOGGER.debug("处理数据消息：{}-{}", seqnr, acknr);
 		try {
 			this.recvWindow.receive(timestamp, seqnr, buffer);
-		} catch (IOException e) {
-			throw new NetException(e);
 		} finally {
 			// 响应消息响应编号：最后一次接收请求编号
 			this.state(timestamp, this.recvWindow.seqnr());
@@ -342,7 +427,7 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 		final ByteBuffer buffer = this.buildMessage(UtpConfig.Type.DATA, windowData.getLength() + UtpConfig.HEADER_LENGTH);
 		buffer.putShort(this.sendId);
 		buffer.putInt(now);
-		buffer.putInt(now - this.recvWindow.timestamp());
+		buffer.putInt(this.timestampDifference);
 		buffer.putInt(this.recvWindow.wndSize());
 		buffer.putShort(windowData.getSeqnr());
 		buffer.putShort(this.recvWindow.seqnr());
@@ -356,9 +441,11 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 	 * @param timestamp 时间戳
 	 * @param seqnr 请求编号
 	 * @param acknr 响应编号
+	 * @param timestampDifference 时间差
 	 * @param wndSize 窗口大小
+	 * @param sack 选择确认
 	 */
-	private void state(int timestamp, short seqnr, short acknr, int wndSize) {
+	private void state(int timestamp, short seqnr, short acknr, int timestampDifference, int wndSize, byte[] sack) {
 		LOGGER.debug("处理响应消息：{}-{}", seqnr, acknr);
 		if(!this.connect) {
 			// 没有连接
@@ -369,20 +456,17 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 			}
 			this.unlockConnect();
 		}
-		// 是否丢包
-		final boolean loss = this.sendWindow.ack(acknr, wndSize);
-		if(loss) {
-			// 快速重传：多次返回已处理的数据编号视为丢包
-			if(this.ackLossTimes.incrementAndGet() > UtpConfig.FAST_ACK_RETRY_TIMES) {
-				// 重新发送最后一个未确认数据包
-				final var packet = this.sendWindow.lastUnack();
-				if(packet != null) {
-					LOGGER.debug("快速重传：{}-{}", acknr, packet);
-					this.data(packet);
-				}
-			}
+		// 快速重传：丢失数据包
+		final List<UtpWindowData> windowDatas = this.sendWindow.ack(acknr, timestampDifference, wndSize, sack);
+		windowDatas.forEach(windowData -> {
+			LOGGER.debug("快速重传：{}-{}", acknr, windowData);
+			this.data(windowData);
+		});
+		if(this.sendWindow.unack()) {
+			// 累计确认推进才重新计时：重复响应不能推迟超时重传
+			this.rto(this.sendWindow.ackAdvance());
 		} else {
-			this.ackLossTimes.set(0);
+			this.cancelRto();
 		}
 	}
 	
@@ -396,13 +480,24 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 	private void state(int timestamp, short acknr) {
 		LOGGER.debug("发送响应消息：{}", acknr);
 		final int now = DateUtils.timestampUs();
-		final ByteBuffer buffer = this.buildMessage(UtpConfig.Type.STATE, UtpConfig.HEADER_LENGTH);
+		final byte[] sack = this.recvWindow.sack();
+		final ByteBuffer buffer;
+		if(sack == null) {
+			buffer = this.buildMessage(UtpConfig.Type.STATE, UtpConfig.EXTENSION, UtpConfig.HEADER_LENGTH);
+		} else {
+			buffer = this.buildMessage(UtpConfig.Type.STATE, UtpConfig.EXTENSION_SACK, UtpConfig.HEADER_LENGTH + UtpConfig.EXTENSION_MIN_LENGTH + sack.length);
+		}
 		buffer.putShort(this.sendId);
 		buffer.putInt(now);
 		buffer.putInt(now - timestamp);
 		buffer.putInt(this.recvWindow.wndSize());
 		buffer.putShort(this.sendWindow.seqnr());
 		buffer.putShort(acknr);
+		if(sack != null) {
+			buffer.put(UtpConfig.EXTENSION);
+			buffer.put((byte) sack.length);
+			buffer.put(sack);
+		}
 		this.pushMessage(buffer);
 	}
 
@@ -510,9 +605,22 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 	 * @return 消息
 	 */
 	private ByteBuffer buildMessage(UtpConfig.Type type, int size) {
+		return this.buildMessage(type, UtpConfig.EXTENSION, size);
+	}
+	
+	/**
+	 * <p>新建消息</p>
+	 * 
+	 * @param type 消息类型
+	 * @param extension 扩展
+	 * @param size 消息长度
+	 * 
+	 * @return 消息
+	 */
+	private ByteBuffer buildMessage(UtpConfig.Type type, byte extension, int size) {
 		final ByteBuffer buffer = ByteBuffer.allocate(size);
 		buffer.put(type.typeVersion());
-		buffer.put(UtpConfig.EXTENSION);
+		buffer.put(extension);
 		return buffer;
 	}
 	
@@ -570,6 +678,7 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 	 * <p>关闭资源</p>
 	 */
 	private void closeConnect() {
+		this.cancelRto();
 		super.close();
 		this.connect = false;
 		this.utpContext.remove(this);
@@ -583,6 +692,17 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IEncry
 		this.closeConnect();
 	}
 	
+	/**
+	 * <p>重置连接</p>
+	 * <p>关闭窗口释放数据、发送重置消息</p>
+	 */
+	private void resetConnect() {
+		this.closeWindow();
+		this.sendWindow.release();
+		this.reset();
+		this.closeConnect();
+	}
+	
 	@Override
 	public void close() {
 		if(this.close) {
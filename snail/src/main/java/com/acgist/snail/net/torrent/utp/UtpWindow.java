@@ -1,16 +1,10 @@
 package com.acgist.snail.net.torrent.utp;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.config.UtpConfig;
@@ -22,6 +16,9 @@ import com.acgist.snail.utils.DateUtils;
 
 /**
  * <p>UTP窗口</p>
+ * <p>发送窗口使用LEDBAT拥塞控制（{@link UtpLedbat}）：未响应数据（字节）不能超过拥塞窗口和对端剩余窗口</p>
+ * <p>丢包检测：三次重复响应或者选择确认（SACK）后续三个数据包已经确认，丢失数据包快速重传一次，之后由重传超时处理。</p>
+ * <p>窗口数据使用环形数组保存（{@code seqnr & MASK}）：查找、删除不用遍历，累计确认只需要移动确认指针。</p>
  * 
  * @author acgist
  */
@@ -30,27 +27,30 @@ public final class UtpWindow {
 	private static final Logger LOGGER = LoggerFactory.getLogger(UtpWindow.class);
 
 	/**
-	 * <p>最小窗口大小：{@value}</p>
+	 * <p>最小超时时间（微秒）：{@value}</p>
 	 */
-	private static final int MIN_WND_SIZE = 16;
+	private static final int MIN_TIMEOUT = 500 * SystemConfig.DATE_SCALE;
 	/**
-	 * <p>最大窗口大小：{@value}</p>
+	 * <p>最大超时时间（微秒）：{@value}</p>
+	 * <p>超时时间每次超时翻倍</p>
 	 */
-	private static final int MAX_WND_SIZE = 64;
+	private static final int MAX_TIMEOUT = 60 * SystemConfig.DATE_SCALE * SystemConfig.DATE_SCALE;
 	/**
-	 * <p>默认最大超时时间（微秒）：{@value}</p>
+	 * <p>等待发送窗口超时时间（毫秒）：{@value}</p>
+	 * <p>防止长时间阻塞</p>
 	 */
-	private static final int MAX_TIMEOUT = 500 * SystemConfig.DATE_SCALE;
+	private static final int WND_TIMEOUT = 2 * SystemConfig.ONE_SECOND_MILLIS;
 	/**
-	 * <p>获取信号量超时时间（秒）：{@value}</p>
-	 * <p>防止长时间阻塞</p>
+	 * <p>窗口容量（数据包数量）：{@value}</p>
+	 * <p>必须是2的幂：超过容量发送端等待、接收端丢弃</p>
+	 * <p>最大窗口（1MB）最多需要723个数据包</p>
 	 */
-	private static final int SEMAPHORE_TIMEOUT = 2;
-	
+	private static final int CAPACITY = 1024;
 	/**
-	 * <p>当前窗口大小</p>
+	 * <p>窗口索引掩码</p>
 	 */
-	private volatile int wnd;
+	private static final int MASK = CAPACITY - 1;
+	
 	/**
 	 * <p>往返时间</p>
 	 */
@@ -87,24 +87,55 @@ public final class UtpWindow {
 	/**
 	 * <dl>
 	 * 	<dt>窗口大小</dt>
-	 * 	<dd>接收端：发送端剩余大小</dd>
-	 * 	<dd>发送端：发送端缓存大小</dd>
+	 * 	<dd>接收端：未处理的数据大小</dd>
+	 * 	<dd>发送端：未响应的数据大小</dd>
 	 * </dl>
 	 */
 	private volatile int wndSize;
+	/**
+	 * <p>对端剩余窗口大小</p>
+	 */
+	private volatile int remoteWndSize;
+	/**
+	 * <p>最后响应编号</p>
+	 */
+	private short lastAcknr;
+	/**
+	 * <p>重复响应次数</p>
+	 */
+	private int duplicateAcks;
+	/**
+	 * <p>最后响应是否推进累计确认</p>
+	 */
+	private boolean ackAdvance;
+	/**
+	 * <p>丢包恢复编号</p>
+	 * <p>丢包时最后发送的seqnr：之前发送的数据包丢失不再减小拥塞窗口</p>
+	 */
+	private short recoverySeqnr;
 	/**
 	 * <dl>
 	 * 	<dt>窗口数据</dt>
 	 * 	<dd>接收端：未处理的数据</dd>
 	 * 	<dd>发送端：未响应的数据</dd>
 	 * </dl>
-	 * <p>数据可能是乱序的</p>
+	 * <p>数据可能是乱序的：索引{@code seqnr & MASK}</p>
+	 */
+	private final UtpWindowData[] wnd;
+	/**
+	 * <p>窗口数据数量</p>
+	 */
+	private int wndCount;
+	/**
+	 * <p>确认指针：最早没有确认的seqnr</p>
+	 * <p>发送端使用</p>
 	 */
-	private final Map<Short, UtpWindowData> wndMap;
+	private short ackSeqnr;
 	/**
-	 * <p>窗口信号量</p>
+	 * <p>拥塞控制</p>
+	 * <p>发送窗口使用</p>
 	 */
-	private final Semaphore semaphore;
+	private final UtpLedbat ledbat;
 	/**
 	 * <p>窗口请求队列</p>
 	 */
@@ -125,26 +156,28 @@ public final class UtpWindow {
 	 * @param messageDecoder 消息处理器
 	 */
 	private UtpWindow(IMessageDecoder<ByteBuffer> messageDecoder) {
-		this.wnd = MIN_WND_SIZE;
 		this.rtt = 0;
 		this.rttVar = 0;
-		this.timeout = MAX_TIMEOUT;
+		this.timeout = MIN_TIMEOUT;
 		this.close = false;
 		this.seqnr = 1;
 		this.timestamp = 0;
 		this.wndSize = 0;
-		this.wndMap = new LinkedHashMap<>();
+		this.remoteWndSize = UtpConfig.WND_SIZE;
+		this.wnd = new UtpWindowData[CAPACITY];
+		this.wndCount = 0;
+		this.ackSeqnr = this.seqnr;
 		if(messageDecoder == null) {
 			// 发送窗口对象
 			this.requests = null;
 			this.messageDecoder = null;
-			this.semaphore = new Semaphore(MIN_WND_SIZE);
+			this.ledbat = new UtpLedbat();
 		} else {
 			// 接收窗口对象
 			// 相同窗口必须将消息发送到相同请求队列：防止消息出现乱序
 			this.requests = UtpRequestQueue.getInstance().queue();
 			this.messageDecoder = messageDecoder;
-			this.semaphore = null;
+			this.ledbat = null;
 		}
 	}
 	
@@ -177,6 +210,8 @@ public final class UtpWindow {
 	public void connect(final int timestamp, final short seqnr) {
 		this.seqnr = seqnr;
 		this.timestamp = timestamp;
+		this.lastAcknr = seqnr;
+		this.recoverySeqnr = seqnr;
 	}
 
 	/**
@@ -206,12 +241,16 @@ public final class UtpWindow {
 	 * 
 	 * @param data 数据
 	 * 
-	 * @return {@link UtpWindowData}
+	 * @return {@link UtpWindowData}（窗口已经关闭并且缓存已满：{@code null}）
 	 */
 	public UtpWindowData build(byte[] data) {
-		// 不能加锁
-		this.acquire();
 		synchronized (this) {
+			this.acquire(data == null ? 0 : data.length);
+			if((short) (this.seqnr - this.ackSeqnr) >= CAPACITY) {
+				// 没有确认的数据不能覆盖：对端一直等待丢失的数据
+				LOGGER.debug("UTP窗口已满（窗口已经关闭）：{}", this.ackSeqnr);
+				return null;
+			}
 			// 最后发送时间
 			this.timestamp = DateUtils.timestampUs();
 			final UtpWindowData windowData = this.storage(this.timestamp, this.seqnr, data);
@@ -230,117 +269,296 @@ public final class UtpWindow {
 		synchronized (this) {
 			final int timeout = this.timeout;
 			final int timestamp = DateUtils.timestampUs();
-			return this.wndMap.values().stream()
-				.filter(windowData -> timestamp - windowData.getTimestamp() > timeout)
-				.collect(Collectors.toList());
+			final List<UtpWindowData> list = new ArrayList<>(0);
+			for (short seqnr = this.ackSeqnr; seqnr != this.seqnr; seqnr++) {
+				final UtpWindowData windowData = this.wnd[seqnr & MASK];
+				if(windowData != null && timestamp - windowData.getTimestamp() > timeout) {
+					list.add(windowData);
+				}
+			}
+			if(!list.isEmpty() && this.ledbat != null) {
+				// 超时：重置拥塞窗口、超时时间翻倍
+				this.ledbat.timeout();
+				this.timeout = Math.min(MAX_TIMEOUT, this.timeout * 2);
+				this.recoverySeqnr = this.seqnr;
+				LOGGER.debug("UTP窗口超时：{}-{}", this.timeout, this.ledbat);
+			}
+			return list;
+		}
+	}
+	
+	/**
+	 * <p>获取重传超时时间</p>
+	 * 
+	 * @return 重传超时时间（毫秒）
+	 */
+	public int rto() {
+		return this.timeout / SystemConfig.DATE_SCALE;
+	}
+	
+	/**
+	 * <p>判断是否含有未确认数据</p>
+	 * 
+	 * @return 是否含有未确认数据
+	 */
+	public boolean unack() {
+		synchronized (this) {
+			return this.wndCount > 0;
+		}
+	}
+	
+	/**
+	 * <p>判断最后响应是否推进累计确认</p>
+	 * <p>重复响应和只有选择确认的响应没有推进累计确认</p>
+	 * 
+	 * @return 是否推进累计确认
+	 */
+	public boolean ackAdvance() {
+		synchronized (this) {
+			return this.ackAdvance;
 		}
 	}
 	
 	/**
 	 * <p>处理响应</p>
-	 * <p>删除已经响应数据、更新超时时间</p>
+	 * <p>删除已经响应数据、更新超时时间和拥塞窗口、检测丢包</p>
 	 * 
 	 * @param acknr 响应编号：最后处理编号
+	 * @param timestampDifference 时间差（单向延迟样本）
 	 * @param wndSize 剩余窗口大小
+	 * @param sack 选择确认（没有：{@code null}）
 	 * 
-	 * @return 是否丢包
+	 * @return 需要快速重传的数据包
 	 */
-	public boolean ack(final short acknr, final int wndSize) {
+	public List<UtpWindowData> ack(final short acknr, final int timestampDifference, final int wndSize, final byte[] sack) {
 		synchronized (this) {
-			this.wndSize = wndSize;
-			// 响应编号已经处理说明可能丢包
-			boolean loss = true;
-			Entry<Short, UtpWindowData> entry;
+			this.remoteWndSize = wndSize;
 			final int timestamp = DateUtils.timestampUs();
-			final var iterator = this.wndMap.entrySet().iterator();
-			while(iterator.hasNext()) {
-				entry = iterator.next();
-				// 编号是否已经处理
-				final short diff = (short) (acknr - entry.getKey());
-				if(diff >= 0) {
-					// 响应编号没有处理说明没有丢包
-					loss = false;
-					this.timeout(timestamp - entry.getValue().getTimestamp());
-					this.release();
-					// 删除已经响应数据
-					iterator.remove();
+			if(timestampDifference != 0) {
+				// 没有时间差（握手响应）不是有效样本
+				this.ledbat.delay(timestampDifference, timestamp);
+			}
+			// 累计确认：移动确认指针
+			int bytesAcked = 0;
+			final short ackSeqnr = this.ackSeqnr;
+			while(this.ackSeqnr != this.seqnr && (short) (acknr - this.ackSeqnr) >= 0) {
+				bytesAcked += this.acked(this.take(this.ackSeqnr), timestamp);
+				this.ackSeqnr++;
+			}
+			this.ackAdvance = ackSeqnr != this.ackSeqnr;
+			// 重复响应：响应编号没有变化并且含有未确认数据
+			if(bytesAcked == 0 && acknr == this.lastAcknr && this.wndCount > 0) {
+				this.duplicateAcks++;
+			} else {
+				this.duplicateAcks = 0;
+			}
+			this.lastAcknr = acknr;
+			// 选择确认：第一位表示acknr + 2（acknr + 1没有收到）
+			if(sack != null) {
+				for (int index = 0; index < sack.length * Byte.SIZE; index++) {
+					if((sack[index >> 3] & (1 << (index & 7))) != 0) {
+						bytesAcked += this.acked(this.take((short) (acknr + 2 + index)), timestamp);
+					}
 				}
+				this.advance();
 			}
-			if(!loss) {
-				// 没有丢包计算窗口
-				this.wndControl();
+			if(bytesAcked > 0) {
+				this.ledbat.ack(bytesAcked);
+				LOGGER.debug("UTP窗口大小：{}", this.ledbat);
 			}
-			return loss;
+			final List<UtpWindowData> list = this.loss(acknr, sack);
+			this.notifyAll();
+			return list;
+		}
+	}
+	
+	/**
+	 * <p>数据包已经确认</p>
+	 * <p>只使用没有重传的数据包计算超时时间（Karn算法）</p>
+	 * 
+	 * @param windowData 数据包（已经取出）
+	 * @param timestamp 当前时间
+	 * 
+	 * @return 数据长度
+	 */
+	private int acked(UtpWindowData windowData, int timestamp) {
+		if(windowData == null) {
+			return 0;
+		}
+		if(windowData.getPushTimes() <= 1) {
+			this.timeout(timestamp - windowData.getTimestamp());
+		}
+		return windowData.getLength();
+	}
+	
+	/**
+	 * <p>移动确认指针</p>
+	 * <p>跳过已经选择确认或者丢弃的数据包</p>
+	 */
+	private void advance() {
+		while(this.ackSeqnr != this.seqnr && this.wnd[this.ackSeqnr & MASK] == null) {
+			this.ackSeqnr++;
+		}
+	}
+	
+	/**
+	 * <p>丢包检测</p>
+	 * <p>三次重复响应：acknr + 1丢失</p>
+	 * <p>选择确认：后续已经确认三个数据包的未确认数据包丢失</p>
+	 * <p>每个数据包只快速重传一次，每次丢包只减小一次拥塞窗口。</p>
+	 * 
+	 * @param acknr 响应编号
+	 * @param sack 选择确认
+	 * 
+	 * @return 丢失数据包
+	 */
+	private List<UtpWindowData> loss(final short acknr, final byte[] sack) {
+		final List<UtpWindowData> list = new ArrayList<>(0);
+		if(this.wndCount == 0) {
+			return list;
+		}
+		if(sack != null) {
+			// 从后向前统计已经确认数量
+			int acked = 0;
+			for (int index = sack.length * Byte.SIZE - 1; index >= -1; index--) {
+				final boolean sacked = index >= 0 && (sack[index >> 3] & (1 << (index & 7))) != 0;
+				if(sacked) {
+					acked++;
+				} else if(acked >= UtpConfig.FAST_ACK_RETRY_TIMES) {
+					this.lost(this.get((short) (acknr + 2 + index)), list);
+				}
+			}
+		} else if(this.duplicateAcks >= UtpConfig.FAST_ACK_RETRY_TIMES) {
+			this.lost(this.get((short) (acknr + 1)), list);
+		}
+		if(!list.isEmpty()) {
+			final short seqnr = list.get(0).getSeqnr();
+			if((short) (seqnr - this.recoverySeqnr) >= 0) {
+				this.ledbat.loss();
+				this.recoverySeqnr = this.seqnr;
+				LOGGER.debug("UTP窗口丢包：{}-{}", seqnr, this.ledbat);
+			}
+		}
+		return list;
+	}
+	
+	/**
+	 * <p>添加丢失数据包</p>
+	 * <p>已经重传的数据包由重传超时处理</p>
+	 * 
+	 * @param windowData 数据包
+	 * @param list 丢失数据包
+	 */
+	private void lost(UtpWindowData windowData, List<UtpWindowData> list) {
+		if(windowData != null && windowData.getPushTimes() <= 1) {
+			list.add(windowData);
+		}
+	}
+	
+	/**
+	 * <p>生成选择确认</p>
+	 * <p>第一位表示seqnr + 2：seqnr + 1没有收到（否者seqnr已经递增）</p>
+	 * 
+	 * @return 选择确认（没有乱序数据：{@code null}）
+	 */
+	public byte[] sack() {
+		synchronized (this) {
+			if(this.wndCount == 0) {
+				return null;
+			}
+			int max = -1;
+			final int maxBits = Math.min(CAPACITY, UtpConfig.SACK_MAX_LENGTH * Byte.SIZE);
+			for (int index = 0; index < maxBits; index++) {
+				if(this.get((short) (this.seqnr + 2 + index)) != null) {
+					max = index;
+				}
+			}
+			if(max < 0) {
+				return null;
+			}
+			// 长度必须是4字节的倍数
+			final byte[] sack = new byte[(max / Integer.SIZE + 1) * Integer.BYTES];
+			for (int index = 0; index <= max; index++) {
+				if(this.get((short) (this.seqnr + 2 + index)) != null) {
+					sack[index >> 3] |= 1 << (index & 7);
+				}
+			}
+			return sack;
 		}
 	}
 	
 	/**
 	 * <p>接收数据</p>
+	 * <p>数据只从接收缓冲复制一次：按序数据包直接添加请求队列，不用合并数据。</p>
 	 * 
 	 * @param timestamp 时间戳
 	 * @param seqnr 请求编号
 	 * @param buffer 请求数据
-	 * 
-	 * @throws IOException IO异常
 	 */
-	public void receive(final int timestamp, final short seqnr, final ByteBuffer buffer) throws IOException {
+	public void receive(final int timestamp, final short seqnr, final ByteBuffer buffer) {
 		synchronized (this) {
-			final short diff = (short) (this.seqnr - seqnr);
-			if(diff >= 0) {
+			final short diff = (short) (seqnr - this.seqnr);
+			if(diff <= 0) {
 				// seqnr已被处理
 				return;
 			}
-			// 优先保存数据
-			this.storage(timestamp, seqnr, buffer);
-			UtpWindowData nextWindowData;
-			short nextSeqnr = this.seqnr;
-			final var output = new ByteArrayOutputStream();
-			while(true) {
-				// 下一个请求编号
-				nextSeqnr = (short) (nextSeqnr + 1);
-				nextWindowData = this.take(nextSeqnr);
-				if(nextWindowData == null) {
-					break;
-				} else {
-					this.seqnr = nextWindowData.getSeqnr();
-					// 最后接收时间
-					this.timestamp = nextWindowData.getTimestamp();
-					output.write(nextWindowData.getData());
-				}
+			if(diff > CAPACITY) {
+				LOGGER.debug("UTP数据超过窗口容量：{}-{}", seqnr, this.seqnr);
+				return;
 			}
-			final byte[] bytes = output.toByteArray();
-			if(bytes.length == 0) {
+			if(diff == 1 && this.wndCount == 0) {
+				// 按序数据：直接处理
+				this.seqnr = seqnr;
+				this.timestamp = timestamp;
+				this.request(ByteUtils.remainingToBytes(buffer));
 				return;
 			}
-			// 添加请求队列：异步处理请求
-			if(this.requests.offer(UtpRequest.newInstance(ByteBuffer.wrap(bytes), this.messageDecoder))) {
-				LOGGER.debug("处理UTP数据消息：{}-{}", seqnr, this.seqnr);
-			} else {
-				LOGGER.warn("处理UTP数据消息失败：{}-{}", seqnr, this.seqnr);
+			if(this.get(seqnr) != null) {
+				// 重复数据
+				return;
+			}
+			// 优先保存数据
+			this.storage(timestamp, seqnr, buffer);
+			UtpWindowData nextWindowData;
+			while((nextWindowData = this.take((short) (this.seqnr + 1))) != null) {
+				this.seqnr = nextWindowData.getSeqnr();
+				// 最后接收时间
+				this.timestamp = nextWindowData.getTimestamp();
+				this.request(nextWindowData.getData());
 			}
 		}
 	}
 	
 	/**
-	 * <p>获取最后一个未确认数据包</p>
+	 * <p>添加请求队列：异步处理请求</p>
+	 * <p>相同窗口使用相同请求队列：保证数据顺序</p>
 	 * 
-	 * @return 最后一个未确认数据包
+	 * @param bytes 数据
 	 */
-	public UtpWindowData lastUnack() {
-		synchronized (this) {
-			return this.wndMap.get((short) (this.seqnr + 1));
+	private void request(byte[] bytes) {
+		if(bytes.length == 0) {
+			return;
+		}
+		if(this.requests.offer(UtpRequest.newInstance(ByteBuffer.wrap(bytes), this.messageDecoder))) {
+			LOGGER.debug("处理UTP数据消息：{}", this.seqnr);
+		} else {
+			LOGGER.warn("处理UTP数据消息失败：{}", this.seqnr);
 		}
 	}
 	
 	/**
-	 * <p>丢弃超时数据</p>
+	 * <p>获取窗口数据</p>
 	 * 
 	 * @param seqnr 请求编号
+	 * 
+	 * @return {@link UtpWindowData}
 	 */
-	public void discard(short seqnr) {
-		synchronized (this) {
-			this.take(seqnr);
+	private UtpWindowData get(short seqnr) {
+		final UtpWindowData windowData = this.wnd[seqnr & MASK];
+		if(windowData == null || windowData.getSeqnr() != seqnr) {
+			return null;
 		}
+		return windowData;
 	}
 	
 	/**
@@ -351,10 +569,12 @@ public final class UtpWindow {
 	 * @return {@link UtpWindowData}
 	 */
 	private UtpWindowData take(short seqnr) {
-		final UtpWindowData windowData = this.wndMap.remove(seqnr);
+		final UtpWindowData windowData = this.get(seqnr);
 		if(windowData == null) {
 			return windowData;
 		}
+		this.wnd[seqnr & MASK] = null;
+		this.wndCount--;
 		this.wndSize = this.wndSize - windowData.getLength();
 		return windowData;
 	}
@@ -384,7 +604,8 @@ public final class UtpWindow {
 	 */
 	private UtpWindowData storage(final int timestamp, final short seqnr, byte[] bytes) {
 		final UtpWindowData windowData = UtpWindowData.newInstance(seqnr, timestamp, bytes);
-		this.wndMap.put(seqnr, windowData);
+		this.wnd[seqnr & MASK] = windowData;
+		this.wndCount++;
 		this.wndSize = this.wndSize + windowData.getLength();
 		return windowData;
 	}
@@ -397,78 +618,84 @@ public final class UtpWindow {
 	private void timeout(final int packetRtt) {
 		int rtt = this.rtt;
 		int rttVar = this.rttVar;
-		final int delta = rtt - packetRtt;
-		rtt += (packetRtt - rtt) / 8;
-		rttVar += (Math.abs(delta) - rttVar) / 4;
+		if(rtt == 0) {
+			// 第一个样本
+			rtt = packetRtt;
+			rttVar = packetRtt / 2;
+		} else {
+			final int delta = rtt - packetRtt;
+			rtt += (packetRtt - rtt) / 8;
+			rttVar += (Math.abs(delta) - rttVar) / 4;
+		}
 		this.rtt = rtt;
 		this.rttVar = rttVar;
-		this.timeout = Math.max(rtt + rttVar * 4, MAX_TIMEOUT);
+		this.timeout = Math.min(MAX_TIMEOUT, Math.max(rtt + rttVar * 4, MIN_TIMEOUT));
 		LOGGER.debug("UTP超时时间：{}", this.timeout);
 	}
 	
 	/**
-	 * <p>流量控制和阻塞控制</p>
-	 * <p>超时时间等于默认超时时间：窗口大小 + 1</p>
-	 * <p>超时时间大于默认超时时间：窗口大小 / 2</p>
-	 */
-	private void wndControl() {
-		int wnd = this.wnd;
-		if(this.timeout <= MAX_TIMEOUT) {
-			if(wnd < MAX_WND_SIZE) {
-				wnd++;
-				this.release();
+	 * <p>等待发送窗口</p>
+	 * <p>未响应数据没有超过拥塞窗口和对端剩余窗口才能发送：没有未响应数据时直接发送</p>
+	 * <p>窗口容量已满需要等待：等待超时继续等待确认，直到窗口关闭。</p>
+	 * <p>需要加锁调用：等待时释放锁</p>
+	 * 
+	 * @param length 数据长度
+	 */
+	private void acquire(int length) {
+		final long deadline = System.currentTimeMillis() + WND_TIMEOUT;
+		while(
+			// 如果窗口已经关闭：不需要等待
+			!this.close &&
+			(
+				(short) (this.seqnr - this.ackSeqnr) >= CAPACITY ||
+				this.wndSize > 0 &&
+				this.wndSize + length > Math.min(this.ledbat.cwnd(), this.remoteWndSize)
+			)
+		) {
+			long wait = deadline - System.currentTimeMillis();
+			if(wait <= 0) {
+				if((short) (this.seqnr - this.ackSeqnr) < CAPACITY) {
+					LOGGER.debug("等待发送窗口超时：{}-{}-{}", this.wndSize, this.remoteWndSize, this.ledbat);
+					return;
+				}
+				// 窗口容量已满：可靠数据不能丢弃，阻塞发送线程等待确认。
+				LOGGER.debug("等待发送窗口超时（容量已满）：{}-{}", this.seqnr, this.ackSeqnr);
+				wait = WND_TIMEOUT;
 			}
-		} else {
-			wnd = wnd / 2;
-			if(wnd < MIN_WND_SIZE) {
-				wnd = MIN_WND_SIZE;
+			try {
+				this.wait(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LOGGER.debug("等待发送窗口异常", e);
+				return;
 			}
 		}
-		this.wnd = wnd;
-		LOGGER.debug("UTP窗口大小：{}", this.wnd);
 	}
 	
 	/**
-	 * <p>获取信号量</p>
+	 * <p>关闭窗口</p>
+	 * <p>标记关闭、释放信号量</p>
 	 */
-	private void acquire() {
-		if(this.close) {
-			// 如果窗口已经关闭：不需要获取信号量
-			return;
-		}
-		try {
-			if(!this.semaphore.tryAcquire(SEMAPHORE_TIMEOUT, TimeUnit.SECONDS)) {
-				LOGGER.debug("获取信号量失败：{}-{}", this.wnd, this.wndSize);
-			}
-		} catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
-			LOGGER.debug("获取信号量异常", e);
+	public void close() {
+		synchronized (this) {
+			this.close = true;
+			this.notifyAll();
 		}
 	}
 	
 	/**
-	 * <p>释放信号量</p>
+	 * <p>释放窗口数据</p>
+	 * <p>重置连接后没有确认的数据不会再被确认</p>
 	 */
-	private void release() {
-		if(this.semaphore == null) {
-			return;
-		}
-		final int available = this.semaphore.availablePermits();
-		if(available < this.wnd) {
-			LOGGER.debug("信号量释放：{}", available);
-			this.semaphore.release();
+	public void release() {
+		synchronized (this) {
+			Arrays.fill(this.wnd, null);
+			this.wndCount = 0;
+			this.wndSize = 0;
+			this.notifyAll();
 		}
 	}
 	
-	/**
-	 * <p>关闭窗口</p>
-	 * <p>标记关闭、释放信号量</p>
-	 */
-	public void close() {
-		this.close = true;
-		this.release();
-	}
-	
 	/**
 	 * <p>获取seqnr</p>
 	 * 
@@ -2,11 +2,16 @@ package com.acgist.snail.context;
 
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.net.torrent.dht.DhtContext;
 import com.acgist.snail.net.torrent.dht.request.PingRequest;
 import com.acgist.snail.net.torrent.dht.response.PingResponse;
@@ -22,6 +27,20 @@ class DhtContextTest extends Performance {
 		assertNotNull(response);
 	}
 	
+	@Test
+	void testTimeout() throws InterruptedException {
+		final var latch = new CountDownLatch(1);
+		final var request = PingRequest.newRequest();
+		request.setCallback(response -> {
+			assertNull(response);
+			latch.countDown();
+		});
+		DhtContext.getInstance().request(request);
+		assertTrue(latch.await(SystemConfig.RECEIVE_TIMEOUT * 2, TimeUnit.SECONDS));
+		// 超时请求不能响应
+		assertNull(DhtContext.getInstance().response(PingResponse.newInstance(request)));
+	}
+	
 	@Test
 	void testCosted() {
 		this.costed(100000, () -> this.testRequest());
@@ -4,12 +4,15 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Random;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
 
 import com.acgist.snail.logger.LoggerConfig;
+import com.acgist.snail.net.torrent.dht.NodeBucket;
 import com.acgist.snail.net.torrent.dht.NodeContext;
 import com.acgist.snail.net.torrent.dht.NodeSession;
 import com.acgist.snail.utils.Performance;
@@ -60,9 +63,14 @@ class NodeContextTest extends Performance {
 		final var nodes = NodeContext.getInstance().findNode(target);
 		nodes.forEach(node -> this.log(StringUtils.hex(node.getId())));
 //		this.log("----");
-		final var newNodes = new ArrayList<>(nodes);
-		Collections.sort(newNodes);
+		// 暴力查找异或距离最近节点
+		final var newNodes = NodeContext.getInstance().nodes().stream()
+			.filter(NodeSession::useable)
+			.sorted(NodeContext.distance(StringUtils.unhex(target)))
+			.limit(NodeBucket.K)
+			.collect(Collectors.toList());
 //		newNodes.forEach(node -> this.log(StringUtils.hex(node.getId())));
+		assertEquals(newNodes.size(), nodes.size());
 		for (int index = 0; index < nodes.size(); index++) {
 			assertEquals(nodes.get(index), newNodes.get(index));
 		}
@@ -89,6 +97,42 @@ class NodeContextTest extends Performance {
 		assertTrue(size < 10000);
 	}
 
+	@Test
+	void testBucket() {
+		LoggerConfig.off();
+		final NodeContext context = NodeContext.getInstance();
+		final byte[] nodeId = context.nodeId();
+		// 距离最远的节点：只能保存K个节点，其余进入替换缓存。
+		final byte[] farId = nodeId.clone();
+		farId[0] ^= 0x80;
+		final int oldSize = context.size();
+		for (int index = 0; index < NodeBucket.K * 2; index++) {
+			final byte[] id = farId.clone();
+			id[19] = (byte) index;
+			context.newNodeSession(id, "0", 0);
+		}
+		final long farSize = context.nodes().stream().filter(node -> (node.getId()[0] ^ nodeId[0]) < 0).count();
+		assertTrue(farSize <= NodeBucket.K);
+		// 距离最近的节点：桶分裂全部保存
+		for (int index = 0; index < NodeBucket.K * 2; index++) {
+			final byte[] id = nodeId.clone();
+			id[19] ^= (byte) (index + 1);
+			context.newNodeSession(id, "0", 0);
+		}
+		assertTrue(context.size() >= oldSize + NodeBucket.K);
+		final var nodes = context.findNode(nodeId);
+		assertEquals(NodeBucket.K, nodes.size());
+		nodes.forEach(node -> assertTrue(Arrays.equals(nodeId, 0, 19, node.getId(), 0, 19)));
+		// 替换缓存节点替换验证节点
+		final byte[] replaceId = farId.clone();
+		replaceId[19] = (byte) (NodeBucket.K * 2 - 1);
+		context.findNode(farId).forEach(NodeSession::markVerify);
+		context.available(replaceId);
+		assertTrue(context.nodes().stream().anyMatch(node -> Arrays.equals(replaceId, node.getId())));
+		this.costed(100000, () -> context.findNode(this.buildId()));
+		this.costed(100000, 10, () -> context.findNode(this.buildId()));
+	}
+	
 	@Test
 	void testMinFindNode() {
 		LoggerConfig.off();
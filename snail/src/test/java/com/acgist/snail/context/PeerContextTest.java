@@ -1,11 +1,18 @@
 package com.acgist.snail.context;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.config.PeerConfig;
 import com.acgist.snail.config.PeerConfig.Source;
+import com.acgist.snail.logger.LoggerConfig;
 import com.acgist.snail.net.torrent.peer.PeerContext;
+import com.acgist.snail.net.torrent.peer.PeerSession;
 import com.acgist.snail.utils.Performance;
 
 class PeerContextTest extends Performance {
@@ -20,4 +27,55 @@ class PeerContextTest extends Performance {
 		assertEquals(1, PeerContext.getInstance().listPeerSession(hash).size());
 	}
 	
+	@Test
+	void testFindPeerSession() {
+		final String hash = "2".repeat(20);
+		final PeerContext context = PeerContext.getInstance();
+		assertNull(context.findPeerSession(hash, "192.168.1.100", 1000));
+		assertFalse(context.isNotEmpty(hash));
+		final PeerSession peerSession = context.newPeerSession(hash, StatisticsContext.getInstance().statistics(), "192.168.1.100", 1000, Source.CONNECT);
+		assertSame(peerSession, context.findPeerSession(hash, "192.168.1.100", 1000));
+		assertSame(peerSession, context.newPeerSession(hash, StatisticsContext.getInstance().statistics(), "192.168.1.100", 1000, Source.DHT));
+		assertNull(context.findPeerSession(hash, "192.168.1.100", 1001));
+		assertTrue(context.isNotEmpty(hash));
+		assertSame(peerSession, context.pick(hash));
+		context.remove(hash);
+		assertNull(context.findPeerSession(hash, "192.168.1.100", 1000));
+	}
+	
+	@Test
+	void testConnect() {
+		final String hash = "3".repeat(20);
+		final PeerContext context = PeerContext.getInstance();
+		final PeerSession peerSession = context.newPeerSession(hash, StatisticsContext.getInstance().statistics(), "192.168.1.100", 1000, Source.CONNECT);
+		context.connect(hash, peerSession, PeerConfig.STATUS_DOWNLOAD);
+		context.connect(hash, peerSession, PeerConfig.STATUS_UPLOAD);
+		assertTrue(peerSession.connected());
+		context.disconnect(hash, peerSession, PeerConfig.STATUS_DOWNLOAD);
+		assertTrue(peerSession.uploading());
+		assertFalse(peerSession.downloading());
+		context.disconnect(hash, peerSession, PeerConfig.STATUS_UPLOAD);
+		assertFalse(peerSession.connected());
+		context.remove(hash);
+		// 任务删除以后断开连接
+		context.disconnect(hash, peerSession, PeerConfig.STATUS_UPLOAD);
+		assertFalse(context.isNotEmpty(hash));
+	}
+	
+	@Test
+	void testCosted() {
+		LoggerConfig.off();
+		final String hash = "4".repeat(20);
+		final int size = 10000;
+		final PeerContext context = PeerContext.getInstance();
+		final long costed = this.costed(size * 10, 100, () -> {
+			final int port = (int) (Math.random() * size);
+			context.newPeerSession(hash, StatisticsContext.getInstance().statistics(), "192.168.1.100", port, Source.DHT);
+			context.findPeerSession(hash, "192.168.1.100", port);
+		});
+		this.log("新建查找Peer（次/秒）：{}", size * 10 * 1000L / Math.max(1, costed));
+		assertTrue(context.listPeerSession(hash).size() <= size);
+		context.remove(hash);
+	}
+	
 }
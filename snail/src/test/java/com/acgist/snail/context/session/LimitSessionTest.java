@@ -1,5 +1,6 @@
 package com.acgist.snail.context.session;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
@@ -7,6 +8,7 @@ import org.junit.jupiter.api.Test;
 import com.acgist.snail.config.DownloadConfig;
 import com.acgist.snail.context.session.LimitSession.Type;
 import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.ThreadUtils;
 
 class LimitSessionTest extends Performance {
 
@@ -21,14 +23,14 @@ class LimitSessionTest extends Performance {
 			int value = 0;
 			while(value < size) {
 				value += buffer;
-				session.limit(buffer);
+				ThreadUtils.sleep(session.limit(buffer));
 			}
 		});
 		final var b = new Thread(() -> {
 			int value = 0;
 			while(value < size) {
 				value += buffer;
-				session.limit(buffer);
+				ThreadUtils.sleep(session.limit(buffer));
 			}
 		});
 		a.start();
@@ -38,4 +40,26 @@ class LimitSessionTest extends Performance {
 		assertTrue(this.costed() >= 1000);
 	}
 	
+	@Test
+	void testDelay() {
+		final LimitSession session = new LimitSession(Type.DOWNLOAD);
+		final long size = DownloadConfig.getDownloadBufferByte();
+		// 突发：一秒数据
+		assertEquals(0L, session.limit(size / 2));
+		assertEquals(0L, session.limit(size / 2));
+		// 不会阻塞：返回等待时间
+		this.cost();
+		final long delay = session.limit(size);
+		assertTrue(this.costed() < 100);
+		assertTrue(delay > 900 && delay <= 1000, "等待时间：" + delay);
+	}
+	
+	@Test
+	void testCosted() {
+		final LimitSession session = new LimitSession(Type.DOWNLOAD);
+		final long costed = this.costed(1_000_000, 32, () -> session.limit(1024));
+		this.log("限速（次/秒）：{}", 1_000_000L * 1000 / Math.max(1, costed));
+		assertTrue(costed < 10_000);
+	}
+	
 }
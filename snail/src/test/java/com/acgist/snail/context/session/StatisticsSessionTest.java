@@ -1,9 +1,11 @@
 package com.acgist.snail.context.session;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.config.DownloadConfig;
 import com.acgist.snail.utils.Performance;
 
 class StatisticsSessionTest extends Performance {
@@ -20,4 +22,16 @@ class StatisticsSessionTest extends Performance {
 		assertEquals(1024, session.downloadSize());
 	}
 	
+	@Test
+	void testLimit() {
+		final int size = DownloadConfig.getDownloadBufferByte();
+		// 上级限速：所有下级共享
+		final StatisticsSession parent = new StatisticsSession(true, null);
+		final StatisticsSession a = new StatisticsSession(false, parent);
+		final StatisticsSession b = new StatisticsSession(true, parent);
+		assertEquals(0L, a.downloadLimit(size));
+		final long delay = b.downloadLimit(size);
+		assertTrue(delay > 900 && delay <= 1000, "等待时间：" + delay);
+	}
+	
 }
@@ -1,11 +1,22 @@
 package com.acgist.snail.format;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.logger.LoggerConfig;
 import com.acgist.snail.net.PacketSizeException;
+import com.acgist.snail.utils.ByteUtils;
 import com.acgist.snail.utils.Performance;
 
 class BEncodeDecoderTest extends Performance {
@@ -28,11 +39,22 @@ class BEncodeDecoderTest extends Performance {
 		this.log("{}", decoder.getString("1"));
 		assertEquals(new String((byte[]) map.get("1")), decoder.getString("1"));
 		assertEquals(1, map.size());
+		// 不会修改读取位置
+		assertEquals("xxxx", decoder.toString());
 		final var bytes = decoder.oddBytes();
 		this.log("byte[]：{}", new String(bytes));
 		assertEquals("xxxx", new String(bytes));
 	}
 	
+	@Test
+	void testLong() throws PacketSizeException {
+		assertEquals(Long.MAX_VALUE, BEncodeDecoder.newInstance(("li" + Long.MAX_VALUE + "ee").getBytes()).nextList().get(0));
+		assertEquals(Long.MIN_VALUE, BEncodeDecoder.newInstance(("li" + Long.MIN_VALUE + "ee").getBytes()).nextList().get(0));
+		assertThrows(PacketSizeException.class, () -> BEncodeDecoder.newInstance("li9223372036854775808ee".getBytes()).nextList());
+		assertThrows(PacketSizeException.class, () -> BEncodeDecoder.newInstance("li-9223372036854775809ee".getBytes()).nextList());
+		assertThrows(PacketSizeException.class, () -> BEncodeDecoder.newInstance("d1:ai99999999999999999999ee".getBytes()).nextMap());
+	}
+	
 	@Test
 	void testCosted() {
 		final long costed = this.costed(100000, () -> {
@@ -49,4 +71,117 @@ class BEncodeDecoderTest extends Performance {
 		assertTrue(costed < 1000);
 	}
 	
+	@Test
+	void testBuffer() throws PacketSizeException {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+		buffer.put("xxd1:ai-10e1:bl1:ci0eee".getBytes());
+		buffer.flip();
+		buffer.position(2);
+		final BEncodeDecoder decoder = BEncodeDecoder.newInstance(buffer);
+		assertEquals(buffer.limit(), buffer.position());
+		final var map = decoder.nextMap();
+		assertEquals(-10L, map.get("a"));
+		assertEquals(List.of("c", 0L), decoder.getList("b").stream().map(value -> value instanceof byte[] bytes ? new String(bytes) : value).toList());
+		assertThrows(IllegalArgumentException.class, () -> BEncodeDecoder.newInstance("d1:ai1x0ee").next());
+	}
+	
+	@Test
+	void testLazy() throws PacketSizeException {
+		final String info = "d4:name4:test6:lengthi1024e5:filesld1:ai1eeee";
+		final byte[] bytes = ("d8:announce3:url4:x:aa1:14:info" + info + "1:zi1eeli2ee").getBytes();
+		BEncodeDecoder decoder = BEncodeDecoder.newInstance(bytes);
+		// 原始数据
+		final ByteBuffer slice = decoder.nextSlice("info");
+		assertEquals(info, new String(ByteUtils.remainingToBytes(slice)));
+		// 游标移动到下一个数据
+		assertEquals(List.of(2L), decoder.nextList());
+		decoder = BEncodeDecoder.newInstance(bytes);
+		// 键中含有分隔符
+		assertArrayEquals("1".getBytes(), (byte[]) decoder.nextValue("x:aa"));
+		assertEquals(List.of(2L), decoder.nextList());
+		decoder = BEncodeDecoder.newInstance(bytes);
+		assertNull(decoder.nextValue("aa"));
+		decoder = BEncodeDecoder.newInstance(bytes);
+		assertEquals(1L, decoder.nextValue("z"));
+		decoder = BEncodeDecoder.newInstance(info);
+		assertEquals(1024L, decoder.nextValue("length"));
+	}
+	
+	/**
+	 * <p>DHT消息</p>
+	 */
+	byte[] dht() {
+		final Map<String, Object> r = new LinkedHashMap<>();
+		r.put("id", new byte[20]);
+		r.put("nodes", new byte[26 * 8]);
+		r.put("token", new byte[8]);
+		final List<Object> values = new ArrayList<>();
+		for (int index = 0; index < 8; index++) {
+			values.add(new byte[6]);
+		}
+		r.put("values", values);
+		final Map<String, Object> map = new LinkedHashMap<>();
+		map.put("t", "aa".getBytes());
+		map.put("y", "r".getBytes());
+		map.put("r", r);
+		map.put("v", "SN01".getBytes());
+		return BEncodeEncoder.encodeMap(map);
+	}
+	
+	/**
+	 * <p>种子文件（50MB）</p>
+	 */
+	byte[] torrent() {
+		final List<Object> files = new ArrayList<>();
+		for (int index = 0; index < 400_000; index++) {
+			final Map<String, Object> file = new LinkedHashMap<>();
+			final var path = List.of(("directory-" + (index % 100)).getBytes(), ("file-name-" + index + ".dat").getBytes());
+			file.put("length", 1024L * index);
+			file.put("path", path);
+			file.put("path.utf-8", path);
+			files.add(file);
+		}
+		final Map<String, Object> info = new LinkedHashMap<>();
+		info.put("files", files);
+		info.put("name", "acgist".getBytes());
+		info.put("piece length", 16L * 1024 * 1024);
+		info.put("pieces", new byte[20 * 100_000]);
+		final Map<String, Object> map = new LinkedHashMap<>();
+		map.put("announce", "http://tracker.acgist.com/announce".getBytes());
+		map.put("creation date", 1600000000L);
+		map.put("info", info);
+		return BEncodeEncoder.encodeMap(map);
+	}
+	
+	@Test
+	void testCostedMessage() {
+		LoggerConfig.off();
+		final int count = 200_000;
+		final byte[] dht = this.dht();
+		final long costed = this.costed(count, () -> {
+			try {
+				BEncodeDecoder.newInstance(ByteBuffer.wrap(dht)).next().getMap("r");
+			} catch (PacketSizeException e) {
+				LOGGER.error("解析异常", e);
+			}
+		});
+		this.log("DHT消息解析（个/秒）：{}", count * 1000L / Math.max(1, costed));
+		assertTrue(costed < 5000);
+	}
+	
+	@Test
+	void testCostedTorrent() throws PacketSizeException {
+		LoggerConfig.off();
+		final byte[] torrent = this.torrent();
+		this.cost();
+		final var info = BEncodeDecoder.newInstance(torrent).next().getMap("info");
+		final long decodeCosted = this.costed();
+		this.cost();
+		final var slice = BEncodeDecoder.newInstance(torrent).nextSlice("info");
+		final long sliceCosted = this.costed();
+		this.log("种子解析（{}字节）：{}毫秒，读取info原始数据：{}毫秒", torrent.length, decodeCosted, sliceCosted);
+		assertEquals(400_000, ((List<?>) info.get("files")).size());
+		assertArrayEquals(BEncodeEncoder.encodeMap(info), ByteUtils.remainingToBytes(slice));
+	}
+	
 }
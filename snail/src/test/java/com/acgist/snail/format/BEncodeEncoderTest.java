@@ -1,10 +1,13 @@
 package com.acgist.snail.format;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.ByteBuffer;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -127,4 +130,64 @@ class BEncodeEncoderTest extends Performance {
 		assertTrue(costed < 1000);
 	}
 	
+	@Test
+	void testLength() {
+		final Map<String, Object> map = new LinkedHashMap<>();
+		map.put("t", "aa");
+		map.put("y", "q");
+		map.put("a", Map.of("id", new byte[20], "target", new byte[20]));
+		map.put("list", List.of(1, -1, 0, Long.MAX_VALUE, Long.MIN_VALUE, 1.5D));
+		map.put("utf8", "测试");
+		final byte[] bytes = BEncodeEncoder.newInstance().newMap().put(map).flush().bytes();
+		assertEquals(bytes.length, BEncodeEncoder.length(map));
+		assertArrayEquals(bytes, BEncodeEncoder.encode(map));
+	}
+	
+	@Test
+	void testNumber() {
+		assertEquals("i0e", new String(BEncodeEncoder.encode(0)));
+		assertEquals("i-10e", new String(BEncodeEncoder.encode(-10)));
+		assertEquals("i" + Long.MAX_VALUE + "e", new String(BEncodeEncoder.encode(Long.MAX_VALUE)));
+		assertEquals("i" + Long.MIN_VALUE + "e", new String(BEncodeEncoder.encode(Long.MIN_VALUE)));
+	}
+	
+	@Test
+	void testBuffer() {
+		final Map<String, Object> map = Map.of("1", "2");
+		final ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put((byte) 'x');
+		final ByteBuffer reuse = BEncodeEncoder.encode(map, buffer);
+		assertSame(buffer, reuse);
+		assertEquals("d1:11:2e", new String(reuse.array(), 0, reuse.limit()));
+		final ByteBuffer small = ByteBuffer.allocate(2);
+		final ByteBuffer allocate = BEncodeEncoder.encode(map, small);
+		assertFalse(small == allocate);
+		assertEquals(8, allocate.remaining());
+	}
+	
+	@Test
+	void testEncoded() {
+		final var encoded = BEncodeEncoder.encoded(Map.of("ut_pex", 1));
+		final Map<String, Object> map = new LinkedHashMap<>();
+		map.put("m", encoded);
+		map.put("v", "snail");
+		assertEquals("d1:md6:ut_pexi1ee1:v5:snaile", BEncodeEncoder.encodeMapString(map));
+		assertEquals("d1:md6:ut_pexi1ee1:v5:snaile", BEncodeEncoder.newInstance().newMap().put(map).flush().toString());
+	}
+	
+	@Test
+	void testCostedMessage() {
+		final int count = 200000;
+		final Map<String, Object> map = new LinkedHashMap<>();
+		map.put("t", "aa");
+		map.put("y", "r");
+		map.put("r", Map.of("id", new byte[20], "nodes", new byte[26 * 8], "token", new byte[8]));
+		final ByteBuffer buffer = ByteBuffer.allocate(1024);
+		final long builder = this.costed(count, () -> BEncodeEncoder.newInstance().newMap().put(map).flush().bytes());
+		final long encode = this.costed(count, () -> BEncodeEncoder.encode(map));
+		final long reuse = this.costed(count, () -> BEncodeEncoder.encode(map, buffer));
+		this.log("编码消息：{}-{}-{}", builder, encode, reuse);
+		assertArrayEquals(BEncodeEncoder.newInstance().newMap().put(map).flush().bytes(), BEncodeEncoder.encode(map));
+	}
+	
 }
@@ -0,0 +1,187 @@
+package com.acgist.snail.logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+
+class LoggerRingBufferTest extends Performance {
+
+	/**
+	 * <p>日志适配器</p>
+	 */
+	static final class OutputLoggerAdapter extends LoggerAdapter {
+
+		OutputLoggerAdapter(OutputStream output) {
+			super(output, output);
+		}
+	
+	}
+	
+	void log(LoggerRingBuffer ringBuffer, String message) {
+		final LoggerRingBuffer.Event event = ringBuffer.claim(false);
+		if(event != null) {
+			try {
+				event.builder().append(" ").append(message).append("\n");
+			} finally {
+				ringBuffer.publish(event);
+			}
+		}
+	}
+	
+	@Test
+	void testPolicy() {
+		assertEquals(LoggerRingBuffer.Policy.DROP, LoggerRingBuffer.Policy.of("drop"));
+		assertEquals(LoggerRingBuffer.Policy.BLOCK, LoggerRingBuffer.Policy.of("BLOCK"));
+		assertEquals(LoggerRingBuffer.Policy.BLOCK, LoggerRingBuffer.Policy.of(null));
+	}
+	
+	@Test
+	void testRingBuffer() throws InterruptedException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final LoggerRingBuffer ringBuffer = LoggerRingBuffer.newInstance(16, LoggerRingBuffer.Policy.BLOCK, "[Test] ", List.of(new OutputLoggerAdapter(output)));
+		final int thread = 8;
+		final int count = 10000;
+		final CountDownLatch latch = new CountDownLatch(thread);
+		for (int index = 0; index < thread; index++) {
+			new Thread(() -> {
+				for (int jndex = 0; jndex < count; jndex++) {
+					this.log(ringBuffer, "test");
+				}
+				latch.countDown();
+			}).start();
+		}
+		latch.await();
+		ringBuffer.shutdown();
+		assertEquals(0L, ringBuffer.drop());
+		assertNull(ringBuffer.claim(false));
+		final String[] lines = output.toString().split("\n");
+		assertEquals(thread * count, lines.length);
+		assertTrue(lines[0].startsWith("[Test] "));
+		assertTrue(lines[0].endsWith(" test"));
+	}
+	
+	@Test
+	void testDrop() throws InterruptedException {
+		final CountDownLatch write = new CountDownLatch(1);
+		final CountDownLatch block = new CountDownLatch(1);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(byte[] bytes, int offset, int length) {
+				write.countDown();
+				try {
+					block.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.write(bytes, offset, length);
+			}
+		};
+		final LoggerRingBuffer ringBuffer = LoggerRingBuffer.newInstance(16, LoggerRingBuffer.Policy.DROP, "[Test] ", List.of(new OutputLoggerAdapter(output)));
+		// 日志线程阻塞输出
+		this.log(ringBuffer, "block");
+		write.await();
+		for (int index = 0; index < 100; index++) {
+			this.log(ringBuffer, "test");
+		}
+		assertEquals(100 - 16, ringBuffer.drop());
+		block.countDown();
+		ringBuffer.shutdown();
+		final String[] lines = output.toString().split("\n");
+		// 阻塞日志 + 缓冲日志 + 丢弃日志
+		assertEquals(1 + 16 + 1, lines.length);
+		assertTrue(lines[lines.length - 1].endsWith(String.valueOf(100 - 16)));
+	}
+	
+	@Test
+	void testOutputError() throws InterruptedException {
+		final CountDownLatch error = new CountDownLatch(1);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(byte[] bytes, int offset, int length) {
+				if(error.getCount() > 0L) {
+					error.countDown();
+					throw new IllegalStateException("输出异常");
+				}
+				super.write(bytes, offset, length);
+			}
+		};
+		final LoggerRingBuffer ringBuffer = LoggerRingBuffer.newInstance(16, LoggerRingBuffer.Policy.BLOCK, "[Test] ", List.of(new OutputLoggerAdapter(output)));
+		this.log(ringBuffer, "error");
+		error.await();
+		// 输出异常以后继续消费
+		this.log(ringBuffer, "test");
+		assertTrue(ringBuffer.shutdown());
+		final String[] lines = output.toString().split("\n");
+		assertEquals(1, lines.length);
+		assertTrue(lines[0].endsWith(" test"));
+	}
+	
+	@Test
+	void testFormatTime() {
+		final long time = System.currentTimeMillis();
+		final String value = Logger.formatTime(time);
+		assertNotNull(value);
+		assertEquals(value, Logger.formatTime(time));
+		assertEquals(19, value.length());
+		this.costed(1000000, () -> Logger.formatTime(System.currentTimeMillis()));
+	}
+	
+	@Test
+	void testCosted() throws IOException {
+		final int thread = 32;
+		final int count = 10000;
+		final File file = Files.createTempFile("snail", ".log").toFile();
+		try(final OutputStream output = new BufferedOutputStream(new FileOutputStream(file), 8192)) {
+			// 同步日志：调用线程格式化时间、编码和输出
+			final LoggerAdapter adapter = new OutputLoggerAdapter(output);
+			final long sync = this.costed(thread, thread, () -> {
+				for (int index = 0; index < count; index++) {
+					final StringBuilder builder = new StringBuilder(128);
+					builder
+						.append("[Test] ")
+						.append(Logger.formatTime(System.currentTimeMillis()))
+						.append(" test")
+						.append(index)
+						.append("\n");
+					adapter.output(builder.toString());
+				}
+			});
+			this.log("同步日志（条/秒）：{}", thread * count * 1000L / Math.max(1, sync));
+		}
+		try(final OutputStream output = new BufferedOutputStream(new FileOutputStream(file), 8192)) {
+			// 异步日志
+			final LoggerRingBuffer ringBuffer = LoggerRingBuffer.newInstance(8192, LoggerRingBuffer.Policy.BLOCK, "[Test] ", List.of(new OutputLoggerAdapter(output)));
+			final long async = this.costed(thread, thread, () -> {
+				for (int index = 0; index < count; index++) {
+					final LoggerRingBuffer.Event event = ringBuffer.claim(false);
+					try {
+						event.builder().append(" test").append(index).append("\n");
+					} finally {
+						ringBuffer.publish(event);
+					}
+				}
+			});
+			ringBuffer.shutdown();
+			this.log("异步日志（条/秒）：{}", thread * count * 1000L / Math.max(1, async));
+			assertEquals(0L, ringBuffer.drop());
+		} finally {
+			Files.delete(file.toPath());
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.acgist.snail.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.utils.Performance;
+
+class ByteBufferPoolTest extends Performance {
+
+	@Test
+	void testAllocate() {
+		final ByteBufferPool pool = ByteBufferPool.getInstance();
+		final PooledByteBuffer buffer = pool.allocate(100);
+		assertTrue(buffer.buffer().isDirect());
+		assertEquals(0, buffer.buffer().position());
+		assertEquals(100, buffer.buffer().limit());
+		assertEquals(2 * SystemConfig.ONE_KB, buffer.buffer().capacity());
+		final ByteBuffer source = buffer.buffer();
+		assertTrue(buffer.release());
+		// 线程缓存
+		final PooledByteBuffer reuse = pool.allocate(SystemConfig.ONE_KB);
+		assertSame(source, reuse.buffer());
+		assertEquals(SystemConfig.ONE_KB, reuse.buffer().limit());
+		reuse.release();
+		final PooledByteBuffer tcp = pool.allocate(SystemConfig.TCP_BUFFER_LENGTH);
+		assertEquals(SystemConfig.TCP_BUFFER_LENGTH, tcp.buffer().capacity());
+		tcp.release();
+		final PooledByteBuffer piece = pool.allocate(SystemConfig.TCP_BUFFER_LENGTH + 1);
+		assertEquals(32 * SystemConfig.ONE_KB, piece.buffer().capacity());
+		piece.release();
+		// 没有池化
+		final PooledByteBuffer large = pool.allocate(ByteBufferPool.MAX_POOLED_LENGTH + 1);
+		assertEquals(ByteBufferPool.MAX_POOLED_LENGTH + 1, large.buffer().capacity());
+		large.release();
+		assertThrows(IllegalArgumentException.class, () -> pool.allocate(0));
+	}
+	
+	@Test
+	void testRefCnt() {
+		final ByteBufferPool pool = ByteBufferPool.getInstance();
+		final long outstanding = (long) pool.statistics().get(ByteBufferPool.STATISTICS_OUTSTANDING);
+		final PooledByteBuffer buffer = pool.allocate(SystemConfig.UDP_BUFFER_LENGTH);
+		assertEquals(outstanding + 1, pool.statistics().get(ByteBufferPool.STATISTICS_OUTSTANDING));
+		buffer.retain();
+		assertEquals(2, buffer.refCnt());
+		assertFalse(buffer.release());
+		assertTrue(buffer.release());
+		assertEquals(outstanding, pool.statistics().get(ByteBufferPool.STATISTICS_OUTSTANDING));
+		assertThrows(IllegalStateException.class, buffer::release);
+		assertThrows(IllegalStateException.class, buffer::retain);
+	}
+	
+	@Test
+	void testCosted() {
+		final ByteBufferPool pool = ByteBufferPool.getInstance();
+		final long poolCosted = this.costed(100000, 8, () -> pool.allocate(SystemConfig.TCP_BUFFER_LENGTH).release());
+		final long directCosted = this.costed(100000, 8, () -> ByteBuffer.allocateDirect(SystemConfig.TCP_BUFFER_LENGTH));
+		this.log("缓冲池：{}，直接申请：{}", poolCosted, directCosted);
+		this.log("缓冲池统计：{}", pool.statistics());
+	}
+
+}
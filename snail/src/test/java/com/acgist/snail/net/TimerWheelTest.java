@@ -0,0 +1,54 @@
+package com.acgist.snail.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.ThreadUtils;
+
+class TimerWheelTest extends Performance {
+
+	@Test
+	void testSchedule() throws InterruptedException {
+		final TimerWheel timer = new TimerWheel(10, 16, "Timer-Test");
+		final AtomicInteger count = new AtomicInteger(0);
+		final CountDownLatch latch = new CountDownLatch(2);
+		final long start = System.currentTimeMillis();
+		timer.schedule(50, () -> {
+			count.incrementAndGet();
+			latch.countDown();
+		});
+		// 超过一圈
+		timer.schedule(300, () -> {
+			count.incrementAndGet();
+			latch.countDown();
+		});
+		final var cancel = timer.schedule(100, count::incrementAndGet);
+		assertTrue(cancel.cancel());
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start >= 300);
+		ThreadUtils.sleep(200);
+		assertEquals(2, count.get());
+		assertFalse(cancel.cancel());
+		assertEquals(0, timer.size());
+		timer.shutdown();
+	}
+	
+	@Test
+	void testCosted() throws InterruptedException {
+		final int size = 100000;
+		final TimerWheel timer = new TimerWheel(10, 128, "Timer-Test");
+		final CountDownLatch latch = new CountDownLatch(size);
+		this.costed(size, 32, () -> timer.schedule(100, latch::countDown));
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		timer.shutdown();
+	}
+	
+}
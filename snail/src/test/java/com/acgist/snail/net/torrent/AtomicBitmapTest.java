@@ -0,0 +1,60 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+
+class AtomicBitmapTest extends Performance {
+
+	@Test
+	void testBitmap() {
+		final AtomicBitmap bitmap = new AtomicBitmap(130);
+		assertTrue(bitmap.isEmpty());
+		assertTrue(bitmap.set(0));
+		assertFalse(bitmap.set(0));
+		assertTrue(bitmap.set(64));
+		assertTrue(bitmap.set(129));
+		assertFalse(bitmap.set(130));
+		assertFalse(bitmap.set(-1));
+		assertFalse(bitmap.get(130));
+		assertEquals(3, bitmap.cardinality());
+		assertEquals(64, bitmap.nextSetBit(1));
+		assertEquals(129, bitmap.nextSetBit(65));
+		assertEquals(-1, bitmap.nextSetBit(130));
+		assertTrue(bitmap.clear(64));
+		assertFalse(bitmap.clear(64));
+		assertEquals(2, bitmap.cardinality());
+		final BitSet bitSet = bitmap.toBitSet();
+		assertEquals(2, bitSet.cardinality());
+		assertTrue(bitSet.get(129));
+		final AtomicBitmap select = new AtomicBitmap(130);
+		select.set(0, 100);
+		assertEquals(100, select.cardinality());
+		assertEquals(1, select.andCardinality(bitmap));
+		assertEquals(99, select.andNotCardinality(bitmap));
+		select.clear();
+		assertTrue(select.isEmpty());
+	}
+	
+	@Test
+	void testCosted() {
+		final int size = 10000;
+		final AtomicBitmap bitmap = new AtomicBitmap(size);
+		final AtomicInteger index = new AtomicInteger(0);
+		this.costed(size, 32, () -> bitmap.set(index.getAndIncrement()));
+		assertEquals(size, bitmap.cardinality());
+		assertEquals(size, bitmap.toBitSet().cardinality());
+		index.set(0);
+		this.costed(size, 32, () -> bitmap.clear(index.getAndIncrement()));
+		assertTrue(bitmap.isEmpty());
+		assertEquals(-1, bitmap.nextSetBit(0));
+	}
+
+}
@@ -0,0 +1,126 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+
+class PieceAvailabilityTest extends Performance {
+
+	@Test
+	void testPick() {
+		final PieceAvailability availability = new PieceAvailability(10);
+		// 没有Peer拥有
+		assertEquals(-1, availability.pick(index -> true));
+		final BitSet pieces = new BitSet();
+		pieces.set(0, 10);
+		availability.increment(pieces);
+		availability.increment(pieces);
+		availability.decrement(3);
+		assertEquals(3, availability.pick(index -> true));
+		assertEquals(1, availability.count(3));
+		availability.decrement(7);
+		availability.decrement(7);
+		assertEquals(0, availability.count(7));
+		assertEquals(3, availability.pick(index -> true));
+		availability.remove(3);
+		assertEquals(-1, availability.pick(index -> index == 3));
+		assertEquals(2, availability.pick(index -> index == 2));
+		availability.increment(3);
+		availability.increment(3);
+		availability.restore(3);
+		assertEquals(3, availability.count(3));
+		assertEquals(0, availability.pick(index -> true));
+		assertEquals(3, availability.pick(index -> index == 3));
+	}
+	
+	@Test
+	void testOrder() {
+		final int size = 1000;
+		final Random random = new Random();
+		final int[] counts = new int[size];
+		final PieceAvailability availability = new PieceAvailability(size);
+		for (int loop = 0; loop < 100000; loop++) {
+			final int index = random.nextInt(size);
+			if(random.nextInt(3) == 0) {
+				availability.decrement(index);
+				counts[index] = Math.max(0, counts[index] - 1);
+			} else {
+				availability.increment(index);
+				counts[index]++;
+			}
+			if(random.nextInt(100) == 0) {
+				availability.remove(index);
+				availability.restore(random.nextInt(size));
+			}
+		}
+		for (int index = 0; index < size; index++) {
+			assertEquals(counts[index], availability.count(index));
+		}
+		// 挑选结果：可用度单调递增
+		final int[] last = new int[] { 0 };
+		availability.pick(index -> {
+			final int count = availability.count(index);
+			assertTrue(count >= last[0]);
+			last[0] = count;
+			return false;
+		});
+	}
+	
+	@Test
+	void testPeerPick() {
+		final int size = 1000;
+		final Random random = new Random();
+		final PieceAvailability availability = new PieceAvailability(size);
+		for (int loop = 0; loop < 20000; loop++) {
+			availability.increment(random.nextInt(size));
+		}
+		for (int loop = 0; loop < 100; loop++) {
+			availability.remove(random.nextInt(size));
+		}
+		assertEquals(-1, availability.pick(new BitSet(), index -> true));
+		for (int loop = 0; loop < 1000; loop++) {
+			final BitSet pieces = new BitSet();
+			final int peerSize = random.nextInt(size);
+			for (int index = 0; index < peerSize; index++) {
+				pieces.set(random.nextInt(size));
+			}
+			final int exclude = random.nextInt(size);
+			final int index = availability.pick(pieces, value -> value != exclude);
+			// 对比遍历结果：Peer拥有Piece里面可用度最小
+			final int expect = availability.pick(value -> pieces.get(value) && value != exclude);
+			if(expect < 0) {
+				assertEquals(-1, index);
+			} else {
+				assertTrue(pieces.get(index));
+				assertEquals(availability.count(expect), availability.count(index));
+			}
+		}
+	}
+	
+	@Test
+	void testCosted() {
+		final int size = 10000;
+		final PieceAvailability availability = new PieceAvailability(size);
+		final BitSet pieces = new BitSet();
+		pieces.set(0, size);
+		availability.increment(pieces);
+		this.costed(100000, () -> {
+			final int index = availability.pick(value -> true);
+			availability.increment(index);
+		});
+		// Peer只有部分Piece
+		final BitSet peerPieces = new BitSet();
+		peerPieces.set(size - 100, size);
+		this.costed(100000, () -> {
+			final int index = availability.pick(peerPieces, value -> true);
+			availability.increment(index);
+		});
+	}
+
+}
@@ -0,0 +1,130 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.StatisticsContext;
+import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.ThreadUtils;
+
+class TorrentReadCacheTest extends Performance {
+
+	/**
+	 * <p>预读Piece：数据等于Piece偏移低八位</p>
+	 * 
+	 * @param count 预读次数
+	 * @param size 预读数据长度
+	 * 
+	 * @return 预读Piece
+	 */
+	private ToIntFunction<ByteBuffer> loader(AtomicInteger count, int size) {
+		return buffer -> {
+			count.incrementAndGet();
+			for (int index = 0; index < size; index++) {
+				buffer.put((byte) index);
+			}
+			return size;
+		};
+	}
+	
+	@Test
+	void testCache() {
+		final TorrentReadCache cache = TorrentReadCache.getInstance();
+		final StatisticsContext context = StatisticsContext.getInstance();
+		final long hit = context.readCacheHitCount();
+		final long miss = context.readCacheMissCount();
+		// 测试没有文件流组
+		cache.remove(null);
+		final AtomicInteger count = new AtomicInteger();
+		final ByteBuffer buffer = ByteBuffer.allocate(TorrentPiece.SLICE_LENGTH);
+		assertEquals(TorrentPiece.SLICE_LENGTH, cache.read(null, 0, SystemConfig.ONE_MB, 0, TorrentPiece.SLICE_LENGTH, buffer, this.loader(count, SystemConfig.ONE_MB)));
+		buffer.clear();
+		assertEquals(TorrentPiece.SLICE_LENGTH, cache.read(null, 0, SystemConfig.ONE_MB, 1, TorrentPiece.SLICE_LENGTH, buffer, this.loader(count, SystemConfig.ONE_MB)));
+		assertEquals(1, buffer.get(0));
+		assertEquals(1, count.get());
+		assertEquals(hit + 1, context.readCacheHitCount());
+		assertEquals(miss + 1, context.readCacheMissCount());
+		// 超过容量淘汰最早访问Piece
+		final int size = (int) (cache.capacity() / SystemConfig.ONE_MB);
+		for (int index = 1; index <= size; index++) {
+			buffer.clear();
+			cache.read(null, index, SystemConfig.ONE_MB, 0, TorrentPiece.SLICE_LENGTH, buffer, this.loader(count, SystemConfig.ONE_MB));
+		}
+		assertTrue(cache.size() <= cache.capacity());
+		buffer.clear();
+		cache.read(null, 0, SystemConfig.ONE_MB, 0, TorrentPiece.SLICE_LENGTH, buffer, this.loader(count, SystemConfig.ONE_MB));
+		assertEquals(size + 2, count.get());
+		cache.remove(null);
+		assertEquals(0, cache.size());
+		// 超过容量不能缓存
+		final long capacity = cache.capacity();
+		assertTrue(cache.cacheable((int) Math.min(Integer.MAX_VALUE, capacity)));
+		if(capacity < Integer.MAX_VALUE) {
+			assertFalse(cache.cacheable((int) capacity + 1));
+			buffer.clear();
+			assertEquals(-1, cache.read(null, 0, (int) capacity + 1, 0, TorrentPiece.SLICE_LENGTH, buffer, this.loader(count, 0)));
+			assertEquals(0, cache.size());
+		}
+		this.log("读取缓存命中率：{}", context.readCacheHitRate());
+	}
+	
+	@Test
+	void testRange() {
+		final TorrentReadCache cache = TorrentReadCache.getInstance();
+		cache.remove(null);
+		final AtomicInteger count = new AtomicInteger();
+		final ByteBuffer buffer = ByteBuffer.allocate(TorrentPiece.SLICE_LENGTH);
+		// 部分数据：超出有效范围直接读取
+		final ToIntFunction<ByteBuffer> loader = this.loader(count, 2 * TorrentPiece.SLICE_LENGTH);
+		assertEquals(TorrentPiece.SLICE_LENGTH, cache.read(null, 0, SystemConfig.ONE_MB, 0, TorrentPiece.SLICE_LENGTH, buffer, loader));
+		buffer.clear();
+		assertEquals(-1, cache.read(null, 0, SystemConfig.ONE_MB, 2 * TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH, buffer, loader));
+		buffer.clear();
+		assertEquals(TorrentPiece.SLICE_LENGTH, cache.read(null, 0, SystemConfig.ONE_MB, TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH, buffer, loader));
+		// 部分数据只预读一次
+		assertEquals(1, count.get());
+		cache.remove(null);
+	}
+	
+	@Test
+	void testSingleFlight() throws InterruptedException {
+		final TorrentReadCache cache = TorrentReadCache.getInstance();
+		cache.remove(null);
+		final AtomicInteger count = new AtomicInteger();
+		final AtomicInteger success = new AtomicInteger();
+		final ToIntFunction<ByteBuffer> loader = buffer -> {
+			ThreadUtils.sleep(100);
+			return this.loader(count, SystemConfig.ONE_MB).applyAsInt(buffer);
+		};
+		final List<Thread> threads = new ArrayList<>();
+		for (int index = 0; index < 8; index++) {
+			final int begin = index * TorrentPiece.SLICE_LENGTH;
+			final Thread thread = new Thread(() -> {
+				final ByteBuffer buffer = ByteBuffer.allocateDirect(TorrentPiece.SLICE_LENGTH);
+				if(cache.read(null, 0, SystemConfig.ONE_MB, begin, TorrentPiece.SLICE_LENGTH, buffer, loader) == TorrentPiece.SLICE_LENGTH) {
+					success.incrementAndGet();
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// 同时没有命中只预读一次
+		assertEquals(1, count.get());
+		assertEquals(8, success.get());
+		cache.remove(null);
+	}
+
+}
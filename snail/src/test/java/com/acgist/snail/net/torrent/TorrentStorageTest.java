@@ -0,0 +1,73 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.config.DownloadConfig.StorageMode;
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.net.DownloadException;
+import com.acgist.snail.utils.FileUtils;
+import com.acgist.snail.utils.Performance;
+
+class TorrentStorageTest extends Performance {
+
+	@Test
+	void testChannel() throws DownloadException, IOException {
+		this.readWrite(StorageMode.CHANNEL, TorrentChannelStorage.class);
+	}
+	
+	@Test
+	void testMapped() throws DownloadException, IOException {
+		this.readWrite(StorageMode.MAPPED, TorrentMappedStorage.class);
+	}
+	
+	private void readWrite(StorageMode mode, Class<? extends TorrentStorage> clazz) throws DownloadException, IOException {
+		final StorageMode oldMode = DownloadConfig.getStorage();
+		final String path = FileUtils.file(FileUtils.tempDir(), "snail.storage." + mode.name().toLowerCase());
+		FileUtils.delete(path);
+		// 跨越映射区域
+		final long fileSize = TorrentMappedStorage.REGION_SIZE + SystemConfig.ONE_MB;
+		final byte[] bytes = new byte[SystemConfig.ONE_MB];
+		new Random().nextBytes(bytes);
+		final long position = TorrentMappedStorage.REGION_SIZE - bytes.length / 2;
+		DownloadConfig.setStorage(mode);
+		try (final TorrentStorage storage = TorrentStorage.newInstance(path, fileSize)) {
+			assertEquals(clazz, storage.getClass());
+			assertEquals(0, storage.size());
+			// 没有写入数据
+			assertEquals(0, storage.read(ByteBuffer.allocate(bytes.length), position));
+			assertEquals(bytes.length, storage.write(ByteBuffer.wrap(bytes), position));
+			final ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+			assertEquals(bytes.length, storage.read(buffer, position));
+			assertArrayEquals(bytes, buffer.array());
+			// 合并写入
+			final int half = bytes.length / 2;
+			final ByteBuffer[] buffers = new ByteBuffer[] {
+				ByteBuffer.wrap(bytes, half, bytes.length - half),
+				ByteBuffer.wrap(bytes, 0, half)
+			};
+			assertEquals(bytes.length, storage.write(buffers, position));
+			buffer.clear();
+			assertEquals(bytes.length, storage.read(buffer, position));
+			assertArrayEquals(bytes, ByteBuffer.allocate(bytes.length).put(buffer.array(), half, bytes.length - half).put(buffer.array(), 0, half).array());
+			this.costed(1000, 8, () -> {
+				try {
+					storage.read(ByteBuffer.allocate(TorrentPiece.SLICE_LENGTH), position);
+				} catch (IOException e) {
+					LOGGER.error("读取数据异常", e);
+				}
+			});
+		} finally {
+			DownloadConfig.setStorage(oldMode);
+			FileUtils.delete(path);
+		}
+	}
+
+}
@@ -1,13 +1,17 @@
 package com.acgist.snail.net.torrent.codec;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.ByteBuffer;
+
 import org.junit.jupiter.api.Test;
 
 import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.torrent.InfoHash;
 import com.acgist.snail.utils.ArrayUtils;
+import com.acgist.snail.utils.ByteUtils;
 import com.acgist.snail.utils.Performance;
 
 class MSECipherTest extends Performance {
@@ -43,6 +47,32 @@ class MSECipherTest extends Performance {
 		assertArrayEquals(sender.encrypt(data), recver.decrypt(data));
 	}
 
+	@Test
+	void testMSECipherBuffer() throws NetException {
+		final byte[] secret = ArrayUtils.random(16);
+		final InfoHash infoHash = InfoHash.newInstance(ArrayUtils.random(20));
+		final var sender = MSECipher.newSender(secret, infoHash);
+		final var recver = MSECipher.newRecver(secret, infoHash);
+		final byte[] data = ArrayUtils.random(20);
+		// 读取模式：原地加解密
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+		buffer.put(data).flip();
+		sender.encrypt(buffer);
+		assertEquals(0, buffer.position());
+		assertEquals(data.length, buffer.limit());
+		recver.decrypt(buffer);
+		assertArrayEquals(data, ByteUtils.remainingToBytes(buffer));
+		// 写入模式：加解密以后恢复写入模式
+		final ByteBuffer heapBuffer = ByteBuffer.allocate(32);
+		heapBuffer.put(data);
+		sender.encrypt(heapBuffer);
+		assertEquals(data.length, heapBuffer.position());
+		assertEquals(heapBuffer.capacity(), heapBuffer.limit());
+		heapBuffer.flip();
+		recver.decrypt(heapBuffer);
+		assertArrayEquals(data, ByteUtils.remainingToBytes(heapBuffer));
+	}
+	
 	@Test
 	void testCosted() throws NetException {
 		final byte[] secret = ArrayUtils.random(16);
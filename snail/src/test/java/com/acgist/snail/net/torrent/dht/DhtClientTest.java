@@ -2,12 +2,16 @@ package com.acgist.snail.net.torrent.dht;
 
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 
 import com.acgist.snail.net.DownloadException;
 import com.acgist.snail.net.torrent.InfoHash;
 import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.StringUtils;
 import com.acgist.snail.utils.ThreadUtils;
 
 class DhtClientTest extends Performance {
@@ -29,9 +33,9 @@ class DhtClientTest extends Performance {
 	private static final String HASH = "5E5324691812EAA0032EA76E813CCFC4D04E7E9E";
 	
 	@Test
-	void testPing() {
+	void testPing() throws Exception {
 		final var client = DhtClient.newInstance(HOST, PORT);
-		final var node = client.ping();
+		final var node = client.ping().get(10, TimeUnit.SECONDS);
 		this.log("节点信息：{}", node);
 		assertNotNull(node);
 	}
@@ -65,6 +69,18 @@ class DhtClientTest extends Performance {
 		assertNotEquals(size, NodeContext.getInstance().nodes().size());
 	}
 	
+	@Test
+	void testLookup() throws Exception {
+		final var client = DhtClient.newInstance(HOST, PORT);
+		client.findNode(HASH);
+		ThreadUtils.sleep(1000);
+		final var lookup = DhtLookup.getPeers(StringUtils.unhex(HASH));
+		final var nodes = lookup.start().get(60, TimeUnit.SECONDS);
+		nodes.forEach(node -> this.log("最近节点：{}", node));
+		assertTrue(lookup.done());
+		assertTrue(nodes.size() <= NodeBucket.K);
+	}
+	
 	@Test
 	void testAnnouncePeer() throws DownloadException {
 		final var client = DhtClient.newInstance(HOST, PORT);
@@ -2,15 +2,19 @@ package com.acgist.snail.net.torrent.dht;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.concurrent.TimeUnit;
+
 import org.junit.jupiter.api.Test;
 
 import com.acgist.snail.config.PeerConfig.Source;
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.context.StatisticsContext;
 import com.acgist.snail.net.DownloadException;
 import com.acgist.snail.net.torrent.InfoHash;
 import com.acgist.snail.net.torrent.TorrentSession;
 import com.acgist.snail.net.torrent.peer.PeerContext;
 import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.StringUtils;
 
 class DhtLauncherTest extends Performance {
 
@@ -29,4 +33,14 @@ class DhtLauncherTest extends Performance {
 		assertTrue(PeerContext.getInstance().isNotEmpty(infoHashHex));
 	}
 	
+	@Test
+	void testLookup() throws Exception {
+		// 节点不可达：所有请求失败或者超时后结束
+		final DhtLookup lookup = DhtLookup.findNode(StringUtils.unhex("261adf9754a0eece8e2a228cda4e46102ae86629"));
+		final var nodes = lookup.start().get(SystemConfig.RECEIVE_TIMEOUT * 2, TimeUnit.SECONDS);
+		this.log("最近节点：{}", nodes);
+		assertTrue(lookup.done());
+		assertTrue(nodes.size() <= NodeBucket.K);
+	}
+	
 }
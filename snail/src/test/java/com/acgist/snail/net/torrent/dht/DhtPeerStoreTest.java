@@ -0,0 +1,101 @@
+package com.acgist.snail.net.torrent.dht;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.DhtConfig;
+import com.acgist.snail.format.BEncodeDecoder;
+import com.acgist.snail.net.PacketSizeException;
+import com.acgist.snail.net.torrent.dht.request.AnnouncePeerRequest;
+import com.acgist.snail.net.torrent.dht.request.GetPeersRequest;
+import com.acgist.snail.utils.ArrayUtils;
+import com.acgist.snail.utils.NumberUtils;
+import com.acgist.snail.utils.Performance;
+
+class DhtPeerStoreTest extends Performance {
+
+	@Test
+	void testToken() {
+		final DhtContext context = DhtContext.getInstance();
+		final byte[] token = context.token("192.168.1.100");
+		assertEquals(8, token.length);
+		assertTrue(context.verifyToken("192.168.1.100", token));
+		assertFalse(context.verifyToken("192.168.1.101", token));
+		assertFalse(context.verifyToken("192.168.1.100", null));
+	}
+	
+	@Test
+	void testPutGet() {
+		final DhtPeerStore store = DhtPeerStore.getInstance();
+		final byte[] infoHash = ArrayUtils.random(20);
+		final byte[] ip = {(byte) 192, (byte) 168, 1, 100};
+		assertTrue(store.put(infoHash, ip, 18888));
+		assertTrue(store.put(infoHash, ip, 18888));
+		var list = store.get(infoHash, false, DhtConfig.GET_PEER_SIZE);
+		assertEquals(1, list.size());
+		assertEquals(6, list.get(0).length);
+		assertEquals(18888, ((list.get(0)[4] & 0xFF) << 8) | (list.get(0)[5] & 0xFF));
+		assertEquals(0, store.get(infoHash, true, DhtConfig.GET_PEER_SIZE).size());
+		assertTrue(store.put(infoHash, new byte[16], 18888));
+		assertEquals(1, store.get(infoHash, true, DhtConfig.GET_PEER_SIZE).size());
+		assertFalse(store.put(infoHash, new byte[5], 18888));
+		for (int index = 0; index < DhtPeerStore.MAX_PEER_SIZE * 2; index++) {
+			store.put(infoHash, new byte[] {10, 0, (byte) (index >> 8), (byte) index}, 18888);
+		}
+		list = store.get(infoHash, false, Integer.MAX_VALUE);
+		assertEquals(DhtPeerStore.MAX_PEER_SIZE, list.size());
+	}
+	
+	@Test
+	void testAnnounce() throws PacketSizeException {
+		final byte[] infoHash = ArrayUtils.random(20);
+		final InetSocketAddress socketAddress = new InetSocketAddress("192.168.1.100", 18888);
+		final GetPeersRequest getPeers = GetPeersRequest.newRequest(infoHash);
+		getPeers.setSocketAddress(socketAddress);
+		final var getPeersResponse = GetPeersRequest.execute(getPeers);
+		assertTrue(getPeersResponse.hasNodes());
+		final AnnouncePeerRequest error = AnnouncePeerRequest.newRequest(ArrayUtils.random(8), infoHash);
+		error.setSocketAddress(socketAddress);
+		assertFalse(AnnouncePeerRequest.execute(error).success());
+		// 编码解码：数值类型和网络消息一致
+		final DhtRequest announce = DhtRequest.valueOf(BEncodeDecoder.newInstance(AnnouncePeerRequest.newRequest(getPeersResponse.getToken(), infoHash).toBytes()).next());
+		announce.setSocketAddress(socketAddress);
+		assertTrue(AnnouncePeerRequest.execute(announce).success());
+		final var response = GetPeersRequest.execute(getPeers);
+		assertTrue(response.hasValues());
+		assertEquals(1, response.getList(DhtConfig.KEY_VALUES).size());
+	}
+	
+	@Test
+	void testCosted() {
+		final DhtPeerStore store = DhtPeerStore.getInstance();
+		final int infoHashSize = 8192;
+		final byte[][] infoHashs = new byte[infoHashSize][];
+		for (int index = 0; index < infoHashSize; index++) {
+			infoHashs[index] = ArrayUtils.random(20);
+			for (int jndex = 0; jndex < DhtPeerStore.MAX_PEER_SIZE; jndex++) {
+				store.put(infoHashs[index], new byte[] {10, (byte) (index >> 8), (byte) index, (byte) jndex}, 18888);
+			}
+		}
+		this.log("Peer数量：{}", store.size());
+		assertTrue(store.size() >= infoHashSize * DhtPeerStore.MAX_PEER_SIZE);
+		final InetSocketAddress socketAddress = new InetSocketAddress("192.168.1.100", 18888);
+		final var random = NumberUtils.random();
+		this.costed(100000, () -> {
+			final GetPeersRequest request = GetPeersRequest.newRequest(infoHashs[random.nextInt(infoHashSize)]);
+			request.setSocketAddress(socketAddress);
+			GetPeersRequest.execute(request).toBytes();
+		});
+		this.costed(100000, 10, () -> {
+			final GetPeersRequest request = GetPeersRequest.newRequest(infoHashs[random.nextInt(infoHashSize)]);
+			request.setSocketAddress(socketAddress);
+			GetPeersRequest.execute(request).toBytes();
+		});
+	}
+	
+}
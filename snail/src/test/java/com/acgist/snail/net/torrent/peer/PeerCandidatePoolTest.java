@@ -0,0 +1,112 @@
+package com.acgist.snail.net.torrent.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.context.StatisticsContext;
+import com.acgist.snail.logger.LoggerConfig;
+import com.acgist.snail.utils.Performance;
+
+class PeerCandidatePoolTest extends Performance {
+
+	PeerSession peerSession(int port) {
+		return PeerSession.newInstance(StatisticsContext.getInstance().statistics(), "192.168.1.100", port);
+	}
+	
+	@Test
+	void testPick() {
+		final PeerCandidatePool pool = PeerCandidatePool.newInstance();
+		final PeerSession low = this.peerSession(1000);
+		final PeerSession high = this.peerSession(1001);
+		final PeerSession fast = this.peerSession(1002);
+		pool.offer(low, false);
+		pool.offer(high, true);
+		pool.offer(fast, false);
+		// 优先来源
+		assertSame(high, pool.pick());
+		pool.preference(high);
+		// 握手成功：RTT越小评分越高
+		assertSame(high, pool.pick());
+		pool.handshake(high, true, 1000);
+		assertSame(low, pool.pick());
+		pool.handshake(low, true, 1000);
+		assertSame(fast, pool.pick());
+		pool.handshake(fast, true, 10);
+		pool.preference(high);
+		pool.preference(low);
+		pool.preference(fast);
+		assertSame(fast, pool.pick());
+		// 握手失败
+		pool.handshake(fast, false, 0);
+		assertTrue(pool.score(fast) < pool.score(low));
+		assertSame(high, pool.pick());
+		assertSame(low, pool.pick());
+		assertSame(fast, pool.pick());
+		assertNull(pool.pick());
+	}
+	
+	@Test
+	void testDead() {
+		final PeerCandidatePool pool = PeerCandidatePool.newInstance();
+		final PeerSession dead = this.peerSession(1000);
+		final PeerSession alive = this.peerSession(1001);
+		pool.offer(dead, true);
+		pool.offer(alive, false);
+		for (int index = 0; index < 3; index++) {
+			dead.incrementFailTimes();
+		}
+		// 不可用Peer直接跳过
+		assertSame(alive, pool.pick());
+		assertNull(pool.pick());
+		pool.inferior(dead);
+		assertNull(pool.pick());
+		assertEquals(2, pool.size());
+	}
+	
+	@Test
+	void testEvict() {
+		final PeerCandidatePool pool = PeerCandidatePool.newInstance(4);
+		final List<PeerSession> list = new ArrayList<>();
+		for (int index = 0; index < 4; index++) {
+			final PeerSession peerSession = this.peerSession(1000 + index);
+			list.add(peerSession);
+			assertTrue(pool.offer(peerSession, false).isEmpty());
+		}
+		// 正在使用的Peer不会淘汰
+		assertSame(list.get(0), pool.pick());
+		// 不可用Peer优先淘汰
+		for (int index = 0; index < 3; index++) {
+			list.get(3).incrementFailTimes();
+		}
+		assertEquals(List.of(list.get(3)), pool.offer(this.peerSession(2000), false));
+		// 最久没有使用的Peer
+		assertEquals(List.of(list.get(1)), pool.offer(this.peerSession(2001), false));
+		assertEquals(4, pool.size());
+	}
+	
+	@Test
+	void testCosted() {
+		LoggerConfig.off();
+		final int size = 100000;
+		final PeerCandidatePool pool = PeerCandidatePool.newInstance();
+		final long costed = this.costed(size, () -> {
+			final PeerSession peerSession = this.peerSession((int) (Math.random() * 65535));
+			pool.offer(peerSession, false);
+			final PeerSession pick = pool.pick();
+			if(pick != null) {
+				pool.handshake(pick, true, 100);
+				pool.preference(pick);
+			}
+		});
+		this.log("添加挑选Peer（次/秒）：{}", size * 1000L / Math.max(1, costed));
+		assertTrue(pool.size() <= PeerCandidatePool.MAX_SIZE);
+	}
+	
+}
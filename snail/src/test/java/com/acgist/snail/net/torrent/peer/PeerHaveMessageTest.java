@@ -0,0 +1,117 @@
+package com.acgist.snail.net.torrent.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.PeerConfig;
+import com.acgist.snail.context.StatisticsContext;
+import com.acgist.snail.utils.NumberUtils;
+import com.acgist.snail.utils.Performance;
+
+class PeerHaveMessageTest extends Performance {
+
+	BitSet bitSet(int ... indexArray) {
+		final BitSet bitSet = new BitSet();
+		for (int index : indexArray) {
+			bitSet.set(index);
+		}
+		return bitSet;
+	}
+	
+	PeerSession peerSession(int ... indexArray) {
+		final PeerSession peerSession = PeerSession.newInstance(StatisticsContext.getInstance().statistics(), "192.168.1.100", 18888);
+		for (int index : indexArray) {
+			peerSession.piece(index);
+		}
+		return peerSession;
+	}
+	
+	@Test
+	void testHave() {
+		assertNull(PeerHaveMessage.newInstance(new BitSet()));
+		final PeerHaveMessage message = PeerHaveMessage.newInstance(this.bitSet(1, 2, 3));
+		// 共享消息
+		final ByteBuffer direct = message.message(this.peerSession(), true);
+		assertTrue(direct.isReadOnly());
+		assertEquals(3 * PeerHaveMessage.HAVE_LENGTH, direct.remaining());
+		for (int index = 1; index <= 3; index++) {
+			assertEquals(5, direct.getInt());
+			assertEquals(PeerConfig.Type.HAVE.id(), direct.get());
+			assertEquals(index, direct.getInt());
+		}
+		// 复制消息：可以加密
+		final ByteBuffer copy = message.message(this.peerSession(), false);
+		assertFalse(copy.isReadOnly());
+		assertEquals(3 * PeerHaveMessage.HAVE_LENGTH, copy.remaining());
+		assertNotSame(copy, message.message(this.peerSession(), false));
+		// Peer已经含有
+		assertNull(message.message(this.peerSession(1, 2, 3), true));
+		final ByteBuffer part = message.message(this.peerSession(1, 3), true);
+		assertEquals(PeerHaveMessage.HAVE_LENGTH, part.remaining());
+		assertEquals(5, part.getInt());
+		assertEquals(PeerConfig.Type.HAVE.id(), part.get());
+		assertEquals(2, part.getInt());
+	}
+	
+	@Test
+	void testLarge() {
+		// 数量超过Piece位图长度也不能发送Piece位图消息
+		final PeerHaveMessage message = PeerHaveMessage.newInstance(this.bitSet(0, 1, 2, 10));
+		final ByteBuffer buffer = message.message(this.peerSession(10), true);
+		assertEquals(3 * PeerHaveMessage.HAVE_LENGTH, buffer.remaining());
+		while(buffer.hasRemaining()) {
+			assertEquals(5, buffer.getInt());
+			assertEquals(PeerConfig.Type.HAVE.id(), buffer.get());
+			assertTrue(buffer.getInt() < 3);
+		}
+		assertNull(message.message(this.peerSession(0, 1, 2, 10), true));
+	}
+	
+	@Test
+	void testCosted() {
+		final int peerSize = 200;
+		final int[] indexArray = new int[64];
+		for (int index = 0; index < indexArray.length; index++) {
+			indexArray[index] = index * 100;
+		}
+		final BitSet haves = this.bitSet(indexArray);
+		final PeerSession peerSession = this.peerSession();
+		// 每个Peer单独编码
+		long costed = this.costed(1000, () -> {
+			for (int peer = 0; peer < peerSize; peer++) {
+				int pos = 0;
+				final byte[] bytes = new byte[PeerHaveMessage.HAVE_LENGTH * indexArray.length];
+				for (Integer index : indexArray) {
+					if(!peerSession.hasPiece(index)) {
+						final ByteBuffer message = ByteBuffer.allocate(PeerHaveMessage.HAVE_LENGTH);
+						message.putInt(5);
+						message.put(PeerConfig.Type.HAVE.id());
+						message.put(NumberUtils.intToBytes(index));
+						System.arraycopy(message.array(), 0, bytes, pos, PeerHaveMessage.HAVE_LENGTH);
+						pos += PeerHaveMessage.HAVE_LENGTH;
+					}
+				}
+				ByteBuffer.allocate(pos).put(bytes, 0, pos);
+			}
+		});
+		this.log("单独编码：{}", costed);
+		// 共享编码
+		costed = this.costed(1000, () -> {
+			final PeerHaveMessage message = PeerHaveMessage.newInstance(haves);
+			for (int peer = 0; peer < peerSize; peer++) {
+				message.message(peerSession, true);
+			}
+		});
+		this.log("共享编码：{}", costed);
+		assertEquals(indexArray.length * PeerHaveMessage.HAVE_LENGTH, PeerHaveMessage.newInstance(haves).message(peerSession, true).remaining());
+	}
+	
+}
@@ -0,0 +1,98 @@
+package com.acgist.snail.net.torrent.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.net.torrent.TorrentPiece;
+import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.ThreadUtils;
+
+class PeerRequestQueueTest extends Performance {
+
+	@Test
+	void testRequest() {
+		final PeerRequestQueue queue = new PeerRequestQueue(PeerRequestQueue.MAX_DEPTH);
+		assertEquals(PeerRequestQueue.MIN_DEPTH, queue.depth());
+		queue.request(1, 0);
+		queue.request(1, TorrentPiece.SLICE_LENGTH);
+		queue.request(2, 0);
+		assertEquals(3, queue.size());
+		assertEquals(3, queue.maxSize());
+		assertFalse(queue.response(3, 0, TorrentPiece.SLICE_LENGTH));
+		assertTrue(queue.response(1, 0, TorrentPiece.SLICE_LENGTH));
+		assertFalse(queue.response(1, 0, TorrentPiece.SLICE_LENGTH));
+		assertEquals(2, queue.size());
+		queue.remove(1);
+		assertEquals(1, queue.size());
+		ThreadUtils.sleep(10);
+		final Set<Integer> indexes = queue.timeout(1);
+		assertEquals(Set.of(2), indexes);
+		assertTrue(queue.timeout(60000).isEmpty());
+	}
+	
+	@Test
+	void testCancel() {
+		final PeerRequestQueue queue = new PeerRequestQueue(PeerRequestQueue.MAX_DEPTH);
+		final TorrentPiece piece = TorrentPiece.newInstance(4 * TorrentPiece.SLICE_LENGTH, 1, 0, 4 * TorrentPiece.SLICE_LENGTH, null, false);
+		for (int index = 0; index < 3; index++) {
+			final int begin = piece.position();
+			final int length = piece.length();
+			assertEquals(TorrentPiece.SLICE_LENGTH, length);
+			queue.request(1, begin);
+		}
+		assertTrue(queue.contains(1));
+		// 拒绝：取消一个请求
+		assertTrue(queue.cancel(1, TorrentPiece.SLICE_LENGTH));
+		assertFalse(queue.cancel(1, TorrentPiece.SLICE_LENGTH));
+		assertEquals(2, queue.size());
+		assertTrue(piece.release(TorrentPiece.SLICE_LENGTH));
+		assertFalse(piece.release(TorrentPiece.SLICE_LENGTH));
+		assertFalse(piece.release(3 * TorrentPiece.SLICE_LENGTH));
+		// 释放的Slice优先请求
+		assertEquals(TorrentPiece.SLICE_LENGTH, piece.position());
+		assertEquals(TorrentPiece.SLICE_LENGTH, piece.length());
+		assertEquals(3 * TorrentPiece.SLICE_LENGTH, piece.position());
+		// 阻塞：取消所有请求
+		final List<int[]> requests = queue.cancel();
+		assertEquals(2, requests.size());
+		assertEquals(0, queue.size());
+		assertFalse(queue.contains(1));
+		requests.forEach(request -> assertTrue(piece.release(request[1])));
+		assertTrue(piece.hasMoreSlice());
+		final Map<String, Object> statistics = queue.statistics();
+		assertEquals(0, statistics.get(PeerRequestQueue.STATISTICS_SIZE));
+		assertEquals(3, statistics.get(PeerRequestQueue.STATISTICS_MAX_SIZE));
+		assertEquals(PeerRequestQueue.MIN_DEPTH, statistics.get(PeerRequestQueue.STATISTICS_DEPTH));
+	}
+	
+	@Test
+	void testDepth() {
+		final PeerRequestQueue queue = new PeerRequestQueue(PeerRequestQueue.UTP_MAX_DEPTH);
+		int depth = queue.depth();
+		// 模拟下载：速度没有饱和时请求深度增长
+		for (int loop = 0; loop < 4; loop++) {
+			for (int index = 0; index < depth; index++) {
+				queue.request(loop, index * TorrentPiece.SLICE_LENGTH);
+			}
+			ThreadUtils.sleep(100);
+			for (int index = 0; index < depth; index++) {
+				queue.response(loop, index * TorrentPiece.SLICE_LENGTH, TorrentPiece.SLICE_LENGTH);
+			}
+			ThreadUtils.sleep(500);
+			final int newDepth = queue.depth();
+			this.log("请求深度：{}-{}", depth, queue);
+			assertTrue(newDepth >= depth);
+			depth = newDepth;
+		}
+		assertTrue(depth > PeerRequestQueue.MIN_DEPTH);
+		assertTrue(depth <= PeerRequestQueue.UTP_MAX_DEPTH);
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.acgist.snail.net.torrent.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+
+class PeerTitForTatChokerTest extends Performance {
+
+	/**
+	 * <p>新建感兴趣的Peer连接：下载、上传指定大小</p>
+	 */
+	List<PeerConnectSession> sessions(int size) {
+		final List<PeerConnectSession> list = new ArrayList<>();
+		for (int index = 0; index < size; index++) {
+			final PeerConnectSession session = new PeerConnectSession();
+			session.peerInterested();
+			session.download((index + 1) * 1024 * 1024);
+			session.upload((size - index) * 1024 * 1024);
+			list.add(session);
+		}
+		return list;
+	}
+	
+	@Test
+	void testChoke() {
+		final PeerTitForTatChoker choker = PeerTitForTatChoker.newInstance(4, () -> 1000L);
+		final List<PeerConnectSession> sessions = this.sessions(10);
+		// 不感兴趣：不会解除阻塞
+		final PeerConnectSession notInterested = new PeerConnectSession();
+		notInterested.download(100 * 1024 * 1024);
+		sessions.add(notInterested);
+		final Set<PeerConnectSession> unchokes = choker.choke(sessions, false);
+		// 四个上传位置、一个乐观解除阻塞
+		assertEquals(5, unchokes.size());
+		assertFalse(unchokes.contains(notInterested));
+		// 下载：下载速度最快
+		for (int index = 6; index < 10; index++) {
+			assertTrue(unchokes.contains(sessions.get(index)));
+		}
+		unchokes.forEach(session -> assertEquals(200L, session.uploadQuota()));
+		// 没有空闲上传位置
+		assertFalse(choker.interested(new PeerConnectSession()));
+	}
+	
+	@Test
+	void testSeeding() {
+		final PeerTitForTatChoker choker = PeerTitForTatChoker.newInstance(4, () -> 1000L);
+		final List<PeerConnectSession> sessions = this.sessions(10);
+		final Set<PeerConnectSession> unchokes = choker.choke(sessions, true);
+		// 做种：上传速度最快
+		for (int index = 0; index < 4; index++) {
+			assertTrue(unchokes.contains(sessions.get(index)));
+		}
+	}
+	
+	@Test
+	void testOptimistic() {
+		final PeerTitForTatChoker choker = PeerTitForTatChoker.newInstance(1, () -> 0L);
+		final List<PeerConnectSession> sessions = new ArrayList<>();
+		for (int index = 0; index < 20; index++) {
+			final PeerConnectSession session = new PeerConnectSession();
+			session.peerInterested();
+			sessions.add(session);
+		}
+		final Set<PeerConnectSession> optimistics = new HashSet<>();
+		PeerConnectSession optimistic = null;
+		for (int round = 0; round < 30; round++) {
+			final Set<PeerConnectSession> unchokes = choker.choke(sessions, false);
+			assertEquals(2, unchokes.size());
+			// 没有速度：保持原来的排序
+			unchokes.remove(sessions.get(0));
+			final PeerConnectSession current = unchokes.iterator().next();
+			if(round % PeerTitForTatChoker.OPTIMISTIC_ROUND != 0) {
+				// 没有到达轮换周期：保持不变
+				assertEquals(optimistic, current);
+			}
+			optimistic = current;
+			optimistics.add(current);
+		}
+		// 乐观解除阻塞轮换
+		assertTrue(optimistics.size() > 1);
+	}
+	
+	@Test
+	void testInterested() {
+		final PeerTitForTatChoker choker = PeerTitForTatChoker.newInstance(4, () -> 1000L);
+		choker.choke(this.sessions(2), false);
+		// 两个空闲上传位置
+		final PeerConnectSession session = new PeerConnectSession();
+		assertTrue(choker.interested(session));
+		assertEquals(200L, session.uploadQuota());
+		assertTrue(choker.interested(new PeerConnectSession()));
+		assertFalse(choker.interested(new PeerConnectSession()));
+	}
+	
+}
@@ -0,0 +1,144 @@
+package com.acgist.snail.net.torrent.utp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.UtpConfig;
+import com.acgist.snail.utils.Performance;
+
+class UtpLedbatTest extends Performance {
+
+	/**
+	 * <p>模拟数据包</p>
+	 */
+	record Packet(int length, int sendTime, int time) {
+	}
+
+	/**
+	 * <p>模拟链路：发送端 -> 瓶颈队列 -> 接收端 -> 响应</p>
+	 *
+	 * @param capacity 瓶颈带宽（字节/毫秒）
+	 * @param delay 单向传播延迟（毫秒）
+	 * @param buffer 瓶颈队列大小（字节）
+	 * @param seconds 模拟时间（秒）
+	 *
+	 * @return 吞吐量（字节/毫秒）、平均排队延迟（毫秒）
+	 */
+	double[] simulate(int capacity, int delay, int buffer, int seconds) {
+		final UtpLedbat ledbat = new UtpLedbat();
+		// 两端时钟偏差
+		final int offset = 123_456_789;
+		final int length = UtpConfig.PACKET_MAX_LENGTH;
+		final int millis = seconds * 1000;
+		final int warmup = millis / 2;
+		final Deque<Packet> queue = new ArrayDeque<>();
+		final Deque<Packet> link = new ArrayDeque<>();
+		final Deque<Packet> acks = new ArrayDeque<>();
+		int inflight = 0;
+		int queueSize = 0;
+		int credit = 0;
+		long delivered = 0L;
+		long queueDelay = 0L;
+		for (int now = 0; now < millis; now++) {
+			final int nowUs = now * 1000;
+			// 响应
+			while(!acks.isEmpty() && acks.peekFirst().time() <= now) {
+				final Packet ack = acks.pollFirst();
+				ledbat.delay((ack.time() - delay) * 1000 + offset - ack.sendTime(), nowUs);
+				ledbat.ack(ack.length());
+				inflight -= ack.length();
+			}
+			// 发送
+			while(inflight == 0 || inflight + length <= ledbat.cwnd()) {
+				inflight += length;
+				if(queueSize + length > buffer) {
+					// 丢包
+					ledbat.loss();
+					inflight -= length;
+					break;
+				}
+				queue.offerLast(new Packet(length, nowUs, now));
+				queueSize += length;
+			}
+			// 瓶颈
+			credit += capacity;
+			while(!queue.isEmpty() && credit >= queue.peekFirst().length()) {
+				final Packet packet = queue.pollFirst();
+				credit -= packet.length();
+				queueSize -= packet.length();
+				link.offerLast(new Packet(packet.length(), packet.sendTime(), now + delay));
+			}
+			if(queue.isEmpty()) {
+				credit = Math.min(credit, capacity);
+			}
+			// 接收：接收时间戳 - 发送时间戳
+			while(!link.isEmpty() && link.peekFirst().time() <= now) {
+				final Packet packet = link.pollFirst();
+				if(now >= warmup) {
+					delivered += packet.length();
+				}
+				acks.offerLast(new Packet(packet.length(), packet.sendTime(), now + delay));
+			}
+			if(now >= warmup) {
+				queueDelay += queueSize / capacity;
+			}
+		}
+		final int measure = millis - warmup;
+		return new double[] { (double) delivered / measure, (double) queueDelay / measure };
+	}
+
+	@Test
+	void testSimulate() {
+		// 10Mbps（1250字节/毫秒）、RTT 50毫秒、瓶颈队列500毫秒
+		int capacity = 1250;
+		double[] result = this.simulate(capacity, 25, capacity * 500, 30);
+		this.log("吞吐量：{}-{}，排队延迟：{}", result[0], capacity, result[1]);
+		assertTrue(result[0] >= capacity * 0.9);
+		assertTrue(result[1] <= UtpLedbat.TARGET_DELAY / 1000 * 1.25);
+		// 40Mbps（5000字节/毫秒）、RTT 60毫秒：带宽延迟积远大于原来的窗口上限（64个数据包）
+		// 注意：拥塞窗口不能超过对端接收窗口（1MB）
+		capacity = 5000;
+		result = this.simulate(capacity, 30, capacity * 500, 60);
+		this.log("吞吐量：{}-{}，排队延迟：{}", result[0], capacity, result[1]);
+		assertTrue(result[0] >= capacity * 0.9);
+		assertTrue(result[1] <= UtpLedbat.TARGET_DELAY / 1000 * 1.25);
+	}
+
+	@Test
+	void testLoss() {
+		final UtpLedbat ledbat = new UtpLedbat();
+		assertEquals(UtpLedbat.INIT_CWND, ledbat.cwnd());
+		ledbat.loss();
+		assertEquals(UtpLedbat.INIT_CWND / 2, ledbat.cwnd());
+		ledbat.timeout();
+		assertEquals(UtpLedbat.MIN_CWND, ledbat.cwnd());
+		ledbat.loss();
+		assertEquals(UtpLedbat.MIN_CWND, ledbat.cwnd());
+	}
+
+	@Test
+	void testDelay() {
+		final UtpLedbat ledbat = new UtpLedbat();
+		// 时间戳溢出
+		final int base = Integer.MAX_VALUE - 1000;
+		ledbat.delay(base, 0);
+		assertEquals(0, ledbat.queueDelay());
+		for (int index = 0; index < 4; index++) {
+			ledbat.delay(base + 50_000, 1000);
+		}
+		assertEquals(50_000, ledbat.queueDelay());
+		// 排队延迟超过目标延迟：窗口减小
+		final int cwnd = ledbat.cwnd();
+		for (int index = 0; index < 4; index++) {
+			ledbat.delay(base + 200_000, 2000);
+		}
+		ledbat.ack(UtpConfig.PACKET_MAX_LENGTH);
+		assertTrue(ledbat.cwnd() < cwnd);
+	}
+
+}
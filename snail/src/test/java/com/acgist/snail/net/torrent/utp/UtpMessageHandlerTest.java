@@ -2,13 +2,23 @@ package com.acgist.snail.net.torrent.utp;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.config.UtpConfig;
+import com.acgist.snail.net.NetException;
 import com.acgist.snail.net.torrent.TorrentServer;
 import com.acgist.snail.net.torrent.peer.PeerSubMessageHandler;
+import com.acgist.snail.utils.DateUtils;
 import com.acgist.snail.utils.NetUtils;
 import com.acgist.snail.utils.Performance;
 import com.acgist.snail.utils.ThreadUtils;
@@ -36,6 +46,48 @@ class UtpMessageHandlerTest extends Performance {
 		assertTrue(connect);
 	}
 	
+	@Test
+	void testRetryReset() throws IOException, NetException {
+		try(
+			final DatagramChannel local = DatagramChannel.open();
+			final DatagramChannel remote = DatagramChannel.open();
+		) {
+			local.bind(NetUtils.buildSocketAddress("127.0.0.1", 0));
+			remote.bind(NetUtils.buildSocketAddress("127.0.0.1", 0));
+			remote.configureBlocking(false);
+			final var handler = new UtpMessageHandler((short) 100, (InetSocketAddress) remote.getLocalAddress());
+			handler.handle(local);
+			// 模拟握手
+			final ByteBuffer syn = ByteBuffer.allocate(UtpConfig.HEADER_LENGTH);
+			syn.put(UtpConfig.Type.SYN.typeVersion());
+			syn.put(UtpConfig.EXTENSION);
+			syn.putShort((short) 99);
+			syn.putInt(DateUtils.timestampUs());
+			syn.putInt(0);
+			syn.putInt(UtpConfig.WND_SIZE);
+			syn.putShort((short) 1);
+			syn.putShort((short) 0);
+			syn.flip();
+			handler.onReceive(syn, (InetSocketAddress) remote.getLocalAddress());
+			// 对端不再响应：重传次数超限重置连接
+			handler.send(ByteBuffer.wrap(new byte[100]));
+			boolean reset = false;
+			final ByteBuffer buffer = ByteBuffer.allocate(UtpConfig.PACKET_MAX_LENGTH + UtpConfig.HEADER_LENGTH);
+			final long timeout = System.currentTimeMillis() + 20L * SystemConfig.ONE_SECOND_MILLIS;
+			while(!reset && System.currentTimeMillis() < timeout) {
+				buffer.clear();
+				if(remote.receive(buffer) == null) {
+					ThreadUtils.sleep(100);
+					continue;
+				}
+				reset = buffer.get(0) == UtpConfig.Type.RESET.typeVersion();
+			}
+			assertTrue(reset);
+			assertFalse(handler.available());
+			assertThrows(NetException.class, () -> handler.send(ByteBuffer.wrap(new byte[100])));
+		}
+	}
+	
 	@Test
 	void testSelect() {
 		final UtpConfig.Type[] types = UtpConfig.Type.values();
@@ -1,11 +1,22 @@
 package com.acgist.snail.net.torrent.utp;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.config.UtpConfig;
 import com.acgist.snail.logger.LoggerConfig;
+import com.acgist.snail.net.codec.IMessageDecoder;
 import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.ThreadUtils;
 
 class UtpWindowTest extends Performance {
 	
@@ -14,7 +25,7 @@ class UtpWindowTest extends Performance {
 			window.build();
 		}
 		final short seqnr = window.build().getSeqnr();
-		window.ack(seqnr, 100);
+		window.ack(seqnr, 0, 100, null);
 	}
 	
 	@Test
@@ -23,5 +34,107 @@ class UtpWindowTest extends Performance {
 		final UtpWindow window = UtpWindow.newSendInstance();
 		assertDoesNotThrow(() -> this.costed(100000, () -> this.ack(window)));
 	}
+	
+	/**
+	 * <p>发送数据：模拟发送更新发送次数</p>
+	 */
+	void send(UtpWindow window, int size) {
+		for (int index = 0; index < size; index++) {
+			window.build(new byte[100]).updateGetTimestamp();
+		}
+	}
+	
+	@Test
+	void testSack() {
+		final UtpWindow recvWindow = UtpWindow.newRecvInstance(new IMessageDecoder<ByteBuffer>() {});
+		recvWindow.connect(0, (short) 0);
+		assertNull(recvWindow.sack());
+		// 收到1、3、4、5：丢失2
+		for (short seqnr : new short[] { 1, 3, 4, 5 }) {
+			recvWindow.receive(0, seqnr, ByteBuffer.wrap(new byte[100]));
+		}
+		assertEquals(1, recvWindow.seqnr());
+		final byte[] sack = recvWindow.sack();
+		assertArrayEquals(new byte[] { 0b111, 0, 0, 0 }, sack);
+		final UtpWindow sendWindow = UtpWindow.newSendInstance();
+		this.send(sendWindow, 10);
+		List<UtpWindowData> list = sendWindow.ack((short) 1, 0, UtpConfig.WND_SIZE, sack);
+		assertEquals(1, list.size());
+		assertEquals(2, list.get(0).getSeqnr());
+		list.get(0).updateGetTimestamp();
+		// 已经快速重传：等待重传超时
+		list = sendWindow.ack((short) 1, 0, UtpConfig.WND_SIZE, sack);
+		assertTrue(list.isEmpty());
+		// 收到2
+		recvWindow.receive(0, (short) 2, ByteBuffer.wrap(new byte[100]));
+		assertEquals(5, recvWindow.seqnr());
+		assertNull(recvWindow.sack());
+		sendWindow.ack((short) 5, 0, UtpConfig.WND_SIZE, null);
+		sendWindow.ack((short) 10, 0, UtpConfig.WND_SIZE, null);
+		assertFalse(sendWindow.unack());
+	}
+	
+	@Test
+	void testDuplicateAck() {
+		final UtpWindow sendWindow = UtpWindow.newSendInstance();
+		this.send(sendWindow, 10);
+		assertTrue(sendWindow.ack((short) 1, 0, UtpConfig.WND_SIZE, null).isEmpty());
+		assertTrue(sendWindow.ackAdvance());
+		assertTrue(sendWindow.ack((short) 1, 0, UtpConfig.WND_SIZE, null).isEmpty());
+		// 重复响应没有推进累计确认
+		assertFalse(sendWindow.ackAdvance());
+		assertTrue(sendWindow.ack((short) 1, 0, UtpConfig.WND_SIZE, null).isEmpty());
+		final List<UtpWindowData> list = sendWindow.ack((short) 1, 0, UtpConfig.WND_SIZE, null);
+		assertEquals(1, list.size());
+		assertEquals(2, list.get(0).getSeqnr());
+	}
+	
+	@Test
+	void testFull() {
+		final UtpWindow sendWindow = UtpWindow.newSendInstance();
+		// 窗口容量：1024
+		for (int index = 0; index < 1024; index++) {
+			sendWindow.build();
+		}
+		final short seqnr = sendWindow.seqnr();
+		new Thread(() -> {
+			ThreadUtils.sleep(100);
+			sendWindow.close();
+		}).start();
+		// 没有确认的数据不能丢弃：等待关闭
+		assertNull(sendWindow.build());
+		assertEquals(seqnr, sendWindow.seqnr());
+		assertTrue(sendWindow.unack());
+	}
+	
+	@Test
+	void testCosted() {
+		LoggerConfig.off();
+		final int count = 1_000_000;
+		final byte[] data = new byte[UtpConfig.PACKET_MAX_LENGTH];
+		// 发送：每16个数据包响应一次
+		final UtpWindow sendWindow = UtpWindow.newSendInstance();
+		long costed = this.costed(count / 16, () -> {
+			short seqnr = 0;
+			for (int index = 0; index < 16; index++) {
+				seqnr = sendWindow.build(data).getSeqnr();
+			}
+			sendWindow.ack(seqnr, 0, UtpConfig.WND_SIZE, null);
+		});
+		this.log("发送数据包（个/秒）：{}", count * 1000L / Math.max(1, costed));
+		// 接收：每两个数据包乱序一次
+		final UtpWindow recvWindow = UtpWindow.newRecvInstance(new IMessageDecoder<ByteBuffer>() {});
+		recvWindow.connect(0, (short) 0);
+		final ByteBuffer buffer = ByteBuffer.wrap(data);
+		costed = this.costed(count / 2, () -> {
+			final short seqnr = recvWindow.seqnr();
+			buffer.clear();
+			recvWindow.receive(0, (short) (seqnr + 2), buffer);
+			buffer.clear();
+			recvWindow.receive(0, (short) (seqnr + 1), buffer);
+		});
+		this.log("接收数据包（个/秒）：{}", count * 1000L / Math.max(1, costed));
+		assertEquals((short) count, recvWindow.seqnr());
+	}
 
 }
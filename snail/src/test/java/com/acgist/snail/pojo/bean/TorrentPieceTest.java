@@ -7,6 +7,8 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.ByteBuffer;
+
 import org.junit.jupiter.api.Test;
 
 import com.acgist.snail.net.torrent.TorrentPiece;
@@ -34,6 +36,23 @@ class TorrentPieceTest extends Performance {
 		assertTrue(piece.verify());
 	}
 	
+	@Test
+	void testWriteBuffer() {
+		final int pieceLength = 1024;
+		final int begin = 10;
+		final int end = 20;
+		final var piece = TorrentPiece.newInstance(pieceLength, 0, begin, end, null, false);
+		final byte[] bytes = new byte[end - begin + 2];
+		for (int index = 0; index < bytes.length; index++) {
+			bytes[index] = (byte) (index + begin - 1);
+		}
+		// 消息切片：忽略首尾数据
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, end - begin);
+		assertTrue(piece.write(begin, buffer));
+		assertFalse(buffer.hasRemaining());
+		assertArrayEquals(new byte[] {10, 11, 12, 13, 14, 15, 16, 17, 18, 19}, piece.read(0, 20));
+	}
+	
 	@Test
 	void testRead() {
 		final int pieceLength = 1024;
@@ -53,6 +72,28 @@ class TorrentPieceTest extends Performance {
 		assertNull(piece.read(20, 10));
 	}
 
+	@Test
+	void testReadBuffer() {
+		final int pieceLength = 1024;
+		final int begin = 10;
+		final int end = 20;
+		final var piece = TorrentPiece.newInstance(pieceLength, 0, begin, end, null, false);
+		final byte[] bytes = new byte[end - begin];
+		for (int index = begin; index < end; index++) {
+			bytes[index - begin] = (byte) index;
+		}
+		piece.write(begin, bytes);
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(pieceLength);
+		assertEquals(2, piece.read(11, 2, buffer));
+		assertEquals(2, piece.read(0, 12, buffer));
+		assertEquals(-1, piece.read(0, 10, buffer));
+		assertEquals(-1, piece.read(20, 10, buffer));
+		buffer.flip();
+		final byte[] value = new byte[buffer.remaining()];
+		buffer.get(value);
+		assertArrayEquals(new byte[] {11, 12, 10, 11}, value);
+	}
+	
 	@Test
 	void testCosted() {
 		final int pieceLength = 1024;
@@ -65,6 +106,8 @@ class TorrentPieceTest extends Performance {
 		}
 		assertDoesNotThrow(() -> this.costed(100000, () -> piece.write(begin, bytes)));
 		assertDoesNotThrow(() -> this.costed(100000, () -> piece.read(0, 20)));
+		final ByteBuffer buffer = ByteBuffer.allocate(pieceLength);
+		assertDoesNotThrow(() -> this.costed(100000, () -> piece.read(0, 20, buffer.clear())));
 	}
 	
 }